@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -76,14 +77,16 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
-import io.netty.handler.codec.http.DefaultHttpRequest;
-import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.multipart.Attribute;
 import io.netty.handler.codec.http.multipart.DefaultHttpDataFactory;
 import io.netty.handler.codec.http.multipart.DiskAttribute;
@@ -104,6 +107,11 @@ import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
 import io.netty.util.CharsetUtil;
 import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 import static io.netty.handler.codec.http.HttpResponseStatus.CONTINUE;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
@@ -113,6 +121,18 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
  */
 public class HttpHandler extends SimpleChannelInboundHandler<Object>
 {
+	/**
+	 * Request bodies up to this size are aggregated by the {@link SmallBodyAggregator}, larger bodies are read as they arrive
+	 */
+	static final int MAX_AGGREGATED_LENGTH;
+	/**
+	 * Request bodies larger than this are refused with a 413, either by the {@link SmallBodyAggregator} from their Content-Length or as their chunks arrive
+	 */
+	static final int MAX_BODY_LENGTH;
+	/**
+	 * Writes request bodies to the decoder or to their temporary file, which may block on the disk, away from the event loops
+	 */
+	private static final EventExecutorGroup BODY_WRITERS = new DefaultEventExecutorGroup( Runtime.getRuntime().availableProcessors(), new DefaultThreadFactory( "http-body", true ) );
 	private static HttpDataFactory factory;
 
 	static
@@ -125,11 +145,14 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 
 		if ( minsize < 1 ) // Less then 1kb = always
 			factory = new DefaultHttpDataFactory( true );
-		if ( minsize > 102400 ) // Greater then 100mb = never
-			factory = new DefaultHttpDataFactory( false );
-		else
+		else // Bodies that aren't aggregated can be of any size, so they always spill to disk past the threshold
 			factory = new DefaultHttpDataFactory( minsize );
 
+		MAX_AGGREGATED_LENGTH = ( int ) Math.max( 0, Math.min( minsize, 102400 ) );
+
+		long maxBody = ConfigRegistry.config.getLong( "server.maxRequestBody" ).orElse( 104857600L ); // One Hundred Megabytes
+		MAX_BODY_LENGTH = ( int ) Math.max( 0, Math.min( maxBody, Integer.MAX_VALUE ) );
+
 		setTempDirectory( Kernel.getPath( Kernel.PATH_CACHE ) );
 	}
 
@@ -168,6 +191,22 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 	 * Is this handler used on secure connections
 	 */
 	private final boolean ssl;
+	/**
+	 * Writes the bodies of this connection, in the order they're read
+	 */
+	private final EventExecutor bodyWriter = BODY_WRITERS.next();
+	/**
+	 * Parts of the body handed to the body writer and not yet written, the socket isn't read while there are any
+	 */
+	private int pendingBodyWrites = 0;
+	/**
+	 * Has the whole body been read and is it waiting for the body writer, before the request can be handled
+	 */
+	private boolean awaitingBody = false;
+	/**
+	 * Messages read while a request awaits its body, e.g., a pipelined request, handled once it has been
+	 */
+	private final ArrayDeque<Object> deferred = new ArrayDeque<>();
 	/**
 	 * The POST body decoder
 	 */
@@ -188,14 +227,18 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 	 * The originating HTTP request
 	 */
 	private HttpRequestWrapper request;
+	/**
+	 * Is the body of the request still being read
+	 */
+	private boolean readingContent = false;
 	/**
 	 * Has the request finished, used by {@link #exceptionCaught(ChannelHandlerContext, Throwable)}
 	 */
 	private boolean requestFinished = false;
 	/**
-	 * The raw originating Netty object
+	 * The raw originating Netty object, its body following as {@link HttpContent} unless it was aggregated
 	 */
-	private FullHttpRequest requestOrig;
+	private HttpRequest requestOrig;
 	/**
 	 * The destination HTTP response
 	 */
@@ -219,12 +262,7 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 	@Override
 	public void channelInactive( ChannelHandlerContext ctx ) throws Exception
 	{
-		if ( decoder != null )
-		{
-			decoder.cleanFiles();
-			decoder.destroy();
-			decoder = null;
-		}
+		destroyRequestData();
 
 		// Nullify references
 		handshaker = null;
@@ -232,16 +270,30 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 		requestOrig = null;
 		request = null;
 		log = null;
+		readingContent = false;
+		awaitingBody = false;
 		requestFinished = false;
+
+		Object msg;
+		while ( ( msg = deferred.poll() ) != null )
+			ReferenceCountUtil.release( msg );
 	}
 
 	@Override
 	protected void channelRead0( ChannelHandlerContext ctx, Object msg ) throws Exception
 	{
-		Timing.start( this );
+		if ( awaitingBody )
+		{
+			deferred.add( ReferenceCountUtil.retain( msg ) );
+			return;
+		}
 
-		if ( msg instanceof FullHttpRequest )
+		if ( msg instanceof HttpRequest )
 		{
+			Timing.start( this );
+			readingContent = false;
+			destroyRequestData();
+
 			if ( Foundation.getRunlevel().intValue() < Runlevel.STARTED.intValue() )
 			{
 				// Outputs a very crude raw message if we are running in a low level mode a.k.a. Startup or Reload.
@@ -263,7 +315,7 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 			}
 
 			requestFinished = false;
-			requestOrig = ( FullHttpRequest ) msg;
+			requestOrig = ( HttpRequest ) msg;
 			request = new HttpRequestWrapper( ctx.channel(), requestOrig, this, ssl, log );
 			response = request.getResponse();
 
@@ -276,7 +328,7 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 
 			log.header( "&7[&d%s&7] %s %s &9[%s]:%s&7 -> &a[%s]:%s&7", threadName, dateFormat.format( DateAndTime.millis() ), timeFormat.format( DateAndTime.millis() ), request.getIpAddress(), request.getRemotePort(), request.getLocalIpAddress(), request.getLocalPort() );
 
-			if ( HttpUtil.is100ContinueExpected( ( HttpRequest ) msg ) )
+			if ( HttpUtil.is100ContinueExpected( requestOrig ) )
 				send100Continue( ctx );
 
 			/* TODO if ( NetworkSecurity.isIpBanned( request.getIpAddress() ) )
@@ -313,7 +365,10 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 			if ( request.getMethod() != HttpMethod.GET )
 				try
 				{
-					decoder = new HttpPostRequestDecoder( factory, requestOrig );
+					if ( isFormBody() )
+						decoder = new HttpPostRequestDecoder( factory, requestOrig );
+					else
+						request.body = factory.createFileUpload( requestOrig, "body", "body", requestOrig.headers().get( HttpHeaderNames.CONTENT_TYPE, "application/octet-stream" ), "binary", HttpUtil.getCharset( requestOrig, CharsetUtil.UTF_8 ), HttpUtil.getContentLength( requestOrig, 0L ) );
 				}
 				catch ( HttpPostRequestDecoder.ErrorDataDecoderException e )
 				{
@@ -322,32 +377,50 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 					return;
 				}
 
-			request.contentSize += requestOrig.content().readableBytes();
+			readingContent = true;
+		}
 
-			if ( decoder != null )
+		if ( msg instanceof HttpContent )
+		{
+			if ( !readingContent )
+				return;
+
+			HttpContent content = ( HttpContent ) msg;
+			if ( ( long ) request.contentSize + content.content().readableBytes() > MAX_BODY_LENGTH )
 			{
-				try
-				{
-					decoder.offer( requestOrig );
-				}
-				catch ( HttpPostRequestDecoder.ErrorDataDecoderException e )
-				{
-					e.printStackTrace();
-					response.sendError( e );
-					// ctx.channel().close();
-					return;
-				}
-				catch ( IllegalArgumentException e )
+				// Whatever is left of the body is dropped as it arrives
+				readingContent = false;
+				destroyRequestData();
+				response.sendError( HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, "The request body is larger than the " + MAX_BODY_LENGTH + " bytes allowed" );
+				return;
+			}
+			request.contentSize += content.content().readableBytes();
+			boolean last = content instanceof LastHttpContent;
+
+			if ( decoder != null || request.body != null )
+			{
+				// Written off the event loop, the socket isn't read further until the writes catch up
+				HttpRequestWrapper bodyRequest = request;
+				HttpPostRequestDecoder bodyDecoder = decoder;
+				content.retain();
+				pendingBodyWrites++;
+				ctx.channel().config().setAutoRead( false );
+				bodyWriter.execute( () -> writeBody( ctx, bodyRequest, bodyDecoder, content ) );
+
+				if ( last )
 				{
-					// TODO Handle this further? maybe?
-					// java.lang.IllegalArgumentException: empty name
+					readingContent = false;
+					awaitingBody = true;
 				}
-				readHttpDataChunkByChunk();
 			}
+			else if ( last )
+			{
+				readingContent = false;
 
-			handleHttp();
+				handleHttp();
 
-			finish();
+				finish();
+			}
 		}
 		else if ( msg instanceof WebSocketFrame )
 		{
@@ -373,24 +446,158 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 			Networking.L.fine( "Received '" + request + "' over WebSocket connection '" + ctx.channel() + "'" );
 			ctx.channel().write( new TextWebSocketFrame( request.toUpperCase() ) );
 		}
-		else if ( msg instanceof DefaultHttpRequest )
-		{
-			// Do Nothing!
-		}
-		else
+		else if ( !( msg instanceof HttpRequest ) )
 			Networking.L.warning( "Received Object '" + msg.getClass() + "' and had nothing to do with it, is this a bug?" );
 	}
 
 	@Override
 	public void channelReadComplete( ChannelHandlerContext ctx ) throws Exception
 	{
-		log.flushAndClose();
+		// The request is logged once handled, not after each part of its body
+		if ( !readingContent && !awaitingBody )
+			log.flushAndClose();
 		super.channelReadComplete( ctx );
 	}
 
+	/**
+	 * Offers part of the body to the decoder or appends it to the body file, on the body writer.
+	 */
+	private void writeBody( ChannelHandlerContext ctx, HttpRequestWrapper bodyRequest, HttpPostRequestDecoder bodyDecoder, HttpContent content )
+	{
+		boolean last = content instanceof LastHttpContent;
+		Throwable failure = null;
+		try
+		{
+			if ( bodyDecoder != null )
+			{
+				try
+				{
+					// The decoder was already offered the body of an aggregated request when created
+					if ( content != bodyRequest.getOriginalRequest() )
+						bodyDecoder.offer( content );
+				}
+				catch ( IllegalArgumentException e )
+				{
+					// TODO Handle this further? maybe?
+					// java.lang.IllegalArgumentException: empty name
+				}
+				readHttpDataChunkByChunk( bodyDecoder );
+			}
+			else
+				bodyRequest.body.addContent( content.content().retain(), last );
+		}
+		catch ( Throwable t )
+		{
+			failure = t;
+		}
+		finally
+		{
+			content.release();
+		}
+
+		Throwable cause = failure;
+		ctx.channel().eventLoop().execute( () -> bodyWritten( ctx, bodyRequest, last, cause ) );
+	}
+
+	/**
+	 * Called on the event loop once the body writer is done with part of the body. Reading resumes once it's caught up, and the request is handled once its whole body was written.
+	 */
+	private void bodyWritten( ChannelHandlerContext ctx, HttpRequestWrapper bodyRequest, boolean last, Throwable failure )
+	{
+		pendingBodyWrites--;
+
+		// Ignored if the request was since dropped, after an error or because the connection closed
+		if ( bodyRequest == request && ( readingContent || awaitingBody ) )
+			try
+			{
+				if ( failure != null )
+				{
+					readingContent = false;
+					awaitingBody = false;
+					if ( failure instanceof HttpPostRequestDecoder.ErrorDataDecoderException )
+					{
+						failure.printStackTrace();
+						response.sendError( ( HttpPostRequestDecoder.ErrorDataDecoderException ) failure );
+					}
+					else
+						exceptionCaught( ctx, failure );
+				}
+				else if ( last )
+				{
+					awaitingBody = false;
+
+					handleHttp();
+
+					finish();
+				}
+			}
+			catch ( Throwable t )
+			{
+				try
+				{
+					exceptionCaught( ctx, t );
+				}
+				catch ( Throwable t2 )
+				{
+					Networking.L.severe( EnumColor.NEGATIVE + "" + EnumColor.RED + "This is an uncaught exception from the exceptionCaught() method:", t2 );
+				}
+			}
+
+		if ( !awaitingBody && log != null && bodyRequest == request && !readingContent )
+			log.flushAndClose();
+
+		// Handles what was read meanwhile, then reads on
+		Object msg;
+		while ( !awaitingBody && ( msg = deferred.poll() ) != null )
+			try
+			{
+				channelRead0( ctx, msg );
+			}
+			catch ( Throwable t )
+			{
+				ctx.fireExceptionCaught( t );
+			}
+			finally
+			{
+				ReferenceCountUtil.release( msg );
+			}
+
+		if ( pendingBodyWrites == 0 )
+			ctx.channel().config().setAutoRead( true );
+	}
+
+	/**
+	 * Deletes the decoded form and the temporary files of the previous request, if any. Done on the body writer after any part of the body still being written.
+	 */
+	private void destroyRequestData()
+	{
+		HttpPostRequestDecoder decoder = this.decoder;
+		HttpRequest requestOrig = this.requestOrig;
+		this.decoder = null;
+
+		Runnable destroy = () -> {
+			if ( decoder != null )
+			{
+				decoder.cleanFiles();
+				decoder.destroy();
+			}
+
+			if ( requestOrig != null )
+				factory.cleanRequestHttpData( requestOrig );
+		};
+
+		if ( pendingBodyWrites > 0 )
+			bodyWriter.execute( destroy );
+		else
+			destroy.run();
+	}
+
 	@Override
 	public void exceptionCaught( ChannelHandlerContext ctx, Throwable cause ) throws Exception
 	{
+		// Whatever is left of the body is dropped, the error being the response
+		readingContent = false;
+
 		try
 		{
 			if ( request == null || response == null )
@@ -1008,6 +1215,13 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 				return;
 			}
 
+			if ( isStaticFile() )
+			{
+				response.sendFile( StaticFile.get( httpRequestContext.getFilePath() ) );
+				log.log( Level.INFO, "SentFile {file=%s,total_timing=%sms}", httpRequestContext.getFilePath(), Timing.finish( this ) );
+				return;
+			}
+
 			ScriptingContext scriptingContext = WebrootScriptingContext.fromFile( webroot, httpRequestContext.getFilePath() );
 			request.getArguments().forEach( arg -> {
 				scriptingContext.addOption( arg.getKey(), arg.getValue() );
@@ -1106,6 +1320,33 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 		}
 	}
 
+	/**
+	 * Checks if the request body is a form, decoded into the post map and uploaded files.
+	 * Any other body is kept as is, to be read with {@link HttpRequestWrapper#getInputStream()}.
+	 */
+	private boolean isFormBody()
+	{
+		String contentType = requestOrig.headers().get( HttpHeaderNames.CONTENT_TYPE );
+		return contentType == null || HttpPostRequestDecoder.isMultipart( requestOrig ) || contentType.toLowerCase().startsWith( HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString() );
+	}
+
+	/**
+	 * Checks if the requested file can be sent as is, skipping the scripting factory and the render event.
+	 * Scripts, annotated files and requests with arguments an interpreter could act on, e.g., image resizing, are excluded.
+	 */
+	private boolean isStaticFile()
+	{
+		if ( request.getHttpMethod() != HttpMethod.GET && request.getHttpMethod() != HttpMethod.HEAD )
+			return false;
+		if ( httpRequestContext.getAnnotations().size() > 0 || request.getArguments().findAny().isPresent() )
+			return false;
+
+		String fileName = httpRequestContext.getFilePath().getFileName().toString().toLowerCase();
+		if ( fileName.contains( ".controller." ) )
+			return false;
+		return !ScriptingContext.getPreferredExtensions().contains( IO.getFileExtension( fileName ) );
+	}
+
 	/**
 	 * Write a directory listing to the HTTP destination
 	 *
@@ -1158,7 +1399,7 @@ public class HttpHandler extends SimpleChannelInboundHandler<Object>
 		// throw new HttpErrorException( 403, "Sorry, Directory Listing has not been implemented on this Server!" );
 	}
 
-	private void readHttpDataChunkByChunk() throws IOException
+	private void readHttpDataChunkByChunk( HttpPostRequestDecoder decoder ) throws IOException
 	{
 		try
 		{
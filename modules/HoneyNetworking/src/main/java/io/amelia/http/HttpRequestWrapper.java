@@ -11,6 +11,7 @@ package io.amelia.http;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -81,9 +82,11 @@ import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.codec.http.cookie.ServerCookieDecoder;
+import io.netty.handler.codec.http.multipart.FileUpload;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.CharsetUtil;
 
@@ -144,6 +147,10 @@ public class HttpRequestWrapper extends SessionWrapper implements SessionContext
 	 * The original Netty Http Request
 	 */
 	private final HttpRequest http;
+	/**
+	 * The body of the request, unless it was decoded as a form
+	 */
+	FileUpload body = null;
 	/**
 	 * The size of the posted content
 	 */
@@ -658,7 +665,7 @@ public class HttpRequestWrapper extends SessionWrapper implements SessionContext
 	@Override
 	public ServletInputStream getInputStream() throws IOException
 	{
-		return null;
+		return new RequestBodyInputStream( body );
 	}
 
 	@Override
@@ -828,6 +835,7 @@ public class HttpRequestWrapper extends SessionWrapper implements SessionContext
 	@Override
 	public BufferedReader getReader() throws IOException
 	{
+		return new BufferedReader( new InputStreamReader( getInputStream(), HttpUtil.getCharset( http, CharsetUtil.UTF_8 ) ) );
 	}
 
 	@Override
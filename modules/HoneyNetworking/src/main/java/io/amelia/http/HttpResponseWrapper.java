@@ -15,7 +15,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -25,6 +27,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -60,10 +63,12 @@ import io.amelia.support.Strs;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelProgressiveFuture;
 import io.netty.channel.ChannelProgressiveFutureListener;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.FullHttpResponse;
@@ -75,6 +80,7 @@ import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.stream.ChunkedNioFile;
 import io.netty.handler.stream.ChunkedStream;
 import io.netty.util.AsciiString;
 
@@ -83,6 +89,8 @@ import io.netty.util.AsciiString;
  */
 public class HttpResponseWrapper implements HttpScriptingResponse, HttpServletResponse
 {
+	private static final int CHUNK_SIZE = 8192;
+
 	final Map<AsciiString, String> annotations = new HashMap<>();
 	final Map<AsciiString, Set<String>> headers = new HashMap<>();
 	final LogEvent log;
@@ -130,6 +138,47 @@ public class HttpResponseWrapper implements HttpScriptingResponse, HttpServletRe
 		headers.computeIfAbsent( AsciiString.of( name ), key -> new HashSet<>() ).add( Integer.toString( value ) );
 	}
 
+	/**
+	 * Adds the headers shared by every response: session cookies, server and custom headers.
+	 */
+	private void addResponseHeaders( HttpHeaders headers )
+	{
+		if ( request.hasSession() )
+		{
+			Session session = request.getSession();
+
+			/**
+			 * Initiate the Session Persistence Method.
+			 * This is usually done with a cookie but we should make a param optional
+			 */
+			session.processSessionCookie( request.getRootDomain() );
+
+			session.getCookies().filter( HoneyCookie::needsUpdating ).forEach( cookie -> headers.add( HttpHeaderNames.SET_COOKIE, cookie.toString() ) );
+
+			if ( session.getSessionCookie().needsUpdating() )
+				headers.add( HttpHeaderNames.SET_COOKIE, session.getSessionCookie().toString() );
+		}
+
+		if ( locale != null )
+			headers.set( HttpHeaderNames.CONTENT_LANGUAGE, locale.toLanguageTag() );
+		// TODO @See ServletResponse#setLocale
+
+		headers.set( HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE );
+		headers.add( HttpHeaderNames.SERVER, Kernel.getDevMeta().getProductName() + " Version " + Kernel.getDevMeta().getVersionDescribe() );
+
+		headers.add( HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, request.getWebroot().getConfig().getValue( WebrootRegistry.Config.WEBROOTS_ALLOW_ORIGIN ) );
+
+		/*
+		 * We define all header keys as lowercase to support HTTP/2 requirements while also not
+		 * violating HTTP/1.x requirements.  New header names should always be lowercase.
+		 * We apologize that there is currently no way to disable this behavior.
+		 */
+
+		for ( Entry<AsciiString, Set<String>> headerEntry : this.headers.entrySet() )
+			for ( String header : headerEntry.getValue() )
+				headers.add( headerEntry.getKey().toLowerCase(), header );
+	}
+
 	@Override
 	public void close()
 	{
@@ -705,6 +754,132 @@ public class HttpResponseWrapper implements HttpScriptingResponse, HttpServletRe
 		}
 	}
 
+	/**
+	 * Sends a file as is, answering conditional and range requests. The file goes from the file system straight to the socket, or in chunks over TLS, never being copied whole into memory.
+	 */
+	void sendFile( StaticFile file ) throws IOException
+	{
+		if ( isCommitted() )
+			return;
+
+		// The content is written as is, the compressor leaves this response alone
+		HttpResponse response = new StaticFile.Response();
+		HttpHeaders headers = response.headers();
+
+		headers.set( HttpHeaderNames.ETAG, file.getETag() );
+		headers.set( HttpHeaderNames.LAST_MODIFIED, file.getLastModified() );
+		headers.set( HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES );
+		addResponseHeaders( headers );
+
+		Channel channel = request.getChannel();
+
+		if ( file.isNotModified( request.getHeader( HttpHeaderNames.IF_NONE_MATCH ), request.getHeader( HttpHeaderNames.IF_MODIFIED_SINCE ) ) )
+		{
+			stage = HttpResponseStage.WRITTEN;
+			response.setStatus( HttpResponseStatus.NOT_MODIFIED );
+			httpCode = HttpCode.getHttpCode( response.status().code() ).orElse( httpCode );
+			channel.write( response );
+			channel.writeAndFlush( LastHttpContent.EMPTY_LAST_CONTENT );
+			return;
+		}
+
+		String contentType = httpContentType.startsWith( "text/" ) ? httpContentType + "; charset=" + encoding.name() : httpContentType;
+		List<StaticFile.Range> ranges = file.getRanges( request.getHeader( HttpHeaderNames.RANGE ), request.getHeader( HttpHeaderNames.IF_RANGE ) );
+		List<Object> contents = new ArrayList<>();
+		long contentLength;
+
+		if ( ranges == null )
+		{
+			headers.set( HttpHeaderNames.CONTENT_TYPE, contentType );
+			contentLength = file.length();
+			if ( contentLength > 0 )
+				contents.add( new StaticFile.Range( 0, contentLength - 1 ) );
+		}
+		else if ( ranges.isEmpty() )
+		{
+			response.setStatus( HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE );
+			headers.set( HttpHeaderNames.CONTENT_RANGE, "bytes */" + file.length() );
+			contentLength = 0;
+		}
+		else if ( ranges.size() == 1 )
+		{
+			StaticFile.Range range = ranges.get( 0 );
+			response.setStatus( HttpResponseStatus.PARTIAL_CONTENT );
+			headers.set( HttpHeaderNames.CONTENT_TYPE, contentType );
+			headers.set( HttpHeaderNames.CONTENT_RANGE, range.getContentRange( file.length() ) );
+			contentLength = range.length();
+			contents.add( range );
+		}
+		else
+		{
+			String boundary = Long.toHexString( ThreadLocalRandom.current().nextLong() );
+			response.setStatus( HttpResponseStatus.PARTIAL_CONTENT );
+			headers.set( HttpHeaderNames.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary );
+			contentLength = 0;
+
+			for ( StaticFile.Range range : ranges )
+			{
+				byte[] partHeader = ( "\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: " + range.getContentRange( file.length() ) + "\r\n\r\n" ).getBytes( Charsets.US_ASCII );
+				contents.add( Unpooled.wrappedBuffer( partHeader ) );
+				contents.add( range );
+				contentLength += partHeader.length + range.length();
+			}
+
+			byte[] end = ( "\r\n--" + boundary + "--\r\n" ).getBytes( Charsets.US_ASCII );
+			contents.add( Unpooled.wrappedBuffer( end ) );
+			contentLength += end.length;
+		}
+
+		if ( request.getHttpMethod() == HttpMethod.HEAD )
+			contents.clear();
+
+		// The files are opened before anything is written, so a file that can't be opened still leaves the response free to send an error
+		List<FileChannel> opened = new ArrayList<>();
+		List<Object> writes = new ArrayList<>();
+		try
+		{
+			for ( Object content : contents )
+				if ( content instanceof StaticFile.Range )
+				{
+					StaticFile.Range range = ( StaticFile.Range ) content;
+					// A file region can't go through the SSL engine
+					if ( request.isSecure() )
+					{
+						FileChannel fileChannel = FileChannel.open( file.getPath(), StandardOpenOption.READ );
+						opened.add( fileChannel );
+						writes.add( new ChunkedNioFile( fileChannel, range.start, range.length(), CHUNK_SIZE ) );
+					}
+					else
+						writes.add( new DefaultFileRegion( file.getPath().toFile(), range.start, range.length() ) );
+				}
+				else
+					writes.add( content );
+		}
+		catch ( IOException e )
+		{
+			for ( FileChannel fileChannel : opened )
+				try
+				{
+					fileChannel.close();
+				}
+				catch ( IOException ce )
+				{
+					e.addSuppressed( ce );
+				}
+			throw e;
+		}
+
+		stage = HttpResponseStage.WRITTEN;
+		headers.set( HttpHeaderNames.CONTENT_LENGTH, contentLength );
+		httpCode = HttpCode.getHttpCode( response.status().code() ).orElse( httpCode );
+		channel.write( response );
+
+		for ( Object write : writes )
+			channel.write( write );
+
+		channel.writeAndFlush( LastHttpContent.EMPTY_LAST_CONTENT );
+	}
+
 	@Override
 	public void sendLoginPage()
 	{
@@ -887,44 +1062,11 @@ public class HttpResponseWrapper implements HttpScriptingResponse, HttpServletRe
 		FullHttpResponse response = new DefaultFullHttpResponse( HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf( httpCode.getCode(), httpCode.getReason() ), output );
 		HttpHeaders headers = response.headers();
 
-		if ( request.hasSession() )
-		{
-			Session session = request.getSession();
-
-			/**
-			 * Initiate the Session Persistence Method.
-			 * This is usually done with a cookie but we should make a param optional
-			 */
-			session.processSessionCookie( request.getRootDomain() );
-
-			session.getCookies().filter( HoneyCookie::needsUpdating ).forEach( cookie -> headers.add( HttpHeaderNames.SET_COOKIE, cookie.toString() ) );
-
-			if ( session.getSessionCookie().needsUpdating() )
-				headers.add( HttpHeaderNames.SET_COOKIE, session.getSessionCookie().toString() );
-		}
-
-		if ( locale != null )
-			headers.set( HttpHeaderNames.CONTENT_LANGUAGE, locale.toLanguageTag() );
-		// TODO @See ServletResponse#setLocale
-
 		// This might be a temporary measure - TODO Properly set the charset for each request.
 		headers.set( HttpHeaderNames.CONTENT_TYPE, httpContentType + "; charset=" + encoding.name() );
-
-		headers.set( HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE );
-		headers.add( HttpHeaderNames.SERVER, Kernel.getDevMeta().getProductName() + " Version " + Kernel.getDevMeta().getVersionDescribe() );
 		headers.setInt( HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes() );
 
-		headers.add( HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, request.getWebroot().getConfig().getValue( WebrootRegistry.Config.WEBROOTS_ALLOW_ORIGIN ) );
-
-		/*
-		 * We define all header keys as lowercase to support HTTP/2 requirements while also not
-		 * violating HTTP/1.x requirements.  New header names should always be lowercase.
-		 * We apologize that there is currently no way to disable this behavior.
-		 */
-
-		for ( Entry<AsciiString, Set<String>> headerEntry : this.headers.entrySet() )
-			for ( String header : headerEntry.getValue() )
-				headers.add( headerEntry.getKey().toLowerCase(), header );
+		addResponseHeaders( headers );
 
 		// Expires: Wed, 08 Apr 2015 02:32:24 GMT
 		// DateTimeFormatter formatter = DateTimeFormat.forPattern( "EE, dd-MMM-yyyy HH:mm:ss zz" );
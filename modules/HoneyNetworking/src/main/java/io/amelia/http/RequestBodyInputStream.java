@@ -0,0 +1,100 @@
+/**
+ * This software may be modified and distributed under the terms
+ * of the MIT license.  See the LICENSE file for details.
+ * <p>
+ * Copyright (c) 2019 Amelia Sara Greene <barelyaprincess@gmail.com>
+ * Copyright (c) 2019 Penoaks Publishing LLC <development@penoaks.com>
+ * <p>
+ * All Rights Reserved.
+ */
+package io.amelia.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.handler.codec.http.multipart.FileUpload;
+
+/**
+ * Reads the body of a request that wasn't decoded as a form, from memory or from the temporary file it was spilled to.
+ */
+class RequestBodyInputStream extends ServletInputStream
+{
+	private final InputStream in;
+	private boolean finished = false;
+
+	RequestBodyInputStream( FileUpload body ) throws IOException
+	{
+		if ( body == null || body.length() == 0 )
+			in = new ByteArrayInputStream( new byte[0] );
+		else if ( body.isInMemory() )
+			in = new ByteBufInputStream( body.getByteBuf().retainedDuplicate(), true );
+		else
+			in = Files.newInputStream( body.getFile().toPath() );
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return in.available();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	@Override
+	public boolean isFinished()
+	{
+		return finished;
+	}
+
+	/**
+	 * The body has been received in full before the request is handled, so reading never blocks on the network.
+	 */
+	@Override
+	public boolean isReady()
+	{
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		int b = in.read();
+		if ( b < 0 )
+			finished = true;
+		return b;
+	}
+
+	@Override
+	public int read( byte[] b, int off, int len ) throws IOException
+	{
+		int read = in.read( b, off, len );
+		if ( read < 0 )
+			finished = true;
+		return read;
+	}
+
+	@Override
+	public void setReadListener( ReadListener readListener )
+	{
+		try
+		{
+			if ( !finished )
+				readListener.onDataAvailable();
+			readListener.onAllDataRead();
+		}
+		catch ( IOException e )
+		{
+			readListener.onError( e );
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * This software may be modified and distributed under the terms
+ * of the MIT license.  See the LICENSE file for details.
+ * <p>
+ * Copyright (c) 2019 Amelia Sara Greene <barelyaprincess@gmail.com>
+ * Copyright (c) 2019 Penoaks Publishing LLC <development@penoaks.com>
+ * <p>
+ * All Rights Reserved.
+ */
+package io.amelia.http;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Aggregates the requests with a small body, announced by their Content-Length. Any other request is passed on as is, followed by its body as it arrives, for the {@link HttpHandler} to read
+ * without holding it in memory. A request announcing a body larger than {@link HttpHandler#MAX_BODY_LENGTH} is refused with a 413 before any of it is read.
+ */
+public class SmallBodyAggregator extends HttpObjectAggregator
+{
+	/**
+	 * Is the body of the current request being passed on
+	 */
+	private boolean streaming = false;
+
+	public SmallBodyAggregator()
+	{
+		super( HttpHandler.MAX_AGGREGATED_LENGTH );
+	}
+
+	@Override
+	public void channelRead( ChannelHandlerContext ctx, Object msg ) throws Exception
+	{
+		if ( msg instanceof HttpRequest && HttpUtil.getContentLength( ( HttpRequest ) msg, -1L ) > HttpHandler.MAX_BODY_LENGTH )
+		{
+			ReferenceCountUtil.release( msg );
+
+			FullHttpResponse response = new DefaultFullHttpResponse( HttpVersion.HTTP_1_1, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, Unpooled.EMPTY_BUFFER );
+			response.headers().setInt( HttpHeaderNames.CONTENT_LENGTH, 0 );
+			response.headers().set( HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE );
+			// The body that follows is never read, the connection is closed instead
+			ctx.writeAndFlush( response ).addListener( ChannelFutureListener.CLOSE );
+			return;
+		}
+
+		super.channelRead( ctx, msg );
+	}
+
+	@Override
+	public boolean acceptInboundMessage( Object msg ) throws Exception
+	{
+		if ( msg instanceof HttpRequest && !( msg instanceof FullHttpRequest ) )
+			streaming = HttpUtil.isTransferEncodingChunked( ( HttpRequest ) msg ) || HttpUtil.getContentLength( ( HttpRequest ) msg, 0L ) > maxContentLength();
+
+		if ( streaming )
+		{
+			if ( msg instanceof LastHttpContent )
+				streaming = false;
+			return false;
+		}
+
+		return super.acceptInboundMessage( msg );
+	}
+}
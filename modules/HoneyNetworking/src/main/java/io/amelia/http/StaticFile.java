@@ -0,0 +1,210 @@
+/**
+ * This software may be modified and distributed under the terms
+ * of the MIT license.  See the LICENSE file for details.
+ * <p>
+ * Copyright (c) 2019 Amelia Sara Greene <barelyaprincess@gmail.com>
+ * Copyright (c) 2019 Penoaks Publishing LLC <development@penoaks.com>
+ * <p>
+ * All Rights Reserved.
+ */
+package io.amelia.http;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * File sent as is, without going through the scripting factory, along with its validators. The validators are computed once per path and recomputed only when the size or modification time
+ * of the file changes, for the most recently served paths only.
+ */
+class StaticFile
+{
+	/**
+	 * Ranges a request may ask for, past which the whole file is sent instead
+	 */
+	private static final int MAX_RANGES = 16;
+	private static final Cache<Path, StaticFile> files = CacheBuilder.newBuilder().maximumSize( 4096 ).build();
+
+	static StaticFile get( Path path ) throws IOException
+	{
+		BasicFileAttributes attributes = Files.readAttributes( path, BasicFileAttributes.class );
+		long lastModified = attributes.lastModifiedTime().toMillis();
+
+		StaticFile file = files.getIfPresent( path );
+		if ( file == null || file.length != attributes.size() || file.lastModified != lastModified )
+		{
+			file = new StaticFile( path, attributes.size(), lastModified );
+			files.put( path, file );
+		}
+		return file;
+	}
+
+	private final String eTag;
+	private final long lastModified;
+	private final String lastModifiedDate;
+	private final long length;
+	private final Path path;
+
+	private StaticFile( Path path, long length, long lastModified )
+	{
+		this.path = path;
+		this.length = length;
+		this.lastModified = lastModified;
+
+		eTag = "\"" + Long.toHexString( lastModified ) + "-" + Long.toHexString( length ) + "\"";
+		lastModifiedDate = DateFormatter.format( new Date( lastModified ) );
+	}
+
+	String getETag()
+	{
+		return eTag;
+	}
+
+	String getLastModified()
+	{
+		return lastModifiedDate;
+	}
+
+	Path getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * Parses the Range header of a request.
+	 *
+	 * @param range   The Range header
+	 * @param ifRange The If-Range header, the ranges being ignored unless it matches this file
+	 *
+	 * @return The ranges to send, in the requested order; an empty list if none of them can be satisfied; or null if the whole file should be sent
+	 */
+	List<Range> getRanges( String range, String ifRange )
+	{
+		if ( range == null || !range.startsWith( "bytes=" ) || length == 0 )
+			return null;
+		if ( ifRange != null && !ifRange.equals( eTag ) && !ifRange.equals( lastModifiedDate ) )
+			return null;
+
+		String[] specs = range.substring( 6 ).split( "," );
+		if ( specs.length > MAX_RANGES )
+			return null;
+
+		List<Range> ranges = new ArrayList<>();
+		for ( String spec : specs )
+		{
+			spec = spec.trim();
+			int dash = spec.indexOf( '-' );
+			if ( dash < 0 )
+				return null;
+
+			long start;
+			long end;
+			try
+			{
+				if ( dash == 0 )
+				{
+					// Suffix range, the last n bytes
+					long suffix = Long.parseLong( spec.substring( 1 ) );
+					if ( suffix == 0 )
+						continue;
+					start = Math.max( 0, length - suffix );
+					end = length - 1;
+				}
+				else
+				{
+					start = Long.parseLong( spec.substring( 0, dash ) );
+					end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong( spec.substring( dash + 1 ) );
+					if ( end < start )
+						return null;
+					if ( start >= length )
+						continue;
+					end = Math.min( end, length - 1 );
+				}
+			}
+			catch ( NumberFormatException e )
+			{
+				return null;
+			}
+			ranges.add( new Range( start, end ) );
+		}
+		return ranges;
+	}
+
+	/**
+	 * Checks the conditional headers of a request, If-None-Match taking precedence over If-Modified-Since.
+	 */
+	boolean isNotModified( String ifNoneMatch, String ifModifiedSince )
+	{
+		if ( ifNoneMatch != null )
+		{
+			for ( String tag : ifNoneMatch.split( "," ) )
+			{
+				tag = tag.trim();
+				if ( tag.startsWith( "W/" ) )
+					tag = tag.substring( 2 );
+				if ( tag.equals( "*" ) || tag.equals( eTag ) )
+					return true;
+			}
+			return false;
+		}
+
+		if ( ifModifiedSince != null )
+		{
+			Date since = DateFormatter.parseHttpDate( ifModifiedSince );
+			// HTTP dates are precise to the second
+			return since != null && lastModified / 1000 <= since.getTime() / 1000;
+		}
+
+		return false;
+	}
+
+	long length()
+	{
+		return length;
+	}
+
+	/**
+	 * Response whose content is written as is, past the content compressor, see {@link StaticFileCompressor}
+	 */
+	static class Response extends DefaultHttpResponse
+	{
+		Response()
+		{
+			super( HttpVersion.HTTP_1_1, HttpResponseStatus.OK );
+		}
+	}
+
+	static class Range
+	{
+		final long end;
+		final long start;
+
+		Range( long start, long end )
+		{
+			this.start = start;
+			this.end = end;
+		}
+
+		String getContentRange( long length )
+		{
+			return "bytes " + start + "-" + end + "/" + length;
+		}
+
+		long length()
+		{
+			return end - start + 1;
+		}
+	}
+}
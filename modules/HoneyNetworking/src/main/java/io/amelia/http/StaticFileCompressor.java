@@ -0,0 +1,28 @@
+/**
+ * This software may be modified and distributed under the terms
+ * of the MIT license.  See the LICENSE file for details.
+ * <p>
+ * Copyright (c) 2019 Amelia Sara Greene <barelyaprincess@gmail.com>
+ * Copyright (c) 2019 Penoaks Publishing LLC <development@penoaks.com>
+ * <p>
+ * All Rights Reserved.
+ */
+package io.amelia.http;
+
+import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpResponse;
+
+/**
+ * Compresses the responses like {@link HttpContentCompressor}, except for the static files, whose content is written as file regions or raw chunks the compressor never sees and so must not
+ * announce an encoding for. The files are sent with their headers untouched, without a Content-Encoding.
+ */
+public class StaticFileCompressor extends HttpContentCompressor
+{
+	@Override
+	protected Result beginEncode( HttpResponse headers, String acceptEncoding ) throws Exception
+	{
+		if ( headers instanceof StaticFile.Response )
+			return null;
+		return super.beginEncode( headers, acceptEncoding );
+	}
+}
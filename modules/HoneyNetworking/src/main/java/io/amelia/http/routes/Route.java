@@ -12,20 +12,65 @@ package io.amelia.http.routes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 import io.amelia.http.webroot.Webroot;
 import io.amelia.net.Networking;
 import io.amelia.support.Objs;
-import io.amelia.support.Strs;
 
 public class Route
 {
+	private static final Pattern PARAMETER = Pattern.compile( "\\[([a-zA-Z0-9]+)=\\]" );
+	private static final AtomicLong ORDER = new AtomicLong();
+
+	/**
+	 * Splits a uri or a route pattern into its segments, separated by slashes and dots.
+	 *
+	 * @return The non-empty segments, or a single empty segment if there are none
+	 */
+	static String[] splitSegments( String path )
+	{
+		List<String> segments = new ArrayList<>();
+		int start = 0;
+		for ( int i = 0; i <= path.length(); i++ )
+			if ( i == path.length() || path.charAt( i ) == '/' || path.charAt( i ) == '.' )
+			{
+				if ( i > start )
+					segments.add( path.substring( start, i ) );
+				start = i + 1;
+			}
+
+		if ( segments.isEmpty() )
+			segments.add( "" );
+
+		return segments.toArray( new String[0] );
+	}
+
 	private final String id;
+	/**
+	 * Creation order of the route, ties between matching routes going to the oldest
+	 */
+	private final long order = ORDER.getAndIncrement();
 	private final Map<String, String> params = new HashMap<>();
 	private final Map<String, String> rewrites = new HashMap<>();
 	private final Webroot webroot;
+	private Pattern hostPattern;
+	private boolean hostInvalid;
+	private Pattern idPattern;
+	/**
+	 * Rewrite key of each parameter segment of the pattern, null for literal segments
+	 */
+	private String[] parameters;
+	/**
+	 * Segments of the pattern, null if the route has no pattern
+	 */
+	private String[] segments;
 
 	protected Route( String id, Webroot webroot, Map<String, String> params, Map<String, String> rewrites )
 	{
@@ -33,6 +78,69 @@ public class Route
 		this.webroot = webroot;
 		this.params.putAll( params );
 		this.rewrites.putAll( rewrites );
+
+		try
+		{
+			idPattern = Pattern.compile( id );
+		}
+		catch ( PatternSyntaxException e )
+		{
+			// Matched by name only
+			idPattern = null;
+		}
+
+		compile();
+	}
+
+	/**
+	 * Compiles the pattern and host of the route, done once instead of on every request. They're never compiled again, a
+	 * {@link RouteTable} holding the route by the segments it had when the table was built.
+	 */
+	private void compile()
+	{
+		String prop = params.get( "pattern" );
+
+		if ( prop == null )
+		{
+			// Likely a route url entry
+			segments = null;
+			parameters = null;
+		}
+		else
+		{
+			prop = prop.trim();
+			if ( prop.startsWith( "/" ) )
+			{
+				prop = prop.substring( 1 );
+				params.put( "pattern", prop );
+			}
+
+			segments = splitSegments( prop );
+			parameters = new String[segments.length];
+			for ( int i = 0; i < segments.length; i++ )
+			{
+				Matcher matcher = PARAMETER.matcher( segments[i] );
+				if ( matcher.matches() )
+					parameters[i] = matcher.group( 1 );
+			}
+		}
+
+		String host = params.get( "host" );
+		hostPattern = null;
+		hostInvalid = false;
+
+		if ( !Objs.isEmpty( host ) )
+			try
+			{
+				hostPattern = Pattern.compile( host );
+			}
+			catch ( PatternSyntaxException e )
+			{
+				hostInvalid = true;
+				Networking.L.severe( "The host of route " + this + " is not a valid RegEx, the route will never match.", e );
+			}
+		else if ( segments != null )
+			Networking.L.warning( "The Route [" + params.entrySet().stream().map( e -> e.getKey() + "=\"" + e.getValue() + "\"" ).collect( Collectors.joining( "," ) ) + "] has no host (Uses RegEx, e.g., ^example.com$) defined, it's recommended that one is set so that the rule is not used unintentionally." );
 	}
 
 	public String getId()
@@ -40,11 +148,20 @@ public class Route
 		return id;
 	}
 
+	long getOrder()
+	{
+		return order;
+	}
+
 	public String getParam( String id )
 	{
 		return params.get( id );
 	}
 
+	/**
+	 * Changing the pattern or host of a route has no effect on its matching until the routes are reloaded, which creates
+	 * the route anew.
+	 */
 	public void putParam( String id, String value )
 	{
 		params.put( id, value );
@@ -65,6 +182,16 @@ public class Route
 		return Collections.unmodifiableMap( rewrites );
 	}
 
+	String[] getParameters()
+	{
+		return parameters;
+	}
+
+	String[] getSegments()
+	{
+		return segments;
+	}
+
 	public int httpCode()
 	{
 		return Objs.isEmpty( params.get( "status" ) ) ? 301 : Integer.parseInt( params.get( "status" ) );
@@ -77,104 +204,47 @@ public class Route
 
 	public RouteResult match( String uri, String host )
 	{
-		Map<String, String> localRewrites = new HashMap<>( rewrites );
-		String prop = params.get( "pattern" );
-
-		if ( prop == null )
-			return null; // Ignore, is likely a route url entry
-
-		prop = prop.trim();
-		uri = uri.trim();
-
-		if ( prop.startsWith( "/" ) )
-		{
-			prop = prop.substring( 1 );
-			params.put( "pattern", prop );
-		}
-
-		if ( !Objs.isEmpty( params.get( "host" ) ) && !host.matches( params.get( "host" ) ) )
-		{
-			Networking.L.fine( "The host failed validation for route " + this );
+		if ( segments == null || !matchesHost( host ) )
 			return null;
-		}
-
-		if ( Objs.isEmpty( params.get( "host" ) ) )
-			Networking.L.warning( "The Route [" + params.entrySet().stream().map( e -> e.getKey() + "=\"" + e.getValue() + "\"" ).collect( Collectors.joining( "," ) ) + "] has no host (Uses RegEx, e.g., ^example.com$) defined, it's recommended that one is set so that the rule is not used unintentionally." );
-
-		String[] propsRaw = prop.split( "[./]" );
-		String[] urisRaw = uri.split( "[./]" );
-
-		ArrayList<String> props = new ArrayList<>();
-		ArrayList<String> uris = new ArrayList<>();
-
-		for ( String s : propsRaw )
-			if ( s != null && !s.isEmpty() )
-				props.add( s );
-
-		for ( String s : urisRaw )
-			if ( s != null && !s.isEmpty() )
-				uris.add( s );
 
-		if ( uris.isEmpty() )
-			uris.add( "" );
-
-		if ( props.isEmpty() )
-			props.add( "" );
-
-		if ( props.size() > uris.size() )
-		{
-			Networking.L.fine( "The length of elements in route " + this + " is LONGER then the length of elements on the uri; " + uris );
+		String[] uris = splitSegments( uri.trim() );
+		if ( uris.length != segments.length )
 			return null;
-		}
 
-		if ( props.size() < uris.size() )
-		{
-			Networking.L.fine( "The length of elements in route " + this + " is SHORTER then the length of elements on the uri; " + uris );
-			return null;
-		}
+		char[] weight = new char[uris.length];
+		for ( int i = 0; i < uris.length; i++ )
+			if ( parameters[i] != null )
+				weight[i] = 'Z';
+			else if ( segments[i].equals( uris[i] ) )
+				weight[i] = 'A';
+			else
+				return null;
 
-		String weight = Strs.repeat( "?", Math.max( props.size(), uris.size() ) );
+		return result( uris, new String( weight ) );
+	}
 
-		boolean match = true;
-		for ( int i = 0; i < Math.max( props.size(), uris.size() ); i++ )
-			try
-			{
-				Networking.L.finest( prop + " --> " + props.get( i ) + " == " + uris.get( i ) );
-
-				if ( props.get( i ).matches( "\\[([a-zA-Z0-9]+)=\\]" ) )
-				{
-					weight = Strs.replaceAt( weight, i, 'Z' );
-
-					String key = props.get( i ).replaceAll( "[\\[\\]=]", "" );
-					String value = uris.get( i );
-
-					localRewrites.put( key, value );
-
-					// PREG MATCH
-					Networking.L.fine( "Found a PREG match for " + prop + " on route " + this );
-				}
-				else if ( props.get( i ).equals( uris.get( i ) ) )
-				{
-					weight = Strs.replaceAt( weight, i, 'A' );
-
-					Networking.L.fine( "Found a match for " + prop + " on route " + this );
-					// MATCH
-				}
-				else
-				{
-					match = false;
-					Networking.L.fine( "Found no match for " + prop + " on route " + this );
-					break;
-					// NO MATCH
-				}
-			}
-			catch ( ArrayIndexOutOfBoundsException e )
-			{
-				match = false;
-				break;
-			}
+	boolean matchesHost( String host )
+	{
+		if ( hostInvalid )
+			return false;
+		return hostPattern == null || host != null && hostPattern.matcher( host ).matches();
+	}
 
-		return match ? new RouteResult( this, weight, localRewrites ) : null;
+	boolean matchesId( String id )
+	{
+		return id.equalsIgnoreCase( this.id ) || idPattern != null && idPattern.matcher( id ).matches();
+	}
+
+	/**
+	 * Builds the result of the route matching the uri, its parameter segments added to the rewrites.
+	 */
+	RouteResult result( String[] uris, String weight )
+	{
+		Map<String, String> localRewrites = new HashMap<>( rewrites );
+		for ( int i = 0; i < parameters.length; i++ )
+			if ( parameters[i] != null )
+				localRewrites.put( parameters[i], uris[i] );
+		return new RouteResult( this, weight, localRewrites );
 	}
 
 	@Override
@@ -0,0 +1,123 @@
+/**
+ * This software may be modified and distributed under the terms
+ * of the MIT license.  See the LICENSE file for details.
+ * <p>
+ * Copyright (c) 2019 Amelia Sara Greene <barelyaprincess@gmail.com>
+ * Copyright (c) 2019 Penoaks Publishing LLC <development@penoaks.com>
+ * <p>
+ * All Rights Reserved.
+ */
+package io.amelia.http.routes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Routes compiled into a trie of their pattern segments, each segment being either a literal or a parameter edge. A search walks the segments of the uri, trying the literal edge before the
+ * parameter edge, so the first route found is the one whose literal segments come first, i.e., the lowest weight. Routes of equal weight are tried in the order they were loaded.
+ * <p>
+ * The table is never changed once built, a reload builds a new one.
+ */
+class RouteTable
+{
+	static final RouteTable EMPTY = new RouteTable( Collections.emptyList() );
+
+	private final Map<String, Route> ids = new HashMap<>();
+	private final Node root = new Node();
+	private final List<Route> routes;
+
+	RouteTable( Collection<Route> routes )
+	{
+		this.routes = routes.stream().sorted( Comparator.comparingLong( Route::getOrder ) ).collect( Collectors.toList() );
+
+		for ( Route route : this.routes )
+		{
+			ids.putIfAbsent( route.getId().toLowerCase(), route );
+
+			String[] segments = route.getSegments();
+			if ( segments == null )
+				continue;
+
+			String[] parameters = route.getParameters();
+			Node node = root;
+			for ( int i = 0; i < segments.length; i++ )
+				if ( parameters[i] == null )
+					node = node.literals.computeIfAbsent( segments[i], segment -> new Node() );
+				else
+				{
+					if ( node.parameter == null )
+						node.parameter = new Node();
+					node = node.parameter;
+				}
+			node.routes.add( route );
+		}
+	}
+
+	/**
+	 * Gets a route by id, the id being compared by name first, then as a RegEx.
+	 */
+	Route get( String id )
+	{
+		Route route = ids.get( id.toLowerCase() );
+		if ( route != null )
+			return route;
+
+		for ( Route candidate : routes )
+			if ( candidate.matchesId( id ) )
+				return candidate;
+
+		return null;
+	}
+
+	RouteResult search( String uri, String host )
+	{
+		String[] segments = Route.splitSegments( uri.trim() );
+		return search( root, segments, 0, new char[segments.length], host );
+	}
+
+	private RouteResult search( Node node, String[] segments, int depth, char[] weight, String host )
+	{
+		if ( depth == segments.length )
+		{
+			for ( Route route : node.routes )
+				if ( route.matchesHost( host ) )
+					return route.result( segments, new String( weight ) );
+			return null;
+		}
+
+		Node literal = node.literals.get( segments[depth] );
+		if ( literal != null )
+		{
+			weight[depth] = 'A';
+			RouteResult result = search( literal, segments, depth + 1, weight, host );
+			if ( result != null )
+				return result;
+		}
+
+		if ( node.parameter != null )
+		{
+			weight[depth] = 'Z';
+			return search( node.parameter, segments, depth + 1, weight, host );
+		}
+
+		return null;
+	}
+
+	int size()
+	{
+		return routes.size();
+	}
+
+	private static class Node
+	{
+		final Map<String, Node> literals = new HashMap<>();
+		final List<Route> routes = new ArrayList<>();
+		Node parameter;
+	}
+}
@@ -177,5 +177,7 @@ public class RouteWatcher extends FileWatcher
 		}
 
 		Networking.L.fine( "Finished Loading Routes from YAML file '" + IO.relPath( path ) + "'" );
+
+		parent.compile();
 	}
 }
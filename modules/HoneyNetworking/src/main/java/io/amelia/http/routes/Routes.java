@@ -10,10 +10,7 @@
 package io.amelia.http.routes;
 
 import java.nio.file.Path;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
 
@@ -23,7 +20,7 @@ import io.amelia.support.Objs;
 import io.netty.util.internal.ConcurrentSet;
 
 /**
- * Keeps track of routes
+ * Keeps track of routes, searched through a {@link RouteTable} compiled each time they're loaded
  */
 public class Routes
 {
@@ -32,6 +29,7 @@ public class Routes
 	protected final Set<Route> routes = new ConcurrentSet<>();
 	protected final Webroot webroot;
 	private RouteWatcher jsonWatcher;
+	private volatile RouteTable table = RouteTable.EMPTY;
 	private RouteWatcher yamlWatcher;
 
 	public Routes( Webroot webroot )
@@ -45,9 +43,21 @@ public class Routes
 		yamlWatcher = new RouteWatcher( this, routesYaml );
 	}
 
+	/**
+	 * Compiles the loaded routes, replacing the table used by searches.
+	 */
+	void compile()
+	{
+		table = new RouteTable( routes );
+		L.fine( String.format( "Compiled %s route(s) for webroot %s", table.size(), webroot.getWebrootId() ) );
+	}
+
+	/**
+	 * Checks the loaded routes, including those not compiled yet, for use while loading.
+	 */
 	public boolean hasRoute( String id )
 	{
-		return routes.stream().anyMatch( r -> id.equalsIgnoreCase( r.getId() ) || id.matches( r.getId() ) );
+		return routes.stream().anyMatch( r -> r.matchesId( id ) );
 	}
 
 	public Route routeUrl( @Nonnull String id )
@@ -57,7 +67,7 @@ public class Routes
 		jsonWatcher.reviveTask();
 		yamlWatcher.reviveTask();
 
-		return routes.stream().filter( r -> id.equalsIgnoreCase( r.getId() ) || id.matches( r.getId() ) ).findFirst().orElse( null );
+		return table.get( id );
 	}
 
 	public RouteResult searchRoutes( String uri, String host )
@@ -65,15 +75,11 @@ public class Routes
 		jsonWatcher.reviveTask();
 		yamlWatcher.reviveTask();
 
-		AtomicInteger keyInteger = new AtomicInteger();
-
-		Map<String, RouteResult> matches = routes.stream().map( route -> route.match( uri, host ) ).filter( Objs::isNotNull ).collect( Collectors.toMap( result -> result.getWeight() + keyInteger.getAndIncrement(), result -> result ) );
+		RouteResult result = table.search( uri, host );
 
-		if ( matches.size() > 0 )
-			return ( RouteResult ) matches.values().toArray()[0];
-		else
+		if ( result == null )
 			L.fine( String.format( "Failed to find route for... {host=%s,uri=%s}", host, uri ) );
 
-		return null;
+		return result;
 	}
 }
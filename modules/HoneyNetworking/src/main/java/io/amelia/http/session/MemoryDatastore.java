@@ -9,9 +9,6 @@
  */
 package io.amelia.http.session;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import io.amelia.lang.SessionException;
 
 public class MemoryDatastore implements SessionAdapterImpl
@@ -23,9 +20,9 @@ public class MemoryDatastore implements SessionAdapterImpl
 	}
 
 	@Override
-	public List<SessionData> getSessions() throws SessionException.Error
+	public SessionData loadSession( String sessionId ) throws SessionException.Error
 	{
-		return new ArrayList<>();
+		return null;
 	}
 
 	class MemorySessionData extends SessionData
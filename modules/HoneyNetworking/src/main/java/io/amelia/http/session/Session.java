@@ -80,6 +80,10 @@ public final class Session extends UserPermissible implements Kickable, Scriptin
 	 * We use a WeakReference so they can still be reclaimed by the GC
 	 */
 	private final WeakReferenceList<SessionWrapper> wrappers = new WeakReferenceList<>();
+	/**
+	 * The current position of this session in the registry expiry queue
+	 */
+	volatile SessionRegistry.Expiry expiry = null;
 	// Indicates if the Session has been unloaded or destroyed!
 	boolean isInvalidated = false;
 	boolean newSession = false;
@@ -183,7 +187,8 @@ public final class Session extends UserPermissible implements Kickable, Scriptin
 			UserAuthenticator.TOKEN.deleteToken( getVariable( "uuid" ), getVariable( "token" ) );
 		}
 
-		SessionRegistry.sessions.remove( this );
+		data.destroyed = true;
+		SessionRegistry.unregister( this );
 
 		for ( SessionWrapper wrap : wrappers )
 		{
@@ -275,6 +280,16 @@ public final class Session extends UserPermissible implements Kickable, Scriptin
 		return ips;
 	}
 
+	/**
+	 * Gets the IP Addresses this session was ever seen from, as opposed to {@link #getIpAddresses()}.
+	 *
+	 * @return A copy of the known IP Addresses
+	 */
+	Set<String> getKnownIpAddresses()
+	{
+		return new HashSet<>( knownIps );
+	}
+
 	@Override
 	public String getName()
 	{
@@ -392,6 +407,8 @@ public final class Session extends UserPermissible implements Kickable, Scriptin
 
 		timeout = 0;
 		data.timeout = 0;
+
+		SessionRegistry.scheduleExpiry( this );
 	}
 
 	// TODO Sessions can outlive a login.
@@ -482,6 +499,8 @@ public final class Session extends UserPermissible implements Kickable, Scriptin
 
 		if ( sessionCookie != null )
 			sessionCookie.setMaxAge( timeout );
+
+		SessionRegistry.scheduleExpiry( this );
 	}
 
 	/**
@@ -498,7 +517,8 @@ public final class Session extends UserPermissible implements Kickable, Scriptin
 
 		registerAttachment( wrapper );
 		wrappers.add( wrapper );
-		knownIps.add( wrapper.getIpAddress() );
+		if ( knownIps.add( wrapper.getIpAddress() ) )
+			SessionRegistry.registerIpAddress( this, wrapper.getIpAddress() );
 	}
 
 	public void reload() throws SessionException.Error
@@ -538,6 +558,11 @@ public final class Session extends UserPermissible implements Kickable, Scriptin
 		save( false );
 	}
 
+	/**
+	 * Queues the session to be written to its datastore with the changed variables, writes are done in the background by {@link SessionRegistry}.
+	 *
+	 * @param force Queue the session even if no variables changed
+	 */
 	public void save( boolean force ) throws SessionException.Error
 	{
 		if ( isInvalidated )
@@ -550,8 +575,9 @@ public final class Session extends UserPermissible implements Kickable, Scriptin
 
 			data.ipAddress = Joiner.on( "|" ).join( knownIps );
 
-			data.save();
+			data.markDirty( dataChangeHistory );
 			dataChangeHistory.clear();
+			SessionRegistry.scheduleSave( data );
 		}
 	}
 
@@ -640,7 +666,7 @@ public final class Session extends UserPermissible implements Kickable, Scriptin
 	{
 		SessionRegistry.L.fine( EnumColor.DARK_AQUA + "Session Unloaded `" + this + "`" );
 
-		SessionRegistry.sessions.remove( this );
+		SessionRegistry.unregister( this );
 
 		for ( SessionWrapper wrap : wrappers )
 		{
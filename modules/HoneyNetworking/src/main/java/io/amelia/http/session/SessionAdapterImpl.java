@@ -9,7 +9,9 @@
  */
 package io.amelia.http.session;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import io.amelia.lang.SessionException;
 
@@ -20,5 +22,51 @@ public interface SessionAdapterImpl
 {
 	SessionData createSession( String sessionId, SessionWrapper wrapper ) throws SessionException.Error;
 
-	List<SessionData> getSessions() throws SessionException.Error;
+	/**
+	 * Loads a saved session on the first request for it since startup.
+	 *
+	 * @param sessionId The session id
+	 *
+	 * @return The session data, or null if the datastore doesn't have it
+	 *
+	 * @throws SessionException.Error If the session couldn't be read
+	 */
+	SessionData loadSession( String sessionId ) throws SessionException.Error;
+
+	/**
+	 * Removes the expired sessions from the datastore, including those never loaded since startup.
+	 *
+	 * @param loadedSessionIds Ids of the sessions loaded in memory, whose timeout may be newer than the one saved. The backend must not lose them.
+	 *
+	 * @return The number of sessions removed
+	 *
+	 * @throws SessionException.Error If the datastore couldn't be purged
+	 */
+	default int purgeExpired( Set<String> loadedSessionIds ) throws SessionException.Error
+	{
+		return 0;
+	}
+
+	/**
+	 * Writes the sessions saved since the last flush. Backends able to write several sessions at once should override this.
+	 *
+	 * @param sessions The sessions to write
+	 *
+	 * @return The sessions that couldn't be written, to be written again with the next flush
+	 */
+	default List<SessionData> saveAll( List<SessionData> sessions )
+	{
+		List<SessionData> failed = new ArrayList<>();
+		for ( SessionData data : sessions )
+			try
+			{
+				data.save();
+			}
+			catch ( SessionException.Error e )
+			{
+				SessionRegistry.L.severe( "We had a problem saving the session '" + data.sessionId + "', changes will be written with the next flush.", e );
+				failed.add( data );
+			}
+		return failed;
+	}
 }
@@ -9,6 +9,10 @@
  */
 package io.amelia.http.session;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
 import io.amelia.data.parcel.Parcel;
 import io.amelia.data.parcel.ParcelLoader;
 import io.amelia.lang.SessionException;
@@ -21,6 +25,10 @@ import io.amelia.support.Strs;
 public abstract class SessionData
 {
 	private final SessionAdapterImpl datastore;
+	/**
+	 * Keys of the session variables changed since the last write to the datastore
+	 */
+	private final Set<String> dirtyKeys = new HashSet<>();
 	/**
 	 * Persistent session variables<br>
 	 * Session variables will live outside of the sessions's life
@@ -32,6 +40,10 @@ public abstract class SessionData
 	protected boolean stale;
 	protected long timeout;
 	protected String webroot;
+	/**
+	 * Set once the session is destroyed, so pending writes don't bring it back
+	 */
+	volatile boolean destroyed = false;
 
 	protected SessionData( SessionAdapterImpl datastore, boolean stale )
 	{
@@ -56,6 +68,42 @@ public abstract class SessionData
 
 	protected abstract void destroy() throws SessionException.Error;
 
+	protected final boolean isDestroyed()
+	{
+		return destroyed;
+	}
+
+	void markDirty( Collection<String> keys )
+	{
+		synchronized ( dirtyKeys )
+		{
+			dirtyKeys.addAll( keys );
+		}
+	}
+
+	/**
+	 * Puts back the keys taken by a write that failed, so they're written next time.
+	 */
+	protected final void restoreDirtyKeys( Collection<String> keys )
+	{
+		markDirty( keys );
+	}
+
+	/**
+	 * Takes the keys changed since the last write, the caller being about to write them.
+	 *
+	 * @return The changed keys
+	 */
+	protected final Set<String> takeDirtyKeys()
+	{
+		synchronized ( dirtyKeys )
+		{
+			Set<String> keys = new HashSet<>( dirtyKeys );
+			dirtyKeys.clear();
+			return keys;
+		}
+	}
+
 	protected abstract void reload() throws SessionException.Error;
 
 	protected abstract void save() throws SessionException.Error;
@@ -9,16 +9,23 @@
  */
 package io.amelia.http.session;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -31,7 +38,6 @@ import io.amelia.http.HoneyCookie;
 import io.amelia.http.session.adapters.FileAdapter;
 import io.amelia.http.session.adapters.SqlAdapter;
 import io.amelia.lang.SessionException;
-import io.amelia.lang.StartupException;
 import io.amelia.net.Networking;
 import io.amelia.storage.HoneyStorageProvider;
 import io.amelia.support.DateAndTime;
@@ -53,8 +59,24 @@ public class SessionRegistry
 	public static final String PATH_SESSIONS = "__sessions";
 	public final static Kernel.Logger L = Kernel.getLogger( SessionRegistry.class );
 
-	protected final static List<Session> sessions = new CopyOnWriteArrayList<>();
+	/**
+	 * Loaded sessions by session id
+	 */
+	private final static Map<String, Session> sessions = new ConcurrentHashMap<>();
+	/**
+	 * Loaded sessions by the IP addresses they were seen from
+	 */
+	private final static Map<String, Set<Session>> sessionsByIp = new ConcurrentHashMap<>();
+	/**
+	 * Sessions with a timeout, soonest to expire first
+	 */
+	private final static NavigableSet<Expiry> expiries = new ConcurrentSkipListSet<>();
+	/**
+	 * Session ids the datastore recently didn't have, so unknown or forged cookies don't each cost a datastore lookup
+	 */
+	private final static Cache<String, Boolean> unknownSessionIds = CacheBuilder.newBuilder().maximumSize( 10000 ).expireAfterWrite( 10, TimeUnit.MINUTES ).build();
 	private static SessionAdapterImpl datastore = null;
+	private static SessionWriter writer = null;
 	private static boolean isCleanupRunning = false;
 
 	static
@@ -110,34 +132,18 @@ public class SessionRegistry
 			throw new SessionException.Runtime( e );
 		}
 
-		try
-		{
-			for ( SessionData data : datastore.getSessions() )
-				try
-				{
-					sessions.add( new Session( data ) );
-				}
-				catch ( SessionException.Error e )
-				{
-					// If there is a problem with the session, make warning and destroy
-					L.warning( e.getMessage() );
-					data.destroy();
-				}
-				catch ( Throwable t )
-				{
-					t.printStackTrace();
-					data.destroy();
-				}
-		}
-		catch ( Throwable t )
-		{
-			throw new StartupException( "There was a problem initializing the Session Manager", t );
-		}
+		// Saved sessions are loaded by the first request asking for them, see startSession()
+		writer = new SessionWriter( datastore );
 
 		/*
 		 * This schedules the Session Manager with the Scheduler to run every 5 minutes (by default) to cleanup sessions.
 		 */
 		Tasks.scheduleAsyncRepeatingTask( Foundation.getApplication(), 0L, Ticks.MINUTE * ConfigRegistry.config.getValue( Networking.ConfigKeys.SESSION_CLEANUP_INTERVAL ), SessionRegistry::sessionCleanup );
+
+		/*
+		 * Writes the sessions saved since the last flush, every 5 seconds (by default).
+		 */
+		Tasks.scheduleAsyncRepeatingTask( Foundation.getApplication(), 0L, Ticks.SECOND * ConfigRegistry.config.getValue( ConfigKeys.SESSIONS_FLUSH_INTERVAL ), writer::flush );
 	}
 
 	/**
@@ -153,10 +159,154 @@ public class SessionRegistry
 	{
 		Session session = new Session( datastore.createSession( sessionIdBaker(), wrapper ) );
 		session.newSession = true;
-		sessions.add( session );
+		register( session );
+		writer.schedule( session.data );
 		return session;
 	}
 
+	/**
+	 * Queues the session data to be written to the datastore with the next flush.
+	 *
+	 * @param data The session data
+	 */
+	static void scheduleSave( SessionData data )
+	{
+		writer.schedule( data );
+	}
+
+	/**
+	 * Drops the session from the registry and its indexes, called once it's been unloaded or destroyed.
+	 */
+	static void unregister( Session session )
+	{
+		sessions.remove( session.getSessionId(), session );
+		for ( String ipAddress : session.getKnownIpAddresses() )
+			sessionsByIp.computeIfPresent( ipAddress, ( key, ipSessions ) -> {
+				ipSessions.remove( session );
+				return ipSessions.isEmpty() ? null : ipSessions;
+			} );
+
+		Expiry expiry = session.expiry;
+		session.expiry = null;
+		if ( expiry != null )
+			expiries.remove( expiry );
+	}
+
+	/**
+	 * Adds a newly seen IP Address to the session's index and destroys the sessions of that IP Address that are closest to expiring, should there now be more than allowed.
+	 *
+	 * @param session   The session
+	 * @param ipAddress The IP Address the session was just seen from
+	 */
+	static void registerIpAddress( Session session, String ipAddress )
+	{
+		if ( ipAddress == null || ipAddress.isEmpty() || sessions.get( session.getSessionId() ) != session )
+			return;
+
+		Set<Session> ipSessions = indexIpAddress( session, ipAddress );
+		int maxPerIp = ConfigRegistry.config.getValue( Networking.ConfigKeys.SESSION_MAX_PER_IP );
+		int excess = ipSessions.size() - maxPerIp;
+		if ( excess <= 0 )
+			return;
+
+		List<Session> oldest = ipSessions.stream().filter( s -> s != session ).sorted( Comparator.comparingLong( Session::getTimeout ) ).limit( excess ).collect( Collectors.toList() );
+		for ( Session s : oldest )
+			try
+			{
+				s.destroy( SessionRegistry.MAXPERIP );
+			}
+			catch ( SessionException.Error e )
+			{
+				L.severe( "SessionException: " + e.getMessage() );
+			}
+	}
+
+	/**
+	 * Requeues the session for expiry after its timeout was changed.
+	 *
+	 * @param session The session
+	 */
+	static void scheduleExpiry( Session session )
+	{
+		Expiry previous = session.expiry;
+		if ( previous != null )
+			expiries.remove( previous );
+
+		if ( session.getTimeout() > 0 && sessions.get( session.getSessionId() ) == session )
+		{
+			Expiry expiry = new Expiry( session );
+			session.expiry = expiry;
+			expiries.add( expiry );
+		}
+		else
+			session.expiry = null;
+	}
+
+	private static Set<Session> indexIpAddress( Session session, String ipAddress )
+	{
+		return sessionsByIp.compute( ipAddress, ( key, ipSessions ) -> {
+			if ( ipSessions == null )
+				ipSessions = ConcurrentHashMap.newKeySet();
+			ipSessions.add( session );
+			return ipSessions;
+		} );
+	}
+
+	/**
+	 * Loads a session saved by an earlier run.
+	 *
+	 * @param sessionId The session id
+	 *
+	 * @return The session, or null if unknown or expired
+	 */
+	private static Session loadSession( String sessionId ) throws SessionException.Error
+	{
+		if ( unknownSessionIds.getIfPresent( sessionId ) != null )
+			return null;
+
+		SessionData data = datastore.loadSession( sessionId );
+		if ( data == null )
+		{
+			unknownSessionIds.put( sessionId, Boolean.TRUE );
+			return null;
+		}
+
+		Session session;
+		try
+		{
+			session = new Session( data );
+		}
+		catch ( SessionException.Error e )
+		{
+			// If there is a problem with the session, make warning and destroy
+			L.warning( e.getMessage() );
+			data.destroyed = true;
+			data.destroy();
+			unknownSessionIds.put( sessionId, Boolean.TRUE );
+			return null;
+		}
+
+		// Another request may have loaded it first
+		Session existing = sessions.putIfAbsent( sessionId, session );
+		if ( existing != null )
+			return existing;
+
+		register( session );
+		return session;
+	}
+
+	/**
+	 * Adds the session to the registry, enforcing the sessions per IP Address limit for each IP Address it's known from.
+	 */
+	private static void register( Session session )
+	{
+		sessions.put( session.getSessionId(), session );
+		unknownSessionIds.invalidate( session.getSessionId() );
+		for ( String ipAddress : session.getKnownIpAddresses() )
+			registerIpAddress( session, ipAddress );
+		scheduleExpiry( session );
+	}
+
 	private static Backend getDefaultBackend()
 	{
 		return ConfigRegistry.config.getString( "sessions.backend" ).map( Backend::valueOf ).orElse( Backend.FILE );
@@ -209,11 +359,11 @@ public class SessionRegistry
 	 */
 	public static Stream<Session> getSessions()
 	{
-		return sessions.stream();
+		return sessions.values().stream();
 	}
 
 	/**
-	 * Retrieves a list of {@link Session}s based on the Ip Address provided.
+	 * Retrieves a list of {@link Session}s that were seen from the Ip Address provided.
 	 *
 	 * @param ipAddress The Ip Address to check for
 	 *
@@ -221,7 +371,8 @@ public class SessionRegistry
 	 */
 	public static List<Session> getSessionsByIp( String ipAddress )
 	{
-		return sessions.stream().filter( s -> s.getIpAddresses() != null && s.getIpAddresses().contains( ipAddress ) ).collect( Collectors.toList() );
+		Set<Session> ipSessions = sessionsByIp.get( ipAddress );
+		return ipSessions == null ? new ArrayList<>() : new ArrayList<>( ipSessions );
 	}
 
 	/**
@@ -234,6 +385,9 @@ public class SessionRegistry
 		return ConfigRegistry.config.getValue( Networking.ConfigKeys.SESSION_DEBUG );
 	}
 
+	/**
+	 * Destroys the expired sessions. Only the sessions due are visited, the sessions per IP Address limit is enforced as they're seen. Expired sessions never loaded since startup are then purged from the datastore.
+	 */
 	public static void sessionCleanup()
 	{
 		if ( isCleanupRunning )
@@ -242,57 +396,39 @@ public class SessionRegistry
 
 		int cleanupCount = 0;
 
-		Set<String> knownIps = new HashSet<>();
-
-		for ( Session session : sessions )
-			if ( session.getTimeout() > 0 && session.getTimeout() < DateAndTime.epoch() )
-				try
-				{
-					cleanupCount++;
-					session.destroy( SessionRegistry.EXPIRED );
-				}
-				catch ( SessionException.Error e )
-				{
-					L.severe( "SessionException: " + e.getMessage() );
-				}
-			else
-				knownIps.addAll( session.getIpAddresses() );
-
-		int maxPerIp = ConfigRegistry.config.getValue( Networking.ConfigKeys.SESSION_MAX_PER_IP );
-
-		for ( String ip : knownIps )
+		for ( Expiry expiry : expiries.headSet( Expiry.probe( DateAndTime.epoch() ) ) )
 		{
-			List<Session> sessions = getSessionsByIp( ip );
-			if ( sessions.size() > maxPerIp )
-			{
-				Map<Long, Session> sorted = new TreeMap<>();
+			expiries.remove( expiry );
 
-				for ( Session s : sessions )
-				{
-					long key = s.getTimeout();
-					while ( sorted.containsKey( key ) )
-						key++;
-					sorted.put( key, s );
-				}
+			// Skip entries replaced since by a new timeout
+			if ( expiry.session.expiry != expiry )
+				continue;
 
-				Session[] sortedArray = sorted.values().toArray( new Session[0] );
-
-				for ( int i = 0; i < sortedArray.length - maxPerIp; i++ )
-					try
-					{
-						cleanupCount++;
-						sortedArray[i].destroy( SessionRegistry.MAXPERIP );
-					}
-					catch ( SessionException.Error e )
-					{
-						L.severe( "SessionException: " + e.getMessage() );
-					}
+			try
+			{
+				cleanupCount++;
+				expiry.session.destroy( SessionRegistry.EXPIRED );
+			}
+			catch ( SessionException.Error e )
+			{
+				L.severe( "SessionException: " + e.getMessage() );
 			}
 		}
 
 		if ( cleanupCount > 0 )
 			L.info( EnumColor.DARK_AQUA + "The cleanup task recycled " + cleanupCount + " session(s)." );
 
+		try
+		{
+			int purgeCount = datastore.purgeExpired( sessions.keySet() );
+			if ( purgeCount > 0 )
+				L.info( EnumColor.DARK_AQUA + "The cleanup task purged " + purgeCount + " expired session(s) from the datastore." );
+		}
+		catch ( SessionException.Error e )
+		{
+			L.severe( "SessionException: " + e.getMessage() );
+		}
+
 		isCleanupRunning = false;
 	}
 
@@ -313,7 +449,7 @@ public class SessionRegistry
 	{
 		synchronized ( sessions )
 		{
-			for ( Session session : sessions )
+			for ( Session session : sessions.values() )
 				try
 				{
 					session.save();
@@ -325,6 +461,10 @@ public class SessionRegistry
 				}
 
 			sessions.clear();
+			sessionsByIp.clear();
+			expiries.clear();
+
+			writer.flush();
 		}
 	}
 
@@ -333,8 +473,12 @@ public class SessionRegistry
 		HoneyCookie cookie = wrapper.getServerCookie( wrapper.getWebroot().getSessionKey() ).ifAbsentMap( () -> wrapper.getServerCookie( getDefaultSessionName() ) ).orElse( null );
 		Session session = null;
 
-		if ( cookie != null )
-			session = sessions.stream().filter( s -> s != null && cookie.getValue().equals( s.getSessionId() ) ).findFirst().orElse( null );
+		if ( cookie != null && cookie.getValue() != null )
+		{
+			session = sessions.get( cookie.getValue() );
+			if ( session == null )
+				session = loadSession( cookie.getValue() );
+		}
 
 		if ( session == null )
 			session = createSession( wrapper );
@@ -367,7 +511,7 @@ public class SessionRegistry
 			sessionCleanup();
 
 			// XXX Are we sure we want to override existing sessions without saving?
-			for ( Session session : sessions )
+			for ( Session session : sessions.values() )
 				session.reload();
 		}
 	}
@@ -379,10 +523,50 @@ public class SessionRegistry
 		SQL
 	}
 
+	/**
+	 * Position of a session in the expiry queue, for the timeout it had when queued
+	 */
+	static class Expiry implements Comparable<Expiry>
+	{
+		private static final AtomicLong sequence = new AtomicLong();
+
+		static Expiry probe( long timeout )
+		{
+			return new Expiry( timeout, null, Long.MIN_VALUE );
+		}
+
+		final Session session;
+		final long timeout;
+		private final long order;
+
+		Expiry( Session session )
+		{
+			this( session.getTimeout(), session, sequence.incrementAndGet() );
+		}
+
+		private Expiry( long timeout, Session session, long order )
+		{
+			this.timeout = timeout;
+			this.session = session;
+			this.order = order;
+		}
+
+		@Override
+		public int compareTo( Expiry other )
+		{
+			int result = Long.compare( timeout, other.timeout );
+			return result == 0 ? Long.compare( order, other.order ) : result;
+		}
+	}
+
 	public static class ConfigKeys
 	{
 		public static final TypeBase SESSIONS_BASE = new TypeBase( "sessions" );
 		public static final TypeBase.TypeBoolean SESSIONS_REARM_TIMEOUT = new TypeBase.TypeBoolean( SESSIONS_BASE, "rearmTimeoutWithEachRequest", false );
+		/**
+		 * Seconds between writes of the saved sessions to the datastore
+		 */
+		public static final TypeBase.TypeInteger SESSIONS_FLUSH_INTERVAL = new TypeBase.TypeInteger( SESSIONS_BASE, "flushInterval", 5 );
 
 		public ConfigKeys()
 		{
@@ -0,0 +1,59 @@
+/**
+ * This software may be modified and distributed under the terms
+ * of the MIT license.  See the LICENSE file for details.
+ * <p>
+ * Copyright (c) 2019 Amelia Sara Greene <barelyaprincess@gmail.com>
+ * Copyright (c) 2019 Penoaks Publishing LLC <development@penoaks.com>
+ * <p>
+ * All Rights Reserved.
+ */
+package io.amelia.http.session;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind queue between the sessions and their datastore. Saving a session only queues it, each flush then writes the queued sessions once, no matter how many times they were saved since.
+ */
+class SessionWriter
+{
+	private final SessionAdapterImpl datastore;
+	private final Set<SessionData> pending = ConcurrentHashMap.newKeySet();
+
+	SessionWriter( SessionAdapterImpl datastore )
+	{
+		this.datastore = datastore;
+	}
+
+	/**
+	 * Writes the queued sessions to the datastore, skipping those destroyed since they were queued. Sessions the datastore failed to write are queued again.
+	 */
+	synchronized void flush()
+	{
+		if ( pending.isEmpty() )
+			return;
+
+		List<SessionData> batch = new ArrayList<>();
+		for ( Iterator<SessionData> iterator = pending.iterator(); iterator.hasNext(); )
+		{
+			SessionData data = iterator.next();
+			iterator.remove();
+			if ( !data.destroyed )
+				batch.add( data );
+		}
+
+		List<SessionData> failed = batch.isEmpty() ? batch : datastore.saveAll( batch );
+		pending.addAll( failed );
+
+		if ( SessionRegistry.isDebug() )
+			SessionRegistry.L.info( "Flushed " + ( batch.size() - failed.size() ) + " session(s) to the datastore, " + failed.size() + " to retry." );
+	}
+
+	void schedule( SessionData data )
+	{
+		pending.add( data );
+	}
+}
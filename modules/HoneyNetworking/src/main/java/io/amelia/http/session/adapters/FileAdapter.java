@@ -9,14 +9,18 @@
  */
 package io.amelia.http.session.adapters;
 
-import com.google.common.collect.Lists;
-
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import io.amelia.data.ContainerBase;
 import io.amelia.data.parcel.Parcel;
 import io.amelia.data.parcel.ParcelLoader;
 import io.amelia.foundation.Kernel;
@@ -26,13 +30,15 @@ import io.amelia.http.session.SessionRegistry;
 import io.amelia.http.session.SessionWrapper;
 import io.amelia.lang.ParcelableException;
 import io.amelia.lang.SessionException;
-import io.amelia.support.IO;
 import io.amelia.support.Objs;
-import io.amelia.support.Streams;
 import io.amelia.support.Timing;
 
+/**
+ * Keeps the sessions in an append-only log within the sessions directory, see {@link FileSessionLog}.
+ */
 public class FileAdapter implements SessionAdapterImpl
 {
+	private static final String LOG_FILE = "sessions.log";
 	private static Path sessionsDirectory = null;
 
 	public static Path getSessionsDirectory()
@@ -44,74 +50,150 @@ public class FileAdapter implements SessionAdapterImpl
 		return sessionsDirectory;
 	}
 
+	private final FileSessionLog log;
+
+	public FileAdapter()
+	{
+		Timing.start( this );
+
+		try
+		{
+			log = new FileSessionLog( getSessionsDirectory().resolve( LOG_FILE ) );
+			importSessionFiles();
+		}
+		catch ( IOException e )
+		{
+			throw new SessionException.Runtime( "There was a problem opening the session log.", e );
+		}
+
+		SessionRegistry.L.info( "FileSession opened the session log in " + Timing.finish( this ) + "ms!" );
+	}
+
 	@Override
 	public SessionData createSession( String sessionId, SessionWrapper wrapper ) throws SessionException.Error
 	{
 		return new FileSessionData( sessionId, wrapper );
 	}
 
-	@Override
-	public List<SessionData> getSessions() throws SessionException.Error
+	/**
+	 * Moves the sessions saved one JSON file per session by earlier versions into the log, reading the files in parallel.
+	 */
+	private void importSessionFiles() throws IOException
 	{
-		List<SessionData> data = Lists.newArrayList();
+		List<Path> files;
+		try ( Stream<Path> stream = Files.list( getSessionsDirectory() ) )
+		{
+			files = stream.filter( file -> Files.isRegularFile( file ) && file.getFileName().toString().endsWith( ".json" ) ).collect( Collectors.toList() );
+		}
+		if ( files.isEmpty() )
+			return;
 
-		Timing.start( this );
+		List<FileSessionLog.Entry> entries = files.parallelStream().map( file -> {
+			try
+			{
+				return new FileSessionData( file ).getChanges( true );
+			}
+			catch ( SessionException.Error e )
+			{
+				SessionRegistry.L.warning( "Skipping unreadable session file `" + file + "`: " + e.getMessage() );
+				return null;
+			}
+		} ).filter( Objects::nonNull ).collect( Collectors.toList() );
+
+		log.append( entries );
+
+		for ( Path file : files )
+			Files.deleteIfExists( file );
+
+		SessionRegistry.L.info( "FileSession moved " + entries.size() + " session file(s) into the session log." );
+	}
 
+	@Override
+	public SessionData loadSession( String sessionId ) throws SessionException.Error
+	{
+		FileSessionLog.Entry entry = log.get( sessionId );
+		return entry == null ? null : new FileSessionData( entry );
+	}
+
+	@Override
+	public int purgeExpired( Set<String> loadedSessionIds ) throws SessionException.Error
+	{
 		try
 		{
-			Streams.forEachWithException( Files.list( getSessionsDirectory() ).filter( file -> Files.isRegularFile( file ) && file.getFileName().endsWith( ".json" ) ), file -> data.add( new FileSessionData( file ) ) );
+			return log.purgeExpired( loadedSessionIds );
 		}
 		catch ( IOException e )
 		{
-			// Ignorable?
-			e.printStackTrace();
+			throw new SessionException.Error( "There was an exception thrown while trying to purge the expired sessions.", e );
 		}
-
-		SessionRegistry.L.info( "FileSession loaded " + data.size() + " sessions from the backend in " + Timing.finish( this ) + "ms!" );
-
-		return data;
 	}
 
-	class FileSessionData extends SessionData
+	/**
+	 * Appends the changes of all sessions to the log at once.
+	 */
+	@Override
+	public List<SessionData> saveAll( List<SessionData> sessions )
 	{
-		Path file;
-
-		FileSessionData( Path file ) throws SessionException.Error
+		try
 		{
-			super( FileAdapter.this, true );
-			this.file = file;
-
-			readSession();
+			write( sessions );
+			return Collections.emptyList();
 		}
-
-		FileSessionData( String sessionId, SessionWrapper wrapper ) throws SessionException.Error
+		catch ( SessionException.Error e )
 		{
-			super( FileAdapter.this, false );
-			this.sessionId = sessionId;
-
-			ipAddress = wrapper.getIpAddress();
-			webroot = wrapper.getWebroot() == null ? null : wrapper.getWebroot().getWebrootId();
-
-			save();
+			// The changes taken were put back by write()
+			SessionRegistry.L.severe( "We had a problem saving " + sessions.size() + " session(s), changes will be written with the next flush.", e );
+			return new ArrayList<>( sessions );
 		}
+	}
 
-		@Override
-		protected void destroy() throws SessionException.Error
+	private void write( List<? extends SessionData> sessions ) throws SessionException.Error
+	{
+		List<FileSessionData> written = new ArrayList<>();
+		List<FileSessionLog.Entry> entries = new ArrayList<>();
+
+		// Held while the changes are taken, so a session destroyed meanwhile isn't written back after its removal
+		synchronized ( log )
 		{
+			for ( SessionData data : sessions )
+			{
+				FileSessionLog.Entry entry = ( ( FileSessionData ) data ).getChanges( false );
+				if ( entry != null )
+				{
+					written.add( ( FileSessionData ) data );
+					entries.add( entry );
+				}
+			}
+
 			try
 			{
-				Files.delete( file );
+				log.append( entries );
 			}
 			catch ( IOException e )
 			{
-				e.printStackTrace();
+				for ( int i = 0; i < written.size(); i++ )
+					written.get( i ).restoreChanges( entries.get( i ) );
+				throw new SessionException.Error( "There was an exception thrown while trying to save the session.", e );
 			}
 		}
+	}
 
-		private void readSession() throws SessionException.Error
+	class FileSessionData extends SessionData
+	{
+		FileSessionData( FileSessionLog.Entry entry ) throws SessionException.Error
 		{
-			if ( file == null || Files.notExists( file ) )
-				return;
+			super( FileAdapter.this, true );
+			sessionId = entry.sessionId;
+
+			readSession( entry );
+		}
+
+		/**
+		 * Reads a session file written by earlier versions
+		 */
+		FileSessionData( Path file ) throws SessionException.Error
+		{
+			super( FileAdapter.this, true );
 
 			try
 			{
@@ -128,12 +210,6 @@ public class FileAdapter implements SessionAdapterImpl
 				webroot = parcel.getString( "webroot" ).orElse( null );
 
 				data = parcel.getChildOrCreate( "data" );
-
-				/*if ( !parcel.getString( "data", "" ).isEmpty() )
-					data = new Gson().fromJson( parcel.getString( "data" ), new TypeToken<Map<String, String>>()
-					{
-						private static final long serialVersionUID = -1734352198651744570L;
-					}.getType() );*/
 			}
 			catch ( IOException | ParcelableException.Error e )
 			{
@@ -141,37 +217,100 @@ public class FileAdapter implements SessionAdapterImpl
 			}
 		}
 
-		@Override
-		protected void reload() throws SessionException.Error
+		FileSessionData( String sessionId, SessionWrapper wrapper ) throws SessionException.Error
 		{
-			readSession();
+			super( FileAdapter.this, false );
+			this.sessionId = sessionId;
+
+			ipAddress = wrapper.getIpAddress();
+			webroot = wrapper.getWebroot() == null ? null : wrapper.getWebroot().getWebrootId();
 		}
 
 		@Override
-		protected void save() throws SessionException.Error
+		protected void destroy() throws SessionException.Error
 		{
-			// String dataJson = new Gson().toJson( data );
-
-			if ( file == null || Files.notExists( file ) )
-				file = getSessionsDirectory().resolve( sessionId + ".json" );
+			FileSessionLog.Entry entry = new FileSessionLog.Entry( sessionId );
+			entry.destroyed = true;
 
 			try
 			{
-				Parcel parcel = Parcel.empty();
+				log.append( Collections.singletonList( entry ) );
+			}
+			catch ( IOException e )
+			{
+				throw new SessionException.Error( "There was an exception thrown while trying to destroy the session.", e );
+			}
+		}
+
+		/**
+		 * Gets the session fields and variables to write to the log.
+		 *
+		 * @param allVariables Include every variable, instead of those changed since the last write
+		 *
+		 * @return The log entry, or null if the session was destroyed
+		 */
+		FileSessionLog.Entry getChanges( boolean allVariables )
+		{
+			if ( isDestroyed() )
+				return null;
 
-				parcel.setValue( "sessionName", sessionName );
-				parcel.setValue( "sessionId", sessionId );
-				parcel.setValue( "timeout", timeout );
-				parcel.setValue( "ipAddress", ipAddress );
-				parcel.setValue( "webroot", webroot );
-				parcel.addChild( "data", data, ContainerBase.ConflictStrategy.OVERWRITE );
+			FileSessionLog.Entry entry = new FileSessionLog.Entry( sessionId );
+			entry.ipAddress = ipAddress;
+			entry.sessionName = sessionName;
+			entry.timeout = timeout;
+			entry.webroot = webroot;
 
-				IO.writeStringToPath( ParcelLoader.encodeJson( parcel ), file );
+			if ( allVariables )
+			{
+				Map<String, ?> variables = ParcelLoader.encodeMap( data );
+				for ( Map.Entry<String, ?> variable : variables.entrySet() )
+					entry.data.put( variable.getKey(), Objects.toString( variable.getValue(), null ) );
 			}
-			catch ( IOException | ParcelableException.Error e )
+			else
+				for ( String key : takeDirtyKeys() )
+					entry.data.put( key, data.getString( key ).orElse( null ) );
+
+			return entry;
+		}
+
+		private void readSession( FileSessionLog.Entry entry ) throws SessionException.Error
+		{
+			timeout = entry.timeout;
+			ipAddress = entry.ipAddress;
+			if ( entry.sessionName != null && !entry.sessionName.isEmpty() )
+				sessionName = entry.sessionName;
+			webroot = entry.webroot;
+
+			try
 			{
-				throw new SessionException.Error( "There was an exception thrown while trying to save the session.", e );
+				Parcel variables = Parcel.empty();
+				for ( Map.Entry<String, String> variable : entry.data.entrySet() )
+					variables.setValue( variable.getKey(), variable.getValue() );
+				data = variables;
+			}
+			catch ( ParcelableException.Error e )
+			{
+				throw new SessionException.Error( "There was an exception thrown while trying to read the session.", e );
 			}
 		}
+
+		@Override
+		protected void reload() throws SessionException.Error
+		{
+			FileSessionLog.Entry entry = log.get( sessionId );
+			if ( entry != null )
+				readSession( entry );
+		}
+
+		void restoreChanges( FileSessionLog.Entry entry )
+		{
+			restoreDirtyKeys( entry.data.keySet() );
+		}
+
+		@Override
+		protected void save() throws SessionException.Error
+		{
+			write( Collections.singletonList( this ) );
+		}
 	}
 }
@@ -0,0 +1,238 @@
+/**
+ * This software may be modified and distributed under the terms
+ * of the MIT license.  See the LICENSE file for details.
+ * <p>
+ * Copyright (c) 2019 Amelia Sara Greene <barelyaprincess@gmail.com>
+ * Copyright (c) 2019 Penoaks Publishing LLC <development@penoaks.com>
+ * <p>
+ * All Rights Reserved.
+ */
+package io.amelia.http.session.adapters;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.amelia.http.session.SessionRegistry;
+import io.amelia.support.DateAndTime;
+
+/**
+ * Append-only log of session changes, one JSON entry per line. An entry holds the session fields and only the variables changed since the previous entry of the session, a removed variable being
+ * written as null. The current state of every session is kept in memory; once the log holds more entries than there are sessions, it's compacted by writing that state out as a new log.
+ * <p>
+ * Opening the log still reads it whole, as the index of the sessions is built from it, but the entries are parsed in parallel and the log is only rewritten when it's due for compaction.
+ */
+class FileSessionLog
+{
+	private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+	/**
+	 * Entries appended before compacting is worth it, whatever the number of sessions
+	 */
+	private static final int MIN_COMPACTION = 1000;
+
+	private final Map<String, Entry> entries = new HashMap<>();
+	private final Path path;
+	private int appended = 0;
+	private BufferedWriter writer;
+
+	FileSessionLog( Path path ) throws IOException
+	{
+		this.path = path;
+
+		if ( Files.exists( path ) )
+		{
+			List<String> lines = Files.readAllLines( path, StandardCharsets.UTF_8 );
+
+			// Parsed in parallel, then applied in the order they were written
+			List<Entry> read = IntStream.range( 0, lines.size() ).parallel().mapToObj( i -> parse( lines.get( i ), i + 1 ) ).collect( Collectors.toList() );
+			for ( Entry entry : read )
+				apply( entry );
+			appended = lines.size();
+		}
+
+		if ( appended > Math.max( MIN_COMPACTION, entries.size() ) )
+			compact( true );
+		else
+			writer = Files.newBufferedWriter( path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+	}
+
+	private Entry parse( String line, int lineNumber )
+	{
+		if ( line.isEmpty() )
+			return null;
+		try
+		{
+			return GSON.fromJson( line, Entry.class );
+		}
+		catch ( JsonParseException e )
+		{
+			// Likely the last entry, cut short by a crash
+			SessionRegistry.L.warning( "Skipping unreadable entry on line " + lineNumber + " of the session log `" + path + "`." );
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the entries to the log and applies them to the sessions.
+	 *
+	 * @param changes The entries to write, in order
+	 */
+	synchronized void append( List<Entry> changes ) throws IOException
+	{
+		if ( changes.isEmpty() )
+			return;
+
+		for ( Entry entry : changes )
+		{
+			writer.write( GSON.toJson( entry ) );
+			writer.newLine();
+		}
+		writer.flush();
+
+		for ( Entry entry : changes )
+			apply( entry );
+		appended += changes.size();
+
+		if ( appended > Math.max( MIN_COMPACTION, entries.size() ) )
+			compact( false );
+	}
+
+	/**
+	 * Writes the removal of the expired sessions to the log.
+	 *
+	 * @param skip Ids of sessions to keep, expired or not
+	 *
+	 * @return The number of sessions removed
+	 */
+	synchronized int purgeExpired( Set<String> skip ) throws IOException
+	{
+		long now = DateAndTime.epoch();
+		List<Entry> removals = new ArrayList<>();
+		for ( Entry entry : entries.values() )
+			if ( entry.timeout > 0 && entry.timeout < now && !skip.contains( entry.sessionId ) )
+			{
+				Entry removal = new Entry( entry.sessionId );
+				removal.destroyed = true;
+				removals.add( removal );
+			}
+
+		append( removals );
+		return removals.size();
+	}
+
+	synchronized void close() throws IOException
+	{
+		writer.close();
+	}
+
+	/**
+	 * Gets the current state of a session.
+	 *
+	 * @param sessionId The session id
+	 *
+	 * @return A copy of the session state, or null if there is no such session
+	 */
+	synchronized Entry get( String sessionId )
+	{
+		Entry entry = entries.get( sessionId );
+		if ( entry == null )
+			return null;
+
+		Entry copy = new Entry( sessionId );
+		copy.merge( entry );
+		return copy;
+	}
+
+	private void apply( Entry entry )
+	{
+		if ( entry == null || entry.sessionId == null )
+			return;
+
+		if ( entry.destroyed )
+			entries.remove( entry.sessionId );
+		else
+			entries.computeIfAbsent( entry.sessionId, Entry::new ).merge( entry );
+	}
+
+	/**
+	 * Rewrites the log with a single entry per session.
+	 *
+	 * @param dropExpired Leave out expired sessions, only safe while none are loaded as they may have a newer timeout than the log
+	 */
+	private void compact( boolean dropExpired ) throws IOException
+	{
+		if ( writer != null )
+			writer.close();
+
+		if ( dropExpired )
+		{
+			long now = DateAndTime.epoch();
+			entries.values().removeIf( entry -> entry.timeout > 0 && entry.timeout < now );
+		}
+
+		Path compacted = path.resolveSibling( path.getFileName() + ".tmp" );
+		try ( BufferedWriter out = Files.newBufferedWriter( compacted, StandardCharsets.UTF_8 ) )
+		{
+			for ( Entry entry : entries.values() )
+			{
+				out.write( GSON.toJson( entry ) );
+				out.newLine();
+			}
+		}
+		Files.move( compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+		writer = Files.newBufferedWriter( path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+		appended = 0;
+	}
+
+	static class Entry
+	{
+		Map<String, String> data = new HashMap<>();
+		boolean destroyed;
+		String ipAddress;
+		String sessionId;
+		String sessionName;
+		long timeout;
+		String webroot;
+
+		Entry()
+		{
+			// Gson
+		}
+
+		Entry( String sessionId )
+		{
+			this.sessionId = sessionId;
+		}
+
+		void merge( Entry change )
+		{
+			ipAddress = change.ipAddress;
+			sessionName = change.sessionName;
+			timeout = change.timeout;
+			webroot = change.webroot;
+
+			if ( change.data != null )
+				for ( Map.Entry<String, String> variable : change.data.entrySet() )
+					if ( variable.getValue() == null )
+						data.remove( variable.getKey() );
+					else
+						data.put( variable.getKey(), variable.getValue() );
+		}
+	}
+}
@@ -9,12 +9,11 @@
  */
 package io.amelia.http.session.adapters;
 
-import com.google.common.collect.Lists;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import io.amelia.database.Database;
 import io.amelia.database.DatabaseManager;
@@ -27,65 +26,70 @@ import io.amelia.lang.DatabaseException;
 import io.amelia.lang.SessionException;
 import io.amelia.permissions.Permissions;
 import io.amelia.support.DateAndTime;
-import io.amelia.support.Timing;
 
 public class SqlAdapter implements SessionAdapterImpl
 {
+	public SqlAdapter()
+	{
+		Database sql = DatabaseManager.getDefault().getDatabase();
+
+		if ( sql == null )
+			throw new SessionException.Runtime( "Sessions can't be stored in a SQL Database without a properly configured server database." );
+
+		// Expired sessions are deleted by the registry's cleanup task, see purgeExpired(), the others are loaded as they're requested.
+	}
+
 	@Override
 	public SessionData createSession( String sessionId, SessionWrapper wrapper ) throws SessionException.Error
 	{
 		return new SqlSessionData( sessionId, wrapper );
 	}
 
+	/**
+	 * Deletes the expired rows. The loaded sessions aren't excluded from the statement, instead their row is inserted again by their next save should it be gone.
+	 */
 	@Override
-	public List<SessionData> getSessions() throws SessionException.Error
+	public int purgeExpired( Set<String> loadedSessionIds ) throws SessionException.Error
 	{
-		List<SessionData> data = Lists.newArrayList();
-		Database sql = DatabaseManager.getDefault().getDatabase();
-
-		if ( sql == null )
-			throw new SessionException.Error( "Sessions can't be stored in a SQL Database without a properly configured server database." );
-
-		Timing.start( this );
-
 		try
 		{
-			// Attempt to delete all expired sessions before we try and load them.
-			int expired = sql.table( "sessions" ).delete().where( "timeout" ).moreThan( 0 ).where( "timeout" ).lessThan( DateAndTime.epoch() ).executeWithException().count();
-			Permissions.L.info( String.format( "SqlSession removed %s expired sessions from the datastore!", expired ) );
-
-			ElegantQuerySelect select = sql.table( "sessions" ).select().execute();
-
-			if ( select.count() > 0 )
-			{
-				do
-					try
-					{
-						data.add( new SqlSessionData( select ) );
-					}
-					catch ( SessionException.Error e )
-					{
-						e.printStackTrace();
-					}
-				while ( select.next() );
-			}
+			int expired = DatabaseManager.getDefault().getDatabase().table( "sessions" ).delete().where( "timeout" ).moreThan( 0 ).where( "timeout" ).lessThan( DateAndTime.epoch() ).executeWithException().count();
+			if ( expired > 0 )
+				Permissions.L.info( String.format( "SqlSession removed %s expired sessions from the datastore!", expired ) );
+			return expired;
 		}
 		catch ( DatabaseException e )
 		{
-			SessionRegistry.L.warning( "There was a problem reloading saved sessions.", e );
+			throw new SessionException.Error( "There was a problem removing expired sessions.", e );
 		}
+	}
 
-		SessionRegistry.L.info( "SqlSession loaded " + data.size() + " sessions from the datastore in " + Timing.finish( this ) + "ms!" );
-
-		return data;
+	@Override
+	public SessionData loadSession( String sessionId ) throws SessionException.Error
+	{
+		try
+		{
+			ElegantQuerySelect select = DatabaseManager.getDefault().getDatabase().table( "sessions" ).select().where( "sessionId" ).matches( sessionId ).executeWithException();
+			return select.count() < 1 ? null : new SqlSessionData( select );
+		}
+		catch ( DatabaseException e )
+		{
+			throw new SessionException.Error( "There was an exception thrown while trying to load the session.", e );
+		}
 	}
 
 	class SqlSessionData extends SessionData
 	{
+		/**
+		 * Does the session have a row yet
+		 */
+		private boolean inserted;
+
 		SqlSessionData( ElegantQuerySelect querySelect ) throws SessionException.Error
 		{
 			super( SqlAdapter.this, true );
 			readSession( querySelect );
+			inserted = true;
 		}
 
 		SqlSessionData( String sessionId, SessionWrapper wrapper ) throws SessionException.Error
@@ -95,8 +99,6 @@ public class SqlAdapter implements SessionAdapterImpl
 
 			ipAddress = wrapper.getIpAddress();
 			webroot = wrapper.getWebroot().getWebrootId();
-
-			save();
 		}
 
 		@Override
@@ -159,15 +161,23 @@ public class SqlAdapter implements SessionAdapterImpl
 				if ( db == null )
 					throw new SessionException.Error( "Sessions can't be stored in a SQL Database without a properly configured server database." );
 
-				ElegantQuerySelect select = db.table( "sessions" ).select().where( "sessionId" ).matches( sessionId ).executeWithException();
-				// query( "SELECT * FROM `sessions` WHERE `sessionId` = '" + sessionId + "';" );
+				// The changed keys matter to the log of the file backend only, the row is written whole
+				takeDirtyKeys();
 
-				if ( select.count() < 1 )
+				if ( isDestroyed() )
+					return;
+
+				// The row may have been purged as expired while the session was loaded with a newer timeout
+				if ( inserted && db.table( "sessions" ).update().value( "timeout", timeout ).value( "ipAddress", ipAddress ).value( "sessionName", sessionName ).value( "sessionSite", webroot ).value( "data", dataJson ).where( "sessionId" ).matches( sessionId ).executeWithException().count() < 1 )
+					inserted = false;
+
+				if ( !inserted )
+				{
 					db.table( "sessions" ).insert().value( "sessionId", sessionId ).value( "timeout", timeout ).value( "ipAddress", ipAddress ).value( "sessionName", sessionName ).value( "sessionSite", webroot ).value( "data", dataJson ).executeWithException();
 					// sql.queryUpdate( "INSERT INTO `sessions` (`sessionId`, `timeout`, `ipAddress`, `sessionName`, `sessionSite`, `data`) VALUES ('" + sessionId + "', '" + timeout + "', '" + ipAddress + "', '" + sessionName + "', '" + webroot + "', '"
 					// + dataJson + "');" );
-				else
-					db.table( "sessions" ).update().value( "timeout", timeout ).value( "ipAddress", ipAddress ).value( "sessionName", sessionName ).value( "sessionSite", webroot ).value( "data", dataJson ).where( "sessionId" ).matches( sessionId ).executeWithException();
+					inserted = true;
+				}
 				// sql.queryUpdate( "UPDATE `sessions` SET `data` = '" + dataJson + "', `timeout` = '" + timeout + "', `sessionName` = '" + sessionName + "', `ipAddress` = '" + ipAddress + "', `sessionSite` = '" + webroot + "' WHERE `sessionId` = '"
 				// + sessionId + "';" );
 			}
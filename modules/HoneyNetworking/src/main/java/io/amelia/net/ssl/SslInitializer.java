@@ -14,14 +14,15 @@ import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.amelia.http.HttpHandler;
+import io.amelia.http.SmallBodyAggregator;
+import io.amelia.http.StaticFileCompressor;
 import io.amelia.lang.ExceptionReport;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.http.HttpContentCompressor;
-import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
 public class SslInitializer extends ChannelInitializer<SocketChannel>
 {
@@ -44,9 +45,10 @@ public class SslInitializer extends ChannelInitializer<SocketChannel>
 		}
 
 		p.addLast( "decoder", new HttpRequestDecoder() );
-		p.addLast( "aggregator", new HttpObjectAggregator( Integer.MAX_VALUE ) );
+		p.addLast( "aggregator", new SmallBodyAggregator() );
 		p.addLast( "encoder", new HttpResponseEncoder() );
-		p.addLast( "deflater", new HttpContentCompressor() );
+		p.addLast( "deflater", new StaticFileCompressor() );
+		p.addLast( "chunked", new ChunkedWriteHandler() );
 		p.addLast( "handler", new HttpHandler( true ) );
 
 		activeChannels.add( new WeakReference<>( ch ) );
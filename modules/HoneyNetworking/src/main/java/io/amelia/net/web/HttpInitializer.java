@@ -14,13 +14,14 @@ import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.amelia.http.HttpHandler;
+import io.amelia.http.SmallBodyAggregator;
+import io.amelia.http.StaticFileCompressor;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.http.HttpContentCompressor;
-import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
 public class HttpInitializer extends ChannelInitializer<SocketChannel>
 {
@@ -32,9 +33,10 @@ public class HttpInitializer extends ChannelInitializer<SocketChannel>
 		ChannelPipeline p = ch.pipeline();
 
 		p.addLast( "decoder", new HttpRequestDecoder() );
-		p.addLast( "aggregator", new HttpObjectAggregator( 104857600 ) ); // One Hundred Megabytes
+		p.addLast( "aggregator", new SmallBodyAggregator() );
 		p.addLast( "encoder", new HttpResponseEncoder() );
-		p.addLast( "deflater", new HttpContentCompressor() );
+		p.addLast( "deflater", new StaticFileCompressor() );
+		p.addLast( "chunked", new ChunkedWriteHandler() );
 		p.addLast( "handler", new HttpHandler( false ) );
 
 		activeChannels.add( new WeakReference<>( ch ) );
@@ -2,6 +2,7 @@ package com.marchnetworks.alarm.dao;
 
 import com.marchnetworks.alarm.model.AlarmEntryEntity;
 import com.marchnetworks.alarm.model.AlarmSourceEntity;
+import com.marchnetworks.command.common.dao.ChunkHandler;
 import com.marchnetworks.command.common.dao.GenericDAO;
 
 import java.util.List;
@@ -14,7 +15,7 @@ public abstract interface AlarmEntryDAO extends GenericDAO<AlarmEntryEntity, Lon
 
 	public abstract List<AlarmEntryEntity> findByAlarmSource( AlarmSourceEntity paramAlarmSourceEntity );
 
-	public abstract List<AlarmEntryEntity> findAllByQuery( List<Long> paramList, boolean paramBoolean1, boolean paramBoolean2, long paramLong1, long paramLong2, int paramInt );
+	public abstract void scrollAllByQuery( List<Long> paramList, boolean paramBoolean1, boolean paramBoolean2, long paramLong1, long paramLong2, long paramLong3, Long paramLong, int paramInt, ChunkHandler<AlarmEntryEntity> paramChunkHandler );
 
 	public abstract List<Long> findReferencedAlarmSources( boolean paramBoolean1, boolean paramBoolean2, long paramLong1, long paramLong2 );
 
@@ -2,11 +2,14 @@ package com.marchnetworks.alarm.dao;
 
 import com.marchnetworks.alarm.model.AlarmEntryEntity;
 import com.marchnetworks.alarm.model.AlarmSourceEntity;
+import com.marchnetworks.command.common.HibernateUtils;
+import com.marchnetworks.command.common.dao.ChunkHandler;
 import com.marchnetworks.command.common.dao.GenericHibernateDAO;
 
 import org.hibernate.Criteria;
 import org.hibernate.FetchMode;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
 import org.hibernate.Session;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
@@ -17,6 +20,8 @@ import java.util.List;
 
 public class AlarmEntryDAOImpl extends GenericHibernateDAO<AlarmEntryEntity, Long> implements AlarmEntryDAO
 {
+	private static final int CHUNK_SIZE = 200;
+
 	public AlarmEntryEntity findByDeviceEntryIdAndSource( String deviceAlarmEntryId, AlarmSourceEntity alarmSource )
 	{
 		Session session = ( Session ) getEntityManager().getDelegate();
@@ -56,11 +61,11 @@ public class AlarmEntryDAOImpl extends GenericHibernateDAO<AlarmEntryEntity, Lon
 		return result;
 	}
 
-	public List<AlarmEntryEntity> findAllByQuery( List<Long> alarmSourceIDs, boolean includeOpenEntries, boolean includeClosedEntries, long startTime, long endTime, int maxEntries )
+	public void scrollAllByQuery( List<Long> alarmSourceIDs, boolean includeOpenEntries, boolean includeClosedEntries, long startTime, long endTime, long afterTime, Long afterId, int maxEntries, ChunkHandler<AlarmEntryEntity> handler )
 	{
 		if ( ( ( !includeOpenEntries ) && ( !includeClosedEntries ) ) || ( alarmSourceIDs.isEmpty() ) )
 		{
-			return new ArrayList();
+			return;
 		}
 
 		Session session = ( Session ) getEntityManager().getDelegate();
@@ -93,26 +98,40 @@ public class AlarmEntryDAOImpl extends GenericHibernateDAO<AlarmEntryEntity, Lon
 			crit.add( Restrictions.disjunction().add( Restrictions.between( "firstInstanceTime", Long.valueOf( startTime ), Long.valueOf( endTime ) ) ).add( Restrictions.between( "lastInstanceTime", Long.valueOf( startTime ), Long.valueOf( endTime ) ) ).add( Restrictions.between( "closedTime", Long.valueOf( startTime ), Long.valueOf( endTime ) ) ) );
 		}
 
-		if ( ( includeOpenEntries ) && ( !includeClosedEntries ) )
+		boolean descending = ( includeOpenEntries ) && ( !includeClosedEntries );
+
+		// continue after the last entry of the previous page, in (lastInstanceTime, id) order
+		if ( afterId != null )
+		{
+			Long time = Long.valueOf( afterTime );
+			if ( descending )
+			{
+				crit.add( Restrictions.or( Restrictions.lt( "lastInstanceTime", time ), Restrictions.and( Restrictions.eq( "lastInstanceTime", time ), Restrictions.lt( "id", afterId ) ) ) );
+			}
+			else
+			{
+				crit.add( Restrictions.or( Restrictions.gt( "lastInstanceTime", time ), Restrictions.and( Restrictions.eq( "lastInstanceTime", time ), Restrictions.gt( "id", afterId ) ) ) );
+			}
+		}
+
+		if ( descending )
 		{
 			crit.addOrder( Order.desc( "lastInstanceTime" ) );
+			crit.addOrder( Order.desc( "id" ) );
 		}
 		else
 		{
 			crit.addOrder( Order.asc( "lastInstanceTime" ) );
+			crit.addOrder( Order.asc( "id" ) );
 		}
 
 		crit.setFetchMode( "alarmSource", FetchMode.SELECT );
 		crit.setReadOnly( true );
+		crit.setFetchSize( CHUNK_SIZE );
 
 		crit.setMaxResults( maxEntries );
 
-		List<AlarmEntryEntity> list = crit.list();
-		if ( list == null )
-		{
-			return new ArrayList();
-		}
-		return list;
+		HibernateUtils.scroll( session, crit.scroll( ScrollMode.FORWARD_ONLY ), CHUNK_SIZE, handler );
 	}
 
 	public List<Long> findReferencedAlarmSources( boolean includeOpenEntries, boolean includeClosedEntries, long startTime, long endTime )
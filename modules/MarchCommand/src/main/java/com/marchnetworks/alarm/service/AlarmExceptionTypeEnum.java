@@ -6,7 +6,8 @@ public enum AlarmExceptionTypeEnum
 	CLOSE_ENTRIES_ERROR,
 	HANDLE_ENTRIES_ERROR,
 	FEATURE_IS_DISABLED,
-	ALARM_NOT_FOUND;
+	ALARM_NOT_FOUND,
+	INVALID_ENTRY_ID;
 
 	private AlarmExceptionTypeEnum()
 	{
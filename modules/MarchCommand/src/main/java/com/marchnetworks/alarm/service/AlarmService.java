@@ -12,7 +12,9 @@ import java.util.Set;
 
 public abstract interface AlarmService
 {
-	public abstract AlarmEntryView[] queryAlarmEntries( String paramString, String[] paramArrayOfString, boolean paramBoolean1, boolean paramBoolean2, long paramLong1, long paramLong2, int paramInt );
+	public abstract AlarmEntryView[] queryAlarmEntries( String paramString, String[] paramArrayOfString, boolean paramBoolean1, boolean paramBoolean2, long paramLong1, long paramLong2, int paramInt ) throws AlarmException;
+
+	public abstract AlarmEntryView[] queryAlarmEntries( String paramString1, String[] paramArrayOfString, boolean paramBoolean1, boolean paramBoolean2, long paramLong1, long paramLong2, int paramInt, long paramLong3, String paramString2 ) throws AlarmException;
 
 	public abstract void closeAlarmEntries( String paramString, AlarmEntryCloseRecord[] paramArrayOfAlarmEntryCloseRecord ) throws AlarmException;
 
@@ -23,6 +23,7 @@ import com.marchnetworks.command.common.CommonAppUtils;
 import com.marchnetworks.command.common.alarm.data.AlarmExtendedState;
 import com.marchnetworks.command.common.alarm.data.AlarmSourceView;
 import com.marchnetworks.command.common.alarm.data.AlarmState;
+import com.marchnetworks.command.common.dao.ChunkHandler;
 import com.marchnetworks.command.common.scheduling.TaskScheduler;
 import com.marchnetworks.command.common.topology.ResourceAssociationType;
 import com.marchnetworks.command.common.topology.TopologyException;
@@ -30,7 +31,6 @@ import com.marchnetworks.command.common.topology.data.AlarmSourceLinkResource;
 import com.marchnetworks.command.common.topology.data.AlarmSourceResource;
 import com.marchnetworks.command.common.topology.data.DeviceResource;
 import com.marchnetworks.command.common.topology.data.LinkResource;
-import com.marchnetworks.command.common.topology.data.Resource;
 import com.marchnetworks.command.common.user.data.MemberView;
 import com.marchnetworks.common.config.AppConfig;
 import com.marchnetworks.common.config.AppConfigImpl;
@@ -93,7 +93,12 @@ public class AlarmServiceImpl implements AlarmService, AlarmCoreService
 		}
 	}
 
-	public AlarmEntryView[] queryAlarmEntries( String userName, String[] alarmSourceIDs, boolean includeOpenEntries, boolean includeClosedEntries, long startTime, long endTime, int maxEntries )
+	public AlarmEntryView[] queryAlarmEntries( String userName, String[] alarmSourceIDs, boolean includeOpenEntries, boolean includeClosedEntries, long startTime, long endTime, int maxEntries ) throws AlarmException
+	{
+		return queryAlarmEntries( userName, alarmSourceIDs, includeOpenEntries, includeClosedEntries, startTime, endTime, maxEntries, 0L, null );
+	}
+
+	public AlarmEntryView[] queryAlarmEntries( String userName, String[] alarmSourceIDs, boolean includeOpenEntries, boolean includeClosedEntries, long startTime, long endTime, int maxEntries, long afterTime, String afterEntryId ) throws AlarmException
 	{
 		if ( ( maxEntries > 1000 ) || ( maxEntries <= 0 ) )
 		{
@@ -128,13 +133,32 @@ public class AlarmServiceImpl implements AlarmService, AlarmCoreService
 			alarmSourcesToSearch = alarmSourcesToSearch.subList( 0, alarmSourceIdslimit );
 		}
 
-		List<AlarmEntryEntity> entries = alarmEntryDAO.findAllByQuery( alarmSourcesToSearch, includeOpenEntries, includeClosedEntries, startTime, endTime, maxEntries );
-
-		AlarmEntryView[] result = new AlarmEntryView[entries.size()];
-		for ( int i = 0; i < entries.size(); i++ )
+		Long afterId = null;
+		if ( afterEntryId != null )
 		{
-			result[i] = ( ( AlarmEntryEntity ) entries.get( i ) ).toDataObject();
+			try
+			{
+				afterId = Long.valueOf( afterEntryId );
+			}
+			catch ( NumberFormatException e )
+			{
+				throw new AlarmException( AlarmExceptionTypeEnum.INVALID_ENTRY_ID, "Alarm Entry ID " + afterEntryId + " is not a valid ID" );
+			}
 		}
+		final List<AlarmEntryView> entries = new ArrayList( Math.min( maxEntries, 256 ) );
+		alarmEntryDAO.scrollAllByQuery( alarmSourcesToSearch, includeOpenEntries, includeClosedEntries, startTime, endTime, afterTime, afterId, maxEntries, new ChunkHandler<AlarmEntryEntity>()
+		{
+			public boolean handle( List<AlarmEntryEntity> chunk )
+			{
+				for ( AlarmEntryEntity entry : chunk )
+				{
+					entries.add( entry.toDataObject() );
+				}
+				return true;
+			}
+		} );
+
+		AlarmEntryView[] result = ( AlarmEntryView[] ) entries.toArray( new AlarmEntryView[entries.size()] );
 
 		if ( isAlarmHistorySearch )
 		{
@@ -913,31 +937,29 @@ public class AlarmServiceImpl implements AlarmService, AlarmCoreService
 
 			if ( !territoryIds.isEmpty() )
 			{
+				ResourceTopologyServiceIF topologyService = getTopologyService();
+				List<Long> territoryRootIds = new ArrayList( territoryIds.size() );
 				for ( String territoryId : territoryIds )
 				{
-					Resource resource = getTopologyService().getResource( Long.valueOf( Long.parseLong( territoryId ) ) );
-
-					List<Resource> list = resource.createResourceList();
+					territoryRootIds.add( Long.valueOf( Long.parseLong( territoryId ) ) );
+				}
 
-					for ( Resource res : list )
+				for ( Long resourceId : topologyService.getTerritoryResourceIds( territoryRootIds, AlarmSourceResource.class ) )
+				{
+					AlarmSourceResource res = ( AlarmSourceResource ) topologyService.getResource( resourceId );
+					alarmSourceIds.add( Long.valueOf( Long.parseLong( res.getAlarmSourceId() ) ) );
+				}
+				for ( Long resourceId : topologyService.getTerritoryResourceIds( territoryRootIds, AlarmSourceLinkResource.class ) )
+				{
+					AlarmSourceLinkResource res = ( AlarmSourceLinkResource ) topologyService.getResource( resourceId );
+					alarmSourceIds.add( Long.valueOf( Long.parseLong( res.getAlarmSourceId() ) ) );
+				}
+				for ( Long resourceId : topologyService.getTerritoryResourceIds( territoryRootIds, DeviceResource.class ) )
+				{
+					DeviceResource deviceResource = ( DeviceResource ) topologyService.getResource( resourceId );
+					if ( deviceResource.isRootDevice() )
 					{
-						if ( ( res instanceof AlarmSourceResource ) )
-						{
-							alarmSourceIds.add( Long.valueOf( Long.parseLong( ( ( AlarmSourceResource ) res ).getAlarmSourceId() ) ) );
-						}
-						else if ( ( res instanceof AlarmSourceLinkResource ) )
-						{
-							alarmSourceIds.add( Long.valueOf( Long.parseLong( ( ( AlarmSourceLinkResource ) res ).getAlarmSourceId() ) ) );
-						}
-						else if ( ( res instanceof DeviceResource ) )
-						{
-							DeviceResource deviceResource = ( DeviceResource ) res;
-
-							if ( deviceResource.isRootDevice() )
-							{
-								deviceIds.add( Long.valueOf( Long.parseLong( deviceResource.getDeviceId() ) ) );
-							}
-						}
+						deviceIds.add( Long.valueOf( Long.parseLong( deviceResource.getDeviceId() ) ) );
 					}
 				}
 
@@ -2,6 +2,7 @@ package com.marchnetworks.audit.dao;
 
 import com.marchnetworks.audit.data.AuditSearchQuery;
 import com.marchnetworks.audit.model.AuditEntity;
+import com.marchnetworks.command.common.dao.ChunkHandler;
 import com.marchnetworks.command.common.dao.GenericDAO;
 
 import java.util.List;
@@ -10,8 +11,12 @@ public abstract interface AuditDAO<T extends AuditEntity> extends GenericDAO<T,
 {
 	public abstract List<T> getAudits( AuditSearchQuery paramAuditSearchQuery );
 
+	public abstract void scrollAudits( AuditSearchQuery paramAuditSearchQuery, ChunkHandler<T> paramChunkHandler );
+
 	public abstract T findAuditByTag( String paramString );
 
+	public abstract void createAll( List<T> paramList );
+
 	public abstract int deleteOldAudits( long paramLong );
 
 	public abstract List<T> findByResourceId( Long paramLong );
@@ -4,110 +4,111 @@ import com.marchnetworks.audit.data.AuditSearchQuery;
 import com.marchnetworks.audit.model.AuditEntity;
 import com.marchnetworks.command.common.CommonAppUtils;
 import com.marchnetworks.command.common.HibernateUtils;
+import com.marchnetworks.command.common.dao.ChunkHandler;
 import com.marchnetworks.command.common.dao.GenericHibernateDAO;
 
 import org.hibernate.Criteria;
 import org.hibernate.FlushMode;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
 import org.hibernate.Session;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Restrictions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public abstract class AuditDAOImpl<T extends AuditEntity> extends GenericHibernateDAO<T, Long> implements AuditDAO<T>
 {
 	private static final Logger LOG = LoggerFactory.getLogger( AuditDAOImpl.class );
 
+	private static final int FLUSH_SIZE = 100;
+	private static final int CHUNK_SIZE = 200;
+	private static final int MAX_RESULTS = 1000;
+
 	public List<T> getAudits( AuditSearchQuery auditViewCrit )
 	{
 		Session session = ( Session ) entityManager.getDelegate();
 		session.setFlushMode( FlushMode.MANUAL );
 
-		StringBuilder hqlQuery = new StringBuilder();
-		hqlQuery.append( " from " );
-		hqlQuery.append( entityType.getName() ).append( " audit  " );
-		hqlQuery.append( " Where " );
+		Query query = createAuditQuery( session, auditViewCrit );
+		List<T> audits = query.list();
+
+		return audits;
+	}
 
-		boolean paramSet = false;
+	public void scrollAudits( AuditSearchQuery auditViewCrit, ChunkHandler<T> handler )
+	{
+		Session session = ( Session ) entityManager.getDelegate();
+		session.setFlushMode( FlushMode.MANUAL );
+
+		Query query = createAuditQuery( session, auditViewCrit );
+		query.setReadOnly( true );
+		query.setFetchSize( CHUNK_SIZE );
+
+		HibernateUtils.scroll( session, query.scroll( ScrollMode.FORWARD_ONLY ), CHUNK_SIZE, handler );
+	}
+
+	private Query createAuditQuery( Session session, AuditSearchQuery auditViewCrit )
+	{
+		List<String> conditions = new ArrayList();
 		if ( ( auditViewCrit.getUsernames() != null ) && ( auditViewCrit.getUsernames().length > 0 ) )
 		{
-			hqlQuery.append( " audit.usernameId in (:usernames)" );
-			paramSet = true;
+			conditions.add( "audit.usernameId in (:usernames)" );
 		}
-
 		if ( ( auditViewCrit.getEventNames() != null ) && ( auditViewCrit.getEventNames().length > 0 ) )
 		{
-			if ( !paramSet )
-			{
-				hqlQuery.append( " audit.eventNameId in (:eventnames)" );
-				paramSet = true;
-			}
-			else
-			{
-				hqlQuery.append( " and audit.eventNameId in (:eventnames) " );
-			}
+			conditions.add( "audit.eventNameId in (:eventnames)" );
 		}
-
 		if ( !CommonAppUtils.isNullOrEmptyString( auditViewCrit.getUserRemoteAddress() ) )
 		{
-			if ( !paramSet )
-			{
-				hqlQuery.append( " audit.remoteAddressId = :address " );
-				paramSet = true;
-			}
-			else
-			{
-				hqlQuery.append( " and audit.remoteAddressId = :address " );
-			}
+			conditions.add( "audit.remoteAddressId = :address" );
 		}
-
 		if ( auditViewCrit.getStartTime() > 0L )
 		{
-			if ( !paramSet )
-			{
-				hqlQuery.append( " audit.startTime >= :startTime " );
-				paramSet = true;
-			}
-			else
+			conditions.add( "audit.startTime >= :startTime" );
+		}
+		if ( auditViewCrit.getEndTime() > 0L )
+		{
+			conditions.add( "audit.startTime <= :endTime" );
+		}
+		if ( ( auditViewCrit.getResourceIds() != null ) && ( auditViewCrit.getResourceIds().length > 0 ) )
+		{
+			StringBuilder resourceCondition = new StringBuilder( "(" );
+			for ( int i = 0; i < auditViewCrit.getResourceIds().length; i++ )
 			{
-				hqlQuery.append( " and audit.startTime >= :startTime " );
+				if ( i > 0 )
+				{
+					resourceCondition.append( " or " );
+				}
+				resourceCondition.append( "audit.resourceIds like :resParam" + i );
 			}
+			conditions.add( resourceCondition.append( ")" ).toString() );
 		}
 
-		if ( auditViewCrit.getEndTime() > 0L )
+		// continue after the last audit of the previous page, in (startTime, id) order
+		if ( auditViewCrit.getAfterTime() > 0L )
 		{
-			if ( !paramSet )
+			if ( auditViewCrit.getAfterId() != null )
 			{
-				hqlQuery.append( " audit.startTime <= :endTime " );
-				paramSet = true;
+				conditions.add( "(audit.startTime < :afterTime or (audit.startTime = :afterTime and audit.id < :afterId))" );
 			}
 			else
 			{
-				hqlQuery.append( " and audit.startTime <= :endTime " );
+				conditions.add( "audit.startTime < :afterTime" );
 			}
 		}
 
-		if ( ( auditViewCrit.getResourceIds() != null ) && ( auditViewCrit.getResourceIds().length > 0 ) )
+		StringBuilder hqlQuery = new StringBuilder();
+		hqlQuery.append( " from " );
+		hqlQuery.append( entityType.getName() ).append( " audit " );
+		for ( int i = 0; i < conditions.size(); i++ )
 		{
-			if ( paramSet )
-			{
-				hqlQuery.append( " and " );
-			}
-			hqlQuery.append( " (" );
-			for ( int i = 0; i < auditViewCrit.getResourceIds().length; i++ )
-			{
-				if ( i > 0 )
-				{
-					hqlQuery.append( " or " );
-				}
-				hqlQuery.append( " audit.resourceIds like :resParam" + i );
-			}
-			hqlQuery.append( ") " );
+			hqlQuery.append( i == 0 ? " where " : " and " ).append( ( String ) conditions.get( i ) );
 		}
-		hqlQuery.append( " order by audit.startTime desc" );
+		hqlQuery.append( " order by audit.startTime desc, audit.id desc" );
 		if ( LOG.isDebugEnabled() )
 		{
 			LOG.debug( HibernateUtils.getSql( hqlQuery.toString(), session ) );
@@ -166,10 +167,27 @@ public abstract class AuditDAOImpl<T extends AuditEntity> extends GenericHiberna
 			}
 		}
 
-		query.setMaxResults( 1000 );
-		List<T> audits = query.list();
+		if ( auditViewCrit.getAfterTime() > 0L )
+		{
+			query.setLong( "afterTime", auditViewCrit.getAfterTime() );
+			if ( auditViewCrit.getAfterId() != null )
+			{
+				query.setLong( "afterId", auditViewCrit.getAfterId().longValue() );
+			}
+		}
 
-		return audits;
+		query.setMaxResults( getMaxResults( auditViewCrit ) );
+		return query;
+	}
+
+	private int getMaxResults( AuditSearchQuery auditViewCrit )
+	{
+		int maxResults = auditViewCrit.getMaxResults();
+		if ( ( maxResults > MAX_RESULTS ) || ( maxResults <= 0 ) )
+		{
+			maxResults = MAX_RESULTS;
+		}
+		return maxResults;
 	}
 
 	public int deleteOldAudits( long maxOldAge )
@@ -188,6 +206,25 @@ public abstract class AuditDAOImpl<T extends AuditEntity> extends GenericHiberna
 		return purgeCount;
 	}
 
+	public void createAll( List<T> audits )
+	{
+		if ( audits.isEmpty() )
+		{
+			return;
+		}
+
+		Session session = ( Session ) entityManager.getDelegate();
+		for ( int i = 0; i < audits.size(); i++ )
+		{
+			session.save( audits.get( i ) );
+			if ( ( i + 1 ) % FLUSH_SIZE == 0 )
+			{
+				session.flush();
+			}
+		}
+		session.flush();
+	}
+
 	public T findAuditByTag( String tag )
 	{
 		Session session = ( Session ) entityManager.getDelegate();
@@ -3,6 +3,7 @@ package com.marchnetworks.audit.dao;
 import com.marchnetworks.audit.model.AuditDictionaryEntity;
 import com.marchnetworks.command.common.dao.GenericDAO;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -13,4 +14,6 @@ public abstract interface AuditDictionaryDAO extends GenericDAO<AuditDictionaryE
 	public abstract Map<Integer, AuditDictionaryEntity> findValues( Set<Integer> paramSet );
 
 	public abstract void deleteUnreferencedKeys();
+
+	public abstract void createAll( List<AuditDictionaryEntity> paramList );
 }
@@ -23,6 +23,8 @@ import java.util.Set;
 
 public class AuditDictionaryDAOImpl extends GenericHibernateDAO<AuditDictionaryEntity, Integer> implements AuditDictionaryDAO
 {
+	private static final int FLUSH_SIZE = 100;
+
 	public Set<Integer> findMissingKeys( Set<Integer> keys )
 	{
 		Session session = ( Session ) entityManager.getDelegate();
@@ -69,6 +71,25 @@ public class AuditDictionaryDAOImpl extends GenericHibernateDAO<AuditDictionaryE
 		return result;
 	}
 
+	public void createAll( List<AuditDictionaryEntity> entries )
+	{
+		if ( entries.isEmpty() )
+		{
+			return;
+		}
+
+		Session session = ( Session ) entityManager.getDelegate();
+		for ( int i = 0; i < entries.size(); i++ )
+		{
+			session.save( entries.get( i ) );
+			if ( ( i + 1 ) % FLUSH_SIZE == 0 )
+			{
+				session.flush();
+			}
+		}
+		session.flush();
+	}
+
 	public void deleteUnreferencedKeys()
 	{
 		Session session = ( Session ) entityManager.getDelegate();
@@ -12,6 +12,10 @@ public class AuditSearchQuery
 	private long endTime;
 	private Long[] resourceIds;
 
+	private long afterTime;
+	private Long afterId;
+	private int maxResults;
+
 	public String getUserRemoteAddress()
 	{
 		return userRemoteAddress;
@@ -71,4 +75,38 @@ public class AuditSearchQuery
 	{
 		this.resourceIds = resourceIds;
 	}
+
+	public long getAfterTime()
+	{
+		return afterTime;
+	}
+
+	/**
+	 * Together with {@link #setAfterId(Long)}, continues a search after the last audit of the previous page. Audits are
+	 * returned newest first, ordered by start time and then id.
+	 */
+	public void setAfterTime( long afterTime )
+	{
+		this.afterTime = afterTime;
+	}
+
+	public Long getAfterId()
+	{
+		return afterId;
+	}
+
+	public void setAfterId( Long afterId )
+	{
+		this.afterId = afterId;
+	}
+
+	public int getMaxResults()
+	{
+		return maxResults;
+	}
+
+	public void setMaxResults( int maxResults )
+	{
+		this.maxResults = maxResults;
+	}
 }
@@ -16,6 +16,7 @@ import javax.xml.bind.annotation.XmlTransient;
 
 public class AuditView
 {
+	private Long id;
 	private String eventName;
 	private String userRemoteAddress;
 	private String username;
@@ -43,6 +44,16 @@ public class AuditView
 		this.appId = builder.appId;
 	}
 
+	public Long getId()
+	{
+		return id;
+	}
+
+	public void setId( Long id )
+	{
+		this.id = id;
+	}
+
 	@XmlTransient
 	public String getEventTag()
 	{
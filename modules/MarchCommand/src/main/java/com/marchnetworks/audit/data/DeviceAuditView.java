@@ -13,6 +13,7 @@ import javax.xml.bind.annotation.XmlElement;
 
 public class DeviceAuditView
 {
+	private Long id;
 	private String eventName;
 	private String userRemoteAddress;
 	private String username;
@@ -39,6 +40,16 @@ public class DeviceAuditView
 		this.deleted = false;
 	}
 
+	public Long getId()
+	{
+		return id;
+	}
+
+	public void setId( Long id )
+	{
+		this.id = id;
+	}
+
 	public String getEventName()
 	{
 		return eventName;
@@ -23,20 +23,21 @@ public class DeviceAuditEntity extends AuditEntity
 	@Column( name = "DELETED" )
 	Boolean deleted;
 
-	public DeviceAuditView toDataObject( Map<Integer, AuditDictionaryEntity> dictionaryEntries )
+	public DeviceAuditView toDataObject( Map<Integer, String> dictionaryValues )
 	{
-		String eventName = ( ( AuditDictionaryEntity ) dictionaryEntries.get( getEventNameId() ) ).readValue();
-		String username = ( ( AuditDictionaryEntity ) dictionaryEntries.get( getUsernameId() ) ).readValue();
+		String eventName = ( String ) dictionaryValues.get( getEventNameId() );
+		String username = ( String ) dictionaryValues.get( getUsernameId() );
 		String remoteAddress = null;
 		if ( getRemoteAddressId() != null )
 		{
-			remoteAddress = ( ( AuditDictionaryEntity ) dictionaryEntries.get( getRemoteAddressId() ) ).readValue();
+			remoteAddress = ( String ) dictionaryValues.get( getRemoteAddressId() );
 		}
 
 		DeviceAuditView av = new Builder( eventName, username, remoteAddress, getStartTime() ).build();
+		av.setId( getId() );
 		if ( sourceId != null )
 		{
-			av.setSourceId( ( ( AuditDictionaryEntity ) dictionaryEntries.get( sourceId ) ).readValue() );
+			av.setSourceId( ( String ) dictionaryValues.get( sourceId ) );
 		}
 
 		if ( getResourceIds() != null )
@@ -59,7 +60,7 @@ public class DeviceAuditEntity extends AuditEntity
 
 		if ( getDetailsId() != null )
 		{
-			av.setEventDetailsFromString( ( ( AuditDictionaryEntity ) dictionaryEntries.get( getDetailsId() ) ).readValue() );
+			av.setEventDetailsFromString( ( String ) dictionaryValues.get( getDetailsId() ) );
 		}
 		return av;
 	}
@@ -65,17 +65,18 @@ public class ServerAuditEntity extends AuditEntity
 		return keys;
 	}
 
-	public AuditView toDataObject( Map<Integer, AuditDictionaryEntity> dictionaryEntries )
+	public AuditView toDataObject( Map<Integer, String> dictionaryValues )
 	{
-		String eventName = dictionaryEntries.containsKey( getEventNameId() ) ? ( ( AuditDictionaryEntity ) dictionaryEntries.get( getEventNameId() ) ).readValue() : "N/A";
-		String username = dictionaryEntries.containsKey( getUsernameId() ) ? ( ( AuditDictionaryEntity ) dictionaryEntries.get( getUsernameId() ) ).readValue() : "N/A";
+		String eventName = dictionaryValues.containsKey( getEventNameId() ) ? ( String ) dictionaryValues.get( getEventNameId() ) : "N/A";
+		String username = dictionaryValues.containsKey( getUsernameId() ) ? ( String ) dictionaryValues.get( getUsernameId() ) : "N/A";
 		String remoteAddress = null;
 		if ( getRemoteAddressId() != null )
 		{
-			remoteAddress = dictionaryEntries.containsKey( getRemoteAddressId() ) ? ( ( AuditDictionaryEntity ) dictionaryEntries.get( getRemoteAddressId() ) ).readValue() : "N/A";
+			remoteAddress = dictionaryValues.containsKey( getRemoteAddressId() ) ? ( String ) dictionaryValues.get( getRemoteAddressId() ) : "N/A";
 		}
 
 		AuditView av = new Builder( eventName, username, remoteAddress, getStartTime() ).build();
+		av.setId( getId() );
 		if ( getResourceIds() != null )
 		{
 			List<Long> resourceIdList = new ArrayList();
@@ -90,15 +91,15 @@ public class ServerAuditEntity extends AuditEntity
 		}
 		if ( getAppId() != null )
 		{
-			String appId = dictionaryEntries.containsKey( getAppId() ) ? ( ( AuditDictionaryEntity ) dictionaryEntries.get( getAppId() ) ).readValue() : "N/A";
+			String appId = dictionaryValues.containsKey( getAppId() ) ? ( String ) dictionaryValues.get( getAppId() ) : "N/A";
 			av.setAppId( appId );
 		}
 
 		av.setEndTime( endTime );
 
-		if ( ( getDetailsId() != null ) && ( dictionaryEntries.containsKey( getDetailsId() ) ) )
+		if ( ( getDetailsId() != null ) && ( dictionaryValues.containsKey( getDetailsId() ) ) )
 		{
-			av.setEventDetailsFromString( ( ( AuditDictionaryEntity ) dictionaryEntries.get( getDetailsId() ) ).readValue() );
+			av.setEventDetailsFromString( ( String ) dictionaryValues.get( getDetailsId() ) );
 		}
 
 		av.setEndTime( endTime );
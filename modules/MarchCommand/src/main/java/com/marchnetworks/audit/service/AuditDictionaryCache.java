@@ -0,0 +1,52 @@
+package com.marchnetworks.audit.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Dictionary entries known to be stored, least recently used first. Only short values are kept, the words that repeat
+ * from one audit to the next such as event names, user names and addresses. Used both to skip dictionary updates when
+ * writing audits and to resolve dictionary keys when reading them.
+ */
+class AuditDictionaryCache
+{
+	private static final int MAX_VALUE_LENGTH = 256;
+
+	private final Map<Integer, String> values;
+
+	AuditDictionaryCache( final int maxEntries )
+	{
+		values = Collections.synchronizedMap( new LinkedHashMap<Integer, String>( 256, 0.75F, true )
+		{
+			protected boolean removeEldestEntry( Entry<Integer, String> eldest )
+			{
+				return size() > maxEntries;
+			}
+		} );
+	}
+
+	public boolean contains( Integer key, String value )
+	{
+		return value.equals( values.get( key ) );
+	}
+
+	public String get( Integer key )
+	{
+		return ( String ) values.get( key );
+	}
+
+	public void put( Integer key, String value )
+	{
+		if ( ( value != null ) && ( value.length() <= MAX_VALUE_LENGTH ) )
+		{
+			values.put( key, value );
+		}
+	}
+
+	public void clear()
+	{
+		values.clear();
+	}
+}
@@ -15,6 +15,8 @@ public abstract interface AuditLogService
 
 	public abstract List<DeviceAuditView> getDeviceAuditLogs( long paramLong1, long paramLong2 ) throws AuditLogException;
 
+	public abstract List<DeviceAuditView> getDeviceAuditLogs( AuditSearchQuery paramAuditSearchQuery ) throws AuditLogException;
+
 	public abstract void logAuditEvent( Event paramEvent );
 
 	public abstract void logAudit( AuditView paramAuditView );
@@ -24,4 +26,6 @@ public abstract interface AuditLogService
 	public abstract void processDeviceUnregistration( DeviceRegistrationEvent paramDeviceRegistrationEvent );
 
 	public abstract void deleteAuditLogsByAppid( String paramString );
+
+	public abstract void writeAudits( List<PendingAudit> paramList );
 }
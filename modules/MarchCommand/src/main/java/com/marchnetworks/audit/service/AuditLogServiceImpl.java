@@ -21,7 +21,10 @@ import com.marchnetworks.command.api.query.Criteria;
 import com.marchnetworks.command.api.query.Restrictions;
 import com.marchnetworks.command.common.CollectionUtils;
 import com.marchnetworks.command.common.CommonAppUtils;
+import com.marchnetworks.command.common.dao.ChunkHandler;
 import com.marchnetworks.command.common.device.DeviceEventsEnum;
+import com.marchnetworks.command.common.scheduling.TaskScheduler;
+import com.marchnetworks.command.common.scheduling.task.TaskAsync;
 import com.marchnetworks.command.common.topology.ResourceRootType;
 import com.marchnetworks.command.common.topology.TopologyConstants;
 import com.marchnetworks.command.common.topology.TopologyException;
@@ -47,6 +50,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -68,9 +72,21 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 
 	private ResourceTopologyServiceIF topologyService;
 
+	private TaskScheduler taskScheduler;
+
+	private int maxQueueSize = 10000;
+
+	private int batchSize = 500;
+
+	private int flushDelay = 1000;
+
+	private final AuditDictionaryCache dictionaryCache = new AuditDictionaryCache( 10000 );
+
+	private volatile AuditWriter auditWriter;
+
 	public List<AuditView> getAuditLogs( AuditSearchQuery auditViewCrit ) throws AuditLogException
 	{
-		List<AuditView> result = new ArrayList();
+		final List<AuditView> result = new ArrayList();
 		long startTime = System.currentTimeMillis();
 		String userName = CommonAppUtils.getUsernameFromSecurityContext();
 
@@ -116,21 +132,18 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 			auditViewCrit.setUsernames( filteredUsers );
 		}
 
-		List<ServerAuditEntity> auditEntityList = serverAuditDAO.getAudits( auditViewCrit );
-
-		if ( auditEntityList.isEmpty() )
-		{
-			return result;
-		}
-
-		Set<Integer> auditPairsKeys = getKeysFromAudits( auditEntityList );
-
-		Map<Integer, AuditDictionaryEntity> auditPairs = auditDictionaryDAO.findValues( auditPairsKeys );
-		for ( ServerAuditEntity auditEntity : auditEntityList )
+		serverAuditDAO.scrollAudits( auditViewCrit, new ChunkHandler<ServerAuditEntity>()
 		{
-			AuditView av = auditEntity.toDataObject( auditPairs );
-			result.add( av );
-		}
+			public boolean handle( List<ServerAuditEntity> chunk )
+			{
+				Map<Integer, String> dictionaryValues = readDictionaryValues( getKeysFromAudits( chunk ) );
+				for ( ServerAuditEntity auditEntity : chunk )
+				{
+					result.add( auditEntity.toDataObject( dictionaryValues ) );
+				}
+				return true;
+			}
+		} );
 		if ( LOG.isDebugEnabled() )
 		{
 			LOG.info( "{} ms to process query results.", Long.valueOf( System.currentTimeMillis() - startTime ) );
@@ -140,7 +153,15 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 
 	public List<DeviceAuditView> getDeviceAuditLogs( long startTime, long endTime ) throws AuditLogException
 	{
-		List<DeviceAuditView> result = new ArrayList();
+		AuditSearchQuery auditSearchQuery = new AuditSearchQuery();
+		auditSearchQuery.setStartTime( startTime );
+		auditSearchQuery.setEndTime( endTime );
+		return getDeviceAuditLogs( auditSearchQuery );
+	}
+
+	public List<DeviceAuditView> getDeviceAuditLogs( AuditSearchQuery auditSearchQuery ) throws AuditLogException
+	{
+		final List<DeviceAuditView> result = new ArrayList();
 		List<Resource> deviceResources = null;
 		String username = CommonAppUtils.getUsernameFromSecurityContext();
 		try
@@ -175,25 +196,26 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 		{
 			deviceResourceIds.add( deviceResource.getId() );
 		}
-		AuditSearchQuery auditSearchQuery = new AuditSearchQuery();
-		auditSearchQuery.setStartTime( startTime );
-		auditSearchQuery.setEndTime( endTime );
 		auditSearchQuery.setResourceIds( ( Long[] ) deviceResourceIds.toArray( new Long[deviceResourceIds.size()] ) );
-		List<DeviceAuditEntity> deviceAudits = deviceAuditDAO.getAudits( auditSearchQuery );
-
-		Set<Integer> auditPairsKeys = getKeysFromAudits( deviceAudits );
-
-		Map<Integer, AuditDictionaryEntity> auditPairs = auditDictionaryDAO.findValues( auditPairsKeys );
-		for ( DeviceAuditEntity auditEntity : deviceAudits )
+		deviceAuditDAO.scrollAudits( auditSearchQuery, new ChunkHandler<DeviceAuditEntity>()
 		{
-			DeviceAuditView av = auditEntity.toDataObject( auditPairs );
-			result.add( av );
-		}
+			public boolean handle( List<DeviceAuditEntity> chunk )
+			{
+				Map<Integer, String> dictionaryValues = readDictionaryValues( getKeysFromAudits( chunk ) );
+				for ( DeviceAuditEntity auditEntity : chunk )
+				{
+					result.add( auditEntity.toDataObject( dictionaryValues ) );
+				}
+				return true;
+			}
+		} );
 		return result;
 	}
 
 	public void purgeOldAuditLogs( long days )
 	{
+		flushAudits();
+
 		Calendar currentDate = DateUtils.getCurrentUTCTime();
 		currentDate.add( 6, ( int ) days * -1 );
 		int oldAudits = serverAuditDAO.deleteOldAudits( currentDate.getTimeInMillis() );
@@ -203,6 +225,7 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 		LOG.info( "Purging {} device audit entries older than {} days", Integer.valueOf( oldAudits ), Long.valueOf( days ) );
 
 		auditDictionaryDAO.deleteUnreferencedKeys();
+		dictionaryCache.clear();
 	}
 
 	public void logAudit( AuditView auditView )
@@ -226,52 +249,111 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 
 		Map<Integer, String> auditViewWords = buildAuditVewWords( auditView.getEventName(), auditView.getUsername(), auditView.getUserRemoteAddress(), auditView.getAppId(), auditView.getEventDetails() );
 
-		updateDictionary( auditViewWords );
+		ServerAuditEntity auditEntity = new ServerAuditEntity();
+		auditEntity.setEventNameId( Integer.valueOf( auditView.getEventName().hashCode() ) );
 
-		ServerAuditEntity auditEntity = null;
-		if ( !CommonAppUtils.isNullOrEmptyString( auditView.getEventTag() ) )
+		auditEntity.setRemoteAddressId( Integer.valueOf( auditView.getUserRemoteAddress().hashCode() ) );
+		auditEntity.setUsernameId( Integer.valueOf( auditView.getUsername().hashCode() ) );
+		auditEntity.setStartTime( auditView.getStartTime() );
+		auditEntity.setEventTag( auditView.getEventTag() );
+		if ( auditView.getAppId() != null )
 		{
-			auditEntity = ( ServerAuditEntity ) serverAuditDAO.findAuditByTag( auditView.getEventTag() );
+			auditEntity.setAppId( Integer.valueOf( auditView.getAppId().hashCode() ) );
 		}
 
-		if ( auditEntity != null )
+		if ( ( auditView.getEventDetails() != null ) && ( auditView.getEventDetails().size() > 0 ) )
 		{
-
-			auditEntity.setEndTime( auditView.getEndTime() );
-			if ( ( auditView.getEventDetails() != null ) && ( auditView.getEventDetails().size() > 0 ) )
+			auditEntity.setDetailsId( Integer.valueOf( auditView.getEventDetailsAsString().hashCode() ) );
+		}
+		if ( ( auditView.getResourceIds() != null ) && ( auditView.getResourceIds().size() > 0 ) )
+		{
+			List<String> idsAsStringList = new ArrayList();
+			for ( Long resourceId : auditView.getResourceIds() )
 			{
-				auditEntity.setDetailsId( Integer.valueOf( auditView.getEventDetailsAsString().hashCode() ) );
+				idsAsStringList.add( resourceId.toString() );
 			}
+			auditEntity.setResourceIds( CoreJsonSerializer.toJson( idsAsStringList ) );
 		}
-		else
-		{
-			auditEntity = new ServerAuditEntity();
-			auditEntity.setEventNameId( Integer.valueOf( auditView.getEventName().hashCode() ) );
 
-			auditEntity.setRemoteAddressId( Integer.valueOf( auditView.getUserRemoteAddress().hashCode() ) );
-			auditEntity.setUsernameId( Integer.valueOf( auditView.getUsername().hashCode() ) );
-			auditEntity.setStartTime( auditView.getStartTime() );
-			auditEntity.setEventTag( auditView.getEventTag() );
-			if ( auditView.getAppId() != null )
+		submitAudit( new PendingAudit( auditEntity, auditViewWords, auditView.getEndTime() ) );
+	}
+
+	public void writeAudits( List<PendingAudit> audits )
+	{
+		final Map<Integer, String> words = new HashMap();
+		for ( PendingAudit audit : audits )
+		{
+			for ( Entry<Integer, String> word : audit.getWords().entrySet() )
 			{
-				auditEntity.setAppId( Integer.valueOf( auditView.getAppId().hashCode() ) );
+				if ( !words.containsKey( word.getKey() ) )
+				{
+					words.put( word.getKey(), word.getValue() );
+				}
 			}
+		}
+		updateDictionary( words );
 
-			if ( ( auditView.getEventDetails() != null ) && ( auditView.getEventDetails().size() > 0 ) )
+		List<ServerAuditEntity> serverAudits = new ArrayList();
+		List<DeviceAuditEntity> deviceAudits = new ArrayList();
+		Map<String, ServerAuditEntity> taggedAudits = new HashMap();
+		for ( PendingAudit audit : audits )
+		{
+			if ( ( audit.getEntity() instanceof DeviceAuditEntity ) )
 			{
-				auditEntity.setDetailsId( Integer.valueOf( auditView.getEventDetailsAsString().hashCode() ) );
+				deviceAudits.add( ( DeviceAuditEntity ) audit.getEntity() );
+				continue;
 			}
-			if ( ( auditView.getResourceIds() != null ) && ( auditView.getResourceIds().size() > 0 ) )
+
+			ServerAuditEntity auditEntity = ( ServerAuditEntity ) audit.getEntity();
+			String eventTag = auditEntity.getEventTag();
+			if ( !CommonAppUtils.isNullOrEmptyString( eventTag ) )
 			{
-				List<String> idsAsStringList = new ArrayList();
-				for ( Long resourceId : auditView.getResourceIds() )
+				ServerAuditEntity taggedAudit = ( ServerAuditEntity ) taggedAudits.get( eventTag );
+				if ( taggedAudit == null )
+				{
+					taggedAudit = ( ServerAuditEntity ) serverAuditDAO.findAuditByTag( eventTag );
+				}
+
+				if ( taggedAudit != null )
 				{
-					idsAsStringList.add( resourceId.toString() );
+					taggedAudit.setEndTime( audit.getEndTime() );
+					if ( auditEntity.getDetailsId() != null )
+					{
+						taggedAudit.setDetailsId( auditEntity.getDetailsId() );
+					}
+					taggedAudits.put( eventTag, taggedAudit );
+					continue;
 				}
-				auditEntity.setResourceIds( CoreJsonSerializer.toJson( idsAsStringList ) );
+				taggedAudits.put( eventTag, auditEntity );
 			}
+			serverAudits.add( auditEntity );
+		}
+
+		serverAuditDAO.createAll( serverAudits );
+		deviceAuditDAO.createAll( deviceAudits );
+
+		if ( taskScheduler != null )
+		{
+			// Only committed words are cached, the task is dropped if the transaction rolls back
+			taskScheduler.executeAfterTransactionCommits( new TaskAsync( new Runnable()
+			{
+				public void run()
+				{
+					for ( Entry<Integer, String> word : words.entrySet() )
+					{
+						dictionaryCache.put( word.getKey(), word.getValue() );
+					}
+				}
+			} ) );
+		}
+	}
 
-			serverAuditDAO.create( auditEntity );
+	public void destroy()
+	{
+		AuditWriter writer = auditWriter;
+		if ( writer != null )
+		{
+			writer.close();
 		}
 	}
 
@@ -491,7 +573,6 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 	public void logAppAudit( AppAuditData data, UserContext context )
 	{
 		Map<Integer, String> auditViewWords = buildAuditVewWords( data.getEventName(), context.getUserName(), context.getUserRemoteAddress(), data.getAppId(), data.getEventDetails() );
-		updateDictionary( auditViewWords );
 
 		ServerAuditEntity auditEntity = new ServerAuditEntity();
 		auditEntity.setEventNameId( Integer.valueOf( data.getEventName().hashCode() ) );
@@ -504,11 +585,13 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 		{
 			auditEntity.setDetailsId( Integer.valueOf( data.getEventDetailsAsString().hashCode() ) );
 		}
-		serverAuditDAO.create( auditEntity );
+		submitAudit( new PendingAudit( auditEntity, auditViewWords ) );
 	}
 
 	public void processDeviceUnregistration( DeviceRegistrationEvent unregistrationEvent )
 	{
+		flushAudits();
+
 		Long resourceId = unregistrationEvent.getResourceId();
 		List<DeviceAuditEntity> matchingAudits = deviceAuditDAO.findByResourceId( resourceId );
 		for ( DeviceAuditEntity entity : matchingAudits )
@@ -519,6 +602,7 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 
 	public void deleteAuditLogsByAppid( String appId )
 	{
+		flushAudits();
 		serverAuditDAO.deleteByAppId( appId );
 	}
 
@@ -563,8 +647,6 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 				deviceAuditEntity.setDetailsId( Integer.valueOf( hashCode ) );
 			}
 		}
-		updateDictionary( deviceAuditWords );
-
 		deviceAuditEntity.setStartTime( deviceAuditView.getTime() );
 
 		if ( ( deviceAuditView.getResourceIds() != null ) && ( deviceAuditView.getResourceIds().size() > 0 ) )
@@ -576,11 +658,58 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 			}
 			deviceAuditEntity.setResourceIds( CoreJsonSerializer.toJson( idsAsStringList ) );
 		}
-		deviceAuditDAO.create( deviceAuditEntity );
+		submitAudit( new PendingAudit( deviceAuditEntity, deviceAuditWords ) );
+	}
+
+	private void submitAudit( PendingAudit audit )
+	{
+		if ( taskScheduler == null )
+		{
+			writeAudits( Collections.singletonList( audit ) );
+			return;
+		}
+		getAuditWriter().submit( audit );
+	}
+
+	private void flushAudits()
+	{
+		AuditWriter writer = auditWriter;
+		if ( writer != null )
+		{
+			writer.flush();
+		}
+	}
+
+	private AuditWriter getAuditWriter()
+	{
+		if ( auditWriter == null )
+		{
+			synchronized ( this )
+			{
+				if ( auditWriter == null )
+				{
+					auditWriter = new AuditWriter( maxQueueSize, batchSize, flushDelay, taskScheduler );
+				}
+			}
+		}
+		return auditWriter;
 	}
 
-	private void updateDictionary( Map<Integer, String> newEntities )
+	private void updateDictionary( Map<Integer, String> entities )
 	{
+		Map<Integer, String> newEntities = new HashMap();
+		for ( Entry<Integer, String> mapEntry : entities.entrySet() )
+		{
+			if ( !dictionaryCache.contains( ( Integer ) mapEntry.getKey(), ( String ) mapEntry.getValue() ) )
+			{
+				newEntities.put( mapEntry.getKey(), mapEntry.getValue() );
+			}
+		}
+		if ( newEntities.isEmpty() )
+		{
+			return;
+		}
+
 		Map<Integer, AuditDictionaryEntity> existingEntries = auditDictionaryDAO.findValues( newEntities.keySet() );
 		Map<Integer, String> newEntitiesCopy = new HashMap( newEntities );
 		Set<Integer> rehashedKeys = new HashSet( 2 );
@@ -594,6 +723,8 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 			{
 				LOG.warn( "There's an existing entry for the key-value {}:{} existing value {}, will re-hash.", new Object[] {mapEntry.getKey(), mapEntry.getValue(), existingValue} );
 				newEntitiesCopy.remove( mapEntry.getKey() );
+				// The key holds another word, it must not be cached as this one
+				entities.remove( mapEntry.getKey() );
 				String modifiedValue = ( ( String ) mapEntry.getValue() ).concat( "​" );
 				newEntitiesCopy.put( Integer.valueOf( modifiedValue.hashCode() ), modifiedValue );
 				rehashedKeys.add( Integer.valueOf( modifiedValue.hashCode() ) );
@@ -609,13 +740,44 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 			missingKeys.addAll( auditDictionaryDAO.findMissingKeys( rehashedKeys ) );
 		}
 
+		List<AuditDictionaryEntity> dictionaryEntries = new ArrayList( missingKeys.size() );
 		for ( Integer key : missingKeys )
 		{
 			AuditDictionaryEntity dictionaryEntry = new AuditDictionaryEntity();
 			dictionaryEntry.setKey( key );
 			dictionaryEntry.setValue( ( String ) newEntitiesCopy.get( key ) );
-			auditDictionaryDAO.create( dictionaryEntry );
+			dictionaryEntries.add( dictionaryEntry );
 		}
+		auditDictionaryDAO.createAll( dictionaryEntries );
+	}
+
+	private Map<Integer, String> readDictionaryValues( Set<Integer> keys )
+	{
+		Map<Integer, String> values = new HashMap( keys.size() );
+		Set<Integer> missingKeys = new HashSet();
+		for ( Integer key : keys )
+		{
+			String value = dictionaryCache.get( key );
+			if ( value != null )
+			{
+				values.put( key, value );
+			}
+			else
+			{
+				missingKeys.add( key );
+			}
+		}
+
+		if ( !missingKeys.isEmpty() )
+		{
+			for ( AuditDictionaryEntity entry : auditDictionaryDAO.findValues( missingKeys ).values() )
+			{
+				String value = entry.readValue();
+				values.put( entry.getKey(), value );
+				dictionaryCache.put( entry.getKey(), value );
+			}
+		}
+		return values;
 	}
 
 	private <T extends AuditEntity> Set<Integer> getKeysFromAudits( List<T> auditEntities )
@@ -713,4 +875,24 @@ public class AuditLogServiceImpl implements AuditLogService, AuditCoreService
 	{
 		this.topologyService = topologyService;
 	}
+
+	public void setTaskScheduler( TaskScheduler taskScheduler )
+	{
+		this.taskScheduler = taskScheduler;
+	}
+
+	public void setMaxQueueSize( int maxQueueSize )
+	{
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	public void setBatchSize( int batchSize )
+	{
+		this.batchSize = batchSize;
+	}
+
+	public void setFlushDelay( int flushDelay )
+	{
+		this.flushDelay = flushDelay;
+	}
 }
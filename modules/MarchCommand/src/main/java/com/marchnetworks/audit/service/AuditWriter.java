@@ -0,0 +1,228 @@
+package com.marchnetworks.audit.service;
+
+import com.marchnetworks.command.api.metrics.MetricHandle;
+import com.marchnetworks.command.api.metrics.MetricsCoreService;
+import com.marchnetworks.command.common.scheduling.TaskScheduler;
+import com.marchnetworks.common.diagnostics.metrics.MetricsHelper;
+import com.marchnetworks.common.diagnostics.metrics.MetricsTypes;
+import com.marchnetworks.common.spring.ApplicationContextSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queues audits and writes them in batches, each batch in a single transaction, shortly after the first audit of the
+ * batch arrives. When the queue is full the submitting thread waits for the queued audits to be written, so audits
+ * are never dropped and always written in the order they were submitted.
+ * <p>
+ * Audits are only written on scheduler threads, never in the transaction of the thread that submits or flushes them.
+ */
+class AuditWriter
+{
+	private static final Logger LOG = LoggerFactory.getLogger( AuditWriter.class );
+
+	private static final String EXECUTOR_ID = "AuditWriter";
+
+	private final BlockingQueue<PendingAudit> queue;
+	private final int batchSize;
+	private final long flushDelay;
+	private final TaskScheduler taskScheduler;
+
+	private final MetricsCoreService metricsService;
+	private final MetricHandle queueMetric;
+	private final MetricHandle batchMetric;
+
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final Object writeLock = new Object();
+	private volatile boolean closed = false;
+	private AuditLogService auditService;
+
+	private final Runnable flushTask = new Runnable()
+	{
+		public void run()
+		{
+			flushScheduled.set( false );
+			if ( !taskScheduler.tryExecuteSerial( drainTask, EXECUTOR_ID ) )
+			{
+				drain();
+			}
+		}
+	};
+
+	private final Runnable drainTask = new Runnable()
+	{
+		public void run()
+		{
+			drain();
+		}
+	};
+
+	AuditWriter( int maxQueueSize, int batchSize, long flushDelay, TaskScheduler taskScheduler )
+	{
+		queue = new LinkedBlockingQueue( maxQueueSize );
+		this.batchSize = batchSize;
+		this.flushDelay = flushDelay;
+		this.taskScheduler = taskScheduler;
+
+		metricsService = MetricsHelper.metrics;
+		queueMetric = metricsService.getCurrentMaxAvgHandle( MetricsTypes.AUDIT_QUEUE.getName() );
+		batchMetric = metricsService.getMinMaxAvgHandle( MetricsTypes.AUDIT_BATCH.getName() );
+	}
+
+	public void submit( PendingAudit audit )
+	{
+		while ( !queue.offer( audit ) )
+		{
+			metricsService.addCounter( MetricsTypes.AUDIT_CALLER_WRITES.getName() );
+			flush();
+		}
+		queueMetric.addValue( queue.size() );
+
+		if ( closed )
+		{
+			flush();
+		}
+		else if ( flushScheduled.compareAndSet( false, true ) )
+		{
+			try
+			{
+				taskScheduler.schedule( flushTask, flushDelay, TimeUnit.MILLISECONDS );
+			}
+			catch ( RejectedExecutionException e )
+			{
+				flushScheduled.set( false );
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Writes all queued audits on the writer's executor and waits for them to be written.
+	 */
+	public void flush()
+	{
+		// Already writing on this thread, e.g. a write submitting an audit with the queue full, waiting would never end
+		if ( Thread.holdsLock( writeLock ) )
+		{
+			drain();
+			return;
+		}
+
+		FutureTask<Void> task = new FutureTask( drainTask, null );
+		if ( !taskScheduler.tryExecuteSerial( task, EXECUTOR_ID ) )
+		{
+			// The writer's queue is full or the scheduler is shutting down, write them here rather than wait forever
+			task.run();
+		}
+
+		try
+		{
+			task.get();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch ( ExecutionException e )
+		{
+			LOG.error( "Failed to flush audits. Error details: {}", e.getCause().getMessage() );
+		}
+	}
+
+	public void close()
+	{
+		closed = true;
+		flush();
+	}
+
+	private void drain()
+	{
+		synchronized ( writeLock )
+		{
+			List<PendingAudit> batch = new ArrayList( batchSize );
+			while ( queue.drainTo( batch, batchSize ) > 0 )
+			{
+				write( batch );
+				batch.clear();
+			}
+		}
+	}
+
+	private void write( List<PendingAudit> batch )
+	{
+		batchMetric.addValue( batch.size() );
+		if ( ( tryWrite( batch ) == null ) || ( tryWrite( batch ) == null ) )
+		{
+			return;
+		}
+		LOG.warn( "Failed to write {} audits twice, writing them in smaller batches", Integer.valueOf( batch.size() ) );
+		writeHalves( batch );
+	}
+
+	/**
+	 * Writes each half of the audits on its own, splitting a half again if it fails, until the audits that can't be
+	 * written are isolated.
+	 */
+	private void writeHalves( List<PendingAudit> audits )
+	{
+		int half = audits.size() / 2;
+		List[] halves = new List[] {audits.subList( 0, half ), audits.subList( half, audits.size() )};
+		for ( List<PendingAudit> part : halves )
+		{
+			RuntimeException e = part.isEmpty() ? null : tryWrite( part );
+			if ( e == null )
+			{
+				continue;
+			}
+			if ( part.size() > 1 )
+			{
+				writeHalves( part );
+			}
+			else
+			{
+				PendingAudit audit = ( PendingAudit ) part.get( 0 );
+				LOG.error( "Failed to write audit {}. Error details: {}", audit.getWords().values(), e.getMessage() );
+			}
+		}
+	}
+
+	/**
+	 * @return the exception the write failed with, or null if the audits were written
+	 */
+	private RuntimeException tryWrite( List<PendingAudit> audits )
+	{
+		try
+		{
+			getAuditService().writeAudits( audits );
+		}
+		catch ( RuntimeException e )
+		{
+			// The ids were assigned in the transaction that was rolled back
+			for ( PendingAudit audit : audits )
+			{
+				audit.getEntity().setId( null );
+			}
+			return e;
+		}
+		return null;
+	}
+
+	private AuditLogService getAuditService()
+	{
+		if ( auditService == null )
+		{
+			auditService = ( ( AuditLogService ) ApplicationContextSupport.getBean( "auditLogServiceProxy_internal" ) );
+		}
+		return auditService;
+	}
+}
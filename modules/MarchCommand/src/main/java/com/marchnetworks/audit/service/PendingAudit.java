@@ -0,0 +1,43 @@
+package com.marchnetworks.audit.service;
+
+import com.marchnetworks.audit.model.AuditEntity;
+
+import java.util.Map;
+
+/**
+ * An audit accepted by the audit service and waiting to be written, together with the dictionary words it refers to.
+ * A server audit carrying an event tag updates the end time of an existing audit with the same tag if there is one.
+ */
+public class PendingAudit
+{
+	private final AuditEntity entity;
+	private final Map<Integer, String> words;
+	private final Long endTime;
+
+	public PendingAudit( AuditEntity entity, Map<Integer, String> words )
+	{
+		this( entity, words, null );
+	}
+
+	public PendingAudit( AuditEntity entity, Map<Integer, String> words, Long endTime )
+	{
+		this.entity = entity;
+		this.words = words;
+		this.endTime = endTime;
+	}
+
+	public AuditEntity getEntity()
+	{
+		return entity;
+	}
+
+	public Map<Integer, String> getWords()
+	{
+		return words;
+	}
+
+	public Long getEndTime()
+	{
+		return endTime;
+	}
+}
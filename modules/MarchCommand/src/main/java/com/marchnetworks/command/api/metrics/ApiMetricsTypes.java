@@ -3,12 +3,22 @@ package com.marchnetworks.command.api.metrics;
 public enum ApiMetricsTypes
 {
 	REST_CONNECTION( "rest.connection" ),
+	REST_CONNECTION_LATENCY( "rest.connection.latency" ),
 	REST_SESSION_RENEW( "rest.session.renew" ),
 	TRANSACTION( "transaction" ),
+	TRANSACTION_LATENCY( "transaction.latency" ),
 	DATABASE_FAILURE( "database.failure" ),
 	DEVICE_TASKS( "device.tasks" ),
+	DEVICE_TASKS_LATENCY( "device.tasks.latency" ),
 	SERIAL_TASK( "serial.task" ),
-	SERIAL_TASK_QUEUE( "serial.task.queue" );
+	SERIAL_TASK_QUEUE( "serial.task.queue" ),
+	SERIAL_TASK_LANE( "serial.task.lane" ),
+	SERIAL_TASK_WAIT( "serial.task.wait" ),
+	TASK_EXECUTOR_QUEUE( "task.executor.queue" ),
+	TASK_EXECUTOR_ACTIVE( "task.executor.active" ),
+	TASK_EXECUTOR_LATENCY( "task.executor.latency" ),
+	TASK_EXECUTOR_REJECTED( "task.executor.rejected" ),
+	TASK_EXECUTOR_RETIRED( "task.executor.retired" );
 
 	private String name;
 
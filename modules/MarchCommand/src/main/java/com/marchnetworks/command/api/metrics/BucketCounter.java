@@ -4,13 +4,19 @@ import com.marchnetworks.command.common.CollectionUtils;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class BucketCounter extends Metric
 {
 	private Map<String, Long> counters = new ConcurrentSkipListMap();
 	private int itemsPerLine;
 
+	private transient ConcurrentMap<String, LongAdder> adders = new ConcurrentHashMap();
+
 	public BucketCounter()
 	{
 	}
@@ -23,16 +29,35 @@ public class BucketCounter extends Metric
 
 	public void addValue( String bucket, long value )
 	{
-		Long current = ( Long ) counters.get( bucket );
-		if ( current == null )
+		LongAdder adder = ( LongAdder ) adders.get( bucket );
+		if ( adder == null )
 		{
-			current = Long.valueOf( value );
+			adder = new LongAdder();
+			LongAdder existing = ( LongAdder ) adders.putIfAbsent( bucket, adder );
+			if ( existing != null )
+			{
+				adder = existing;
+			}
 		}
-		else
+		adder.add( value );
+	}
+
+	public void updateValues()
+	{
+		Map<String, Long> result = new ConcurrentSkipListMap();
+		for ( Entry<String, LongAdder> entry : adders.entrySet() )
+		{
+			result.put( entry.getKey(), Long.valueOf( ( ( LongAdder ) entry.getValue() ).sum() ) );
+		}
+		counters = result;
+	}
+
+	public void restoreValues()
+	{
+		for ( Entry<String, Long> entry : counters.entrySet() )
 		{
-			current = Long.valueOf( current.longValue() + value );
+			addValue( ( String ) entry.getKey(), ( ( Long ) entry.getValue() ).longValue() );
 		}
-		counters.put( bucket, current );
 	}
 
 	public String getValueString()
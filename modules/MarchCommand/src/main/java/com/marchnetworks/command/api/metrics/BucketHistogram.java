@@ -0,0 +1,93 @@
+package com.marchnetworks.command.api.metrics;
+
+import com.marchnetworks.command.common.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+public class BucketHistogram extends Metric
+{
+	private Map<String, Histogram> histograms = new ConcurrentSkipListMap();
+
+	public BucketHistogram()
+	{
+	}
+
+	public BucketHistogram( String name )
+	{
+		super( name );
+	}
+
+	public void addValue( String bucket, long value )
+	{
+		getBucket( bucket ).addValue( value );
+	}
+
+	public Histogram getBucket( String bucket )
+	{
+		Histogram histogram = ( Histogram ) histograms.get( bucket );
+		if ( histogram == null )
+		{
+			histogram = new Histogram( "" );
+			Histogram existing = ( Histogram ) histograms.putIfAbsent( bucket, histogram );
+			if ( existing != null )
+			{
+				histogram = existing;
+			}
+		}
+		return histogram;
+	}
+
+	public void updateValues()
+	{
+		for ( Histogram histogram : histograms.values() )
+		{
+			histogram.updateValues();
+		}
+	}
+
+	public void rollInterval()
+	{
+		for ( Histogram histogram : histograms.values() )
+		{
+			histogram.rollInterval();
+		}
+	}
+
+	public void restoreValues()
+	{
+		histograms = new ConcurrentSkipListMap( histograms );
+		for ( Histogram histogram : histograms.values() )
+		{
+			histogram.restoreValues();
+		}
+	}
+
+	public String getValueString()
+	{
+		return null;
+	}
+
+	public List<List<String>> getAdditionalTable()
+	{
+		if ( histograms.isEmpty() )
+		{
+			return null;
+		}
+
+		Map<String, Histogram> sortedHistograms = CollectionUtils.sortByValue( histograms, 0, true );
+
+		List<List<String>> result = new ArrayList();
+
+		result.add( MetricsDisplayUtils.getHistogramHeaders() );
+		result.addAll( MetricsDisplayUtils.getHistogramRows( sortedHistograms ) );
+		return result;
+	}
+
+	public Map<String, Histogram> getHistograms()
+	{
+		return histograms;
+	}
+}
@@ -15,22 +15,52 @@ public class BucketMinMaxAvg extends Metric
 	{
 	}
 
+	public BucketMinMaxAvg( String name )
+	{
+		super( name );
+	}
+
 	public BucketMinMaxAvg( String name, String bucket, long value )
 	{
 		super( name );
-		MinMaxAvg minMaxAvg = new MinMaxAvg( "", value );
-		averages.put( bucket, minMaxAvg );
+		addValue( bucket, value );
 	}
 
 	public void addValue( String bucket, long value )
+	{
+		getBucket( bucket ).addValue( value );
+	}
+
+	public MinMaxAvg getBucket( String bucket )
 	{
 		MinMaxAvg minMaxAvg = ( MinMaxAvg ) averages.get( bucket );
 		if ( minMaxAvg == null )
 		{
-			minMaxAvg = new MinMaxAvg( "", value );
-			averages.put( bucket, minMaxAvg );
+			minMaxAvg = new MinMaxAvg( "" );
+			MinMaxAvg existing = ( MinMaxAvg ) averages.putIfAbsent( bucket, minMaxAvg );
+			if ( existing != null )
+			{
+				minMaxAvg = existing;
+			}
+		}
+		return minMaxAvg;
+	}
+
+	public void updateValues()
+	{
+		for ( MinMaxAvg minMaxAvg : averages.values() )
+		{
+			minMaxAvg.updateValues();
+		}
+	}
+
+	public void restoreValues()
+	{
+		averages = new ConcurrentSkipListMap( averages );
+		for ( MinMaxAvg minMaxAvg : averages.values() )
+		{
+			minMaxAvg.restoreValues();
 		}
-		minMaxAvg.addValue( value );
 	}
 
 	public String getValueString()
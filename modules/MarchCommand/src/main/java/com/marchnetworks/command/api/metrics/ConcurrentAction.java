@@ -1,11 +1,18 @@
 package com.marchnetworks.command.api.metrics;
 
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
 public class ConcurrentAction extends SingleValueMetric
 {
 	private long total;
 
 	private long maxConcurrent;
 
+	private transient LongAdder totalAdder = new LongAdder();
+
+	private transient LongAccumulator maxConcurrentAccumulator = MetricAccumulators.newMax( 0L );
+
 	public ConcurrentAction()
 	{
 	}
@@ -17,11 +24,20 @@ public class ConcurrentAction extends SingleValueMetric
 
 	public void addValue( long concurrent )
 	{
-		if ( concurrent > maxConcurrent )
-		{
-			maxConcurrent = concurrent;
-		}
-		total += 1L;
+		maxConcurrentAccumulator.accumulate( concurrent );
+		totalAdder.increment();
+	}
+
+	public void updateValues()
+	{
+		total = totalAdder.sum();
+		maxConcurrent = maxConcurrentAccumulator.get();
+	}
+
+	public void restoreValues()
+	{
+		totalAdder.add( total );
+		maxConcurrentAccumulator.accumulate( maxConcurrent );
 	}
 
 	public String getValueString()
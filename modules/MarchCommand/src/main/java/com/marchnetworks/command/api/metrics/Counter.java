@@ -1,9 +1,13 @@
 package com.marchnetworks.command.api.metrics;
 
+import java.util.concurrent.atomic.LongAdder;
+
 public class Counter extends SingleValueMetric
 {
 	private long counter;
 
+	private transient LongAdder adder = new LongAdder();
+
 	public Counter()
 	{
 	}
@@ -15,7 +19,17 @@ public class Counter extends SingleValueMetric
 
 	public void addValue( long value )
 	{
-		counter += value;
+		adder.add( value );
+	}
+
+	public void updateValues()
+	{
+		counter = adder.sum();
+	}
+
+	public void restoreValues()
+	{
+		adder.add( counter );
 	}
 
 	public String getValueString()
@@ -33,4 +47,3 @@ public class Counter extends SingleValueMetric
 		this.counter = counter;
 	}
 }
-
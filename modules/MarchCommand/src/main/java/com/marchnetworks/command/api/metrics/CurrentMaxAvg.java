@@ -1,5 +1,8 @@
 package com.marchnetworks.command.api.metrics;
 
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
 public class CurrentMaxAvg extends SingleValueMetric implements Comparable<CurrentMaxAvg>
 {
 	private long current;
@@ -10,30 +13,61 @@ public class CurrentMaxAvg extends SingleValueMetric implements Comparable<Curre
 
 	private double avg;
 
+	private transient volatile long lastValue;
+
+	private transient LongAccumulator maxAccumulator = MetricAccumulators.newMax( Long.MIN_VALUE );
+
+	private transient LongAdder sampleCount = new LongAdder();
+
+	private transient LongAdder sampleSum = new LongAdder();
+
 	public CurrentMaxAvg()
 	{
 	}
 
+	public CurrentMaxAvg( String name )
+	{
+		super( name );
+	}
+
 	public CurrentMaxAvg( String name, long value )
 	{
 		super( name );
-		current = value;
-		max = value;
-		avg = value;
-		numSamples = 1L;
+		addValue( value );
+		updateValues();
 	}
 
 	public void addValue( long value )
 	{
-		current = value;
+		lastValue = value;
+		maxAccumulator.accumulate( value );
+		sampleSum.add( value );
+		sampleCount.increment();
+	}
 
-		if ( value > max )
+	public void updateValues()
+	{
+		long samples = sampleCount.sum();
+		if ( samples == 0L )
 		{
-			max = value;
+			return;
 		}
+		current = lastValue;
+		max = maxAccumulator.get();
+		avg = ( ( double ) sampleSum.sum() / samples );
+		numSamples = samples;
+	}
 
-		numSamples += 1L;
-		avg = ( ( avg * ( numSamples - 1L ) + value ) / numSamples );
+	public void restoreValues()
+	{
+		if ( numSamples == 0L )
+		{
+			return;
+		}
+		lastValue = current;
+		maxAccumulator.accumulate( max );
+		sampleSum.add( Math.round( avg * numSamples ) );
+		sampleCount.add( numSamples );
 	}
 
 	public String getValueString()
@@ -0,0 +1,223 @@
+package com.marchnetworks.command.api.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency distribution reporting p50/p90/p99/p99.9 for the whole metrics period, and separately for the interval
+ * since the previous scheduled snapshot of the metrics.
+ */
+public class Histogram extends SingleValueMetric implements Comparable<Histogram>
+{
+	private long count;
+	private long min;
+	private long max;
+	private double mean;
+	private long p50;
+	private long p90;
+	private long p99;
+	private long p999;
+
+	private long intervalCount;
+	private long intervalP50;
+	private long intervalP90;
+	private long intervalP99;
+	private long intervalP999;
+
+	private Map<Integer, Long> buckets = new TreeMap();
+
+	private transient HistogramRecorder recorder = new HistogramRecorder();
+	private transient long[] totals = new long[HistogramRecorder.LENGTH];
+	private transient long[] intervalCounts = new long[HistogramRecorder.LENGTH];
+	private transient long intervalTotal;
+	private transient LongAccumulator minAccumulator = MetricAccumulators.newMin();
+	private transient LongAccumulator maxAccumulator = MetricAccumulators.newMax( Long.MIN_VALUE );
+	private transient LongAdder sampleSum = new LongAdder();
+
+	public Histogram()
+	{
+	}
+
+	public Histogram( String name )
+	{
+		super( name );
+	}
+
+	public void addValue( long value )
+	{
+		recorder.record( value );
+		minAccumulator.accumulate( value );
+		maxAccumulator.accumulate( value );
+		sampleSum.add( value );
+	}
+
+	public synchronized void updateValues()
+	{
+		long[] sampled = recorder.sampleInterval();
+		long sampledTotal = 0L;
+		for ( int i = 0; i < sampled.length; i++ )
+		{
+			if ( sampled[i] != 0L )
+			{
+				totals[i] += sampled[i];
+				intervalCounts[i] += sampled[i];
+				sampledTotal += sampled[i];
+			}
+		}
+
+		intervalTotal += sampledTotal;
+		intervalCount = intervalTotal;
+		if ( intervalTotal == 0L )
+		{
+			intervalP50 = 0L;
+			intervalP90 = 0L;
+			intervalP99 = 0L;
+			intervalP999 = 0L;
+		}
+		if ( sampledTotal == 0L )
+		{
+			return;
+		}
+
+		count += sampledTotal;
+		min = minAccumulator.get();
+		max = maxAccumulator.get();
+		mean = ( ( double ) sampleSum.sum() / count );
+		intervalP50 = getPercentile( intervalCounts, intervalTotal, 50.0D );
+		intervalP90 = getPercentile( intervalCounts, intervalTotal, 90.0D );
+		intervalP99 = getPercentile( intervalCounts, intervalTotal, 99.0D );
+		intervalP999 = getPercentile( intervalCounts, intervalTotal, 99.9D );
+		p50 = getPercentile( totals, count, 50.0D );
+		p90 = getPercentile( totals, count, 90.0D );
+		p99 = getPercentile( totals, count, 99.0D );
+		p999 = getPercentile( totals, count, 99.9D );
+
+		Map<Integer, Long> result = new TreeMap();
+		for ( int i = 0; i < totals.length; i++ )
+		{
+			if ( totals[i] != 0L )
+			{
+				result.put( Integer.valueOf( i ), Long.valueOf( totals[i] ) );
+			}
+		}
+		buckets = result;
+	}
+
+	/**
+	 * The reported interval values are kept for the snapshot being taken, the counts start over for the next one.
+	 */
+	public synchronized void rollInterval()
+	{
+		updateValues();
+		Arrays.fill( intervalCounts, 0L );
+		intervalTotal = 0L;
+	}
+
+	public synchronized void restoreValues()
+	{
+		for ( Entry<Integer, Long> entry : buckets.entrySet() )
+		{
+			int index = ( ( Integer ) entry.getKey() ).intValue();
+			if ( ( index >= 0 ) && ( index < totals.length ) )
+			{
+				totals[index] += ( ( Long ) entry.getValue() ).longValue();
+			}
+		}
+		if ( count > 0L )
+		{
+			minAccumulator.accumulate( min );
+			maxAccumulator.accumulate( max );
+			sampleSum.add( Math.round( mean * count ) );
+		}
+	}
+
+	public String getValueString()
+	{
+		return "p50: " + p50 + ", p90: " + p90 + ", p99: " + p99 + ", p99.9: " + p999 + ", min: " + min + ", max: " + max + ", avg: " + getMeanString() + ", total: " + count + ", interval p99: " + intervalP99 + ", interval total: " + intervalCount;
+	}
+
+	public int compareTo( Histogram other )
+	{
+		return Long.compare( p99, other.getP99() );
+	}
+
+	private long getPercentile( long[] counts, long total, double percentile )
+	{
+		long value = HistogramRecorder.valueAtPercentile( counts, total, percentile );
+		return Math.max( min, Math.min( max, value ) );
+	}
+
+	public String getMeanString()
+	{
+		return String.format( "%.02f", new Object[] {Double.valueOf( mean )} );
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	public long getMin()
+	{
+		return min;
+	}
+
+	public long getMax()
+	{
+		return max;
+	}
+
+	public double getMean()
+	{
+		return mean;
+	}
+
+	public long getP50()
+	{
+		return p50;
+	}
+
+	public long getP90()
+	{
+		return p90;
+	}
+
+	public long getP99()
+	{
+		return p99;
+	}
+
+	public long getP999()
+	{
+		return p999;
+	}
+
+	public long getIntervalCount()
+	{
+		return intervalCount;
+	}
+
+	public long getIntervalP50()
+	{
+		return intervalP50;
+	}
+
+	public long getIntervalP90()
+	{
+		return intervalP90;
+	}
+
+	public long getIntervalP99()
+	{
+		return intervalP99;
+	}
+
+	public long getIntervalP999()
+	{
+		return intervalP999;
+	}
+}
@@ -0,0 +1,119 @@
+package com.marchnetworks.command.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear value counts in the style of an HDR histogram. Values below 128 are counted exactly, larger values land
+ * in one of 64 sub-buckets per power of two, which bounds the relative error of a reported percentile to under 2%.
+ * Recording is wait free. {@link #sampleInterval()} swaps the active counts with a writer/reader phaser, so every
+ * recorded value ends up in exactly one interval.
+ */
+final class HistogramRecorder
+{
+	static final long MAX_TRACKABLE_VALUE = ( 1L << 36 ) - 1L;
+
+	private static final int SUB_BUCKET_COUNT = 128;
+	private static final int SUB_BUCKET_HALF_COUNT = 64;
+	private static final int SUB_BUCKET_HALF_BITS = 6;
+
+	static final int LENGTH = indexOf( MAX_TRACKABLE_VALUE ) + 1;
+
+	private final AtomicLongArray evenCounts = new AtomicLongArray( LENGTH );
+	private final AtomicLongArray oddCounts = new AtomicLongArray( LENGTH );
+
+	private final AtomicLong startEpoch = new AtomicLong( 0L );
+	private final AtomicLong evenEndEpoch = new AtomicLong( 0L );
+	private final AtomicLong oddEndEpoch = new AtomicLong( Long.MIN_VALUE );
+
+	static int indexOf( long value )
+	{
+		if ( value < 0L )
+		{
+			value = 0L;
+		}
+		else if ( value > MAX_TRACKABLE_VALUE )
+		{
+			value = MAX_TRACKABLE_VALUE;
+		}
+
+		if ( value < SUB_BUCKET_COUNT )
+		{
+			return ( int ) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_HALF_BITS;
+		int subBucket = ( int ) ( value >>> exponent );
+		return SUB_BUCKET_COUNT + ( exponent - 1 ) * SUB_BUCKET_HALF_COUNT + ( subBucket - SUB_BUCKET_HALF_COUNT );
+	}
+
+	static long highestEquivalentValue( int index )
+	{
+		if ( index < SUB_BUCKET_COUNT )
+		{
+			return index;
+		}
+		int exponent = ( index - SUB_BUCKET_COUNT ) / SUB_BUCKET_HALF_COUNT + 1;
+		long subBucket = ( index - SUB_BUCKET_COUNT ) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+		return ( ( subBucket + 1L ) << exponent ) - 1L;
+	}
+
+	static long valueAtPercentile( long[] counts, long total, double percentile )
+	{
+		if ( total == 0L )
+		{
+			return 0L;
+		}
+		long target = Math.max( 1L, ( long ) Math.ceil( percentile / 100.0D * total ) );
+		long seen = 0L;
+		for ( int i = 0; i < counts.length; i++ )
+		{
+			seen += counts[i];
+			if ( seen >= target )
+			{
+				return highestEquivalentValue( i );
+			}
+		}
+		return highestEquivalentValue( counts.length - 1 );
+	}
+
+	public void record( long value )
+	{
+		long epoch = startEpoch.getAndIncrement();
+		try
+		{
+			( epoch < 0L ? oddCounts : evenCounts ).incrementAndGet( indexOf( value ) );
+		}
+		finally
+		{
+			( epoch < 0L ? oddEndEpoch : evenEndEpoch ).getAndIncrement();
+		}
+	}
+
+	/**
+	 * Returns the counts recorded since the previous call and starts a new interval.
+	 */
+	public synchronized long[] sampleInterval()
+	{
+		boolean nextPhaseIsEven = startEpoch.get() < 0L;
+		long initialStartValue = nextPhaseIsEven ? 0L : Long.MIN_VALUE;
+		( nextPhaseIsEven ? evenEndEpoch : oddEndEpoch ).set( initialStartValue );
+
+		long startValueAtFlip = startEpoch.getAndSet( initialStartValue );
+		AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+		while ( previousEndEpoch.get() != startValueAtFlip )
+		{
+			Thread.yield();
+		}
+
+		AtomicLongArray previousCounts = nextPhaseIsEven ? oddCounts : evenCounts;
+		long[] result = new long[LENGTH];
+		for ( int i = 0; i < LENGTH; i++ )
+		{
+			if ( previousCounts.get( i ) != 0L )
+			{
+				result[i] = previousCounts.getAndSet( i, 0L );
+			}
+		}
+		return result;
+	}
+}
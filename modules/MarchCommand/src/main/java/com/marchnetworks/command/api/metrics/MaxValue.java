@@ -1,9 +1,13 @@
 package com.marchnetworks.command.api.metrics;
 
+import java.util.concurrent.atomic.LongAccumulator;
+
 public class MaxValue extends SingleValueMetric
 {
 	private long max;
 
+	private transient LongAccumulator maxAccumulator = MetricAccumulators.newMax( 0L );
+
 	public MaxValue()
 	{
 	}
@@ -15,10 +19,17 @@ public class MaxValue extends SingleValueMetric
 
 	public void addValue( long value )
 	{
-		if ( value > max )
-		{
-			max = value;
-		}
+		maxAccumulator.accumulate( value );
+	}
+
+	public void updateValues()
+	{
+		max = maxAccumulator.get();
+	}
+
+	public void restoreValues()
+	{
+		maxAccumulator.accumulate( max );
 	}
 
 	public String getValueString()
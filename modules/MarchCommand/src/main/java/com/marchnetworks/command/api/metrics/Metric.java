@@ -22,6 +22,29 @@ public abstract class Metric
 	{
 	}
 
+	/**
+	 * Copies the concurrently recorded values into the serialized fields, before the metric is read or serialized.
+	 */
+	public void updateValues()
+	{
+	}
+
+	/**
+	 * Updates the values as {@link #updateValues()} does, then starts a new interval for the metrics reporting one. Only
+	 * the scheduled snapshot ends an interval, any other reader sees the interval so far.
+	 */
+	public void rollInterval()
+	{
+		updateValues();
+	}
+
+	/**
+	 * Seeds the recorded values from the serialized fields, for a metric read back from a snapshot that keeps recording.
+	 */
+	public void restoreValues()
+	{
+	}
+
 	public Metric()
 	{
 	}
@@ -0,0 +1,37 @@
+package com.marchnetworks.command.api.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.LongBinaryOperator;
+
+final class MetricAccumulators
+{
+	private static final LongBinaryOperator MIN = new LongBinaryOperator()
+	{
+		public long applyAsLong( long left, long right )
+		{
+			return Math.min( left, right );
+		}
+	};
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator()
+	{
+		public long applyAsLong( long left, long right )
+		{
+			return Math.max( left, right );
+		}
+	};
+
+	private MetricAccumulators()
+	{
+	}
+
+	static LongAccumulator newMin()
+	{
+		return new LongAccumulator( MIN, Long.MAX_VALUE );
+	}
+
+	static LongAccumulator newMax( long identity )
+	{
+		return new LongAccumulator( MAX, identity );
+	}
+}
@@ -0,0 +1,9 @@
+package com.marchnetworks.command.api.metrics;
+
+/**
+ * Reference to a single metric, resolved once so that recording a value does not look the metric up by name.
+ */
+public abstract interface MetricHandle
+{
+	public abstract void addValue( long paramLong );
+}
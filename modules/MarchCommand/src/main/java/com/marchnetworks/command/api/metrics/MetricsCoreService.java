@@ -36,6 +36,22 @@ public abstract interface MetricsCoreService
 
 	public abstract void addMax( String paramString, long paramLong );
 
+	public abstract void addHistogram( String paramString, long paramLong );
+
+	public abstract void addBucketHistogram( String paramString1, String paramString2, long paramLong );
+
+	public abstract MetricHandle getCounterHandle( String paramString );
+
+	public abstract MetricHandle getMinMaxAvgHandle( String paramString );
+
+	public abstract MetricHandle getBucketMinMaxAvgHandle( String paramString1, String paramString2 );
+
+	public abstract MetricHandle getCurrentMaxAvgHandle( String paramString );
+
+	public abstract MetricHandle getHistogramHandle( String paramString );
+
+	public abstract MetricHandle getBucketHistogramHandle( String paramString1, String paramString2 );
+
 	public abstract MetricSnapshot getCurrentMetrics();
 
 	public abstract void clearCurrentMetrics();
@@ -39,4 +39,21 @@ public class MetricsDisplayUtils
 		}
 		return result;
 	}
+
+	public static List<String> getHistogramHeaders()
+	{
+		return Arrays.asList( new String[] {"Name", "P50", "P90", "P99", "P99.9", "Max", "Avg", "Total", "Interval P99", "Interval Total"} );
+	}
+
+	public static List<List<String>> getHistogramRows( Map<String, Histogram> rows )
+	{
+		List<List<String>> result = new ArrayList();
+		for ( Entry<String, Histogram> entry : rows.entrySet() )
+		{
+			Histogram value = ( Histogram ) entry.getValue();
+			List<String> row = Arrays.asList( new String[] {( String ) entry.getKey(), String.valueOf( value.getP50() ), String.valueOf( value.getP90() ), String.valueOf( value.getP99() ), String.valueOf( value.getP999() ), String.valueOf( value.getMax() ), value.getMeanString(), String.valueOf( value.getCount() ), String.valueOf( value.getIntervalP99() ), String.valueOf( value.getIntervalCount() )} );
+			result.add( row );
+		}
+		return result;
+	}
 }
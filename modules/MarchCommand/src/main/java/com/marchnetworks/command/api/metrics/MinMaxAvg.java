@@ -1,5 +1,8 @@
 package com.marchnetworks.command.api.metrics;
 
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
 public class MinMaxAvg extends SingleValueMetric implements Comparable<MinMaxAvg>
 {
 	private long min;
@@ -10,32 +13,61 @@ public class MinMaxAvg extends SingleValueMetric implements Comparable<MinMaxAvg
 
 	private double avg;
 
+	private transient LongAccumulator minAccumulator = MetricAccumulators.newMin();
+
+	private transient LongAccumulator maxAccumulator = MetricAccumulators.newMax( Long.MIN_VALUE );
+
+	private transient LongAdder sampleCount = new LongAdder();
+
+	private transient LongAdder sampleSum = new LongAdder();
+
 	public MinMaxAvg()
 	{
 	}
 
+	public MinMaxAvg( String name )
+	{
+		super( name );
+	}
+
 	public MinMaxAvg( String name, long value )
 	{
 		super( name );
-		min = value;
-		max = value;
-		avg = value;
-		numSamples = 1L;
+		addValue( value );
+		updateValues();
 	}
 
 	public void addValue( long value )
 	{
-		if ( value < min )
+		minAccumulator.accumulate( value );
+		maxAccumulator.accumulate( value );
+		sampleSum.add( value );
+		sampleCount.increment();
+	}
+
+	public void updateValues()
+	{
+		long samples = sampleCount.sum();
+		if ( samples == 0L )
 		{
-			min = value;
+			return;
 		}
-		if ( value > max )
+		min = minAccumulator.get();
+		max = maxAccumulator.get();
+		avg = ( ( double ) sampleSum.sum() / samples );
+		numSamples = samples;
+	}
+
+	public void restoreValues()
+	{
+		if ( numSamples == 0L )
 		{
-			max = value;
+			return;
 		}
-
-		numSamples += 1L;
-		avg = ( ( avg * ( numSamples - 1L ) + value ) / numSamples );
+		minAccumulator.accumulate( min );
+		maxAccumulator.accumulate( max );
+		sampleSum.add( getSum() );
+		sampleCount.add( numSamples );
 	}
 
 	public String getValueString()
@@ -6,8 +6,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RetryAction extends Metric
 {
@@ -21,6 +24,14 @@ public class RetryAction extends Metric
 
 	private Map<String, MinMaxAvg> failureSources = new ConcurrentHashMap();
 
+	private transient LongAdder successAdder = new LongAdder();
+
+	private transient LongAdder failureRetryAdder = new LongAdder();
+
+	private transient LongAdder failureAdder = new LongAdder();
+
+	private transient ConcurrentMap<Long, LongAdder> retryAdders = new ConcurrentHashMap();
+
 	public RetryAction()
 	{
 	}
@@ -37,6 +48,51 @@ public class RetryAction extends Metric
 		failureSources = CollectionUtils.sortByValue( failureSources, maxSources, true );
 	}
 
+	public void updateValues()
+	{
+		successes = successAdder.sum();
+		failuresRetry = failureRetryAdder.sum();
+		failures = failureAdder.sum();
+
+		Map<Long, Long> result = new ConcurrentSkipListMap();
+		for ( Entry<Long, LongAdder> entry : retryAdders.entrySet() )
+		{
+			result.put( entry.getKey(), Long.valueOf( ( ( LongAdder ) entry.getValue() ).sum() ) );
+		}
+		retries = result;
+
+		for ( MinMaxAvg minMaxAvg : successSources.values() )
+		{
+			minMaxAvg.updateValues();
+		}
+		for ( MinMaxAvg minMaxAvg : failureSources.values() )
+		{
+			minMaxAvg.updateValues();
+		}
+	}
+
+	public void restoreValues()
+	{
+		successAdder.add( successes );
+		failureRetryAdder.add( failuresRetry );
+		failureAdder.add( failures );
+		for ( Entry<Long, Long> entry : retries.entrySet() )
+		{
+			getRetryAdder( ( Long ) entry.getKey() ).add( ( ( Long ) entry.getValue() ).longValue() );
+		}
+
+		successSources = new ConcurrentHashMap( successSources );
+		failureSources = new ConcurrentHashMap( failureSources );
+		for ( MinMaxAvg minMaxAvg : successSources.values() )
+		{
+			minMaxAvg.restoreValues();
+		}
+		for ( MinMaxAvg minMaxAvg : failureSources.values() )
+		{
+			minMaxAvg.restoreValues();
+		}
+	}
+
 	public String getValueString()
 	{
 		return "successes: " + successes + ", failures: " + failures + ", retryFailures: " + failuresRetry + ", retries: " + CollectionUtils.mapToString( retries );
@@ -80,38 +136,50 @@ public class RetryAction extends Metric
 
 	public void addSuccess( String source, long value )
 	{
-		successes += 1L;
-		MinMaxAvg minMaxAvg = ( MinMaxAvg ) successSources.get( source );
-		if ( minMaxAvg == null )
-		{
-			minMaxAvg = new MinMaxAvg( "", value );
-			successSources.put( source, minMaxAvg );
-		}
-		else
-		{
-			minMaxAvg.addValue( value );
-		}
+		successAdder.increment();
+		getSource( successSources, source ).addValue( value );
 	}
 
 	public void addFailure( String source, long value )
 	{
-		failures += 1L;
-		MinMaxAvg minMaxAvg = ( MinMaxAvg ) failureSources.get( source );
+		failureAdder.increment();
+		getSource( failureSources, source ).addValue( value );
+	}
+
+	public void addRetry( long numRetry )
+	{
+		failureRetryAdder.increment();
+		getRetryAdder( Long.valueOf( numRetry ) ).increment();
+	}
+
+	private MinMaxAvg getSource( Map<String, MinMaxAvg> sources, String source )
+	{
+		MinMaxAvg minMaxAvg = ( MinMaxAvg ) sources.get( source );
 		if ( minMaxAvg == null )
 		{
-			minMaxAvg = new MinMaxAvg( "", value );
-			failureSources.put( source, minMaxAvg );
-		}
-		else
-		{
-			minMaxAvg.addValue( value );
+			minMaxAvg = new MinMaxAvg( "" );
+			MinMaxAvg existing = ( MinMaxAvg ) sources.putIfAbsent( source, minMaxAvg );
+			if ( existing != null )
+			{
+				minMaxAvg = existing;
+			}
 		}
+		return minMaxAvg;
 	}
 
-	public void addRetry( long numRetry )
+	private LongAdder getRetryAdder( Long numRetry )
 	{
-		failuresRetry += 1L;
-		CollectionUtils.incrementMapLongValue( Long.valueOf( numRetry ), retries );
+		LongAdder adder = ( LongAdder ) retryAdders.get( numRetry );
+		if ( adder == null )
+		{
+			adder = new LongAdder();
+			LongAdder existing = ( LongAdder ) retryAdders.putIfAbsent( numRetry, adder );
+			if ( existing != null )
+			{
+				adder = existing;
+			}
+		}
+		return adder;
 	}
 
 	public long getSuccesses()
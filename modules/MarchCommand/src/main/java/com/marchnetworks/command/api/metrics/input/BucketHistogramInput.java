@@ -0,0 +1,25 @@
+package com.marchnetworks.command.api.metrics.input;
+
+public class BucketHistogramInput extends MetricInput
+{
+	private String bucket;
+
+	private long value;
+
+	public BucketHistogramInput( String name, String bucket, long value )
+	{
+		super( name );
+		this.bucket = bucket;
+		this.value = value;
+	}
+
+	public long getValue()
+	{
+		return value;
+	}
+
+	public String getBucket()
+	{
+		return bucket;
+	}
+}
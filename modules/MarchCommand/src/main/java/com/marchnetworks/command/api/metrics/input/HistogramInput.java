@@ -0,0 +1,17 @@
+package com.marchnetworks.command.api.metrics.input;
+
+public class HistogramInput extends MetricInput
+{
+	private long value;
+
+	public HistogramInput( String name, long value )
+	{
+		super( name );
+		this.value = value;
+	}
+
+	public long getValue()
+	{
+		return value;
+	}
+}
@@ -1,18 +1,12 @@
 package com.marchnetworks.command.api.query;
 
-import com.marchnetworks.command.common.ReflectionUtils;
-
-import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class Criteria
 {
 	private Class<?> targetClass;
 	private List<Restriction> restrictions = new ArrayList( 1 );
-	private Map<String, Field> fieldCache = new HashMap();
 
 	public Criteria( Class<?> targetClass )
 	{
@@ -47,19 +41,13 @@ public class Criteria
 		restrictions.clear();
 	}
 
-	public Class<?> getTargetClass()
+	public List<Restriction> getRestrictions()
 	{
-		return targetClass;
+		return restrictions;
 	}
 
-	public Field getField( String path, String fieldName, Class<?> fieldClass )
+	public Class<?> getTargetClass()
 	{
-		Field cached = ( Field ) fieldCache.get( path );
-		if ( cached == null )
-		{
-			cached = ReflectionUtils.getDeclaredField( fieldName, fieldClass );
-			fieldCache.put( path, cached );
-		}
-		return cached;
+		return targetClass;
 	}
 }
@@ -0,0 +1,111 @@
+package com.marchnetworks.command.api.query;
+
+import com.marchnetworks.command.common.ReflectionUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Field getter resolved once per (class, property) pair and shared by every {@link Criteria}, so that
+ * restrictions do not go through reflective field lookups and {@link Field#get} on each evaluation.
+ */
+public final class PropertyAccessor
+{
+	private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, PropertyAccessor>> accessors = new ConcurrentHashMap();
+
+	private final Class<?> targetClass;
+	private final String propertyName;
+	private final Class<?> propertyType;
+	private final MethodHandle getter;
+
+	private PropertyAccessor( Class<?> targetClass, String propertyName )
+	{
+		this.targetClass = targetClass;
+		this.propertyName = propertyName;
+
+		Field field = ReflectionUtils.getDeclaredField( propertyName, targetClass );
+		MethodHandle handle = null;
+		if ( field != null )
+		{
+			try
+			{
+				field.setAccessible( true );
+				handle = MethodHandles.lookup().unreflectGetter( field ).asType( GETTER_TYPE );
+			}
+			catch ( Exception localException )
+			{
+			}
+		}
+		propertyType = field != null ? field.getType() : null;
+		getter = handle;
+	}
+
+	public static PropertyAccessor get( Class<?> targetClass, String propertyName )
+	{
+		ConcurrentMap<String, PropertyAccessor> classAccessors = accessors.get( targetClass );
+		if ( classAccessors == null )
+		{
+			classAccessors = new ConcurrentHashMap();
+			ConcurrentMap<String, PropertyAccessor> existing = accessors.putIfAbsent( targetClass, classAccessors );
+			if ( existing != null )
+			{
+				classAccessors = existing;
+			}
+		}
+
+		PropertyAccessor accessor = classAccessors.get( propertyName );
+		if ( accessor == null )
+		{
+			accessor = new PropertyAccessor( targetClass, propertyName );
+			PropertyAccessor existing = classAccessors.putIfAbsent( propertyName, accessor );
+			if ( existing != null )
+			{
+				accessor = existing;
+			}
+		}
+		return accessor;
+	}
+
+	public Object getValue( Object target )
+	{
+		if ( getter == null )
+		{
+			return null;
+		}
+
+		try
+		{
+			return ( Object ) getter.invokeExact( target );
+		}
+		catch ( Throwable t )
+		{
+			return null;
+		}
+	}
+
+	public boolean exists()
+	{
+		return getter != null;
+	}
+
+	public Class<?> getTargetClass()
+	{
+		return targetClass;
+	}
+
+	public String getPropertyName()
+	{
+		return propertyName;
+	}
+
+	public Class<?> getPropertyType()
+	{
+		return propertyType;
+	}
+}
@@ -1,20 +1,21 @@
 package com.marchnetworks.command.api.query;
 
 import com.marchnetworks.command.common.CommonAppUtils;
-import com.marchnetworks.command.common.ReflectionUtils;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 
 public class Restriction
 {
-	private List<String> propertyPath = new ArrayList( 1 );
+	private String propertyName;
+	private String[] propertyPath;
+	private PropertyAccessor[] accessors;
 	private Object value;
+	private Collection<?> valueSet;
 	private RestrictionType type;
 	private Criteria criteria;
-	private String[] subPaths;
 
 	public Restriction( String name, Object value, RestrictionType type )
 	{
@@ -26,23 +27,24 @@ public class Restriction
 		{
 			throw new IllegalArgumentException( "Parameter value must not be null for " + type );
 		}
-		String[] properties = name.split( "\\." );
+		propertyName = name;
+		propertyPath = name.split( "\\." );
+		accessors = new PropertyAccessor[propertyPath.length];
 
-		subPaths = new String[properties.length];
-
-		for ( int i = 0; i < properties.length; i++ )
+		if ( ( type == RestrictionType.IN ) || ( type == RestrictionType.NOT_IN ) )
 		{
-			propertyPath.add( properties[i] );
-			String path = "";
-			for ( int j = 0; j <= i; j++ )
+			if ( ( value instanceof Set ) )
 			{
-				path = path + properties[j];
-				if ( j < i )
-				{
-					path = path + ".";
-				}
+				valueSet = ( Set ) value;
+			}
+			else if ( ( value instanceof Collection ) )
+			{
+				valueSet = new HashSet( ( Collection ) value );
+			}
+			else
+			{
+				valueSet = new HashSet( Arrays.asList( ( Object[] ) value ) );
 			}
-			subPaths[i] = path;
 		}
 		this.value = value;
 		this.type = type;
@@ -51,13 +53,11 @@ public class Restriction
 	public boolean match( Object obj )
 	{
 		Object valueToMatch = obj;
-		for ( int i = 0; i < propertyPath.size(); i++ )
+		for ( int i = 0; i < propertyPath.length; i++ )
 		{
-			String path = subPaths[i];
-			Field field = criteria.getField( path, ( String ) propertyPath.get( i ), valueToMatch.getClass() );
-			valueToMatch = ReflectionUtils.getSpecifiedFieldValue( field, valueToMatch );
+			valueToMatch = getAccessor( i, valueToMatch.getClass() ).getValue( valueToMatch );
 
-			if ( ( i < propertyPath.size() - 1 ) && ( valueToMatch == null ) )
+			if ( ( i < propertyPath.length - 1 ) && ( valueToMatch == null ) )
 			{
 				return false;
 			}
@@ -73,24 +73,11 @@ public class Restriction
 			return !isEqual( value, valueToMatch );
 		if ( type == RestrictionType.IN )
 		{
-
-			if ( ( value instanceof Collection ) )
-			{
-				return ( ( Collection ) value ).contains( valueToMatch );
-			}
-			for ( Object element : ( Object[] ) value )
-			{
-				if ( isEqual( element, valueToMatch ) )
-				{
-					return true;
-				}
-			}
-
-			return false;
+			return valueSet.contains( valueToMatch );
 		}
 		if ( type == RestrictionType.NOT_IN )
 		{
-			return !( ( Collection ) value ).contains( valueToMatch );
+			return !valueSet.contains( valueToMatch );
 		}
 		if ( type == RestrictionType.IS_NOT_EMPTY )
 		{
@@ -127,6 +114,19 @@ public class Restriction
 		return false;
 	}
 
+	private PropertyAccessor getAccessor( int index, Class<?> targetClass )
+	{
+		// Resources of a single Criteria are almost always of the same class, so remember the last accessor per path
+		// segment and only go to the shared accessor cache when the class changes
+		PropertyAccessor accessor = accessors[index];
+		if ( ( accessor == null ) || ( accessor.getTargetClass() != targetClass ) )
+		{
+			accessor = PropertyAccessor.get( targetClass, propertyPath[index] );
+			accessors[index] = accessor;
+		}
+		return accessor;
+	}
+
 	private boolean isEqual( Object value1, Object value2 )
 	{
 		if ( ( value1 == null ) && ( value2 == null ) )
@@ -163,6 +163,21 @@ public class Restriction
 		return ( ( Comparable ) value1 ).compareTo( ( Comparable ) value2 );
 	}
 
+	public String getPropertyName()
+	{
+		return propertyName;
+	}
+
+	public Object getValue()
+	{
+		return value;
+	}
+
+	public RestrictionType getType()
+	{
+		return type;
+	}
+
 	public void setCriteria( Criteria criteria )
 	{
 		this.criteria = criteria;
@@ -0,0 +1,98 @@
+package com.marchnetworks.command.api.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Input stream over a buffer of its own, typically a view of a memory mapped file shared with other streams. Writers
+ * able to take a buffer can send the remaining content directly with {@link #getBuffer()}.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+	private static final int WRITE_CHUNK_SIZE = 65536;
+
+	private final ByteBuffer buffer;
+	private final Closeable onClose;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	/**
+	 * @param onClose
+	 *            called once when the stream is first closed, may be null
+	 */
+	public ByteBufferInputStream( ByteBuffer buffer, Closeable onClose )
+	{
+		this.buffer = buffer;
+		this.onClose = onClose;
+	}
+
+	public ByteBuffer getBuffer()
+	{
+		return buffer;
+	}
+
+	public int read()
+	{
+		if ( !buffer.hasRemaining() )
+		{
+			return -1;
+		}
+		return buffer.get() & 0xFF;
+	}
+
+	public int read( byte[] bytes, int offset, int length )
+	{
+		if ( length == 0 )
+		{
+			return 0;
+		}
+		if ( !buffer.hasRemaining() )
+		{
+			return -1;
+		}
+		int count = Math.min( length, buffer.remaining() );
+		buffer.get( bytes, offset, count );
+		return count;
+	}
+
+	public long skip( long n )
+	{
+		if ( n <= 0L )
+		{
+			return 0L;
+		}
+		int count = ( int ) Math.min( n, buffer.remaining() );
+		buffer.position( buffer.position() + count );
+		return count;
+	}
+
+	public int available()
+	{
+		return buffer.remaining();
+	}
+
+	/**
+	 * Writes the remaining content in large chunks, without going through the caller's buffer.
+	 */
+	public void writeTo( OutputStream output ) throws IOException
+	{
+		byte[] chunk = new byte[Math.min( WRITE_CHUNK_SIZE, Math.max( 1, buffer.remaining() ) )];
+		while ( buffer.hasRemaining() )
+		{
+			int count = Math.min( chunk.length, buffer.remaining() );
+			buffer.get( chunk, 0, count );
+			output.write( chunk, 0, count );
+		}
+	}
+
+	public void close() throws IOException
+	{
+		if ( ( closed.compareAndSet( false, true ) ) && ( onClose != null ) )
+		{
+			onClose.close();
+		}
+	}
+}
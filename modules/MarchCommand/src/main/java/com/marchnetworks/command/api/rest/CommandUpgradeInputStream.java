@@ -2,9 +2,12 @@ package com.marchnetworks.command.api.rest;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 public class CommandUpgradeInputStream extends InputStream
 {
+	private static final int WRITE_BUFFER_SIZE = 65536;
+
 	private InputStream contentInputStream;
 	private long contentSize;
 
@@ -19,6 +22,25 @@ public class CommandUpgradeInputStream extends InputStream
 		return contentSize;
 	}
 
+	/**
+	 * Writes the remaining content to the output, handing it over in large chunks.
+	 */
+	public void writeTo( OutputStream output ) throws IOException
+	{
+		if ( ( contentInputStream instanceof ByteBufferInputStream ) )
+		{
+			( ( ByteBufferInputStream ) contentInputStream ).writeTo( output );
+			return;
+		}
+
+		byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+		int count;
+		while ( ( count = contentInputStream.read( buffer ) ) >= 0 )
+		{
+			output.write( buffer, 0, count );
+		}
+	}
+
 	public int read() throws IOException
 	{
 		return contentInputStream.read();
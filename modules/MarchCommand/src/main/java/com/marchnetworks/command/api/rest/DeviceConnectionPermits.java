@@ -0,0 +1,83 @@
+package com.marchnetworks.command.api.rest;
+
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the number of requests in flight to each device. Idle connections are kept by the JDK for reuse up to
+ * <code>http.maxConnections</code> per host (5 by default); staying below that lets every connection to a device go
+ * back to the keep-alive cache instead of being closed, so requests reuse sockets and TLS sessions.
+ */
+class DeviceConnectionPermits
+{
+	static final int MAX_CONNECTIONS_PER_DEVICE = 4;
+
+	private static final Map<String, DeviceConnectionPermits> PERMITS = new HashMap();
+
+	private final String address;
+	private final Semaphore semaphore = new Semaphore( MAX_CONNECTIONS_PER_DEVICE, true );
+	private int users;
+
+	private DeviceConnectionPermits( String address )
+	{
+		this.address = address;
+	}
+
+	/**
+	 * Waits for a free connection to the device.
+	 *
+	 * @return the permits of the device, to {@link #release()} once the request is done
+	 */
+	static DeviceConnectionPermits acquire( String address, long timeoutMillis ) throws DeviceRestException
+	{
+		DeviceConnectionPermits permits;
+		synchronized ( PERMITS )
+		{
+			permits = ( DeviceConnectionPermits ) PERMITS.get( address );
+			if ( permits == null )
+			{
+				permits = new DeviceConnectionPermits( address );
+				PERMITS.put( address, permits );
+			}
+			permits.users += 1;
+		}
+
+		boolean acquired = false;
+		try
+		{
+			acquired = permits.semaphore.tryAcquire( timeoutMillis, TimeUnit.MILLISECONDS );
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		if ( !acquired )
+		{
+			permits.removeUser();
+			String message = "Timed out waiting for a connection to " + address + ", " + MAX_CONNECTIONS_PER_DEVICE + " requests in progress";
+			throw new DeviceRestException( message, new SocketTimeoutException( message ) );
+		}
+		return permits;
+	}
+
+	void release()
+	{
+		semaphore.release();
+		removeUser();
+	}
+
+	private void removeUser()
+	{
+		synchronized ( PERMITS )
+		{
+			users -= 1;
+			if ( users == 0 )
+			{
+				PERMITS.remove( address );
+			}
+		}
+	}
+}
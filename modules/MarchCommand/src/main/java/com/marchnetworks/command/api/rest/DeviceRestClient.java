@@ -12,9 +12,10 @@ import com.marchnetworks.command.common.HttpUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
@@ -28,6 +29,13 @@ import javax.net.ssl.SSLSocketFactory;
 public class DeviceRestClient
 {
 	protected static final Logger LOG = LoggerFactory.getLogger( DeviceRestClient.class );
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Largest body accepted from a device, and largest announced length allocated up front
+	 */
+	private static final int MAX_BODY_SIZE = 67108864;
+	private static final int MAX_PREALLOCATED_SIZE = 1048576;
 
 	private int connectTimeout = 5000;
 	private int requestTimeout = 15000;
@@ -119,6 +127,7 @@ public class DeviceRestClient
 		for ( ; ; )
 		{
 			long start = System.currentTimeMillis();
+			DeviceConnectionPermits permits = DeviceConnectionPermits.acquire( address, requestTimeout );
 			try
 			{
 				URL url = new URL( requestURL );
@@ -156,15 +165,37 @@ public class DeviceRestClient
 					httpConn.setDoOutput( true );
 					if ( ( data instanceof String ) )
 					{
-						PrintWriter out = new PrintWriter( httpConn.getOutputStream() );
-						out.print( ( String ) data );
-						out.close();
+						// left buffered by the connection so that it can be sent again if the device closed a kept alive connection
+						OutputStream out = httpConn.getOutputStream();
+						try
+						{
+							out.write( ( ( String ) data ).getBytes() );
+						}
+						finally
+						{
+							out.close();
+						}
 					}
 					else if ( ( data instanceof CommandUpgradeInputStream ) )
 					{
 						CommandUpgradeInputStream commandInputStream = ( CommandUpgradeInputStream ) data;
 						httpConn.setFixedLengthStreamingMode( commandInputStream.getContentSize() );
-						CommonAppUtils.writeToOutputStream( commandInputStream, httpConn.getOutputStream() );
+						OutputStream out = httpConn.getOutputStream();
+						try
+						{
+							commandInputStream.writeTo( out );
+						}
+						finally
+						{
+							try
+							{
+								out.close();
+							}
+							finally
+							{
+								commandInputStream.close();
+							}
+						}
 					}
 					else
 					{
@@ -179,12 +210,15 @@ public class DeviceRestClient
 					Map<String, List<String>> headers = httpConn.getHeaderFields();
 					response.setResponseHeaders( headers );
 
+					int contentLength = httpConn.getContentLength();
 					List<String> encoding = headers.get( "Content-Encoding" );
 					if ( ( encoding != null ) && ( encoding.contains( "gzip" ) ) )
+					{
 						is = new GZIPInputStream( is );
+						contentLength = -1;
+					}
 
-					byte[] byteArray = CommonAppUtils.readInputStream( is, httpConn.getContentLength() );
-					response.setResponse( byteArray );
+					response.setResponse( readBody( is, contentLength ) );
 					code = httpConn.getResponseCode();
 				}
 				finally
@@ -197,6 +231,8 @@ public class DeviceRestClient
 			}
 			catch ( SocketTimeoutException ste )
 			{
+				// the connection is in an unknown state, don't let it be reused
+				httpConn.disconnect();
 				metricsService.addRetryActionFailure( ApiMetricsTypes.REST_CONNECTION.getName(), pathShort, System.currentTimeMillis() - start );
 
 				retryCount++;
@@ -215,6 +251,7 @@ public class DeviceRestClient
 					if ( httpConn != null )
 					{
 						code = httpConn.getResponseCode();
+						discard( httpConn.getErrorStream() );
 					}
 				}
 				catch ( IOException ex )
@@ -223,10 +260,16 @@ public class DeviceRestClient
 				}
 				cause = e;
 			}
+			finally
+			{
+				permits.release();
+			}
 
 			if ( code == 200 )
 			{
-				metricsService.addRetryActionSuccess( ApiMetricsTypes.REST_CONNECTION.getName(), pathShort, System.currentTimeMillis() - start );
+				long duration = System.currentTimeMillis() - start;
+				metricsService.addRetryActionSuccess( ApiMetricsTypes.REST_CONNECTION.getName(), pathShort, duration );
+				metricsService.addHistogram( ApiMetricsTypes.REST_CONNECTION_LATENCY.getName(), duration );
 				break;
 			}
 
@@ -301,6 +344,78 @@ public class DeviceRestClient
 		return response;
 	}
 
+	/**
+	 * Reads the body into an array of its announced length when there is a small one, instead of growing and copying a
+	 * buffer. Bodies larger than MAX_BODY_SIZE are refused, whatever their announced length.
+	 */
+	private static byte[] readBody( InputStream is, int contentLength ) throws IOException
+	{
+		if ( contentLength > MAX_BODY_SIZE )
+		{
+			throw new IOException( "Response body of " + contentLength + " bytes exceeds the " + MAX_BODY_SIZE + " bytes allowed" );
+		}
+
+		if ( ( contentLength >= 0 ) && ( contentLength <= MAX_PREALLOCATED_SIZE ) )
+		{
+			byte[] body = new byte[contentLength];
+			int offset = 0;
+			int count;
+			while ( ( offset < contentLength ) && ( ( count = is.read( body, offset, contentLength - offset ) ) != -1 ) )
+			{
+				offset += count;
+			}
+			if ( offset == contentLength )
+			{
+				return body;
+			}
+			byte[] received = new byte[offset];
+			System.arraycopy( body, 0, received, 0, offset );
+			return received;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream( contentLength > 0 ? MAX_PREALLOCATED_SIZE : BUFFER_SIZE );
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int count;
+		while ( ( count = is.read( buffer ) ) != -1 )
+		{
+			if ( out.size() + count > MAX_BODY_SIZE )
+			{
+				throw new IOException( "Response body exceeds the " + MAX_BODY_SIZE + " bytes allowed" );
+			}
+			out.write( buffer, 0, count );
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads an error body to its end so that the connection goes back to the keep-alive cache.
+	 */
+	private static void discard( InputStream is )
+	{
+		if ( is == null )
+		{
+			return;
+		}
+		try
+		{
+			try
+			{
+				byte[] buffer = new byte[BUFFER_SIZE];
+				while ( is.read( buffer ) != -1 )
+				{
+				}
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		catch ( IOException e )
+		{
+			LOG.debug( "Error while discarding error response, Exception: {}", e.getMessage() );
+		}
+	}
+
 	public static String getSessionId( String cookie, String name )
 	{
 		if ( cookie == null )
@@ -1,6 +1,9 @@
 package com.marchnetworks.command.common;
 
+import com.marchnetworks.command.common.dao.ChunkHandler;
+
 import org.hibernate.Criteria;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.engine.LoadQueryInfluencers;
 import org.hibernate.engine.SessionFactoryImplementor;
@@ -14,7 +17,9 @@ import org.hibernate.loader.criteria.CriteriaLoader;
 import org.hibernate.persister.entity.OuterJoinLoadable;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 public class HibernateUtils
 {
@@ -54,4 +59,44 @@ public class HibernateUtils
 		}
 		return null;
 	}
+
+	/**
+	 * Reads the entities of a forward only cursor in chunks, evicting each chunk from the session once it has been
+	 * handled so that memory use does not grow with the size of the result. The cursor is always closed.
+	 */
+	public static <T> void scroll( Session session, ScrollableResults results, int chunkSize, ChunkHandler<T> handler )
+	{
+		List<T> chunk = new ArrayList( chunkSize );
+		try
+		{
+			boolean more = true;
+			while ( ( more ) && ( results.next() ) )
+			{
+				chunk.add( ( T ) results.get( 0 ) );
+				if ( chunk.size() == chunkSize )
+				{
+					more = handleChunk( session, chunk, handler );
+				}
+			}
+			if ( ( more ) && ( !chunk.isEmpty() ) )
+			{
+				handleChunk( session, chunk, handler );
+			}
+		}
+		finally
+		{
+			results.close();
+		}
+	}
+
+	private static <T> boolean handleChunk( Session session, List<T> chunk, ChunkHandler<T> handler )
+	{
+		boolean more = handler.handle( chunk );
+		for ( T entity : chunk )
+		{
+			session.evict( entity );
+		}
+		chunk.clear();
+		return more;
+	}
 }
@@ -0,0 +1,14 @@
+package com.marchnetworks.command.common.dao;
+
+import java.util.List;
+
+public interface ChunkHandler<Type>
+{
+	/**
+	 * Receives the next chunk of results read through a cursor. The entities of the chunk are evicted from the session
+	 * once the handler returns, so they must not be kept.
+	 *
+	 * @return false to stop reading further results
+	 */
+	boolean handle( List<Type> chunk );
+}
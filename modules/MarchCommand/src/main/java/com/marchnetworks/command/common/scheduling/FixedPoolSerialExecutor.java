@@ -1,152 +1,219 @@
 package com.marchnetworks.command.common.scheduling;
 
 import com.marchnetworks.command.api.metrics.ApiMetricsTypes;
+import com.marchnetworks.command.api.metrics.MetricHandle;
 import com.marchnetworks.command.api.metrics.MetricsCoreService;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Runs the tasks of each id in order on a shared pool. At most poolSize tasks are handed to the pool at once, the
+ * others wait in their lane. Once maxQueueSize tasks are waiting, a submitter blocks up to rejectionTimeout seconds for
+ * room and then gets a RejectedExecutionException.
+ */
 public class FixedPoolSerialExecutor
 {
 	private static final Logger LOG = LoggerFactory.getLogger( FixedPoolSerialExecutor.class );
 
 	private int poolSize;
-	private List<SerialTask> queue = new ArrayList();
-	private Map<String, HashSet<String>> queuedNonConcurrents = new HashMap();
-	private Map<String, SerialTask> executingTasks;
+	private int maxQueueSize;
+	private long rejectionTimeout;
+	private int executingCount;
+	private int queuedCount;
+	private Map<String, SerialLane> lanes = new HashMap();
+	private ArrayDeque<SerialLane> readyLanes = new ArrayDeque();
 	private ThreadPoolExecutor taskExecutor;
 	private MetricsCoreService metricsService;
-
-	public FixedPoolSerialExecutor( int corePoolSize, int keepAliveTime, MetricsCoreService metricsService )
+	private MetricHandle submitMetric;
+	private MetricHandle notifyMetric;
+	private MetricHandle queueMetric;
+	private MetricHandle laneMetric;
+	private MetricHandle taskLatencyMetric;
+	// Per task name handles, task names being class names they stay few
+	private Map<String, MetricHandle> taskWaitMetrics = new ConcurrentHashMap();
+	private Map<String, MetricHandle> taskRunMetrics = new ConcurrentHashMap();
+
+	public FixedPoolSerialExecutor( int corePoolSize, int keepAliveTime, int maxQueueSize, int rejectionTimeout, MetricsCoreService metricsService )
 	{
 		poolSize = corePoolSize;
-		taskExecutor = new ThreadPoolExecutor( corePoolSize, corePoolSize, keepAliveTime, TimeUnit.SECONDS, new LinkedBlockingQueue() );
+		this.maxQueueSize = maxQueueSize;
+		this.rejectionTimeout = TimeUnit.SECONDS.toNanos( rejectionTimeout );
+		// Never holds more than the tasks started, which are at most poolSize
+		taskExecutor = new ThreadPoolExecutor( corePoolSize, corePoolSize, keepAliveTime, TimeUnit.SECONDS, new ArrayBlockingQueue( corePoolSize ) );
 		taskExecutor.allowCoreThreadTimeOut( true );
-		executingTasks = new HashMap( corePoolSize );
 		this.metricsService = metricsService;
+		submitMetric = metricsService.getBucketMinMaxAvgHandle( ApiMetricsTypes.SERIAL_TASK.getName(), "Submit" );
+		notifyMetric = metricsService.getBucketMinMaxAvgHandle( ApiMetricsTypes.SERIAL_TASK.getName(), "Notify" );
+		queueMetric = metricsService.getCurrentMaxAvgHandle( ApiMetricsTypes.SERIAL_TASK_QUEUE.getName() );
+		laneMetric = metricsService.getCurrentMaxAvgHandle( ApiMetricsTypes.SERIAL_TASK_LANE.getName() );
+		taskLatencyMetric = metricsService.getHistogramHandle( ApiMetricsTypes.DEVICE_TASKS_LATENCY.getName() );
 	}
 
 	public synchronized void shutdownNow()
 	{
 		taskExecutor.shutdownNow();
-		queue.clear();
-		executingTasks.clear();
+		lanes.clear();
+		readyLanes.clear();
+		executingCount = 0;
+		queuedCount = 0;
+		notifyAll();
 	}
 
 	public void submit( String id, Runnable runnable )
 	{
 		long start = System.nanoTime();
 		int queueSize = -1;
+		int laneDepth = -1;
+		SerialTask taskToStart = null;
 		synchronized ( this )
 		{
-			if ( ( runnable instanceof NonConcurrentRunnable ) )
+			SerialLane lane;
+			long deadline = System.nanoTime() + rejectionTimeout;
+			for ( ;; )
 			{
-				NonConcurrentRunnable nonConcurrentRunnable = ( NonConcurrentRunnable ) runnable;
-
-				if ( isCurrentlyExecutingOrQueued( id, nonConcurrentRunnable ) )
+				// Looked up again after each wait, the lane may have been dropped or replaced meanwhile
+				lane = ( SerialLane ) lanes.get( id );
+				if ( ( ( runnable instanceof NonConcurrentRunnable ) ) && ( lane != null ) && ( lane.isExecutingOrQueued( ( NonConcurrentRunnable ) runnable ) ) )
 				{
 					LOG.debug( "Similar Task {} scheduled to run or running. Not scheduling new task. ", id );
 					return;
 				}
+				if ( ( maxQueueSize <= 0 ) || ( queuedCount < maxQueueSize ) || ( ( executingCount < poolSize ) && ( ( lane == null ) || ( !lane.isExecuting() ) ) ) )
+				{
+					break;
+				}
+
+				long remaining = deadline - System.nanoTime();
+				if ( ( remaining <= 0L ) || ( taskExecutor.isShutdown() ) )
+				{
+					metricsService.addBucketCounter( ApiMetricsTypes.TASK_EXECUTOR_REJECTED.getName(), "fixedPoolSerial" );
+					throw new RejectedExecutionException( "Fixed pool serial executor queue is full" );
+				}
+				try
+				{
+					TimeUnit.NANOSECONDS.timedWait( this, remaining );
+				}
+				catch ( InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException( "Interrupted while waiting for room in the fixed pool serial executor queue" );
+				}
+			}
+
+			if ( lane == null )
+			{
+				lane = new SerialLane( id );
+				lanes.put( id, lane );
 			}
 
 			SerialTask task = new SerialTask( id, runnable, this );
 
-			if ( ( executingTasks.size() >= poolSize ) || ( isCurrentlyExecuting( task ) ) )
+			if ( ( executingCount >= poolSize ) || ( lane.isExecuting() ) )
 			{
-				queue.add( task );
-				if ( ( runnable instanceof NonConcurrentRunnable ) )
+				lane.enqueue( task );
+				queuedCount++;
+				if ( ( !lane.isExecuting() ) && ( !lane.isReady() ) )
 				{
-					NonConcurrentRunnable nonConcurrentRunnable = ( NonConcurrentRunnable ) runnable;
-					HashSet<String> nonConcurrents = ( HashSet ) queuedNonConcurrents.get( id );
-					if ( nonConcurrents == null )
-					{
-						nonConcurrents = new HashSet( 1 );
-						queuedNonConcurrents.put( id, nonConcurrents );
-					}
-					nonConcurrents.add( nonConcurrentRunnable.getTaskId() );
+					lane.setReady( true );
+					readyLanes.addLast( lane );
 				}
-				queueSize = queue.size();
+				queueSize = queuedCount;
+				laneDepth = lane.getDepth();
 			}
 			else
 			{
-				executingTasks.put( task.getId(), task );
-				taskExecutor.execute( task );
+				startTask( lane, task );
+				taskToStart = task;
 			}
 		}
-		metricsService.addBucketMinMaxAvg( ApiMetricsTypes.SERIAL_TASK.getName(), "Submit", ( System.nanoTime() - start ) / 1000L );
+
+		if ( taskToStart != null )
+		{
+			taskExecutor.execute( taskToStart );
+		}
+
+		submitMetric.addValue( ( System.nanoTime() - start ) / 1000L );
 		if ( queueSize != -1 )
 		{
-			metricsService.addCurrentMaxAvg( ApiMetricsTypes.SERIAL_TASK_QUEUE.getName(), queueSize );
+			queueMetric.addValue( queueSize );
+			laneMetric.addValue( laneDepth );
 		}
 	}
 
 	public void notifyTaskComplete( SerialTask task, long runTime )
 	{
 		long start = System.nanoTime();
-		Iterator<SerialTask> iterator;
+		List<SerialTask> tasksToStart = new ArrayList( 1 );
 		synchronized ( this )
 		{
-			executingTasks.remove( task.getId() );
-
-			for ( iterator = queue.iterator(); iterator.hasNext(); )
+			SerialLane lane = ( SerialLane ) lanes.get( task.getId() );
+			if ( lane != null )
 			{
-				SerialTask queuedTask = ( SerialTask ) iterator.next();
+				lane.setExecutingTask( null );
+				executingCount--;
 
-				if ( !isCurrentlyExecuting( queuedTask ) )
+				if ( lane.hasPending() )
+				{
+					lane.setReady( true );
+					readyLanes.addLast( lane );
+				}
+				else
 				{
-					iterator.remove();
-					Runnable runnable = queuedTask.getRunnable();
-					if ( ( runnable instanceof NonConcurrentRunnable ) )
-					{
-						NonConcurrentRunnable nonConcurrentRunnable = ( NonConcurrentRunnable ) runnable;
-						HashSet<String> nonConcurrents = ( HashSet ) queuedNonConcurrents.get( queuedTask.getId() );
-						nonConcurrents.remove( nonConcurrentRunnable.getTaskId() );
-					}
-					executingTasks.put( queuedTask.getId(), queuedTask );
-					taskExecutor.execute( queuedTask );
-
-					if ( executingTasks.size() >= poolSize )
-					{
-						break;
-					}
+					lanes.remove( lane.getId() );
 				}
 			}
-		}
-		metricsService.addBucketMinMaxAvg( ApiMetricsTypes.SERIAL_TASK.getName(), "Notify", ( System.nanoTime() - start ) / 1000L );
-		metricsService.addBucketMinMaxAvg( ApiMetricsTypes.DEVICE_TASKS.getName(), task.getName(), runTime );
-	}
 
-	private boolean isCurrentlyExecuting( SerialTask task )
-	{
-		return executingTasks.containsKey( task.getId() );
-	}
+			while ( ( executingCount < poolSize ) && ( !readyLanes.isEmpty() ) )
+			{
+				SerialLane readyLane = ( SerialLane ) readyLanes.pollFirst();
+				readyLane.setReady( false );
 
-	private boolean isCurrentlyExecutingOrQueued( String id, NonConcurrentRunnable task )
-	{
-		String taskId = task.getTaskId();
+				SerialTask queuedTask = readyLane.dequeue();
+				queuedCount--;
+				startTask( readyLane, queuedTask );
+				tasksToStart.add( queuedTask );
+			}
+			// Wakes submitters waiting for room in the queue or the pool
+			notifyAll();
+		}
 
-		SerialTask currentTask = ( SerialTask ) executingTasks.get( id );
-		if ( ( currentTask != null ) && ( ( currentTask.getRunnable() instanceof NonConcurrentRunnable ) ) && ( ( ( NonConcurrentRunnable ) currentTask.getRunnable() ).getTaskId().equals( taskId ) ) )
+		for ( SerialTask queuedTask : tasksToStart )
 		{
-			return true;
+			getTaskMetric( taskWaitMetrics, ApiMetricsTypes.SERIAL_TASK_WAIT.getName(), queuedTask.getName() ).addValue( ( start - queuedTask.getSubmitTime() ) / 1000000L );
+			taskExecutor.execute( queuedTask );
 		}
 
-		HashSet<String> nonConcurrents = ( HashSet ) queuedNonConcurrents.get( id );
-		if ( nonConcurrents != null )
+		notifyMetric.addValue( ( System.nanoTime() - start ) / 1000L );
+		getTaskMetric( taskRunMetrics, ApiMetricsTypes.DEVICE_TASKS.getName(), task.getName() ).addValue( runTime );
+		taskLatencyMetric.addValue( runTime );
+	}
+
+	private MetricHandle getTaskMetric( Map<String, MetricHandle> handles, String metricName, String taskName )
+	{
+		MetricHandle handle = ( MetricHandle ) handles.get( taskName );
+		if ( handle == null )
 		{
-			return nonConcurrents.contains( taskId );
+			handle = metricsService.getBucketMinMaxAvgHandle( metricName, taskName );
+			handles.put( taskName, handle );
 		}
-		return false;
+		return handle;
+	}
+
+	private void startTask( SerialLane lane, SerialTask task )
+	{
+		lane.setExecutingTask( task );
+		executingCount++;
 	}
 }
@@ -0,0 +1,218 @@
+package com.marchnetworks.command.common.scheduling;
+
+import com.marchnetworks.command.api.metrics.ApiMetricsTypes;
+import com.marchnetworks.command.api.metrics.MetricHandle;
+import com.marchnetworks.command.api.metrics.MetricsCoreService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pool over an optionally bounded queue which publishes its queue depth, active count and task latency, and
+ * which can be retired once it has had nothing to do for a while. A retired executor refuses new tasks through
+ * {@link #tryExecute(Runnable)} so the caller can replace it without a task ever running out of order.
+ * <p>
+ * Queue depth and active count are published per executor, latency per executor type, as a histogram is too large to
+ * keep for every executor ever created.
+ */
+class MeteredThreadPoolExecutor extends ThreadPoolExecutor
+{
+	private static final int RETIRED = -1;
+
+	private final String metricName;
+	private final TaskRejectionPolicy rejectionPolicy;
+	private final long rejectionTimeout;
+	private final MetricsCoreService metricsService;
+	private final MetricHandle queueMetric;
+	private final MetricHandle activeMetric;
+	private final MetricHandle latencyMetric;
+
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private volatile long lastActivityTime = System.currentTimeMillis();
+
+	MeteredThreadPoolExecutor( String metricName, String executorType, int poolSize, int keepAliveTime, int maxQueueSize, TaskRejectionPolicy rejectionPolicy, int rejectionTimeout, ThreadFactory threadFactory, MetricsCoreService metricsService )
+	{
+		super( poolSize, poolSize, keepAliveTime, TimeUnit.SECONDS, maxQueueSize > 0 ? new LinkedBlockingQueue( maxQueueSize ) : new LinkedBlockingQueue(), threadFactory );
+		this.metricName = metricName;
+		this.rejectionPolicy = rejectionPolicy;
+		this.rejectionTimeout = TimeUnit.SECONDS.toMillis( rejectionTimeout );
+		this.metricsService = metricsService;
+		if ( metricsService != null )
+		{
+			queueMetric = metricsService.getBucketMinMaxAvgHandle( ApiMetricsTypes.TASK_EXECUTOR_QUEUE.getName(), metricName );
+			activeMetric = metricsService.getBucketMinMaxAvgHandle( ApiMetricsTypes.TASK_EXECUTOR_ACTIVE.getName(), metricName );
+			latencyMetric = metricsService.getBucketHistogramHandle( ApiMetricsTypes.TASK_EXECUTOR_LATENCY.getName(), executorType );
+		}
+		else
+		{
+			queueMetric = null;
+			activeMetric = null;
+			latencyMetric = null;
+		}
+		setRejectedExecutionHandler( new QueueFullHandler() );
+	}
+
+	public void execute( Runnable task )
+	{
+		if ( !tryExecute( task ) )
+		{
+			throw new RejectedExecutionException( "Executor " + metricName + " has been retired" );
+		}
+	}
+
+	/**
+	 * @return false if the executor has been retired and the task was not accepted
+	 */
+	public boolean tryExecute( Runnable task )
+	{
+		for ( ;; )
+		{
+			int pending = pendingCount.get();
+			if ( pending == RETIRED )
+			{
+				return false;
+			}
+			if ( pendingCount.compareAndSet( pending, pending + 1 ) )
+			{
+				break;
+			}
+		}
+		lastActivityTime = System.currentTimeMillis();
+
+		try
+		{
+			super.execute( new TrackedTask( task ) );
+		}
+		catch ( RejectedExecutionException e )
+		{
+			taskFinished();
+			throw e;
+		}
+
+		if ( metricsService != null )
+		{
+			queueMetric.addValue( getQueue().size() );
+			activeMetric.addValue( getActiveCount() );
+		}
+		return true;
+	}
+
+	/**
+	 * Retires the executor if no task has been pending on it for the given time. A retired executor accepts no more
+	 * tasks; whoever removes it from its map shuts it down.
+	 */
+	public boolean retireIfIdle( long idleTime )
+	{
+		if ( System.currentTimeMillis() - lastActivityTime < idleTime )
+		{
+			return false;
+		}
+		return pendingCount.compareAndSet( 0, RETIRED );
+	}
+
+	public int cancelQueued()
+	{
+		List<Runnable> queued = new ArrayList();
+		int count = getQueue().drainTo( queued );
+		for ( int i = 0; i < count; i++ )
+		{
+			taskFinished();
+		}
+		return count;
+	}
+
+	public int getPendingCount()
+	{
+		return Math.max( 0, pendingCount.get() );
+	}
+
+	private void taskFinished()
+	{
+		lastActivityTime = System.currentTimeMillis();
+		pendingCount.decrementAndGet();
+	}
+
+	private class TrackedTask implements Runnable
+	{
+		private final Runnable task;
+		private final long submitTime = System.nanoTime();
+
+		TrackedTask( Runnable task )
+		{
+			this.task = task;
+		}
+
+		public void run()
+		{
+			try
+			{
+				task.run();
+			}
+			finally
+			{
+				taskFinished();
+				if ( metricsService != null )
+				{
+					latencyMetric.addValue( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - submitTime ) );
+				}
+			}
+		}
+	}
+
+	private class QueueFullHandler implements RejectedExecutionHandler
+	{
+		public void rejectedExecution( Runnable task, ThreadPoolExecutor executor )
+		{
+			if ( metricsService != null )
+			{
+				metricsService.addBucketCounter( ApiMetricsTypes.TASK_EXECUTOR_REJECTED.getName(), metricName );
+			}
+			if ( executor.isShutdown() )
+			{
+				throw new RejectedExecutionException( "Executor " + metricName + " has been shut down" );
+			}
+
+			if ( rejectionPolicy == TaskRejectionPolicy.BLOCK )
+			{
+				try
+				{
+					if ( executor.getQueue().offer( task, rejectionTimeout, TimeUnit.MILLISECONDS ) )
+					{
+						return;
+					}
+				}
+				catch ( InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+				}
+				throw new RejectedExecutionException( "Executor " + metricName + " queue is full" );
+			}
+			else if ( rejectionPolicy == TaskRejectionPolicy.CALLER_RUNS )
+			{
+				task.run();
+			}
+			else if ( rejectionPolicy == TaskRejectionPolicy.DISCARD_OLDEST )
+			{
+				if ( executor.getQueue().poll() != null )
+				{
+					taskFinished();
+				}
+				if ( !executor.getQueue().offer( task ) )
+				{
+					throw new RejectedExecutionException( "Executor " + metricName + " queue is full" );
+				}
+			}
+			else
+			{
+				throw new RejectedExecutionException( "Executor " + metricName + " queue is full" );
+			}
+		}
+	}
+}
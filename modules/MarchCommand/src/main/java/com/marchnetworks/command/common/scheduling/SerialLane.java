@@ -0,0 +1,92 @@
+package com.marchnetworks.command.common.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * FIFO of the tasks waiting for one id of a {@link FixedPoolSerialExecutor}. Only accessed while holding the
+ * executor's monitor.
+ */
+class SerialLane
+{
+	private final String id;
+	private final ArrayDeque<SerialTask> pending = new ArrayDeque( 2 );
+	private final Set<String> queuedNonConcurrents = new HashSet( 1 );
+	private SerialTask executingTask;
+	private boolean ready;
+
+	SerialLane( String id )
+	{
+		this.id = id;
+	}
+
+	String getId()
+	{
+		return id;
+	}
+
+	void enqueue( SerialTask task )
+	{
+		pending.addLast( task );
+		Runnable runnable = task.getRunnable();
+		if ( ( runnable instanceof NonConcurrentRunnable ) )
+		{
+			queuedNonConcurrents.add( ( ( NonConcurrentRunnable ) runnable ).getTaskId() );
+		}
+	}
+
+	SerialTask dequeue()
+	{
+		SerialTask task = ( SerialTask ) pending.pollFirst();
+		if ( task != null )
+		{
+			Runnable runnable = task.getRunnable();
+			if ( ( runnable instanceof NonConcurrentRunnable ) )
+			{
+				queuedNonConcurrents.remove( ( ( NonConcurrentRunnable ) runnable ).getTaskId() );
+			}
+		}
+		return task;
+	}
+
+	boolean hasPending()
+	{
+		return !pending.isEmpty();
+	}
+
+	int getDepth()
+	{
+		return pending.size();
+	}
+
+	boolean isExecutingOrQueued( NonConcurrentRunnable task )
+	{
+		String taskId = task.getTaskId();
+		if ( ( executingTask != null ) && ( ( executingTask.getRunnable() instanceof NonConcurrentRunnable ) ) && ( ( ( NonConcurrentRunnable ) executingTask.getRunnable() ).getTaskId().equals( taskId ) ) )
+		{
+			return true;
+		}
+		return queuedNonConcurrents.contains( taskId );
+	}
+
+	boolean isExecuting()
+	{
+		return executingTask != null;
+	}
+
+	void setExecutingTask( SerialTask executingTask )
+	{
+		this.executingTask = executingTask;
+	}
+
+	boolean isReady()
+	{
+		return ready;
+	}
+
+	void setReady( boolean ready )
+	{
+		this.ready = ready;
+	}
+}
@@ -8,11 +8,14 @@ public class SerialTask implements Runnable
 
 	private FixedPoolSerialExecutor executor;
 
+	private long submitTime;
+
 	public SerialTask( String id, Runnable runnable, FixedPoolSerialExecutor executor )
 	{
 		this.id = id;
 		this.runnable = runnable;
 		this.executor = executor;
+		submitTime = System.nanoTime();
 	}
 
 	public String getId()
@@ -35,6 +38,11 @@ public class SerialTask implements Runnable
 		this.runnable = runnable;
 	}
 
+	public long getSubmitTime()
+	{
+		return submitTime;
+	}
+
 	public String getName()
 	{
 		return runnable.getClass().getSimpleName();
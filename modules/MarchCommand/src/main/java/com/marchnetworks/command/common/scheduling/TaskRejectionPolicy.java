@@ -0,0 +1,24 @@
+package com.marchnetworks.command.common.scheduling;
+
+public enum TaskRejectionPolicy
+{
+	BLOCK,
+	CALLER_RUNS,
+	DISCARD_OLDEST,
+	ABORT;
+
+	public static TaskRejectionPolicy fromString( String value, TaskRejectionPolicy defaultPolicy )
+	{
+		if ( value != null )
+		{
+			for ( TaskRejectionPolicy policy : values() )
+			{
+				if ( policy.name().equalsIgnoreCase( value.trim() ) )
+				{
+					return policy;
+				}
+			}
+		}
+		return defaultPolicy;
+	}
+}
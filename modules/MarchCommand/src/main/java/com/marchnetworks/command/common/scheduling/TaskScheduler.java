@@ -1,5 +1,6 @@
 package com.marchnetworks.command.common.scheduling;
 
+import com.marchnetworks.command.api.metrics.ApiMetricsTypes;
 import com.marchnetworks.command.api.metrics.MetricsCoreService;
 import com.marchnetworks.command.common.scheduling.task.Task;
 import com.marchnetworks.command.common.scheduling.task.TaskAsync;
@@ -8,18 +9,22 @@ import com.marchnetworks.command.common.scheduling.task.TaskFixedPoolSerial;
 import com.marchnetworks.command.common.scheduling.task.TaskSerial;
 import com.marchnetworks.command.common.transaction.BaseTransactionalBeanInterceptor;
 
+import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -28,14 +33,17 @@ import org.slf4j.LoggerFactory;
 public class TaskScheduler
 {
 	public static final String GENERIC_EXECUTOR = "generic";
+	private static final String SERIAL_EXECUTOR_METRIC = "serial";
+	private static final String ASYNC_EXECUTOR_METRIC = "async";
+	private static final String PARALLEL_EXECUTOR_METRIC = "parallel";
 	private static final Logger LOG = LoggerFactory.getLogger( TaskScheduler.class );
 
 	private ScheduledThreadPoolExecutor scheduledTaskExecutor;
 
-	private ThreadPoolExecutor taskExecutor;
-	private Map<String, ExecutorService> serialTaskExecutorsMap = Collections.synchronizedMap( new HashMap() );
+	private MeteredThreadPoolExecutor taskExecutor;
+	private ConcurrentMap<String, MeteredThreadPoolExecutor> serialTaskExecutorsMap = new ConcurrentHashMap();
 
-	private Map<String, ExecutorService> parallelTaskExecutorsMap = Collections.synchronizedMap( new HashMap() );
+	private ConcurrentMap<String, MeteredThreadPoolExecutor> parallelTaskExecutorsMap = new ConcurrentHashMap();
 
 	private Map<String, ScheduledThreadPoolExecutor> scheduledExecutorsMap = Collections.synchronizedMap( new HashMap() );
 
@@ -43,25 +51,42 @@ public class TaskScheduler
 
 	private BaseTransactionalBeanInterceptor interceptor;
 	private MetricsCoreService metricsService;
+	private ThreadFactory threadFactory;
+	private TaskRejectionPolicy rejectionPolicy = TaskRejectionPolicy.BLOCK;
 	private int corePoolSize;
 	private int scheduledCorePoolSize;
 	private int fixedPoolSerialSize;
 	private int keepAliveTime;
 	private int parallelKeepAliveTime;
+	private int maxQueueSize = 10000;
+	private int rejectionTimeout = 30;
+	private int executorIdleTimeout = 600;
+	private boolean virtualThreads;
 
 	public void init()
 	{
-		taskExecutor = new ThreadPoolExecutor( corePoolSize, corePoolSize, keepAliveTime, TimeUnit.SECONDS, new LinkedBlockingQueue() );
+		threadFactory = createThreadFactory();
+
+		taskExecutor = new MeteredThreadPoolExecutor( ASYNC_EXECUTOR_METRIC, ASYNC_EXECUTOR_METRIC, corePoolSize, keepAliveTime, maxQueueSize, rejectionPolicy, rejectionTimeout, threadFactory, metricsService );
 
 		scheduledTaskExecutor = new ScheduledThreadPoolExecutor( scheduledCorePoolSize );
 		scheduledTaskExecutor.setKeepAliveTime( keepAliveTime, TimeUnit.SECONDS );
 		scheduledTaskExecutor.allowCoreThreadTimeOut( true );
 
-		serialTaskExecutorsMap.put( "generic", Executors.newSingleThreadExecutor() );
+		if ( rejectionPolicy == TaskRejectionPolicy.CALLER_RUNS )
+		{
+			LOG.info( "Serial executors block on a full queue instead of running the task on the caller, which would run it out of order." );
+		}
+		serialTaskExecutorsMap.put( "generic", new MeteredThreadPoolExecutor( "generic", GENERIC_EXECUTOR, 1, 0, maxQueueSize, getSerialRejectionPolicy(), rejectionTimeout, Executors.defaultThreadFactory(), metricsService ) );
 
 		if ( fixedPoolSerialSize > 0 )
 		{
-			fixedPoolSerialExecutor = new FixedPoolSerialExecutor( fixedPoolSerialSize, keepAliveTime, metricsService );
+			fixedPoolSerialExecutor = new FixedPoolSerialExecutor( fixedPoolSerialSize, keepAliveTime, maxQueueSize, rejectionTimeout, metricsService );
+		}
+
+		if ( executorIdleTimeout > 0 )
+		{
+			scheduledTaskExecutor.scheduleWithFixedDelay( new ExecutorRetirementTask(), executorIdleTimeout, executorIdleTimeout, TimeUnit.SECONDS );
 		}
 	}
 
@@ -99,27 +124,60 @@ public class TaskScheduler
 
 	public void executeSerial( Runnable task, String executorId )
 	{
-		ExecutorService serialExecutor = null;
+		if ( !tryExecuteSerial( task, executorId ) )
+		{
+			taskRejected( task, executorId );
+		}
+	}
+
+	/**
+	 * Like {@link #executeSerial(Runnable, String)}, for callers able to handle the task being rejected.
+	 *
+	 * @return false if the task was rejected, because the executor's queue stayed full or the scheduler is shutting down
+	 */
+	public boolean tryExecuteSerial( Runnable task, String executorId )
+	{
+		if ( executorId == null )
+		{
+			executorId = "generic";
+		}
 
-		if ( executorId != null )
+		try
 		{
-			serialExecutor = ( ExecutorService ) serialTaskExecutorsMap.get( executorId );
-			if ( serialExecutor == null )
+			for ( ;; )
 			{
-				serialExecutor = setupSerialExecutor( executorId );
+				MeteredThreadPoolExecutor serialExecutor = ( MeteredThreadPoolExecutor ) serialTaskExecutorsMap.get( executorId );
+				if ( serialExecutor == null )
+				{
+					serialExecutor = setupSerialExecutor( executorId );
+				}
+				if ( serialExecutor.tryExecute( task ) )
+				{
+					return true;
+				}
+				if ( serialTaskExecutorsMap.remove( executorId, serialExecutor ) )
+				{
+					serialExecutor.shutdown();
+				}
 			}
 		}
-		else
+		catch ( RejectedExecutionException e )
 		{
-			serialExecutor = ( ExecutorService ) serialTaskExecutorsMap.get( "generic" );
+			LOG.debug( "Executor {} rejected task: {}", executorId, e.getMessage() );
+			return false;
 		}
-
-		serialExecutor.execute( task );
 	}
 
 	public void executeFixedPoolSerial( Runnable task, String executorId )
 	{
-		fixedPoolSerialExecutor.submit( executorId, task );
+		try
+		{
+			fixedPoolSerialExecutor.submit( executorId, task );
+		}
+		catch ( RejectedExecutionException e )
+		{
+			taskRejected( task, executorId );
+		}
 	}
 
 	public void executeSerial( Runnable task )
@@ -129,15 +187,29 @@ public class TaskScheduler
 
 	public void executeFixedPool( Runnable task, String executorId, int poolSize, int keepAliveTime )
 	{
-		ExecutorService parallelExecutor = null;
-
-		parallelExecutor = ( ExecutorService ) parallelTaskExecutorsMap.get( executorId );
-		if ( parallelExecutor == null )
+		try
 		{
-			parallelExecutor = setupParallelExecutor( executorId, poolSize, keepAliveTime );
+			for ( ;; )
+			{
+				MeteredThreadPoolExecutor parallelExecutor = ( MeteredThreadPoolExecutor ) parallelTaskExecutorsMap.get( executorId );
+				if ( parallelExecutor == null )
+				{
+					parallelExecutor = setupParallelExecutor( executorId, poolSize, keepAliveTime );
+				}
+				if ( parallelExecutor.tryExecute( task ) )
+				{
+					return;
+				}
+				if ( parallelTaskExecutorsMap.remove( executorId, parallelExecutor ) )
+				{
+					parallelExecutor.shutdown();
+				}
+			}
+		}
+		catch ( RejectedExecutionException e )
+		{
+			taskRejected( task, executorId );
 		}
-
-		parallelExecutor.execute( task );
 	}
 
 	public void executeFixedPool( Runnable task, String executorId, int poolSize )
@@ -147,7 +219,14 @@ public class TaskScheduler
 
 	public void executeNow( Runnable task )
 	{
-		taskExecutor.execute( task );
+		try
+		{
+			taskExecutor.execute( task );
+		}
+		catch ( RejectedExecutionException e )
+		{
+			taskRejected( task, ASYNC_EXECUTOR_METRIC );
+		}
 	}
 
 	public ScheduledFuture<?> schedule( Runnable task, long delay, TimeUnit timeUnit )
@@ -217,18 +296,25 @@ public class TaskScheduler
 
 	public int cancelFixedPool( String executorId )
 	{
-		ThreadPoolExecutor parallelExecutor = ( ThreadPoolExecutor ) parallelTaskExecutorsMap.get( executorId );
+		MeteredThreadPoolExecutor parallelExecutor = ( MeteredThreadPoolExecutor ) parallelTaskExecutorsMap.get( executorId );
 		if ( parallelExecutor != null )
 		{
-			parallelExecutor.purge();
-			int size = parallelExecutor.getQueue().size();
-			parallelExecutor.getQueue().clear();
-			return size;
+			return parallelExecutor.cancelQueued();
 		}
 
 		return 0;
 	}
 
+	public int getPendingTaskCount( String executorId )
+	{
+		MeteredThreadPoolExecutor executor = ( MeteredThreadPoolExecutor ) parallelTaskExecutorsMap.get( executorId );
+		if ( executor == null )
+		{
+			executor = ( MeteredThreadPoolExecutor ) serialTaskExecutorsMap.get( executorId );
+		}
+		return executor != null ? executor.getPendingCount() : 0;
+	}
+
 	public void executeAfterTransactionCommits( Task task )
 	{
 		interceptor.executeAfterTransactionCommits( task );
@@ -260,26 +346,52 @@ public class TaskScheduler
 		}
 	}
 
-	private ExecutorService setupSerialExecutor( String executorId )
+	/**
+	 * Callers of the execute methods don't expect them to throw, a task rejected once its executor's queue stayed full
+	 * for the rejection timeout is reported here and dropped.
+	 */
+	private void taskRejected( Runnable task, String executorId )
 	{
-		ThreadPoolExecutor serialExecutor = new ThreadPoolExecutor( 1, 1, keepAliveTime, TimeUnit.SECONDS, new LinkedBlockingQueue() );
-		serialExecutor.setKeepAliveTime( keepAliveTime, TimeUnit.SECONDS );
+		LOG.error( "Task {} was rejected by executor {}, its queue stayed full for {} seconds or the scheduler is shutting down. The task will not run.", new Object[] {task.getClass().getName(), executorId, Integer.valueOf( rejectionTimeout )} );
+	}
+
+	/**
+	 * Running a task on the caller would let it overtake the tasks queued before it, serial executors block instead.
+	 */
+	private TaskRejectionPolicy getSerialRejectionPolicy()
+	{
+		return rejectionPolicy == TaskRejectionPolicy.CALLER_RUNS ? TaskRejectionPolicy.BLOCK : rejectionPolicy;
+	}
+
+	private MeteredThreadPoolExecutor setupSerialExecutor( String executorId )
+	{
+		MeteredThreadPoolExecutor serialExecutor = new MeteredThreadPoolExecutor( executorId, SERIAL_EXECUTOR_METRIC, 1, keepAliveTime, maxQueueSize, getSerialRejectionPolicy(), rejectionTimeout, threadFactory, metricsService );
 		serialExecutor.allowCoreThreadTimeOut( true );
 
-		LOG.debug( " Executor {} created with Id {} ", new Object[] {serialExecutor.toString(), executorId} );
+		MeteredThreadPoolExecutor existing = ( MeteredThreadPoolExecutor ) serialTaskExecutorsMap.putIfAbsent( executorId, serialExecutor );
+		if ( existing != null )
+		{
+			serialExecutor.shutdown();
+			return existing;
+		}
 
-		serialTaskExecutorsMap.put( executorId, serialExecutor );
+		LOG.debug( " Executor {} created with Id {} ", new Object[] {serialExecutor.toString(), executorId} );
 		return serialExecutor;
 	}
 
-	private ExecutorService setupParallelExecutor( String executorId, int poolSize, int keepAliveTime )
+	private MeteredThreadPoolExecutor setupParallelExecutor( String executorId, int poolSize, int keepAliveTime )
 	{
-		ThreadPoolExecutor parallelExecutor = new ThreadPoolExecutor( poolSize, poolSize, keepAliveTime, TimeUnit.SECONDS, new LinkedBlockingQueue() );
+		MeteredThreadPoolExecutor parallelExecutor = new MeteredThreadPoolExecutor( executorId, PARALLEL_EXECUTOR_METRIC, poolSize, keepAliveTime, maxQueueSize, rejectionPolicy, rejectionTimeout, threadFactory, metricsService );
 		parallelExecutor.allowCoreThreadTimeOut( true );
 
-		LOG.debug( " Executor {} created with Id {} Poolsize {}", new Object[] {parallelExecutor.toString(), executorId, Integer.valueOf( poolSize )} );
+		MeteredThreadPoolExecutor existing = ( MeteredThreadPoolExecutor ) parallelTaskExecutorsMap.putIfAbsent( executorId, parallelExecutor );
+		if ( existing != null )
+		{
+			parallelExecutor.shutdown();
+			return existing;
+		}
 
-		parallelTaskExecutorsMap.put( executorId, parallelExecutor );
+		LOG.debug( " Executor {} created with Id {} Poolsize {}", new Object[] {parallelExecutor.toString(), executorId, Integer.valueOf( poolSize )} );
 		return parallelExecutor;
 	}
 
@@ -294,6 +406,59 @@ public class TaskScheduler
 		return scheduledExecutor;
 	}
 
+	private ThreadFactory createThreadFactory()
+	{
+		if ( virtualThreads )
+		{
+			try
+			{
+				Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+				Method factory = Class.forName( "java.lang.Thread$Builder" ).getMethod( "factory" );
+				LOG.info( "Task scheduler is running device tasks on virtual threads." );
+				return ( ThreadFactory ) factory.invoke( builder );
+			}
+			catch ( Exception e )
+			{
+				LOG.warn( "Virtual threads are not supported by this runtime, using platform threads." );
+			}
+		}
+		return Executors.defaultThreadFactory();
+	}
+
+	private int retireIdleExecutors( Map<String, MeteredThreadPoolExecutor> executors, long idleTime )
+	{
+		int retired = 0;
+		for ( Iterator<Entry<String, MeteredThreadPoolExecutor>> iterator = executors.entrySet().iterator(); iterator.hasNext(); )
+		{
+			Entry<String, MeteredThreadPoolExecutor> entry = ( Entry ) iterator.next();
+			MeteredThreadPoolExecutor executor = ( MeteredThreadPoolExecutor ) entry.getValue();
+			// Removed only if still mapped, a new executor for the same id must keep running
+			if ( ( !"generic".equals( entry.getKey() ) ) && ( executor.retireIfIdle( idleTime ) ) && ( executors.remove( entry.getKey(), executor ) ) )
+			{
+				executor.shutdown();
+				retired++;
+			}
+		}
+		return retired;
+	}
+
+	private class ExecutorRetirementTask implements Runnable
+	{
+		public void run()
+		{
+			long idleTime = TimeUnit.SECONDS.toMillis( executorIdleTimeout );
+			int serialRetired = retireIdleExecutors( serialTaskExecutorsMap, idleTime );
+			int parallelRetired = retireIdleExecutors( parallelTaskExecutorsMap, idleTime );
+
+			if ( metricsService != null )
+			{
+				metricsService.addBucketCounter( ApiMetricsTypes.TASK_EXECUTOR_RETIRED.getName(), SERIAL_EXECUTOR_METRIC, serialRetired );
+				metricsService.addBucketCounter( ApiMetricsTypes.TASK_EXECUTOR_RETIRED.getName(), "parallel", parallelRetired );
+			}
+			LOG.debug( "Retired {} serial and {} parallel idle executors", Integer.valueOf( serialRetired ), Integer.valueOf( parallelRetired ) );
+		}
+	}
+
 	public void setKeepAliveTime( int keepAliveTime )
 	{
 		this.keepAliveTime = keepAliveTime;
@@ -338,4 +503,29 @@ public class TaskScheduler
 	{
 		this.metricsService = metricsService;
 	}
+
+	public void setMaxQueueSize( int maxQueueSize )
+	{
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	public void setRejectionPolicy( String rejectionPolicy )
+	{
+		this.rejectionPolicy = TaskRejectionPolicy.fromString( rejectionPolicy, TaskRejectionPolicy.BLOCK );
+	}
+
+	public void setRejectionTimeout( int rejectionTimeout )
+	{
+		this.rejectionTimeout = rejectionTimeout;
+	}
+
+	public void setExecutorIdleTimeout( int executorIdleTimeout )
+	{
+		this.executorIdleTimeout = executorIdleTimeout;
+	}
+
+	public void setVirtualThreads( boolean virtualThreads )
+	{
+		this.virtualThreads = virtualThreads;
+	}
 }
@@ -61,7 +61,9 @@ public abstract class BaseTransactionalBeanInterceptor implements MethodIntercep
 						}
 
 						invocationSuccessful = true;
-						metricsService.addRetryActionSuccess( ApiMetricsTypes.TRANSACTION.getName(), name, System.currentTimeMillis() - start );
+						long duration = System.currentTimeMillis() - start;
+						metricsService.addRetryActionSuccess( ApiMetricsTypes.TRANSACTION.getName(), name, duration );
+						metricsService.addHistogram( ApiMetricsTypes.TRANSACTION_LATENCY.getName(), duration );
 
 						onTransactionSuccess();
 
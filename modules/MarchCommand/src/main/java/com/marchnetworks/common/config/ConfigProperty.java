@@ -71,6 +71,9 @@ public enum ConfigProperty
 	REALM( "realm", "realm for digest and basic authentication" ),
 
 	EVENT_SEND_DELAY( "event_send_delay", "The amount of time (ms) to collect events before sending them to Clients" ),
+	EVENT_SEND_BATCH_SIZE( "event_send_batch_size", "The number of queued events for a Client that triggers an immediate send instead of waiting for event_send_delay. Default 500" ),
+	EVENT_QUEUE_MAX_SIZE( "event_queue_max_size", "The maximum number of events queued for a single Client subscription. Default 100000" ),
+	EVENT_QUEUE_OVERFLOW_POLICY( "event_queue_overflow_policy", "What to do when a Client subscription queue is full: DROP_OLDEST, COALESCE or DISCONNECT. Default DISCONNECT" ),
 
 	CONFIG_APPLY_TIMEOUT( "configuration_apply_timeout", "Timeout in seconds for a Configuration apply job to complete" ),
 	FIRMWARE_UPGRADE_TIMEOUT( "firmware_upgrade_timeout", "Timeout in seconds for a Firmware upgrade job to complete" ),
@@ -27,7 +27,11 @@ public enum MetricsTypes
 	EVENTS_ASYNC( "events.async" ),
 	EVENTS_CHAINED( "events.chained" ),
 	FRAGMENTATION( "fragmentation" ),
-	LDAP_FALLBACK_BIND( "ldap.fallback.bind" );
+	LDAP_FALLBACK_BIND( "ldap.fallback.bind" ),
+	AUDIT_QUEUE( "audit.queue" ),
+	AUDIT_BATCH( "audit.batch" ),
+	AUDIT_CALLER_WRITES( "audit.caller.writes" ),
+	DEVICE_THROUGHPUT( "device.throughput" );
 
 	private String name;
 
@@ -11,11 +11,13 @@ import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import com.marchnetworks.command.api.metrics.BucketCounter;
+import com.marchnetworks.command.api.metrics.BucketHistogram;
 import com.marchnetworks.command.api.metrics.BucketMinMaxAvg;
 import com.marchnetworks.command.api.metrics.BucketValue;
 import com.marchnetworks.command.api.metrics.ConcurrentAction;
 import com.marchnetworks.command.api.metrics.Counter;
 import com.marchnetworks.command.api.metrics.CurrentMaxAvg;
+import com.marchnetworks.command.api.metrics.Histogram;
 import com.marchnetworks.command.api.metrics.MaxValue;
 import com.marchnetworks.command.api.metrics.Metric;
 import com.marchnetworks.command.api.metrics.MinMaxAvg;
@@ -44,7 +46,6 @@ import com.marchnetworks.command.common.schedule.data.Schedule;
 
 import java.io.IOException;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 public class CustomTypeAdapterFactory implements TypeAdapterFactory
@@ -84,6 +85,8 @@ public class CustomTypeAdapterFactory implements TypeAdapterFactory
 		registerType( CurrentMaxAvg.class );
 		registerType( BucketMinMaxAvg.class );
 		registerType( BucketValue.class );
+		registerType( Histogram.class );
+		registerType( BucketHistogram.class );
 	}
 
 	public static void registerType( Class<?> clazz )
@@ -129,11 +132,15 @@ public class CustomTypeAdapterFactory implements TypeAdapterFactory
 			this.gson = gson;
 		}
 
+		/**
+		 * The type field decides which adapter reads the rest of the value, so the value is read as a tree first: readers
+		 * can't be wrapped the way writers are, since the map adapter works on the reader's internal state.
+		 */
 		public T read( JsonReader in ) throws IOException
 		{
 			JsonElement tree = ( JsonElement ) elementAdapter.read( in );
 			JsonObject jsonObject = tree.getAsJsonObject();
-			JsonPrimitive prim = ( JsonPrimitive ) jsonObject.get( "$type" );
+			JsonPrimitive prim = ( JsonPrimitive ) jsonObject.get( TypeFieldJsonWriter.TYPE_FIELD );
 			String className = prim.getAsString();
 
 			Class<?> clazz = null;
@@ -164,16 +171,7 @@ public class CustomTypeAdapterFactory implements TypeAdapterFactory
 				return;
 			}
 
-			JsonObject custom = delegate.toJsonTree( value ).getAsJsonObject();
-
-			JsonObject result = new JsonObject();
-			result.add( "$type", new JsonPrimitive( value.getClass().getSimpleName() ) );
-			for ( Map.Entry<String, JsonElement> entry : custom.entrySet() )
-			{
-				result.add( ( String ) entry.getKey(), ( JsonElement ) entry.getValue() );
-			}
-
-			elementAdapter.write( out, result );
+			delegate.write( new TypeFieldJsonWriter( out, value.getClass().getSimpleName() ), value );
 		}
 	}
 }
@@ -0,0 +1,176 @@
+package com.marchnetworks.common.serialization;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map.Entry;
+
+/**
+ * Writer passing everything to another writer, adding a <code>$type</code> field as the first field of the first object
+ * written. Lets an adapter write a value with its delegate straight to the output, without building a tree to add the
+ * type to.
+ * <p>
+ * Every writing method of {@link JsonWriter} is forwarded, nothing is written through the base class, whose writer
+ * fails if it is ever used.
+ */
+public final class TypeFieldJsonWriter extends JsonWriter
+{
+	public static final String TYPE_FIELD = "$type";
+
+	private static final Writer UNWRITABLE_WRITER = new Writer()
+	{
+		public void write( char[] buffer, int offset, int counter )
+		{
+			throw new AssertionError();
+		}
+
+		public void flush()
+		{
+			throw new AssertionError();
+		}
+
+		public void close()
+		{
+			throw new AssertionError();
+		}
+	};
+
+	private final JsonWriter out;
+	private String typeName;
+
+	public TypeFieldJsonWriter( JsonWriter out, String typeName )
+	{
+		super( UNWRITABLE_WRITER );
+		this.out = out;
+		this.typeName = typeName;
+		setLenient( out.isLenient() );
+		setHtmlSafe( out.isHtmlSafe() );
+		setSerializeNulls( out.getSerializeNulls() );
+	}
+
+	public JsonWriter beginObject() throws IOException
+	{
+		out.beginObject();
+		if ( typeName != null )
+		{
+			out.name( TYPE_FIELD ).value( typeName );
+			typeName = null;
+		}
+		return this;
+	}
+
+	public JsonWriter endObject() throws IOException
+	{
+		out.endObject();
+		return this;
+	}
+
+	public JsonWriter beginArray() throws IOException
+	{
+		out.beginArray();
+		return this;
+	}
+
+	public JsonWriter endArray() throws IOException
+	{
+		out.endArray();
+		return this;
+	}
+
+	public JsonWriter name( String name ) throws IOException
+	{
+		out.name( name );
+		return this;
+	}
+
+	public JsonWriter value( String value ) throws IOException
+	{
+		out.value( value );
+		return this;
+	}
+
+	public JsonWriter nullValue() throws IOException
+	{
+		out.nullValue();
+		return this;
+	}
+
+	public JsonWriter value( boolean value ) throws IOException
+	{
+		out.value( value );
+		return this;
+	}
+
+	public JsonWriter value( Boolean value ) throws IOException
+	{
+		if ( value == null )
+		{
+			return nullValue();
+		}
+		return value( value.booleanValue() );
+	}
+
+	public JsonWriter value( double value ) throws IOException
+	{
+		out.value( value );
+		return this;
+	}
+
+	public JsonWriter value( float value ) throws IOException
+	{
+		out.value( value );
+		return this;
+	}
+
+	public JsonWriter value( long value ) throws IOException
+	{
+		out.value( value );
+		return this;
+	}
+
+	public JsonWriter value( Number value ) throws IOException
+	{
+		out.value( value );
+		return this;
+	}
+
+	/**
+	 * A raw object written before any other gets the type field through its tree, as it can't be added to the raw value.
+	 */
+	public JsonWriter jsonValue( String value ) throws IOException
+	{
+		if ( ( typeName != null ) && ( value != null ) )
+		{
+			JsonElement tree = new JsonParser().parse( value );
+			if ( tree.isJsonObject() )
+			{
+				JsonObject typed = new JsonObject();
+				typed.addProperty( TYPE_FIELD, typeName );
+				for ( Entry<String, JsonElement> field : tree.getAsJsonObject().entrySet() )
+				{
+					typed.add( ( String ) field.getKey(), ( JsonElement ) field.getValue() );
+				}
+				value = typed.toString();
+				typeName = null;
+			}
+		}
+		out.jsonValue( value );
+		return this;
+	}
+
+	public void flush() throws IOException
+	{
+		out.flush();
+	}
+
+	/**
+	 * The target writer belongs to the caller and is left open.
+	 */
+	public void close()
+	{
+	}
+}
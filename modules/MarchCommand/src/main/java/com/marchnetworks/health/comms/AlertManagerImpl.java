@@ -9,6 +9,7 @@ import com.marchnetworks.command.api.metrics.input.BucketCounterInput;
 import com.marchnetworks.command.api.query.Criteria;
 import com.marchnetworks.command.api.query.Restrictions;
 import com.marchnetworks.command.common.CommonAppUtils;
+import com.marchnetworks.command.common.dao.ChunkHandler;
 import com.marchnetworks.command.common.device.DeviceEventsEnum;
 import com.marchnetworks.command.common.device.data.ConnectState;
 import com.marchnetworks.command.common.scheduling.TaskScheduler;
@@ -77,7 +78,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -367,7 +367,7 @@ public class AlertManagerImpl implements AlertManagerIF
 		LOG.debug( "searchHistoricalAlerts: {} searchQuery.getTimeField()={}", searchQuery, searchQuery.getTimeField() );
 
 		AlertSearchResults results = new AlertSearchResults( searchQuery );
-		LinkedList<AlertData> historicalAlerts = new LinkedList();
+		final List<AlertData> historicalAlerts = new ArrayList();
 
 		List<String> deviceIds = getDevicesUnderUserTerritory( userName );
 		List<String> territoryIds = getUserTerritoryIds( userName );
@@ -388,13 +388,22 @@ public class AlertManagerImpl implements AlertManagerIF
 		{
 			deviceIds = deviceIds.subList( 0, 1000 );
 		}
-		List<AlertEntity> alerts = alertDAO.findClosedAlertsByQuery( territoryIds, deviceIds, searchQuery, 1000 );
-
-		for ( AlertEntity alert : alerts )
+		int maxResults = searchQuery.getMaxResults();
+		if ( ( maxResults > 1000 ) || ( maxResults <= 0 ) )
 		{
-			AlertData alertData = alert.toDataObject();
-			historicalAlerts.add( alertData );
+			maxResults = 1000;
 		}
+		alertDAO.scrollClosedAlertsByQuery( territoryIds, deviceIds, searchQuery, maxResults, new ChunkHandler<AlertEntity>()
+		{
+			public boolean handle( List<AlertEntity> chunk )
+			{
+				for ( AlertEntity alert : chunk )
+				{
+					historicalAlerts.add( alert.toDataObject() );
+				}
+				return true;
+			}
+		} );
 
 		results.setResults( ( AlertData[] ) historicalAlerts.toArray( new AlertData[historicalAlerts.size()] ) );
 
@@ -1,5 +1,6 @@
 package com.marchnetworks.health.dao;
 
+import com.marchnetworks.command.common.dao.ChunkHandler;
 import com.marchnetworks.command.common.dao.GenericDAO;
 import com.marchnetworks.health.alerts.AlertEntity;
 import com.marchnetworks.health.search.AlertSearchQuery;
@@ -8,7 +9,7 @@ import java.util.List;
 
 public interface AlertDAO extends GenericDAO<AlertEntity, Long>
 {
-	List<AlertEntity> findClosedAlertsByQuery( List<String> paramList1, List<String> paramList2, AlertSearchQuery paramAlertSearchQuery, int paramInt );
+	void scrollClosedAlertsByQuery( List<String> paramList1, List<String> paramList2, AlertSearchQuery paramAlertSearchQuery, int paramInt, ChunkHandler<AlertEntity> paramChunkHandler );
 
 	int deleteClosedAlertsByClosedTime( long paramLong );
 }
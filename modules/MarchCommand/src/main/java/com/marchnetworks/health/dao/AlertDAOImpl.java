@@ -1,5 +1,7 @@
 package com.marchnetworks.health.dao;
 
+import com.marchnetworks.command.common.HibernateUtils;
+import com.marchnetworks.command.common.dao.ChunkHandler;
 import com.marchnetworks.command.common.dao.GenericHibernateDAO;
 import com.marchnetworks.common.serialization.CoreJsonSerializer;
 import com.marchnetworks.common.types.AlertUserStateEnum;
@@ -10,6 +12,7 @@ import com.marchnetworks.health.search.AlertSearchQuery;
 
 import org.hibernate.Criteria;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
 import org.hibernate.Session;
 import org.hibernate.criterion.Conjunction;
 import org.hibernate.criterion.Disjunction;
@@ -20,7 +23,9 @@ import java.util.List;
 
 public class AlertDAOImpl extends GenericHibernateDAO<AlertEntity, Long> implements AlertDAO
 {
-	public List<AlertEntity> findClosedAlertsByQuery( List<String> territoryIds, List<String> deviceIds, AlertSearchQuery query, int maxResults )
+	private static final int CHUNK_SIZE = 200;
+
+	public void scrollClosedAlertsByQuery( List<String> territoryIds, List<String> deviceIds, AlertSearchQuery query, int maxResults, ChunkHandler<AlertEntity> handler )
 	{
 		Session session = ( Session ) getEntityManager().getDelegate();
 
@@ -61,13 +66,13 @@ public class AlertDAOImpl extends GenericHibernateDAO<AlertEntity, Long> impleme
 		criteria.add( Restrictions.eq( "userState", AlertUserStateEnum.CLOSED ) );
 
 		SearchQueryUtils.setCriteriaForQuery( criteria, query );
+		SearchQueryUtils.setPageForQuery( criteria, query );
 
 		criteria.setReadOnly( true );
+		criteria.setFetchSize( CHUNK_SIZE );
 		criteria.setMaxResults( maxResults );
 
-		List<AlertEntity> list = criteria.list();
-
-		return list;
+		HibernateUtils.scroll( session, criteria.scroll( ScrollMode.FORWARD_ONLY ), CHUNK_SIZE, handler );
 	}
 
 	public int deleteClosedAlertsByClosedTime( long maxAge )
@@ -3,6 +3,7 @@ package com.marchnetworks.health.dao;
 import com.marchnetworks.health.search.AlertSearchQuery;
 
 import org.hibernate.Criteria;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 
 public class SearchQueryUtils
@@ -42,4 +43,39 @@ public class SearchQueryUtils
 			}
 		}
 	}
+
+	/**
+	 * Orders the results newest first by the searched time field and then id, starting after the alert the query was
+	 * last paged to.
+	 */
+	public static void setPageForQuery( Criteria criteria, AlertSearchQuery query )
+	{
+		String timeProperty = getTimeProperty( query );
+
+		if ( query.getAfterId() != null )
+		{
+			Long afterTime = Long.valueOf( query.getAfterTime() );
+			criteria.add( Restrictions.or( Restrictions.lt( timeProperty, afterTime ), Restrictions.and( Restrictions.eq( timeProperty, afterTime ), Restrictions.lt( "id", query.getAfterId() ) ) ) );
+		}
+
+		criteria.addOrder( Order.desc( timeProperty ) );
+		criteria.addOrder( Order.desc( "id" ) );
+	}
+
+	private static String getTimeProperty( AlertSearchQuery query )
+	{
+		if ( query.getTimeField() != null )
+		{
+			switch ( query.getTimeField() )
+			{
+				case ALERT_TIME:
+					return "alertTime";
+				case ALERT_RESOLVED_TIME:
+					return "alertResolvedTime";
+				case USER_CLOSED_AT:
+					return "lastUserStateChangedTime";
+			}
+		}
+		return "lastUserStateChangedTime";
+	}
 }
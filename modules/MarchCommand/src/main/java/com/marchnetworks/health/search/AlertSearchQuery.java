@@ -16,10 +16,13 @@ public class AlertSearchQuery
 	private long startTime;
 	private long stopTime;
 	private long lastPeriod;
+	private long afterTime;
+	private Long afterId;
+	private int maxResults;
 
 	public String toString()
 	{
-		return String.format( "AlertSearchQuery [severities=%s, categories=%s, userState=%s, timeField=%s, startTime=%s, stopTime=%s, lastPeriod=%s, useTimePeriod=%s]", new Object[] {Arrays.toString( severities ), Arrays.toString( categories ), timeField, Long.valueOf( startTime ), Long.valueOf( stopTime ), Long.valueOf( lastPeriod ), Boolean.valueOf( useTimePeriod )} );
+		return String.format( "AlertSearchQuery [severities=%s, categories=%s, userState=%s, timeField=%s, startTime=%s, stopTime=%s, lastPeriod=%s, useTimePeriod=%s, afterTime=%s, afterId=%s, maxResults=%s]", new Object[] {Arrays.toString( severities ), Arrays.toString( categories ), timeField, Long.valueOf( startTime ), Long.valueOf( stopTime ), Long.valueOf( lastPeriod ), Boolean.valueOf( useTimePeriod ), Long.valueOf( afterTime ), afterId, Integer.valueOf( maxResults )} );
 	}
 
 	private boolean useTimePeriod = false;
@@ -94,4 +97,38 @@ public class AlertSearchQuery
 	{
 		this.timeField = timeField;
 	}
+
+	public long getAfterTime()
+	{
+		return afterTime;
+	}
+
+	/**
+	 * Together with {@link #setAfterId(Long)}, continues a search after the last alert of the previous page. Alerts are
+	 * returned newest first, ordered by the searched time field and then id.
+	 */
+	public void setAfterTime( long afterTime )
+	{
+		this.afterTime = afterTime;
+	}
+
+	public Long getAfterId()
+	{
+		return afterId;
+	}
+
+	public void setAfterId( Long afterId )
+	{
+		this.afterId = afterId;
+	}
+
+	public int getMaxResults()
+	{
+		return maxResults;
+	}
+
+	public void setMaxResults( int maxResults )
+	{
+		this.maxResults = maxResults;
+	}
 }
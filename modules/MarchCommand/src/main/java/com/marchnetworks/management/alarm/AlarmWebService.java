@@ -50,6 +50,21 @@ public class AlarmWebService
 		}
 	}
 
+	@WebMethod( operationName = "queryAlarmEntriesAfter" )
+	public AlarmEntryView[] queryAlarmEntriesAfter( @WebParam( name = "alarmSourceIDs" ) String[] alarmSourceIDs, @WebParam( name = "includeOpenEntries" ) boolean includeOpenEntries, @WebParam( name = "includeClosedEntries" ) boolean includeClosedEntries, @WebParam( name = "startTime" ) long startTime, @WebParam( name = "endTime" ) long endTime, @WebParam( name = "maxEntries" ) int maxEntries, @WebParam( name = "afterTime" ) long afterTime, @WebParam( name = "afterEntryId" ) String afterEntryId ) throws AlarmException
+	{
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		try
+		{
+			checkFeatureIsEnabled();
+			return alarmService.queryAlarmEntries( username, alarmSourceIDs, includeOpenEntries, includeClosedEntries, startTime, endTime, maxEntries, afterTime, afterEntryId );
+		}
+		catch ( AccessDeniedException e )
+		{
+			throw new AlarmException( AlarmExceptionTypeEnum.SECURITY, accessDenied );
+		}
+	}
+
 	@WebMethod( operationName = "closeAlarmEntries" )
 	public void closeAlarmEntries( @WebParam( name = "alarmClosures" ) AlarmEntryCloseRecord[] alarmClosures ) throws AlarmException
 	{
@@ -33,6 +33,12 @@ public class AuditLogWebService
 		return service.getDeviceAuditLogs( startTime, endTime );
 	}
 
+	@WebMethod( operationName = "searchDeviceAuditLogs" )
+	public List<DeviceAuditView> searchDeviceAuditLogs( @WebParam( name = "auditSearchQuery" ) AuditSearchQuery auditSearchQuery ) throws AuditLogException
+	{
+		return service.getDeviceAuditLogs( auditSearchQuery );
+	}
+
 	@WebMethod( operationName = "createAuditLog" )
 	public void createAuditLog( @WebParam( name = "auditView" ) AuditView auditView )
 	{
@@ -187,27 +187,10 @@ public class FileStorageView
 		try
 		{
 			ZipFile zipFile = new ZipFile( file );
-			if ( zipFile != null )
+			ZipEntry zipEntry = findFirmwareEntry( zipFile );
+			if ( zipEntry != null )
 			{
-				Enumeration<? extends ZipEntry> entries = zipFile.entries();
-				while ( entries.hasMoreElements() )
-				{
-					ZipEntry zipEntry = ( ZipEntry ) entries.nextElement();
-					String enrtyName = getFileName( zipEntry.getName() );
-					if ( upgName != null )
-					{
-						if ( enrtyName.equalsIgnoreCase( upgName ) )
-						{
-							firmwareFile = new FileObject( enrtyName, zipEntry.getSize(), zipFile.getInputStream( zipEntry ) );
-							break;
-						}
-					}
-					else if ( !FileProperties.isDeviceUpgradeMetadataFile( enrtyName ) )
-					{
-						firmwareFile = new FileObject( enrtyName, zipEntry.getSize(), zipFile.getInputStream( zipEntry ) );
-						break;
-					}
-				}
+				firmwareFile = new FileObject( getFileName( zipEntry.getName() ), zipEntry.getSize(), zipFile.getInputStream( zipEntry ) );
 			}
 		}
 		catch ( IOException e )
@@ -217,6 +200,31 @@ public class FileStorageView
 		return firmwareFile;
 	}
 
+	/**
+	 * @return the entry named by the upgrade name if one is set, otherwise the first entry that is not upgrade metadata
+	 */
+	public ZipEntry findFirmwareEntry( ZipFile zipFile )
+	{
+		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		while ( entries.hasMoreElements() )
+		{
+			ZipEntry zipEntry = ( ZipEntry ) entries.nextElement();
+			String enrtyName = getFileName( zipEntry.getName() );
+			if ( upgName != null )
+			{
+				if ( enrtyName.equalsIgnoreCase( upgName ) )
+				{
+					return zipEntry;
+				}
+			}
+			else if ( !FileProperties.isDeviceUpgradeMetadataFile( enrtyName ) )
+			{
+				return zipEntry;
+			}
+		}
+		return null;
+	}
+
 	public String getFilename()
 	{
 		File file = getFile();
@@ -247,7 +255,7 @@ public class FileStorageView
 		return firmwareFile;
 	}
 
-	private String getFileName( String filePath )
+	public static String getFileName( String filePath )
 	{
 		String fileName = filePath;
 		int pos = filePath.lastIndexOf( "/" );
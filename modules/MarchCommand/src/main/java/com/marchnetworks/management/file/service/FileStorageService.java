@@ -2,6 +2,7 @@ package com.marchnetworks.management.file.service;
 
 import com.marchnetworks.command.common.device.data.DeviceView;
 import com.marchnetworks.common.event.util.Pair;
+import com.marchnetworks.management.data.FileObject;
 import com.marchnetworks.management.data.FileStatusResult;
 import com.marchnetworks.management.data.FileStorageView;
 import com.marchnetworks.management.data.UpdFileInfo;
@@ -57,5 +58,11 @@ public interface FileStorageService
 	boolean fileInUseCheck( String paramString );
 
 	UpdFileInfo getUpdFileInfo( String paramString1, String paramString2 );
+
+	/**
+	 * Opens the firmware image of a package for sending to a device. Images are shared by all upgrades in progress, and
+	 * the stream of the returned object must be closed to release its image.
+	 */
+	FileObject getFirmwareFileObject( FileStorageView paramFileStorageView ) throws FileStorageException;
 }
 
@@ -1,6 +1,7 @@
 package com.marchnetworks.management.file.service;
 
 import com.google.gson.reflect.TypeToken;
+import com.marchnetworks.command.api.rest.ByteBufferInputStream;
 import com.marchnetworks.command.common.CommonAppUtils;
 import com.marchnetworks.command.common.device.data.DeviceView;
 import com.marchnetworks.common.event.util.Pair;
@@ -11,6 +12,7 @@ import com.marchnetworks.common.utils.CommonUtils;
 import com.marchnetworks.common.utils.ServerUtils;
 import com.marchnetworks.management.config.service.ConfigService;
 import com.marchnetworks.management.data.ChannelDeviceModel;
+import com.marchnetworks.management.data.FileObject;
 import com.marchnetworks.management.data.FileStatusResult;
 import com.marchnetworks.management.data.FileStorageView;
 import com.marchnetworks.management.data.FileUploadStatusEnum;
@@ -53,6 +55,7 @@ public class FileStorageServiceImpl implements FileStorageService
 	private FileStorageDAO fileStorageDAO;
 	private EventRegistry eventRegistry;
 	private ConfigService configService;
+	private FirmwareBlobCache firmwareBlobCache;
 
 	private void createFolder( String folderPath )
 	{
@@ -693,6 +696,64 @@ public class FileStorageServiceImpl implements FileStorageService
 		return new UpdFileInfo( fileProertyName, fileRepositoryPath );
 	}
 
+	public FileObject getFirmwareFileObject( FileStorageView firmwareStorage ) throws FileStorageException
+	{
+		File file = firmwareStorage.getFile();
+		String entryName = null;
+		ZipFile zipFile = null;
+		try
+		{
+			zipFile = new ZipFile( file );
+			ZipEntry zipEntry = firmwareStorage.findFirmwareEntry( zipFile );
+			if ( zipEntry != null )
+			{
+				entryName = zipEntry.getName();
+			}
+		}
+		catch ( IOException e )
+		{
+			throw new FileStorageException( FileStorageExceptionType.FILE_NOT_FOUND, e.getMessage() );
+		}
+		finally
+		{
+			if ( zipFile != null )
+			{
+				try
+				{
+					zipFile.close();
+				}
+				catch ( IOException localIOException )
+				{
+				}
+			}
+		}
+
+		if ( entryName == null )
+		{
+			throw new FileStorageException( FileStorageExceptionType.FILE_NOT_FOUND, "No firmware image found in " + file.getName() );
+		}
+
+		try
+		{
+			ByteBufferInputStream imageStream = getFirmwareBlobCache().open( file, entryName );
+			return new FileObject( FileStorageView.getFileName( entryName ), imageStream.getBuffer().remaining(), imageStream );
+		}
+		catch ( IOException e )
+		{
+			LOG.warn( "Could not map firmware image {} of {}, reading it from the package. Error details: {}", new Object[] {entryName, file.getName(), e.getMessage()} );
+			return firmwareStorage.getFileObject();
+		}
+	}
+
+	private synchronized FirmwareBlobCache getFirmwareBlobCache()
+	{
+		if ( firmwareBlobCache == null )
+		{
+			firmwareBlobCache = new FirmwareBlobCache( new File( getRepositoryPath( FileStorageType.FIRMWARE ) + File.separator + "images" ) );
+		}
+		return firmwareBlobCache;
+	}
+
 	public void setFileStorageDAO( FileStorageDAO fileStorageObjectDao )
 	{
 		fileStorageDAO = fileStorageObjectDao;
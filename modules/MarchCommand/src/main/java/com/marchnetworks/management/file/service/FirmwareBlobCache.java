@@ -0,0 +1,222 @@
+package com.marchnetworks.management.file.service;
+
+import com.marchnetworks.command.api.rest.ByteBufferInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Firmware images extracted from their packages once and memory mapped, so that every upgrade sending the same image
+ * reads it from the page cache instead of inflating the package again. Each stream reads its own view of the mapping;
+ * the image is dropped and its file deleted when the last stream is closed.
+ * <p>
+ * Images are keyed by package, entry and the package's modification time and length, since packages are overwritten
+ * in place when uploaded again.
+ */
+class FirmwareBlobCache
+{
+	private static final Logger LOG = LoggerFactory.getLogger( FirmwareBlobCache.class );
+	private static final int COPY_BUFFER_SIZE = 65536;
+	private static final String BLOB_PREFIX = "firmware";
+	private static final String BLOB_SUFFIX = ".blob";
+
+	private final Map<String, Blob> blobs = new HashMap();
+	private final File blobFolder;
+
+	FirmwareBlobCache( File blobFolder )
+	{
+		this.blobFolder = blobFolder;
+		blobFolder.mkdirs();
+
+		File[] leftovers = blobFolder.listFiles();
+		if ( leftovers != null )
+		{
+			for ( File leftover : leftovers )
+			{
+				if ( leftover.getName().endsWith( BLOB_SUFFIX ) )
+				{
+					leftover.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a stream over the image, which must be closed to release it
+	 */
+	public ByteBufferInputStream open( File packageFile, String entryName ) throws IOException
+	{
+		String key = packageFile.getAbsolutePath() + "!" + entryName + "@" + packageFile.lastModified() + ":" + packageFile.length();
+		Blob blob;
+		synchronized ( blobs )
+		{
+			blob = ( Blob ) blobs.get( key );
+			if ( blob == null )
+			{
+				blob = new Blob( key );
+				blobs.put( key, blob );
+			}
+			blob.refCount += 1;
+		}
+
+		try
+		{
+			return new ByteBufferInputStream( blob.load( packageFile, entryName ), new BlobRelease( blob ) );
+		}
+		catch ( IOException e )
+		{
+			release( blob );
+			throw e;
+		}
+	}
+
+	private void release( Blob blob )
+	{
+		synchronized ( blobs )
+		{
+			blob.refCount -= 1;
+			if ( blob.refCount > 0 )
+			{
+				return;
+			}
+			blobs.remove( blob.key, blob );
+		}
+		blob.evict();
+	}
+
+	private class BlobRelease implements Closeable
+	{
+		private final Blob blob;
+
+		BlobRelease( Blob blob )
+		{
+			this.blob = blob;
+		}
+
+		public void close()
+		{
+			release( blob );
+		}
+	}
+
+	private class Blob
+	{
+		private final String key;
+		private int refCount;
+		private File file;
+		private MappedByteBuffer mapping;
+
+		Blob( String key )
+		{
+			this.key = key;
+		}
+
+		/**
+		 * Extracts and maps the image on first use; later callers wait for it and share the mapping.
+		 *
+		 * @return a read only view of the image positioned at its start
+		 */
+		synchronized ByteBuffer load( File packageFile, String entryName ) throws IOException
+		{
+			if ( mapping == null )
+			{
+				File extracted = File.createTempFile( BLOB_PREFIX, BLOB_SUFFIX, blobFolder );
+				try
+				{
+					extract( packageFile, entryName, extracted );
+					mapping = map( extracted );
+					file = extracted;
+				}
+				finally
+				{
+					if ( mapping == null )
+					{
+						extracted.delete();
+					}
+				}
+				LOG.info( "Mapped firmware image {} of {}, {} bytes", new Object[] {entryName, packageFile.getName(), Integer.valueOf( mapping.capacity() )} );
+			}
+			return mapping.asReadOnlyBuffer();
+		}
+
+		synchronized void evict()
+		{
+			mapping = null;
+			if ( ( file != null ) && ( !file.delete() ) )
+			{
+				// the file can't be deleted while mapped on some platforms, it is cleaned up on the next start
+				file.deleteOnExit();
+			}
+			file = null;
+		}
+
+		private void extract( File packageFile, String entryName, File target ) throws IOException
+		{
+			ZipFile zipFile = new ZipFile( packageFile );
+			try
+			{
+				ZipEntry entry = zipFile.getEntry( entryName );
+				if ( entry == null )
+				{
+					throw new IOException( "Entry " + entryName + " not found in " + packageFile.getName() );
+				}
+
+				InputStream input = zipFile.getInputStream( entry );
+				OutputStream output = new FileOutputStream( target );
+				try
+				{
+					byte[] buffer = new byte[COPY_BUFFER_SIZE];
+					int count;
+					while ( ( count = input.read( buffer ) ) >= 0 )
+					{
+						output.write( buffer, 0, count );
+					}
+				}
+				finally
+				{
+					output.close();
+					input.close();
+				}
+			}
+			finally
+			{
+				zipFile.close();
+			}
+		}
+
+		private MappedByteBuffer map( File source ) throws IOException
+		{
+			RandomAccessFile randomAccessFile = new RandomAccessFile( source, "r" );
+			try
+			{
+				FileChannel channel = randomAccessFile.getChannel();
+				if ( channel.size() > Integer.MAX_VALUE )
+				{
+					throw new IOException( "Firmware image " + source.getName() + " is too large to map" );
+				}
+				// the mapping stays valid once the channel is closed
+				return channel.map( MapMode.READ_ONLY, 0L, channel.size() );
+			}
+			finally
+			{
+				randomAccessFile.close();
+			}
+		}
+	}
+}
@@ -12,7 +12,8 @@ public enum ChunkUploadError
 	FILE_HASH,
 	FILE_STORAGE_ERROR,
 	IMCOMPATIBLE_AGENT,
-	WRONG_PROTOCOL;
+	WRONG_PROTOCOL,
+	CHUNK_SIZE;
 
 	private ChunkUploadError()
 	{
@@ -5,18 +5,19 @@ import com.marchnetworks.command.common.scheduling.TaskScheduler;
 import com.marchnetworks.common.spring.ApplicationContextSupport;
 import com.marchnetworks.common.utils.DateUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -31,6 +32,17 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Receives files uploaded in chunks over several requests. Clients that announce a chunk size at the start of the
+ * upload may send chunks in any order and in parallel, each one is written at its own offset; the received chunks are
+ * kept in a bitmap so an interrupted upload can be queried and resumed by sending only the missing chunks. Clients that
+ * don't announce a chunk size must send chunks in order.
+ * <p>
+ * A chunk is checked against its hash before it is written, and its index is claimed while it is being received, so a
+ * duplicate sent meanwhile is refused rather than written over it. The hash of the file is computed as the chunks
+ * arrive, over the leading chunks received so far. Chunks that arrive ahead of a missing one are read back from the
+ * file once the gap is filled.
+ */
 public class ChunkUploadHelper
 {
 	private static Logger LOG = LoggerFactory.getLogger( ChunkUploadHelper.class );
@@ -44,8 +56,11 @@ public class ChunkUploadHelper
 	public static final String HDR_CHUNKHASH = "X-ChunkHash";
 	public static final String TRANSFER_SESSION = "TransferSession";
 	public static final String HDR_TRANSFER_SESSION = "X-TransferSession";
+	public static final String HDR_QUERY_SESSION = "X-QuerySession";
 	public static final String DEFAULT_DIR = System.getProperty( "user.dir" ) + File.separator + "fileStorageTmp";
 
+	private static final int IO_BUFFER_SIZE = 262144;
+
 	protected ChunkUploadServlet m_Owner;
 	protected Random m_Random;
 	protected String m_Dir;
@@ -124,7 +139,9 @@ public class ChunkUploadHelper
 		}
 
 		up.lLastContactTime = DateUtils.getCurrentUTCTimeInMillis();
-		up.lCurrentChunk = 0L;
+		up.received = new BitSet();
+		up.inFlight = new BitSet();
+		up.digest = newDigest();
 
 		sessionId = newSession( up );
 		if ( sessionId < 0 )
@@ -146,10 +163,6 @@ public class ChunkUploadHelper
 		ChunkUploadParams cup = new ChunkUploadParams();
 		UploadSession up = null;
 
-		byte[] bCalcHash = null;
-		InputStream is = null;
-		FileOutputStream fos = null;
-
 		String err = contCheckHeaders( req, cup );
 		if ( !err.isEmpty() )
 		{
@@ -163,6 +176,18 @@ public class ChunkUploadHelper
 				return;
 			}
 
+			if ( err.equals( "query" ) )
+			{
+				up = findSession( cup.SessionId );
+				if ( up == null )
+				{
+					genErrorResponse( resp, ChunkUploadError.SESSION_NOT_FOUND, "No transfer session " + cup.SessionId + " found", req.getRemoteAddr() );
+					return;
+				}
+				rplyReceived( resp, cup.SessionId, up );
+				return;
+			}
+
 			genErrorResponse( resp, ChunkUploadError.CONTINUE_UPLOAD_HEADERS, "Error parsing continueUploadSession headers: " + err, req.getRemoteAddr() );
 			return;
 		}
@@ -174,61 +199,161 @@ public class ChunkUploadHelper
 			return;
 		}
 
-		if ( up.lCurrentChunk + 1L != cup.ChunkIndex )
+		int chunk;
+		long offset;
+		long length;
+		FileChannel channel;
+		MessageDigest fileDigest = null;
+		synchronized ( up )
 		{
-			genErrorResponse( resp, ChunkUploadError.CHUNK_ORDER, "SessionId=" + cup.SessionId + " Chunk sent out of order. Cancelling upload", req.getRemoteAddr() );
-			deleteSession( cup.SessionId, true );
-			return;
-		}
-		up.lCurrentChunk += 1L;
+			if ( ( cup.ChunkIndex < 1L ) || ( cup.ChunkIndex > up.lNumChunks ) )
+			{
+				genErrorResponse( resp, ChunkUploadError.CHUNK_ORDER, "SessionId=" + cup.SessionId + " Chunk " + cup.ChunkIndex + " is out of range", req.getRemoteAddr() );
+				return;
+			}
 
-		is = req.getInputStream();
+			chunk = ( int ) ( cup.ChunkIndex - 1L );
+			up.lLastContactTime = DateUtils.getCurrentUTCTimeInMillis();
+			if ( up.received.get( chunk ) )
+			{
+				LOG.debug( "Upload SessionId={} already has chunk {}.", Integer.valueOf( cup.SessionId ), Long.valueOf( cup.ChunkIndex ) );
+				rplyOK( resp, cup.SessionId );
+				return;
+			}
+			if ( up.inFlight.get( chunk ) )
+			{
+				genErrorResponse( resp, ChunkUploadError.CHUNK_ORDER, "SessionId=" + cup.SessionId + " Chunk " + cup.ChunkIndex + " is already being received. Resend it if that fails", req.getRemoteAddr() );
+				return;
+			}
 
-		fos = new FileOutputStream( up.tmpFile, up.lCurrentChunk != 1L );
+			if ( up.lChunkSize > 0L )
+			{
+				offset = chunk * up.lChunkSize;
+				length = Math.min( up.lChunkSize, up.lFileSize - offset );
+			}
+			else
+			{
+				if ( chunk != up.iHashedChunks )
+				{
+					genErrorResponse( resp, ChunkUploadError.CHUNK_ORDER, "SessionId=" + cup.SessionId + " Chunk sent out of order. Cancelling upload", req.getRemoteAddr() );
+					deleteSession( cup.SessionId, true );
+					return;
+				}
+				offset = up.lHashedBytes;
+				length = -1L;
+			}
+
+			if ( chunk == up.iHashedChunks )
+			{
+				fileDigest = copyDigest( up.digest );
+			}
+			channel = getChannel( up );
+			up.inFlight.set( chunk );
+		}
+
+		boolean complete;
 		try
 		{
-			bCalcHash = copyStream( is, fos );
+			byte[] data;
+			InputStream is = req.getInputStream();
+			try
+			{
+				data = readChunk( is, length >= 0L ? length : up.lFileSize - offset );
+			}
+			finally
+			{
+				is.close();
+			}
+
+			if ( ( data == null ) || ( ( length >= 0L ) && ( data.length != length ) ) )
+			{
+				genErrorResponse( resp, ChunkUploadError.CHUNK_SIZE, "SessionId=" + cup.SessionId + " Chunk " + cup.ChunkIndex + "/" + up.lNumChunks + " should be " + length + " bytes. Resend the chunk", req.getRemoteAddr() );
+				return;
+			}
+
+			MessageDigest chunkDigest = newDigest();
+			chunkDigest.update( data );
+			if ( !Arrays.equals( cup.ChunkHash, chunkDigest.digest() ) )
+			{
+				if ( up.lChunkSize > 0L )
+				{
+					genErrorResponse( resp, ChunkUploadError.CHUNK_HASH, "SessionId=" + cup.SessionId + " Error in transmitting data: Checksum fail on chunk " + cup.ChunkIndex + "/" + up.lNumChunks + ". Resend the chunk", req.getRemoteAddr() );
+					return;
+				}
+				genErrorResponse( resp, ChunkUploadError.CHUNK_HASH, "SessionId=" + cup.SessionId + " Error in transmitting data: Checksum fail on chunk " + cup.ChunkIndex + "/" + up.lNumChunks + ". Cancelling session", req.getRemoteAddr() );
+
+				deleteSession( cup.SessionId, true );
+				return;
+			}
+
+			// Only a chunk matching its hash reaches the file
+			writeChunk( channel, offset, data );
+			if ( fileDigest != null )
+			{
+				fileDigest.update( data );
+			}
+			long written = data.length;
+
+			synchronized ( up )
+			{
+				if ( up.bClosed )
+				{
+					genErrorResponse( resp, ChunkUploadError.SESSION_NOT_FOUND, "Transfer session " + cup.SessionId + " was closed", req.getRemoteAddr() );
+					return;
+				}
+
+				up.received.set( chunk );
+				if ( chunk == up.iHashedChunks )
+				{
+					if ( fileDigest != null )
+					{
+						up.digest = fileDigest;
+					}
+					else
+					{
+						hashFile( up, offset, offset + written );
+					}
+					up.iHashedChunks += 1;
+					up.lHashedBytes = offset + written;
+				}
+				hashReceivedChunks( up );
+
+				up.lLastContactTime = DateUtils.getCurrentUTCTimeInMillis();
+				complete = ( up.iHashedChunks == up.lNumChunks ) && ( !up.bCompleting );
+				up.bCompleting |= complete;
+			}
 		}
 		finally
 		{
-			fos.close();
+			synchronized ( up )
+			{
+				up.inFlight.clear( chunk );
+			}
+		}
+
+		if ( !complete )
+		{
+			rplyOK( resp, cup.SessionId );
+			return;
 		}
-		is.close();
 
-		if ( !Arrays.equals( cup.ChunkHash, bCalcHash ) )
+		closeChannel( up );
+		if ( !Arrays.equals( up.bFileHash, up.digest.digest() ) )
 		{
-			genErrorResponse( resp, ChunkUploadError.CHUNK_HASH, "SessionId=" + cup.SessionId + " Error in transmitting data: Checksum fail on chunk " + cup.ChunkIndex + "/" + up.lNumChunks + ". Cancelling session", req.getRemoteAddr() );
+			genErrorResponse( resp, ChunkUploadError.FILE_HASH, "SessionId=" + cup.SessionId + " Error in transmitting data: Checksum fail. Cancelling session", req.getRemoteAddr() );
 
 			deleteSession( cup.SessionId, true );
 			return;
 		}
 
-		up.lLastContactTime = DateUtils.getCurrentUTCTimeInMillis();
-
-		if ( up.lCurrentChunk != up.lNumChunks )
+		if ( !m_Owner.saveFile( resp, up.sName, up.tmpFile, up.userObject ) )
 		{
-			rplyOK( resp, cup.SessionId );
+			LOG.error( "UploadError: RemoteAddr=" + req.getRemoteAddr() + " Error: Could not save chunk-uploaded file" );
+			deleteSession( cup.SessionId, true );
+			return;
 		}
-		else
-		{
-			bCalcHash = calcHashOfFile( up.tmpFile );
-			if ( !Arrays.equals( up.bFileHash, bCalcHash ) )
-			{
-				genErrorResponse( resp, ChunkUploadError.FILE_HASH, "SessionId=" + cup.SessionId + " Error in transmitting data: Checksum fail. Cancelling session", req.getRemoteAddr() );
 
-				deleteSession( cup.SessionId, true );
-				return;
-			}
-
-			if ( !m_Owner.saveFile( resp, up.sName, up.tmpFile, up.userObject ) )
-			{
-				LOG.error( "UploadError: RemoteAddr=" + req.getRemoteAddr() + " Error: Could not save chunk-uploaded file" );
-				deleteSession( cup.SessionId, true );
-				return;
-			}
-
-			LOG.debug( "Upload cup.SessionId=" + cup.SessionId + " finished" );
-		}
+		LOG.debug( "Upload cup.SessionId=" + cup.SessionId + " finished" );
 	}
 
 	private String initCheckHeaders( HttpServletRequest req, UploadSession up )
@@ -237,6 +362,7 @@ public class ChunkUploadHelper
 		String filePath = req.getHeader( "X-filePath" );
 		String fileSize = req.getHeader( "X-FileSize" );
 		String numChunks = req.getHeader( "X-NumChunks" );
+		String chunkSize = req.getHeader( "X-ChunkSize" );
 		String fileHash = req.getHeader( "X-FileHash" );
 
 		if ( isEmpty( fileName ) )
@@ -258,11 +384,20 @@ public class ChunkUploadHelper
 		if ( isEmpty( numChunks ) )
 			return "No X-NumChunks";
 		up.lNumChunks = Long.valueOf( numChunks );
-		if ( up.lNumChunks < 0L )
+		if ( ( up.lNumChunks < 0L ) || ( up.lNumChunks > Integer.MAX_VALUE ) )
 		{
 			return "Invalid X-NumChunks: " + numChunks;
 		}
 
+		if ( !isEmpty( chunkSize ) )
+		{
+			up.lChunkSize = Long.valueOf( chunkSize );
+			if ( ( up.lChunkSize <= 0L ) || ( ( up.lFileSize + up.lChunkSize - 1L ) / up.lChunkSize != up.lNumChunks ) )
+			{
+				return "X-ChunkSize " + chunkSize + " doesn't match X-FileSize and X-NumChunks";
+			}
+		}
+
 		if ( isEmpty( fileHash ) )
 			return "No X-FileHash";
 		try
@@ -293,6 +428,12 @@ public class ChunkUploadHelper
 			return "cancel";
 		}
 
+		String sQuery = req.getHeader( "X-QuerySession" );
+		if ( ( sQuery != null ) && ( sQuery.equalsIgnoreCase( "true" ) ) )
+		{
+			return "query";
+		}
+
 		if ( isEmpty( sChunkIndex ) )
 			return "No X-ChunkIndex";
 		cup.ChunkIndex = Long.valueOf( sChunkIndex );
@@ -343,10 +484,42 @@ public class ChunkUploadHelper
 	private synchronized void deleteSession( int sessionId, boolean deleteFile )
 	{
 		UploadSession up = m_Uploads.remove( sessionId );
+		if ( up == null )
+			return;
+		closeChannel( up );
 		if ( ( deleteFile ) && ( up.tmpFile.exists() ) )
 			up.tmpFile.delete();
 	}
 
+	/**
+	 * Opens the session's file on its first chunk. Must be called holding the session lock.
+	 */
+	private FileChannel getChannel( UploadSession up ) throws IOException
+	{
+		if ( up.channel == null )
+		{
+			up.channel = FileChannel.open( up.tmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE );
+		}
+		return up.channel;
+	}
+
+	private void closeChannel( UploadSession up )
+	{
+		up.bClosed = true;
+		FileChannel channel = up.channel;
+		if ( channel != null )
+		{
+			try
+			{
+				channel.close();
+			}
+			catch ( IOException e )
+			{
+				LOG.warn( "Error closing upload file {}", up.tmpFile );
+			}
+		}
+	}
+
 	private void rplyOK( HttpServletResponse resp, int sessionId ) throws IOException
 	{
 		resp.setStatus( 202 );
@@ -354,6 +527,35 @@ public class ChunkUploadHelper
 		out.print( "TransferSession=" + sessionId + String.format( "%n", new Object[0] ) );
 	}
 
+	/**
+	 * Replies with the ranges of chunks received so far, for example ReceivedChunks=1-4,7
+	 */
+	private void rplyReceived( HttpServletResponse resp, int sessionId, UploadSession up ) throws IOException
+	{
+		StringBuilder ranges = new StringBuilder();
+		synchronized ( up )
+		{
+			int first = up.received.nextSetBit( 0 );
+			while ( first >= 0 )
+			{
+				int last = up.received.nextClearBit( first ) - 1;
+				if ( ranges.length() > 0 )
+				{
+					ranges.append( ',' );
+				}
+				ranges.append( first + 1 );
+				if ( last > first )
+				{
+					ranges.append( '-' ).append( last + 1 );
+				}
+				first = up.received.nextSetBit( last + 1 );
+			}
+		}
+
+		rplyOK( resp, sessionId );
+		resp.getWriter().print( "ReceivedChunks=" + ranges + String.format( "%n", new Object[0] ) );
+	}
+
 	protected boolean isEmpty( String s )
 	{
 		if ( s == null )
@@ -361,31 +563,103 @@ public class ChunkUploadHelper
 		return s.isEmpty();
 	}
 
-	protected byte[] copyStream( InputStream is, OutputStream os ) throws IOException
+	/**
+	 * Reads a whole chunk, so it can be checked against its hash before any of it is written.
+	 *
+	 * @param maxLength
+	 *            the most bytes the chunk may have
+	 * @return the chunk, or null if it is longer than maxLength
+	 */
+	protected byte[] readChunk( InputStream is, long maxLength ) throws IOException
 	{
-		byte[] buf = new byte['က'];
-		MessageDigest md;
+		ByteArrayOutputStream out = new ByteArrayOutputStream( ( int ) Math.min( maxLength, IO_BUFFER_SIZE ) );
+		byte[] buf = new byte[IO_BUFFER_SIZE];
 
+		int read = is.read( buf );
+		while ( read >= 0 )
+		{
+			if ( out.size() + ( long ) read > maxLength )
+			{
+				return null;
+			}
+			out.write( buf, 0, read );
+			read = is.read( buf );
+		}
+		return out.toByteArray();
+	}
+
+	protected void writeChunk( FileChannel channel, long offset, byte[] data ) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap( data );
+		while ( buffer.hasRemaining() )
+		{
+			channel.write( buffer, offset + buffer.position() );
+		}
+	}
+
+	/**
+	 * Hashes the received chunks that follow the hashed ones without a gap, reading them back from the file. Must be
+	 * called holding the session lock.
+	 */
+	private void hashReceivedChunks( UploadSession up ) throws IOException
+	{
+		if ( up.lChunkSize <= 0L )
+		{
+			return;
+		}
+
+		while ( ( up.iHashedChunks < up.lNumChunks ) && ( up.received.get( up.iHashedChunks ) ) )
+		{
+			long end = Math.min( up.lFileSize, ( up.iHashedChunks + 1L ) * up.lChunkSize );
+			hashFile( up, up.lHashedBytes, end );
+			up.iHashedChunks += 1;
+			up.lHashedBytes = end;
+		}
+	}
+
+	private void hashFile( UploadSession up, long start, long end ) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate( IO_BUFFER_SIZE );
+		long position = start;
+		while ( position < end )
+		{
+			buffer.clear();
+			buffer.limit( ( int ) Math.min( buffer.capacity(), end - position ) );
+			int read = up.channel.read( buffer, position );
+			if ( read < 0 )
+			{
+				throw new IOException( "Upload file " + up.tmpFile + " ends at " + position + ", expected " + end + " bytes" );
+			}
+			up.digest.update( buffer.array(), 0, read );
+			position += read;
+		}
+	}
+
+	private static MessageDigest newDigest() throws IOException
+	{
 		try
 		{
-			md = MessageDigest.getInstance( "SHA-1" );
+			return MessageDigest.getInstance( "SHA-1" );
 		}
 		catch ( NoSuchAlgorithmException e )
 		{
-			LOG.error( "Can't get MD5 hash algorithm: ", e );
-			return null;
+			throw new IOException( "Can't get SHA-1 hash algorithm", e );
 		}
+	}
 
-		md.reset();
-		int read = is.read( buf );
-		while ( read > 0 )
+	/**
+	 * @return a copy of the digest state, or null if the digest can't be copied
+	 */
+	private static MessageDigest copyDigest( MessageDigest digest )
+	{
+		try
 		{
-			md.update( buf, 0, read );
-			os.write( buf, 0, read );
-			read = is.read( buf );
+			return ( MessageDigest ) digest.clone();
+		}
+		catch ( CloneNotSupportedException e )
+		{
+			return null;
 		}
-
-		return md.digest();
 	}
 
 	protected void genErrorResponse( HttpServletResponse resp, ChunkUploadError code, String msg, String remoteAddress ) throws IOException
@@ -476,60 +750,6 @@ public class ChunkUploadHelper
 		return val;
 	}
 
-	protected byte[] calcHashOfFile( File f )
-	{
-		byte[] buf = new byte['က'];
-		MessageDigest md;
-
-		try
-		{
-			md = MessageDigest.getInstance( "SHA-1" );
-		}
-		catch ( NoSuchAlgorithmException e )
-		{
-			LOG.error( "Can't get MD5 hash algorithm: ", e );
-			return null;
-		}
-
-		FileInputStream fis;
-
-		try
-		{
-			fis = new FileInputStream( f );
-		}
-		catch ( FileNotFoundException e )
-		{
-			return null;
-		}
-
-		md.reset();
-		try
-		{
-			int read = fis.read( buf );
-			while ( read > 0 )
-			{
-				md.update( buf, 0, read );
-				read = fis.read( buf );
-			}
-
-			return md.digest();
-		}
-		catch ( IOException e )
-		{
-			return null;
-		}
-		finally
-		{
-			try
-			{
-				fis.close();
-			}
-			catch ( IOException localIOException3 )
-			{
-			}
-		}
-	}
-
 	protected class ChunkUploadParams
 	{
 		public int SessionId;
@@ -546,12 +766,20 @@ public class ChunkUploadHelper
 		public long lLastContactTime;
 		public long lFileSize;
 		public long lNumChunks;
-		public long lCurrentChunk;
+		public long lChunkSize;
 		public byte[] bFileHash;
 		public String sName;
 		public String sPath;
 		public File tmpFile;
 		public Object userObject;
+		public BitSet received;
+		public BitSet inFlight;
+		public FileChannel channel;
+		public MessageDigest digest;
+		public int iHashedChunks;
+		public long lHashedBytes;
+		public boolean bCompleting;
+		public volatile boolean bClosed;
 
 		protected UploadSession()
 		{
@@ -71,10 +71,12 @@ import com.marchnetworks.schedule.service.ScheduleService;
 import com.marchnetworks.server.event.EventRegistry;
 import com.marchnetworks.shared.config.CommonConfiguration;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -514,7 +516,21 @@ public class FirmwareServiceImpl implements FirmwareService, InitializationListe
 				return;
 			}
 
-			deviceService.upgrade( channelFirmware.getParentDeviceId(), channelDeviceIds, version, fileName, firmwareStorage.getFileObject().getInputStream(), null );
+			InputStream firmwareContent = fileStorageService.getFirmwareFileObject( firmwareStorage ).getInputStream();
+			// Once the upgrade is queued the dispatcher owns the content and closes it
+			boolean queued = false;
+			try
+			{
+				deviceService.upgrade( channelFirmware.getParentDeviceId(), channelDeviceIds, version, fileName, firmwareContent, null, false );
+				queued = true;
+			}
+			finally
+			{
+				if ( !queued )
+				{
+					IOUtils.closeQuietly( firmwareContent );
+				}
+			}
 			currentUpgradeTasks.add( new UpgradeTaskInfo( channelFirmware.getParentDeviceId(), channelFirmware.getFirmwareId(), channelDeviceIds ) );
 			for ( String channel : channelDeviceIds )
 			{
@@ -663,7 +679,21 @@ public class FirmwareServiceImpl implements FirmwareService, InitializationListe
 			}
 
 			LOG.debug( "Calling deviceService.upgrade(deviceId=" + deviceId + ", version=" + version + ", filename=" + firmwareFilename + ")" );
-			deviceService.upgrade( deviceId, version, firmwareFilename, firmwareStorage.getFileObject().getInputStream(), optParameters );
+			InputStream firmwareContent = fileStorageService.getFirmwareFileObject( firmwareStorage ).getInputStream();
+			// Once the upgrade is queued the dispatcher owns the content and closes it
+			boolean queued = false;
+			try
+			{
+				deviceService.upgrade( deviceId, version, firmwareFilename, firmwareContent, optParameters, ( entity.getUpdateType() == UpdateTypeEnum.IMMEDIATE ) );
+				queued = true;
+			}
+			finally
+			{
+				if ( !queued )
+				{
+					IOUtils.closeQuietly( firmwareContent );
+				}
+			}
 			updateDeviceFirmwareState( deviceId, UpdateStateEnum.FIRMWARE_UPGRADE_PENDING, version );
 
 			setUpdateTaskInfo( deviceId, firmwareId );
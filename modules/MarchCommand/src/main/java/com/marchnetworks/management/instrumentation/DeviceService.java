@@ -64,9 +64,9 @@ public abstract interface DeviceService
 
 	public abstract String retrieveConfigurationHash( String paramString ) throws DeviceException;
 
-	public abstract String upgrade( String paramString1, String paramString2, String paramString3, InputStream paramInputStream, String paramString4 ) throws DeviceException;
+	public abstract String upgrade( String paramString1, String paramString2, String paramString3, InputStream paramInputStream, String paramString4, boolean paramBoolean ) throws DeviceException;
 
-	public abstract String upgrade( String paramString1, List<String> paramList, String paramString2, String paramString3, InputStream paramInputStream, String paramString4 ) throws DeviceException;
+	public abstract String upgrade( String paramString1, List<String> paramList, String paramString2, String paramString3, InputStream paramInputStream, String paramString4, boolean paramBoolean ) throws DeviceException;
 
 	public abstract void startUpdateDeviceAddress( String paramString1, String paramString2 ) throws DeviceException;
 
@@ -1094,7 +1094,7 @@ public class DeviceServiceImpl implements DeviceService, EventListener, Initiali
 		return getDeviceUpgradeTaskDispatcher().configure( ( CompositeDevice ) device, null, configuration, configSnapshotID );
 	}
 
-	public String upgrade( String deviceId, String version, String fileName, InputStream fileContent, String key ) throws DeviceException
+	public String upgrade( String deviceId, String version, String fileName, InputStream fileContent, String key, boolean interactive ) throws DeviceException
 	{
 		Device device = deviceDAO.findByIdEagerDetached( deviceId );
 		if ( device == null )
@@ -1104,12 +1104,12 @@ public class DeviceServiceImpl implements DeviceService, EventListener, Initiali
 
 		if ( device.getParentDevice() != null )
 		{
-			return getDeviceUpgradeTaskDispatcher().upgrade( device.getParentDevice(), device, version, fileName, fileContent, key );
+			return getDeviceUpgradeTaskDispatcher().upgrade( device.getParentDevice(), device, version, fileName, fileContent, key, interactive );
 		}
-		return getDeviceUpgradeTaskDispatcher().upgrade( ( CompositeDevice ) device, ( Device ) null, version, fileName, fileContent, key );
+		return getDeviceUpgradeTaskDispatcher().upgrade( ( CompositeDevice ) device, ( Device ) null, version, fileName, fileContent, key, interactive );
 	}
 
-	public String upgrade( String deviceId, List<String> channelDeviceIds, String version, String fileName, InputStream fileContent, String key ) throws DeviceException
+	public String upgrade( String deviceId, List<String> channelDeviceIds, String version, String fileName, InputStream fileContent, String key, boolean interactive ) throws DeviceException
 	{
 		Device device = deviceDAO.findByIdEagerDetached( deviceId );
 
@@ -1131,7 +1131,7 @@ public class DeviceServiceImpl implements DeviceService, EventListener, Initiali
 				deviceChannelIds.put( channelDeviceId, channelId );
 			}
 		}
-		return getDeviceUpgradeTaskDispatcher().upgrade( ( CompositeDevice ) device, deviceChannelIds, version, fileName, fileContent, key );
+		return getDeviceUpgradeTaskDispatcher().upgrade( ( CompositeDevice ) device, deviceChannelIds, version, fileName, fileContent, key, interactive );
 	}
 
 	public void startUpdateDeviceAddress( String deviceId, String deviceAddress ) throws DeviceException
@@ -1,5 +1,6 @@
 package com.marchnetworks.management.instrumentation;
 
+import com.marchnetworks.command.api.rest.CommandUpgradeInputStream;
 import com.marchnetworks.command.api.rest.DeviceManagementConstants;
 import com.marchnetworks.command.common.CommonAppUtils;
 import com.marchnetworks.command.common.device.data.ChannelState;
@@ -28,13 +29,14 @@ import com.marchnetworks.server.event.EventListener;
 import com.marchnetworks.server.event.EventRegistry;
 import com.marchnetworks.shared.config.CommonConfiguration;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -43,6 +45,14 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Sends configurations and firmware upgrades to devices, a limited number at a time. Requests wait in a lane per root
+ * device, so a device receives one request at a time, and lanes with a request to send wait in a ready queue per
+ * priority: configurations first, then upgrades started by a user, then scheduled upgrades. The number of requests
+ * sent at the same time follows device response times, up to the configured maximum.
+ * <p>
+ * Sent requests are tracked until the device reports their outcome or they time out.
+ */
 public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMessageInterceptor
 {
 	private static final Logger LOG = LoggerFactory.getLogger( DeviceUpgradeTaskDispatcher.class );
@@ -56,7 +66,17 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 		localTaskId = new AtomicLong( 1L );
 		activeTasksCounter = new AtomicInteger( 0 );
 
-		requestQueue = new LinkedBlockingQueue();
+		lock = new Object();
+		lanes = new HashMap();
+		readyLanes = new Deque[RequestPriority.values().length];
+		for ( int i = 0; i < readyLanes.length; i++ )
+		{
+			readyLanes[i] = new ArrayDeque();
+		}
+		configRequests = new HashMap();
+		upgradeRequests = new HashMap();
+		requestsByTaskId = new HashMap();
+		concurrencyLimit = new ResponseTimeLimit( RequestType.values().length );
 	}
 
 	public void process( Event event )
@@ -64,13 +84,10 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 		if ( ( event instanceof BandwidthSettingsChangedEvent ) )
 		{
 			BandwidthSettingsChangedEvent bscEvent = ( BandwidthSettingsChangedEvent ) event;
-			int delta = bscEvent.getSettings().getMaxSimultaneousUpdates() - maxSimultaneousRequests;
 			maxSimultaneousRequests = bscEvent.getSettings().getMaxSimultaneousUpdates();
+			concurrencyLimit.setMaxLimit( maxSimultaneousRequests );
 
-			for ( int i = 0; i < delta; i++ )
-			{
-				processQueue();
-			}
+			processQueue();
 			LOG.debug( "Updated maxSimultaneousRequests to {}", Integer.valueOf( maxSimultaneousRequests ) );
 		}
 	}
@@ -162,87 +179,202 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 
 	private int maxSimultaneousRequests;
 
-	private Queue<Request> requestQueue;
+	private ResponseTimeLimit concurrencyLimit;
+
+	private Object lock;
+
+	private Map<String, Lane> lanes;
+
+	private Deque<Lane>[] readyLanes;
+
+	private int queuedCount;
+
+	private Map<String, Request> configRequests;
+
+	private Map<String, Request> upgradeRequests;
+
+	private Map<String, Request> requestsByTaskId;
 
-	public String upgrade( CompositeDevice device, Device childDevice, String version, String fileName, InputStream fileContent, String key ) throws DeviceException
+	public String upgrade( CompositeDevice device, Device childDevice, String version, String fileName, InputStream fileContent, String key, boolean interactive ) throws DeviceException
 	{
 		Request request = new Request( RequestType.UPGRADE, device, childDevice, version, fileName, fileContent, key );
+		request.setPriority( interactive ? RequestPriority.INTERACTIVE_UPGRADE : RequestPriority.BULK_UPGRADE );
 		addRequest( request );
 		return request.getLocalTaskId();
 	}
 
-	public String upgrade( CompositeDevice device, Map<String, String> channelIDs, String version, String fileName, InputStream fileContent, String key ) throws DeviceException
+	public String upgrade( CompositeDevice device, Map<String, String> channelIDs, String version, String fileName, InputStream fileContent, String key, boolean interactive ) throws DeviceException
 	{
 		Request request = new Request( RequestType.UPGRADE, device, channelIDs, version, fileName, fileContent, key );
+		request.setPriority( interactive ? RequestPriority.INTERACTIVE_UPGRADE : RequestPriority.BULK_UPGRADE );
 		addRequest( request );
 		return request.getLocalTaskId();
 	}
 
 	public String configure( CompositeDevice device, Device childDevice, byte[] configuration, String configSnapshotID )
 	{
-		if ( isConfigurationRequestExisting( device, childDevice, configSnapshotID ) )
+		Request request = new Request( RequestType.CONFIG_APPLY, device, childDevice, configuration, configSnapshotID );
+		if ( !addRequest( request ) )
 		{
-			LOG.warn( "Configuration request for device {} with configurationSnapShotID {} is already in the Queue, Ingore it.", device.getDeviceId(), configSnapshotID );
+			LOG.warn( "Configuration request for device {} with configurationSnapShotID {} is already in the Queue, Ingore it.", request.getDeviceId(), configSnapshotID );
 			return null;
 		}
-		Request request = new Request( RequestType.CONFIG_APPLY, device, childDevice, configuration, configSnapshotID );
-		addRequest( request );
-		LOG.info( "Add Configuration Request for device: " + device.getDeviceId() + " configurationSnapShotID: " + configSnapshotID + " in the Queue and TaskID is: " + request.getLocalTaskId() );
+		LOG.info( "Add Configuration Request for device: " + request.getDeviceId() + " configurationSnapShotID: " + configSnapshotID + " in the Queue and TaskID is: " + request.getLocalTaskId() );
 
 		return request.getLocalTaskId();
 	}
 
-	private boolean isConfigurationRequestExisting( CompositeDevice device, Device childDevice, String configSnapshotID )
+	private void processQueue()
 	{
-		if ( requestQueue.size() > 0 )
+		synchronized ( lock )
 		{
-			Iterator<Request> iterator = requestQueue.iterator();
-			while ( iterator.hasNext() )
+			int limit = concurrencyLimit.getLimit();
+			LOG.debug( "Current activeTasks counter = {} , limit {}", Integer.valueOf( activeTasksCounter.get() ), Integer.valueOf( limit ) );
+			while ( activeTasksCounter.get() < limit )
 			{
-				Request request = ( Request ) iterator.next();
-				if ( ( request.getType().equals( RequestType.CONFIG_APPLY ) ) && ( ( ( childDevice == null ) && ( request.getDeviceId().equals( device.getDeviceId() ) ) && ( request.getConfigSnapshotID().equals( configSnapshotID ) ) ) || ( ( childDevice != null ) && ( request.getDeviceId().equals( childDevice.getDeviceId() ) ) && ( request.getConfigSnapshotID().equals( configSnapshotID ) ) ) ) )
+				Lane lane = pollReadyLane();
+				if ( lane == null )
 				{
+					return;
+				}
 
-					return true;
+				Request request = lane.poll();
+				lane.setBusy( true );
+				queuedCount -= 1;
+				request.setStartState();
+				activeTasksCounter.incrementAndGet();
+				LOG.debug( "Processing request queue for device {}.", request.getDeviceId() );
+				taskScheduler.executeNow( new MassManagementTask( request, lane ) );
+			}
+
+			if ( queuedCount > 0 )
+			{
+				LOG.debug( "Maximum simultaneous mass management tasks threshold crossed. Queuing task..." );
+			}
+		}
+	}
+
+	/**
+	 * @return false if the same configuration is already queued or being applied to the device
+	 */
+	private boolean addRequest( Request request )
+	{
+		synchronized ( lock )
+		{
+			if ( request.getType().equals( RequestType.CONFIG_APPLY ) )
+			{
+				String key = request.getConfigKey();
+				if ( configRequests.containsKey( key ) )
+				{
+					return false;
 				}
+				configRequests.put( key, request );
+			}
+			else
+			{
+				upgradeRequests.put( request.getDeviceId(), request );
 			}
+
+			String laneId = request.getDevice().getDeviceId();
+			Lane lane = ( Lane ) lanes.get( laneId );
+			if ( lane == null )
+			{
+				lane = new Lane( laneId );
+				lanes.put( laneId, lane );
+			}
+			lane.add( request );
+			queuedCount += 1;
+			if ( !lane.isBusy() )
+			{
+				markReady( lane );
+			}
+			LOG.info( "Enqueued request of type {} for device {}. Current queue size = {}", new Object[] {request.getType().toString(), request.getDeviceId(), Integer.valueOf( queuedCount )} );
 		}
+		processQueue();
+		return true;
+	}
 
-		return false;
+	/**
+	 * Queues the lane as ready at the priority of its first request, unless it is already queued at that priority or a
+	 * higher one. An entry left behind at a lower priority is skipped when it is polled.
+	 */
+	private void markReady( Lane lane )
+	{
+		Request next = lane.peek();
+		if ( next == null )
+		{
+			return;
+		}
+
+		RequestPriority priority = next.getPriority();
+		if ( ( lane.getReadyPriority() == null ) || ( priority.ordinal() < lane.getReadyPriority().ordinal() ) )
+		{
+			readyLanes[priority.ordinal()].add( lane );
+			lane.setReadyPriority( priority );
+		}
 	}
 
-	private synchronized void processQueue()
+	private Lane pollReadyLane()
 	{
-		LOG.debug( "Current activeTasks counter = {} , maxSimultaneousRequests {}", Integer.valueOf( activeTasksCounter.get() ), Integer.valueOf( maxSimultaneousRequests ) );
-		if ( activeTasksCounter.get() < maxSimultaneousRequests )
+		for ( RequestPriority priority : RequestPriority.values() )
 		{
-			int counter = 0;
-			while ( counter < requestQueue.size() )
+			Deque<Lane> ready = readyLanes[priority.ordinal()];
+			Lane lane;
+			while ( ( lane = ( Lane ) ready.poll() ) != null )
 			{
-				Request request = ( Request ) requestQueue.poll();
-				if ( ( request != null ) && ( !request.hasStarted() ) )
+				if ( ( lane.getReadyPriority() == priority ) && ( !lane.isBusy() ) )
 				{
-					LOG.debug( "Processing request queue for device {}.", request.getDeviceId() );
-					activeTasksCounter.incrementAndGet();
-					taskScheduler.executeNow( new MassManagementTask( request ) );
-					break;
+					lane.setReadyPriority( null );
+					return lane;
 				}
+			}
+		}
+		return null;
+	}
 
-				requestQueue.add( request );
-				counter++;
+	/**
+	 * Called once a request has been sent, or failed to be sent, to let the lane's next request go.
+	 */
+	private void releaseLane( Lane lane )
+	{
+		synchronized ( lock )
+		{
+			lane.setBusy( false );
+			if ( lane.isEmpty() )
+			{
+				lanes.remove( lane.getDeviceId() );
 			}
+			else
+			{
+				markReady( lane );
+			}
+			activeTasksCounter.decrementAndGet();
 		}
-		else
+	}
+
+	private void registerRemoteTaskId( Request request )
+	{
+		if ( request.getRemoteTaskId() != null )
 		{
-			LOG.debug( "Maximum simultaneous mass management tasks threshold crossed. Queuing task..." );
+			synchronized ( lock )
+			{
+				if ( !request.isEnded() )
+				{
+					requestsByTaskId.put( request.getRemoteTaskId(), request );
+				}
+			}
 		}
 	}
 
-	private void addRequest( Request request )
+	private void addResponseTimeSample( Request request, long nanos )
 	{
-		requestQueue.add( request );
-		LOG.info( "Enqueued request of type {} for device {}. Current queue size = {}", new Object[] {request.getType().toString(), request.getDeviceId(), Integer.valueOf( requestQueue.size() )} );
-		processQueue();
+		double time = nanos;
+		InputStream content = request.getFileContent();
+		if ( ( content instanceof CommandUpgradeInputStream ) )
+		{
+			time /= Math.max( 1L, ( ( CommandUpgradeInputStream ) content ).getContentSize() / 1024L );
+		}
+		concurrencyLimit.addSample( request.getType().ordinal(), time );
 	}
 
 	private void updateRequest( String deviceId, String taskId )
@@ -289,7 +421,26 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 	{
 		if ( ( request != null ) && ( request.hasStarted() ) )
 		{
-			requestQueue.remove( request );
+			synchronized ( lock )
+			{
+				if ( !request.isEnded() )
+				{
+					request.setEnded();
+					if ( request.getRemoteTaskId() != null )
+					{
+						requestsByTaskId.remove( request.getRemoteTaskId() );
+					}
+					if ( request.getType().equals( RequestType.CONFIG_APPLY ) )
+					{
+						configRequests.remove( request.getConfigKey() );
+					}
+					else if ( upgradeRequests.get( request.getDeviceId() ) == request )
+					{
+						upgradeRequests.remove( request.getDeviceId() );
+					}
+				}
+			}
+			request.closeFileContent();
 			LOG.info( "Removed TaskId {} from deviceId {}", request.getRemoteTaskId(), request.getDeviceId() );
 
 			taskScheduler.cancelSchedule( request.getTimeoutTask() );
@@ -299,36 +450,21 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 
 	private Request getRequestByTaskId( String remoteTaskId )
 	{
-		if ( requestQueue.size() > 0 )
+		synchronized ( lock )
 		{
-			Iterator<Request> iterator = requestQueue.iterator();
-			while ( iterator.hasNext() )
-			{
-				Request request = ( Request ) iterator.next();
-				if ( remoteTaskId.equals( request.getRemoteTaskId() ) )
-				{
-					return request;
-				}
-			}
+			return ( Request ) requestsByTaskId.get( remoteTaskId );
 		}
-		return null;
 	}
 
+	/**
+	 * @return the upgrade queued or in progress for the device
+	 */
 	private Request getRequest( String deviceId )
 	{
-		if ( requestQueue.size() > 0 )
+		synchronized ( lock )
 		{
-			Iterator<Request> iterator = requestQueue.iterator();
-			while ( iterator.hasNext() )
-			{
-				Request request = ( Request ) iterator.next();
-				if ( request.getDeviceId().equals( deviceId ) )
-				{
-					return request;
-				}
-			}
+			return ( Request ) upgradeRequests.get( deviceId );
 		}
-		return null;
 	}
 
 	private boolean processRequest( Request request )
@@ -345,6 +481,7 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 			{
 				processConfigRequest( request );
 			}
+			registerRemoteTaskId( request );
 			result = true;
 		}
 		catch ( DeviceException ex )
@@ -501,10 +638,12 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 	private class MassManagementTask implements Runnable
 	{
 		private Request request;
+		private Lane lane;
 
-		public MassManagementTask( Request request )
+		public MassManagementTask( Request request, Lane lane )
 		{
 			this.request = request;
+			this.lane = lane;
 		}
 
 		public void run()
@@ -512,23 +651,26 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 			boolean result = false;
 			try
 			{
-				request.setStartState();
-
-				requestQueue.add( request );
+				long start = System.nanoTime();
 				result = DeviceUpgradeTaskDispatcher.this.processRequest( request );
 				if ( result )
 				{
+					DeviceUpgradeTaskDispatcher.this.addResponseTimeSample( request, System.nanoTime() - start );
 					ScheduledFuture<?> timer = taskScheduler.schedule( new RequestTimeoutTask( request ), DeviceUpgradeTaskDispatcher.this.getTimeoutForRequest( request ), TimeUnit.SECONDS );
 					request.setTimeoutTask( timer );
 				}
 			}
 			finally
 			{
-				activeTasksCounter.decrementAndGet();
+				DeviceUpgradeTaskDispatcher.this.releaseLane( lane );
 				if ( !result )
 				{
 					DeviceUpgradeTaskDispatcher.this.endRequest( request );
 				}
+				else
+				{
+					DeviceUpgradeTaskDispatcher.this.processQueue();
+				}
 			}
 		}
 	}
@@ -544,6 +686,10 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 
 		public void run()
 		{
+			if ( request.isEnded() )
+			{
+				return;
+			}
 			DeviceUpgradeTaskDispatcher.LOG.info( "TaskId {} for deviceId {} timed out.", request.getRemoteTaskId(), request.getDeviceId() );
 			DeviceUpgradeTaskDispatcher.this.endRequest( request );
 			if ( request.getType().equals( RequestType.CONFIG_APPLY ) )
@@ -566,7 +712,9 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 		private String fileName;
 		private InputStream fileContent;
 		private RequestType type;
+		private RequestPriority priority = RequestPriority.CONFIGURATION;
 		private RequestState state;
+		private volatile boolean ended;
 		private String localTaskId;
 		private String remoteTaskId;
 		private ScheduledFuture<?> timeoutTask;
@@ -692,6 +840,24 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 			return fileContent;
 		}
 
+		/**
+		 * Releases the firmware content, which may be shared with other upgrades, if sending did not close it already.
+		 */
+		public void closeFileContent()
+		{
+			if ( fileContent != null )
+			{
+				try
+				{
+					fileContent.close();
+				}
+				catch ( IOException e )
+				{
+					LOG.debug( "Error closing firmware content for device {}: {}", getDeviceId(), e.getMessage() );
+				}
+			}
+		}
+
 		public String getRemoteTaskId()
 		{
 			return remoteTaskId;
@@ -737,6 +903,31 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 			return state.equals( RequestState.STARTED );
 		}
 
+		public boolean isEnded()
+		{
+			return ended;
+		}
+
+		public void setEnded()
+		{
+			ended = true;
+		}
+
+		public RequestPriority getPriority()
+		{
+			return priority;
+		}
+
+		public void setPriority( RequestPriority priority )
+		{
+			this.priority = priority;
+		}
+
+		public String getConfigKey()
+		{
+			return getDeviceId() + "/" + configSnapshotID;
+		}
+
 		public void setStartState()
 		{
 			state = RequestState.STARTED;
@@ -763,6 +954,101 @@ public class DeviceUpgradeTaskDispatcher implements EventListener, DeviceEventMe
 		}
 	}
 
+	/**
+	 * Requests are sent in the order of their priority, highest first.
+	 */
+	private static enum RequestPriority
+	{
+		CONFIGURATION,
+		INTERACTIVE_UPGRADE,
+		BULK_UPGRADE;
+
+		private RequestPriority()
+		{
+		}
+	}
+
+	/**
+	 * Requests waiting for a root device, by priority. Guarded by the dispatcher lock.
+	 */
+	private static class Lane
+	{
+		private final String deviceId;
+		private final Deque<Request>[] pending;
+		private boolean busy;
+		private RequestPriority readyPriority;
+
+		public Lane( String deviceId )
+		{
+			this.deviceId = deviceId;
+			pending = new Deque[RequestPriority.values().length];
+		}
+
+		public String getDeviceId()
+		{
+			return deviceId;
+		}
+
+		public void add( Request request )
+		{
+			int index = request.getPriority().ordinal();
+			if ( pending[index] == null )
+			{
+				pending[index] = new ArrayDeque();
+			}
+			pending[index].add( request );
+		}
+
+		public Request peek()
+		{
+			for ( Deque<Request> requests : pending )
+			{
+				if ( ( requests != null ) && ( !requests.isEmpty() ) )
+				{
+					return ( Request ) requests.peek();
+				}
+			}
+			return null;
+		}
+
+		public Request poll()
+		{
+			for ( Deque<Request> requests : pending )
+			{
+				if ( ( requests != null ) && ( !requests.isEmpty() ) )
+				{
+					return ( Request ) requests.poll();
+				}
+			}
+			return null;
+		}
+
+		public boolean isEmpty()
+		{
+			return peek() == null;
+		}
+
+		public boolean isBusy()
+		{
+			return busy;
+		}
+
+		public void setBusy( boolean busy )
+		{
+			this.busy = busy;
+		}
+
+		public RequestPriority getReadyPriority()
+		{
+			return readyPriority;
+		}
+
+		public void setReadyPriority( RequestPriority readyPriority )
+		{
+			this.readyPriority = readyPriority;
+		}
+	}
+
 	private static enum RequestState
 	{
 		QUEUED,
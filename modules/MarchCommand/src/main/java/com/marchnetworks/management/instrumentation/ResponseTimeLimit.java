@@ -0,0 +1,60 @@
+package com.marchnetworks.management.instrumentation;
+
+/**
+ * Number of requests sent to devices at the same time, adjusted to how fast devices respond. Response times are
+ * smoothed per kind of request and compared with the fastest smoothed time seen: the limit grows by one while
+ * responses stay close to it and drops by a quarter once they take twice as long, never above the configured maximum.
+ * The fastest time drifts up slowly so that the limit recovers when devices get slower for good.
+ */
+class ResponseTimeLimit
+{
+	private static final double SMOOTHING = 0.2D;
+	private static final double BASELINE_DRIFT = 1.01D;
+	private static final double INCREASE_THRESHOLD = 1.25D;
+	private static final double DECREASE_THRESHOLD = 2.0D;
+	private static final double DECREASE_FACTOR = 0.75D;
+
+	private final double[] smoothed;
+	private final double[] baseline;
+	private int maxLimit;
+	private int limit;
+
+	ResponseTimeLimit( int kinds )
+	{
+		smoothed = new double[kinds];
+		baseline = new double[kinds];
+	}
+
+	public synchronized int getLimit()
+	{
+		return limit;
+	}
+
+	public synchronized void setMaxLimit( int maxLimit )
+	{
+		if ( ( limit == 0 ) || ( limit > maxLimit ) )
+		{
+			limit = maxLimit;
+		}
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * @param time
+	 *            the response time, in any unit as long as it is the same for a kind of request
+	 */
+	public synchronized void addSample( int kind, double time )
+	{
+		smoothed[kind] = ( smoothed[kind] == 0.0D ) ? time : ( smoothed[kind] * ( 1.0D - SMOOTHING ) + time * SMOOTHING );
+		baseline[kind] = ( baseline[kind] == 0.0D ) ? smoothed[kind] : Math.min( baseline[kind] * BASELINE_DRIFT, smoothed[kind] );
+
+		if ( smoothed[kind] > baseline[kind] * DECREASE_THRESHOLD )
+		{
+			limit = Math.max( 1, ( int ) ( limit * DECREASE_FACTOR ) );
+		}
+		else if ( ( smoothed[kind] < baseline[kind] * INCREASE_THRESHOLD ) && ( limit < maxLimit ) )
+		{
+			limit += 1;
+		}
+	}
+}
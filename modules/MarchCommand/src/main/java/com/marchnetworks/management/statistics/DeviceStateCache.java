@@ -0,0 +1,105 @@
+package com.marchnetworks.management.statistics;
+
+import com.marchnetworks.common.event.StateCacheable;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * State events cached for a single device, keyed by event path and source. Reads never lock, and writes only
+ * contend with writes to the same event of the same device.
+ */
+class DeviceStateCache
+{
+	private final ConcurrentMap<StateKey, StateCacheable> states = new ConcurrentHashMap( 16 );
+
+	public void put( StateCacheable state )
+	{
+		StateKey key = new StateKey( state.getEventNotificationType(), state.getNotificationInfo().getSource() );
+
+		if ( state.isDeleteEvent() )
+		{
+			states.remove( key );
+			return;
+		}
+
+		for ( ;; )
+		{
+			StateCacheable cachedEntry = ( StateCacheable ) states.putIfAbsent( key, state );
+			if ( cachedEntry == null )
+			{
+				return;
+			}
+			if ( cachedEntry.getTimestamp() > state.getTimestamp() )
+			{
+				return;
+			}
+			if ( states.replace( key, cachedEntry, state ) )
+			{
+				return;
+			}
+		}
+	}
+
+	public StateCacheable get( String path, String source )
+	{
+		return ( StateCacheable ) states.get( new StateKey( path, source ) );
+	}
+
+	public void remove( String path, String source )
+	{
+		states.remove( new StateKey( path, source ) );
+	}
+
+	public void removeSource( String source )
+	{
+		for ( Iterator<StateKey> iterator = states.keySet().iterator(); iterator.hasNext(); )
+		{
+			if ( ( ( StateKey ) iterator.next() ).source.equals( source ) )
+			{
+				iterator.remove();
+			}
+		}
+	}
+
+	public Collection<StateCacheable> values()
+	{
+		return states.values();
+	}
+
+	public int size()
+	{
+		return states.size();
+	}
+
+	private static final class StateKey
+	{
+		private final String path;
+		private final String source;
+		private final int hash;
+
+		StateKey( String path, String source )
+		{
+			this.path = path;
+			this.source = source;
+			hash = 31 * path.hashCode() + source.hashCode();
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		public boolean equals( Object obj )
+		{
+			if ( this == obj )
+				return true;
+			if ( !( obj instanceof StateKey ) )
+				return false;
+			StateKey other = ( StateKey ) obj;
+			return ( path.equals( other.path ) ) && ( source.equals( other.source ) );
+		}
+	}
+}
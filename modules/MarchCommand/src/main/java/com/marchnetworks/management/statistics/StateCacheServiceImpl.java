@@ -1,7 +1,5 @@
 package com.marchnetworks.management.statistics;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import com.marchnetworks.command.api.initialization.InitializationListener;
 import com.marchnetworks.command.common.device.DeviceEventsEnum;
 import com.marchnetworks.common.event.StateCacheable;
@@ -17,11 +15,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class StateCacheServiceImpl implements StateCacheService, InitializationListener
 {
@@ -29,34 +29,32 @@ public class StateCacheServiceImpl implements StateCacheService, InitializationL
 
 	private DeviceStateEventDAO persistence = new DeviceStateEventDAO();
 
-	protected final Map<Long, Table<String, String, StateCacheable>> mData = new HashMap<>();
+	protected final Map<Long, DeviceStateCache> mData = new ConcurrentHashMap<>();
 
 	public void onAppInitialized()
 	{
-		synchronized ( mData )
+		for ( DeviceStateEventEntity entity : persistence.findAllDetached() )
 		{
-			for ( DeviceStateEventEntity entity : persistence.findAllDetached() )
-			{
-				Table<String, String, StateCacheable> tbl = HashBasedTable.create();
-				List<GenericDeviceStateEvent> deviceEvents = entity.getEvents();
+			DeviceStateCache deviceStates = new DeviceStateCache();
+			List<GenericDeviceStateEvent> deviceEvents = entity.getEvents();
 
-				for ( GenericDeviceStateEvent event : deviceEvents )
-					tbl.put( event.getNotificationInfo().getPath(), event.getNotificationInfo().getSource(), event );
+			for ( GenericDeviceStateEvent event : deviceEvents )
+				deviceStates.put( event );
 
-				mData.put( entity.getDeviceId(), tbl );
-			}
+			mData.put( entity.getDeviceId(), deviceStates );
 		}
 	}
 
 	public void putIntoCache( StateCacheable state )
 	{
-		synchronized ( mData )
-		{
-			putIntoCacheInternal( state );
-
-			Long deviceId = state.getDeviceIdLong();
+		Long deviceId = state.getDeviceIdLong();
+		DeviceStateCache deviceStates = getOrCreateDeviceStates( deviceId );
+		deviceStates.put( state );
 
-			if ( ( state.getEventNotificationType().equals( DeviceEventsEnum.SYSTEM_EXPORT_QUEUE.getPath() ) ) || ( state.getEventNotificationType().equals( DeviceEventsEnum.EXTRACTOR_STORAGE_FREE.getPath() ) ) )
+		if ( ( state.getEventNotificationType().equals( DeviceEventsEnum.SYSTEM_EXPORT_QUEUE.getPath() ) ) || ( state.getEventNotificationType().equals( DeviceEventsEnum.EXTRACTOR_STORAGE_FREE.getPath() ) ) )
+		{
+			// Persisted states are written in order per device, without holding up any other device
+			synchronized ( deviceStates )
 			{
 				if ( state.isDeleteEvent() )
 				{
@@ -92,65 +90,67 @@ public class StateCacheServiceImpl implements StateCacheService, InitializationL
 
 	public void putIntoCache( List<StateCacheable> list )
 	{
-		synchronized ( mData )
+		Map<Long, List<StateCacheable>> statesByDevice = new LinkedHashMap();
+		for ( StateCacheable state : list )
 		{
-			for ( StateCacheable state : list )
+			List<StateCacheable> deviceList = ( List ) statesByDevice.get( state.getDeviceIdLong() );
+			if ( deviceList == null )
 			{
-				putIntoCacheInternal( state );
+				deviceList = new ArrayList();
+				statesByDevice.put( state.getDeviceIdLong(), deviceList );
 			}
-		}
-	}
-
-	private void putIntoCacheInternal( StateCacheable state )
-	{
-		Long deviceId = state.getDeviceIdLong();
-		String source = state.getNotificationInfo().getSource();
-
-		Table<String, String, StateCacheable> tbl = ( Table ) mData.get( deviceId );
-		if ( tbl == null )
-		{
-			tbl = HashBasedTable.create();
-			mData.put( deviceId, tbl );
+			deviceList.add( state );
 		}
 
-		if ( state.isDeleteEvent() )
+		for ( Entry<Long, List<StateCacheable>> entry : statesByDevice.entrySet() )
 		{
-			tbl.remove( state.getEventNotificationType(), source );
-			return;
-		}
+			DeviceStateCache deviceStates = getOrCreateDeviceStates( ( Long ) entry.getKey() );
+			for ( StateCacheable state : ( List<StateCacheable> ) entry.getValue() )
+			{
+				deviceStates.put( state );
+			}
 
-		StateCacheable cachedEntry = ( StateCacheable ) tbl.get( state.getEventNotificationType(), source );
-		if ( ( cachedEntry != null ) && ( cachedEntry.getTimestamp() > state.getTimestamp() ) )
-		{
-			return;
+			if ( LOG.isDebugEnabled() )
+			{
+				LOG.debug( "Stats Cache, size of the collection for device Id " + entry.getKey() + " is " + deviceStates.size() );
+			}
 		}
+	}
 
-		tbl.put( state.getEventNotificationType(), source, state );
-
-		if ( LOG.isDebugEnabled() )
+	private DeviceStateCache getOrCreateDeviceStates( Long deviceId )
+	{
+		DeviceStateCache deviceStates = ( DeviceStateCache ) mData.get( deviceId );
+		if ( deviceStates == null )
 		{
-			LOG.debug( "Stats Cache, size of the collection for device Id " + state.getDeviceIdLong() + " is " + tbl.size() );
+			deviceStates = new DeviceStateCache();
+			DeviceStateCache existing = ( DeviceStateCache ) mData.putIfAbsent( deviceId, deviceStates );
+			if ( existing != null )
+			{
+				deviceStates = existing;
+			}
 		}
+		return deviceStates;
 	}
 
 	public Collection<StateCacheable> getCachedEvents( Set<Long> deviceIds, String[] eventPathNames, String[] eventSources )
 	{
 		ArrayList<StateCacheable> result = new ArrayList( 8 );
 
+		boolean needsFiltering = ( eventSources != null ) && ( eventSources.length > 0 );
+		if ( needsFiltering )
+		{
+			Arrays.sort( eventPathNames );
+			Arrays.sort( eventSources );
+		}
+
 		for ( Long deviceId : deviceIds )
 		{
-			Table<String, String, StateCacheable> tbl = ( Table ) mData.get( deviceId );
-			if ( tbl != null )
+			DeviceStateCache deviceStates = ( DeviceStateCache ) mData.get( deviceId );
+			if ( deviceStates != null )
 			{
-				if ( ( ( eventPathNames != null ? 1 : 0 ) & ( eventPathNames.length > 0 ? 1 : 0 ) ) == 0 )
-				{
-				}
-				boolean needsFiltering = ( ( eventSources != null ? 1 : 0 ) & ( eventSources.length > 0 ? 1 : 0 ) ) != 0;
 				if ( needsFiltering )
 				{
-					Arrays.sort( eventPathNames );
-					Arrays.sort( eventSources );
-					for ( StateCacheable stateCacheable : tbl.values() )
+					for ( StateCacheable stateCacheable : deviceStates.values() )
 					{
 						if ( ( ( eventPathNames.length <= 0 ) || ( Arrays.binarySearch( eventPathNames, stateCacheable.getEventNotificationType() ) >= 0 ) ) && (
 
@@ -162,7 +162,7 @@ public class StateCacheServiceImpl implements StateCacheService, InitializationL
 				}
 				else
 				{
-					result.addAll( tbl.values() );
+					result.addAll( deviceStates.values() );
 				}
 			}
 		}
@@ -173,11 +173,11 @@ public class StateCacheServiceImpl implements StateCacheService, InitializationL
 	public StateCacheable getCachedEvent( StateCacheable state )
 	{
 		StateCacheable result = null;
-		Table<String, String, StateCacheable> tbl = ( Table ) mData.get( state.getDeviceIdLong() );
+		DeviceStateCache deviceStates = ( DeviceStateCache ) mData.get( state.getDeviceIdLong() );
 
-		if ( tbl != null )
+		if ( deviceStates != null )
 		{
-			result = ( StateCacheable ) tbl.get( state.getEventNotificationType(), state.getNotificationInfo().getSource() );
+			result = deviceStates.get( state.getEventNotificationType(), state.getNotificationInfo().getSource() );
 		}
 		return result;
 	}
@@ -200,9 +200,9 @@ public class StateCacheServiceImpl implements StateCacheService, InitializationL
 	{
 		StringBuffer logInfo = new StringBuffer( "---Beginning Statistics Cache---\n" );
 
-		for ( Long l : mData.keySet() )
+		for ( Entry<Long, DeviceStateCache> entry : mData.entrySet() )
 		{
-			logInfo.append( "Device I.D. " + l + " with " + ( ( Table ) mData.get( l ) ).size() + " statistics cached.\n" );
+			logInfo.append( "Device I.D. " + entry.getKey() + " with " + ( ( DeviceStateCache ) entry.getValue() ).size() + " statistics cached.\n" );
 		}
 		logInfo.append( "---Ending Statistics Cache---\n" );
 		return logInfo.toString();
@@ -210,40 +210,27 @@ public class StateCacheServiceImpl implements StateCacheService, InitializationL
 
 	public void removeAllFromCache( Long deviceId )
 	{
-		synchronized ( mData )
-		{
-			mData.remove( deviceId );
-		}
+		mData.remove( deviceId );
 
 		deviceStateEventDAO.deleteDetached( deviceId );
 	}
 
 	public void removeSourceStateFromCache( Long deviceId, String sourceId )
 	{
-		synchronized ( mData )
+		DeviceStateCache deviceStates = ( DeviceStateCache ) mData.get( deviceId );
+		if ( deviceStates != null )
 		{
-			if ( mData.containsKey( deviceId ) )
-			{
-				Map<String, StateCacheable> eventsMap = ( ( Table ) mData.get( deviceId ) ).column( sourceId );
-				if ( eventsMap != null )
-				{
-					eventsMap.clear();
-				}
-			}
+			deviceStates.removeSource( sourceId );
 		}
 	}
 
 	public void removeFromCache( StateCacheable state )
 	{
-		synchronized ( mData )
-		{
-			Table<String, String, StateCacheable> tbl = ( Table ) mData.get( state.getDeviceIdLong() );
+		DeviceStateCache deviceStates = ( DeviceStateCache ) mData.get( state.getDeviceIdLong() );
 
-			if ( tbl != null )
-			{
-				tbl.remove( state.getEventNotificationType(), state.getNotificationInfo().getSource() );
-			}
+		if ( deviceStates != null )
+		{
+			deviceStates.remove( state.getEventNotificationType(), state.getNotificationInfo().getSource() );
 		}
 	}
 }
-
@@ -16,6 +16,7 @@ import com.marchnetworks.command.common.topology.data.ResourceMarkForReplacement
 import com.marchnetworks.command.common.topology.data.ResourcePathNode;
 import com.marchnetworks.management.topology.data.ResourceType;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -107,6 +108,8 @@ public interface ResourceTopologyServiceIF
 
 	List<Resource> getRootResources( ResourceRootType paramResourceRootType ) throws TopologyException;
 
+	Set<Long> getTerritoryResourceIds( Collection<Long> paramCollection, Class<?> paramClass ) throws TopologyException;
+
 	boolean isChild( Long paramLong1, Long paramLong2 );
 
 	boolean isOnPath( Set<Long> paramSet1, Set<Long> paramSet2 );
@@ -87,6 +87,7 @@ import com.marchnetworks.server.event.EventRegistry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -383,27 +384,56 @@ public class ResourceTopologyServiceImpl implements ResourceTopologyServiceIF, T
 
 	private Set<Long> getAllResourceIdsFromUsersTerritory( MemberView member ) throws TopologyException
 	{
-		Set<Long> usersIdList = new HashSet();
-		for ( Long userTerritoryRoot : member.getAllRoots( true ) )
+		Set<Long> territoryRoots = member.getAllRoots( true );
+		List<Long> logicalRoots = new ArrayList();
+		for ( Long userTerritoryRoot : territoryRoots )
 		{
-			boolean isLogicalRoot = member.getAssembledLogicalRoots().contains( userTerritoryRoot );
-
-			Resource territoryRoot = getResource( userTerritoryRoot );
-			List<Resource> childrenResourceList = territoryRoot.createResourceList();
-			for ( Resource childResource : childrenResourceList )
+			if ( member.getAssembledLogicalRoots().contains( userTerritoryRoot ) )
 			{
-				usersIdList.add( childResource.getId() );
+				logicalRoots.add( userTerritoryRoot );
+			}
+		}
+
+		Set<Long> usersIdList = getTerritoryResourceIds( territoryRoots, Resource.class );
+		if ( logicalRoots.isEmpty() )
+		{
+			return usersIdList;
+		}
 
-				if ( ( isLogicalRoot ) && ( ( childResource instanceof LinkResource ) ) )
+		Set<Long> linkedIdList = new HashSet();
+		for ( Long linkId : TopologyCache.getTerritoryResourceIds( logicalRoots, LinkResource.class ) )
+		{
+			LinkResource linkRes = ( LinkResource ) TopologyCache.getResource( linkId );
+			if ( linkRes != null )
+			{
+				for ( Long linkedId : linkRes.getLinkedResourceIds() )
 				{
-					LinkResource linkRes = ( LinkResource ) childResource;
-					for ( Long linkedId : linkRes.getLinkedResourceIds() )
-						usersIdList.addAll( getResourcePath( linkedId, true, new Class[] {Group.class} ) );
+					for ( Long pathId : getResourcePath( linkedId, true, new Class[] {Group.class} ) )
+					{
+						if ( !usersIdList.contains( pathId ) )
+						{
+							linkedIdList.add( pathId );
+						}
+					}
 				}
 			}
 		}
+		if ( linkedIdList.isEmpty() )
+		{
+			return usersIdList;
+		}
 
-		return usersIdList;
+		linkedIdList.addAll( usersIdList );
+		return linkedIdList;
+	}
+
+	public Set<Long> getTerritoryResourceIds( Collection<Long> rootIds, Class<?> resourceClass ) throws TopologyException
+	{
+		for ( Long rootId : rootIds )
+		{
+			getResource( rootId );
+		}
+		return TopologyCache.getTerritoryResourceIds( rootIds, resourceClass );
 	}
 
 	public List<Resource> getResources( Long[] resourceIds, int recursionLevel, Set<Long> usersResourceView ) throws TopologyException
@@ -1175,6 +1205,10 @@ public class ResourceTopologyServiceImpl implements ResourceTopologyServiceIF, T
 		{
 			return true;
 		}
+		if ( ( TopologyCache.isLabelled( rootID ) ) && ( TopologyCache.isLabelled( childID ) ) )
+		{
+			return TopologyCache.isDescendant( rootID, childID );
+		}
 		try
 		{
 			Resource child = getResource( childID );
@@ -1540,36 +1574,32 @@ public class ResourceTopologyServiceImpl implements ResourceTopologyServiceIF, T
 	{
 		List<Resource> results = new ArrayList();
 		List<Long> userRootResourceIds = findUserTerritoryRootIds( username, type );
-		for ( Long userResourceId : userRootResourceIds )
+		Class<?> resourceClass = criteria.getTargetClass() != null ? criteria.getTargetClass() : Resource.class;
+		for ( Long resourceId : getTerritoryResourceIds( userRootResourceIds, resourceClass ) )
+		{
+			Resource resource = TopologyCache.getResource( resourceId );
+			if ( ( resource != null ) && ( criteria.match( resource ) ) )
+			{
+				results.add( resource );
+			}
+		}
+
+		if ( followLinks )
 		{
-			Resource resourceRoot = getResource( userResourceId );
-			if ( followLinks )
+			for ( Long linkId : TopologyCache.getTerritoryResourceIds( userRootResourceIds, LinkResource.class ) )
 			{
-				List<Resource> childResourceList = TopologyCache.createFilteredResourceList( resourceRoot, criteria );
-				for ( Resource resource : childResourceList )
+				LinkResource linkResource = ( LinkResource ) TopologyCache.getResource( linkId );
+				if ( linkResource == null )
 				{
-					if ( criteria.match( resource ) )
-					{
-						results.add( resource );
-					}
+					continue;
 				}
-
-				List<Resource> linkResourceList = TopologyCache.createFilteredResourceList( resourceRoot, new Criteria( LinkResource.class ) );
-				for ( Resource resource : linkResourceList )
+				for ( Long linkedResourceId : linkResource.getLinkedResourceIds() )
 				{
-					Long[] linkedResourceIds = ( ( LinkResource ) resource ).getLinkedResourceIds();
-					for ( Long linkedResourceId : linkedResourceIds )
-					{
-						Resource linkedResource = getResource( linkedResourceId );
+					Resource linkedResource = getResource( linkedResourceId );
 
-						results.addAll( TopologyCache.createResourceHierarchy( linkedResource, criteria ) );
-					}
+					results.addAll( TopologyCache.createResourceHierarchy( linkedResource, criteria ) );
 				}
 			}
-			else
-			{
-				results.addAll( TopologyCache.createFilteredResourceList( resourceRoot, criteria ) );
-			}
 		}
 		return results;
 	}
@@ -1830,6 +1860,18 @@ public class ResourceTopologyServiceImpl implements ResourceTopologyServiceIF, T
 	{
 		Resource resource = getResource( id );
 
+		if ( TopologyCache.isLabelled( id ) )
+		{
+			for ( Long rootId : userTerritoryRootIds )
+			{
+				if ( ( TopologyCache.isDescendant( rootId, id ) ) && ( ( TopologyCache.getResource( rootId ) instanceof Group ) ) )
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
 		Criteria criteria = new Criteria( Group.class );
 		List<Resource> resourceHierarchy = TopologyCache.createResourceHierarchy( resource, criteria );
 		for ( Resource resourceParent : resourceHierarchy )
@@ -0,0 +1,146 @@
+package com.marchnetworks.management.topology.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read only set of resource ids held in primitive arrays, an open addressing table for lookups and the ids in the
+ * order they were added for iteration. Ids are only added while the set is being built, before it is published.
+ */
+final class ResourceIdSet extends AbstractSet<Long>
+{
+	private long[] ids = new long[16];
+	private long[] table = new long[32];
+	private int size;
+	private boolean containsZero;
+
+	boolean addId( long id )
+	{
+		if ( id == 0L )
+		{
+			if ( containsZero )
+			{
+				return false;
+			}
+			containsZero = true;
+		}
+		else
+		{
+			int mask = table.length - 1;
+			int slot = slotOf( id, mask );
+			while ( table[slot] != 0L )
+			{
+				if ( table[slot] == id )
+				{
+					return false;
+				}
+				slot = ( slot + 1 ) & mask;
+			}
+			table[slot] = id;
+		}
+
+		if ( size == ids.length )
+		{
+			ids = Arrays.copyOf( ids, size * 2 );
+		}
+		ids[size++] = id;
+
+		if ( size * 2 > table.length )
+		{
+			rehash( table.length * 2 );
+		}
+		return true;
+	}
+
+	void trim()
+	{
+		if ( ids.length > size )
+		{
+			ids = Arrays.copyOf( ids, size );
+		}
+	}
+
+	public boolean containsId( long id )
+	{
+		if ( id == 0L )
+		{
+			return containsZero;
+		}
+		int mask = table.length - 1;
+		int slot = slotOf( id, mask );
+		while ( table[slot] != 0L )
+		{
+			if ( table[slot] == id )
+			{
+				return true;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+		return false;
+	}
+
+	public boolean contains( Object o )
+	{
+		return ( o instanceof Long ) && ( containsId( ( ( Long ) o ).longValue() ) );
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public Iterator<Long> iterator()
+	{
+		return new Iterator<Long>()
+		{
+			private int index = 0;
+
+			public boolean hasNext()
+			{
+				return index < size;
+			}
+
+			public Long next()
+			{
+				if ( index >= size )
+				{
+					throw new NoSuchElementException();
+				}
+				return Long.valueOf( ids[index++] );
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException( "Resource id set is read only" );
+			}
+		};
+	}
+
+	private void rehash( int capacity )
+	{
+		long[] rehashed = new long[capacity];
+		int mask = capacity - 1;
+		for ( int i = 0; i < size; i++ )
+		{
+			long id = ids[i];
+			if ( id != 0L )
+			{
+				int slot = slotOf( id, mask );
+				while ( rehashed[slot] != 0L )
+				{
+					slot = ( slot + 1 ) & mask;
+				}
+				rehashed[slot] = id;
+			}
+		}
+		table = rehashed;
+	}
+
+	private static int slotOf( long id, int mask )
+	{
+		long hash = id * 0x9E3779B97F4A7C15L;
+		return ( int ) ( hash ^ hash >>> 32 ) & mask;
+	}
+}
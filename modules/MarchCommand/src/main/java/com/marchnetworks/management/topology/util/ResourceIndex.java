@@ -0,0 +1,268 @@
+package com.marchnetworks.management.topology.util;
+
+import com.marchnetworks.command.api.query.PropertyAccessor;
+import com.marchnetworks.command.api.query.Restriction;
+import com.marchnetworks.command.api.query.RestrictionType;
+import com.marchnetworks.command.common.topology.data.Resource;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary index over the topology cache, mapping the value of a property path of a resource class to the ids
+ * of the resources holding that value. Collection and array values are indexed per element so that CONTAINS
+ * restrictions can be answered as well as EQUAL and IN.
+ */
+public class ResourceIndex
+{
+	private static final Object NULL_KEY = new Object();
+
+	private final Class<? extends Resource> resourceClass;
+	private final String propertyName;
+	private final String[] propertyPath;
+	private final boolean multiValued;
+
+	private final Map<Object, Set<Long>> resourceIdsByValue = new ConcurrentHashMap();
+	private final Map<Long, Set<Object>> valuesByResourceId = new ConcurrentHashMap();
+
+	public ResourceIndex( Class<? extends Resource> resourceClass, String propertyName )
+	{
+		this.resourceClass = resourceClass;
+		this.propertyName = propertyName;
+		propertyPath = propertyName.split( "\\." );
+
+		Class<?> type = resourceClass;
+		for ( String property : propertyPath )
+		{
+			PropertyAccessor accessor = PropertyAccessor.get( type, property );
+			if ( !accessor.exists() )
+			{
+				throw new IllegalArgumentException( "Property " + propertyName + " not found on " + resourceClass.getSimpleName() );
+			}
+			type = accessor.getPropertyType();
+		}
+		multiValued = ( Collection.class.isAssignableFrom( type ) ) || ( type.isArray() );
+	}
+
+	public Class<? extends Resource> getResourceClass()
+	{
+		return resourceClass;
+	}
+
+	public String getPropertyName()
+	{
+		return propertyName;
+	}
+
+	public boolean supports( Class<?> targetClass, Restriction restriction )
+	{
+		if ( ( targetClass == null ) || ( !resourceClass.isAssignableFrom( targetClass ) ) || ( !propertyName.equals( restriction.getPropertyName() ) ) )
+		{
+			return false;
+		}
+
+		RestrictionType type = restriction.getType();
+		if ( multiValued )
+		{
+			return type == RestrictionType.CONTAINS;
+		}
+		return ( type == RestrictionType.EQUAL ) || ( type == RestrictionType.IN );
+	}
+
+	public Set<Long> lookup( Restriction restriction )
+	{
+		if ( restriction.getType() != RestrictionType.IN )
+		{
+			return lookup( restriction.getValue() );
+		}
+
+		Set<Long> result = new HashSet();
+		Object value = restriction.getValue();
+		if ( ( value instanceof Collection ) )
+		{
+			for ( Object element : ( Collection ) value )
+			{
+				result.addAll( lookup( element ) );
+			}
+		}
+		else
+		{
+			for ( Object element : ( Object[] ) value )
+			{
+				result.addAll( lookup( element ) );
+			}
+		}
+		return result;
+	}
+
+	public Set<Long> lookup( Object value )
+	{
+		Set<Long> resourceIds = ( Set ) resourceIdsByValue.get( toKey( value ) );
+		if ( resourceIds == null )
+		{
+			return Collections.emptySet();
+		}
+		return resourceIds;
+	}
+
+	public void add( Resource resource )
+	{
+		if ( !resourceClass.isInstance( resource ) )
+		{
+			return;
+		}
+
+		Set<Object> keys = extractKeys( resource );
+		if ( keys.isEmpty() )
+		{
+			return;
+		}
+
+		Long resourceId = resource.getId();
+		valuesByResourceId.put( resourceId, keys );
+		for ( Object key : keys )
+		{
+			index( key, resourceId );
+		}
+	}
+
+	public void remove( Long resourceId )
+	{
+		Set<Object> keys = ( Set ) valuesByResourceId.remove( resourceId );
+		if ( keys == null )
+		{
+			return;
+		}
+
+		for ( Object key : keys )
+		{
+			unindex( key, resourceId );
+		}
+	}
+
+	/**
+	 * Re-indexes a changed resource. Lookups run without a lock, so the new values are indexed before the stale ones
+	 * are dropped: a concurrent lookup may briefly see the resource under both, which the caller's restriction check
+	 * filters out, but never under neither.
+	 */
+	public void update( Resource resource )
+	{
+		if ( !resourceClass.isInstance( resource ) )
+		{
+			return;
+		}
+
+		Long resourceId = resource.getId();
+		Set<Object> keys = extractKeys( resource );
+		Set<Object> previousKeys = ( Set ) valuesByResourceId.get( resourceId );
+		if ( previousKeys == null )
+		{
+			add( resource );
+			return;
+		}
+		if ( keys.equals( previousKeys ) )
+		{
+			return;
+		}
+		if ( keys.isEmpty() )
+		{
+			remove( resourceId );
+			return;
+		}
+
+		for ( Object key : keys )
+		{
+			if ( !previousKeys.contains( key ) )
+			{
+				index( key, resourceId );
+			}
+		}
+		valuesByResourceId.put( resourceId, keys );
+		for ( Object key : previousKeys )
+		{
+			if ( !keys.contains( key ) )
+			{
+				unindex( key, resourceId );
+			}
+		}
+	}
+
+	public void clear()
+	{
+		resourceIdsByValue.clear();
+		valuesByResourceId.clear();
+	}
+
+	private void index( Object key, Long resourceId )
+	{
+		Set<Long> resourceIds = ( Set ) resourceIdsByValue.get( key );
+		if ( resourceIds == null )
+		{
+			resourceIds = ConcurrentHashMap.newKeySet();
+			Set<Long> existing = ( Set ) resourceIdsByValue.putIfAbsent( key, resourceIds );
+			if ( existing != null )
+			{
+				resourceIds = existing;
+			}
+		}
+		resourceIds.add( resourceId );
+	}
+
+	private void unindex( Object key, Long resourceId )
+	{
+		Set<Long> resourceIds = ( Set ) resourceIdsByValue.get( key );
+		if ( resourceIds != null )
+		{
+			resourceIds.remove( resourceId );
+			if ( resourceIds.isEmpty() )
+			{
+				resourceIdsByValue.remove( key, resourceIds );
+			}
+		}
+	}
+
+	private Set<Object> extractKeys( Resource resource )
+	{
+		Object value = resource;
+		for ( int i = 0; i < propertyPath.length; i++ )
+		{
+			value = PropertyAccessor.get( value.getClass(), propertyPath[i] ).getValue( value );
+
+			// Restriction.match never matches through a null intermediate property, so there is nothing to index
+			if ( ( i < propertyPath.length - 1 ) && ( value == null ) )
+			{
+				return Collections.emptySet();
+			}
+		}
+
+		Set<Object> keys = new HashSet();
+		if ( !multiValued )
+		{
+			keys.add( toKey( value ) );
+		}
+		else if ( ( value instanceof Collection ) )
+		{
+			for ( Object element : ( Collection ) value )
+			{
+				keys.add( toKey( element ) );
+			}
+		}
+		else if ( ( value instanceof Object[] ) )
+		{
+			for ( Object element : ( Object[] ) value )
+			{
+				keys.add( toKey( element ) );
+			}
+		}
+		return keys;
+	}
+
+	private static Object toKey( Object value )
+	{
+		return value == null ? NULL_KEY : value;
+	}
+}
@@ -0,0 +1,129 @@
+package com.marchnetworks.management.topology.util;
+
+import com.marchnetworks.command.common.topology.data.Resource;
+import com.marchnetworks.command.common.topology.data.ResourceAssociation;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre/post-order interval labels of the topology tree. A resource lies under another exactly when its interval is
+ * nested in the other's, so ancestor checks take two map lookups instead of a walk up the tree. Each interval keeps a
+ * gap after its children so that new resources can be labelled without touching the rest of the tree; the tree is
+ * relabelled when a gap runs out or a resource moves.
+ * <p>
+ * Writers must hold the topology cache lock, readers never lock.
+ */
+class ResourceIntervalLabels
+{
+	private static final long CHILD_SPAN = 1L << 20;
+	private static final long MIN_CHILD_SPAN = 2L;
+
+	private volatile Map<Long, Interval> labels = new ConcurrentHashMap();
+	private Interval top = new Interval( 0L, Long.MAX_VALUE );
+
+	public boolean isDescendant( Long ancestorId, Long resourceId )
+	{
+		Map<Long, Interval> current = labels;
+		Interval ancestor = ( Interval ) current.get( ancestorId );
+		Interval resource = ( Interval ) current.get( resourceId );
+		if ( ( ancestor == null ) || ( resource == null ) )
+		{
+			return false;
+		}
+		return ( ancestor.enter <= resource.enter ) && ( resource.exit <= ancestor.exit );
+	}
+
+	public boolean isLabelled( Long resourceId )
+	{
+		return labels.containsKey( resourceId );
+	}
+
+	public void rebuild( Collection<Resource> resources )
+	{
+		Map<Long, Interval> result = new ConcurrentHashMap( Math.max( 16, resources.size() * 2 ) );
+		long[] cursor = new long[1];
+		for ( Resource resource : resources )
+		{
+			if ( resource.getParentResource() == null )
+			{
+				label( resource, result, cursor );
+			}
+		}
+		top = new Interval( 0L, Long.MAX_VALUE );
+		top.nextFree = cursor[0];
+		labels = result;
+	}
+
+	/**
+	 * Labels a resource just added under the given parent, or as a top level resource if the parent is null.
+	 *
+	 * @return false if there was no room left under the parent and the tree has to be relabelled
+	 */
+	public boolean add( Resource resource, Resource parent )
+	{
+		if ( !resource.getResourceAssociations().isEmpty() )
+		{
+			return false;
+		}
+
+		Interval parentLabel = parent != null ? ( Interval ) labels.get( parent.getId() ) : top;
+		if ( parentLabel == null )
+		{
+			return false;
+		}
+
+		long span = Math.min( CHILD_SPAN, ( parentLabel.exit - parentLabel.nextFree ) / 2L );
+		if ( span < MIN_CHILD_SPAN )
+		{
+			return false;
+		}
+
+		Interval label = new Interval( parentLabel.nextFree, parentLabel.nextFree + span - 1L );
+		parentLabel.nextFree += span;
+		labels.put( resource.getId(), label );
+		return true;
+	}
+
+	public void remove( Long resourceId )
+	{
+		labels.remove( resourceId );
+	}
+
+	private int label( Resource resource, Map<Long, Interval> result, long[] cursor )
+	{
+		long enter = cursor[0]++;
+		int subtreeSize = 1;
+		for ( ResourceAssociation association : resource.getResourceAssociations() )
+		{
+			Resource child = association.getResource();
+			if ( child != null )
+			{
+				subtreeSize += label( child, result, cursor );
+			}
+		}
+
+		long nextFree = cursor[0];
+		cursor[0] += CHILD_SPAN * subtreeSize;
+
+		Interval interval = new Interval( enter, cursor[0] - 1L );
+		interval.nextFree = nextFree;
+		result.put( resource.getId(), interval );
+		return subtreeSize;
+	}
+
+	private static final class Interval
+	{
+		private final long enter;
+		private final long exit;
+		private long nextFree;
+
+		Interval( long enter, long exit )
+		{
+			this.enter = enter;
+			this.exit = exit;
+			nextFree = enter + 1L;
+		}
+	}
+}
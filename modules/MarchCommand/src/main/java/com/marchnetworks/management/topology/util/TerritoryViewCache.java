@@ -0,0 +1,120 @@
+package com.marchnetworks.management.topology.util;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ids of the resources of a class found under a set of territory roots, kept until a resource under one of the roots
+ * changes. Views are keyed by root set rather than by user, so users with the same territory share views, and a
+ * change of a user's territory simply leads to a different key.
+ * <p>
+ * A view is only kept if no topology change happened while it was computed: changes bump the version after the tree
+ * has been updated, and a view stored against an older version is dropped again.
+ */
+class TerritoryViewCache
+{
+	private static final int MAX_VIEWS = 4096;
+
+	private final ConcurrentMap<ViewKey, Set<Long>> views = new ConcurrentHashMap();
+	private final AtomicLong version = new AtomicLong();
+
+	public Set<Long> get( ViewKey key )
+	{
+		return ( Set ) views.get( key );
+	}
+
+	public long getVersion()
+	{
+		return version.get();
+	}
+
+	public void put( ViewKey key, Set<Long> view, long computedVersion )
+	{
+		if ( views.size() >= MAX_VIEWS )
+		{
+			views.clear();
+		}
+		views.put( key, view );
+		if ( version.get() != computedVersion )
+		{
+			views.remove( key, view );
+		}
+	}
+
+	/**
+	 * Drops the views whose roots contain the resource. Must be called after the tree has been updated, with the
+	 * labels describing where the resource was or is now.
+	 */
+	public void invalidate( Long resourceId, ResourceIntervalLabels labels )
+	{
+		version.incrementAndGet();
+		if ( !labels.isLabelled( resourceId ) )
+		{
+			views.clear();
+			return;
+		}
+
+		for ( Iterator<ViewKey> iterator = views.keySet().iterator(); iterator.hasNext(); )
+		{
+			ViewKey key = ( ViewKey ) iterator.next();
+			for ( Long rootId : key.rootIds )
+			{
+				if ( labels.isDescendant( rootId, resourceId ) )
+				{
+					iterator.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	public void clear()
+	{
+		version.incrementAndGet();
+		views.clear();
+	}
+
+	static final class ViewKey
+	{
+		private final Set<Long> rootIds;
+		private final Class<?> resourceClass;
+		private final int hash;
+
+		ViewKey( Collection<Long> rootIds, Class<?> resourceClass )
+		{
+			this.rootIds = new HashSet( rootIds );
+			this.resourceClass = resourceClass;
+			hash = 31 * this.rootIds.hashCode() + resourceClass.hashCode();
+		}
+
+		Set<Long> getRootIds()
+		{
+			return rootIds;
+		}
+
+		Class<?> getResourceClass()
+		{
+			return resourceClass;
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		public boolean equals( Object obj )
+		{
+			if ( this == obj )
+				return true;
+			if ( !( obj instanceof ViewKey ) )
+				return false;
+			ViewKey other = ( ViewKey ) obj;
+			return ( resourceClass.equals( other.resourceClass ) ) && ( rootIds.equals( other.rootIds ) );
+		}
+	}
+}
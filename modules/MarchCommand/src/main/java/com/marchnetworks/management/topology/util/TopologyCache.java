@@ -1,7 +1,12 @@
 package com.marchnetworks.management.topology.util;
 
 import com.marchnetworks.command.api.query.Criteria;
+import com.marchnetworks.command.api.query.Restriction;
+import com.marchnetworks.command.api.query.RestrictionType;
 import com.marchnetworks.command.common.topology.TopologyConstants;
+import com.marchnetworks.command.common.topology.data.AlarmSourceResource;
+import com.marchnetworks.command.common.topology.data.DeviceResource;
+import com.marchnetworks.command.common.topology.data.LinkResource;
 import com.marchnetworks.command.common.topology.data.Resource;
 import com.marchnetworks.command.common.topology.data.ResourceAssociation;
 import com.marchnetworks.common.spring.ApplicationContextSupport;
@@ -13,10 +18,16 @@ import com.marchnetworks.management.topology.model.ResourceAssociationEntity;
 import com.marchnetworks.management.topology.model.ResourceEntity;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +40,18 @@ public final class TopologyCache
 	private static Object lock = new Object();
 	private static boolean initialized = false;
 
+	private static List<ResourceIndex> indexes = new CopyOnWriteArrayList();
+	private static ResourceIntervalLabels intervalLabels = new ResourceIntervalLabels();
+	private static TerritoryViewCache territoryViews = new TerritoryViewCache();
+
+	static
+	{
+		indexes.add( new ResourceIndex( DeviceResource.class, "deviceId" ) );
+		indexes.add( new ResourceIndex( DeviceResource.class, "deviceView.parentDeviceId" ) );
+		indexes.add( new ResourceIndex( AlarmSourceResource.class, "alarmSourceId" ) );
+		indexes.add( new ResourceIndex( LinkResource.class, "linkedResourceIds" ) );
+	}
+
 	public static void initCache()
 	{
 		synchronized ( lock )
@@ -74,7 +97,7 @@ public final class TopologyCache
 
 		List<T> result = new ArrayList<T>();
 
-		for ( Resource resource : resourcesCache.values() )
+		for ( Resource resource : findCandidates( criteria ) )
 			if ( criteria.match( resource ) )
 				result.add( ( T ) resource );
 
@@ -88,7 +111,7 @@ public final class TopologyCache
 			initCache();
 		}
 
-		for ( Resource resource : resourcesCache.values() )
+		for ( Resource resource : findCandidates( criteria ) )
 		{
 			if ( criteria.match( resource ) )
 			{
@@ -98,6 +121,188 @@ public final class TopologyCache
 		return null;
 	}
 
+	/**
+	 * @return true if the resource is the ancestor itself or lies anywhere below it
+	 */
+	public static boolean isDescendant( Long ancestorId, Long resourceId )
+	{
+		if ( !initialized )
+		{
+			initCache();
+		}
+		return intervalLabels.isDescendant( ancestorId, resourceId );
+	}
+
+	public static boolean isDescendantOfAny( Long resourceId, Collection<Long> ancestorIds )
+	{
+		if ( !initialized )
+		{
+			initCache();
+		}
+		for ( Long ancestorId : ancestorIds )
+		{
+			if ( intervalLabels.isDescendant( ancestorId, resourceId ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static boolean isLabelled( Long resourceId )
+	{
+		if ( !initialized )
+		{
+			initCache();
+		}
+		return intervalLabels.isLabelled( resourceId );
+	}
+
+	/**
+	 * Returns the ids of the resources of the given class found under any of the roots, including the roots themselves.
+	 * The returned set is shared and read only, and stays cached until the topology under one of the roots changes.
+	 */
+	public static Set<Long> getTerritoryResourceIds( Collection<Long> rootIds, Class<?> resourceClass )
+	{
+		if ( !initialized )
+		{
+			initCache();
+		}
+
+		TerritoryViewCache.ViewKey key = new TerritoryViewCache.ViewKey( rootIds, resourceClass );
+		Set<Long> view = territoryViews.get( key );
+		if ( view != null )
+		{
+			return view;
+		}
+
+		long version = territoryViews.getVersion();
+		ResourceIdSet resourceIds = new ResourceIdSet();
+		for ( Long rootId : key.getRootIds() )
+		{
+			Resource root = ( Resource ) resourcesCache.get( rootId );
+			if ( root != null )
+			{
+				collectResourceIds( root, resourceClass, resourceIds );
+			}
+		}
+		resourceIds.trim();
+		territoryViews.put( key, resourceIds, version );
+		return resourceIds;
+	}
+
+	private static void collectResourceIds( Resource resource, Class<?> resourceClass, ResourceIdSet resourceIds )
+	{
+		if ( resourceClass.isInstance( resource ) )
+		{
+			resourceIds.addId( resource.getId().longValue() );
+		}
+		for ( ResourceAssociation association : resource.getResourceAssociations() )
+		{
+			Resource child = association.getResource();
+			if ( child != null )
+			{
+				collectResourceIds( child, resourceClass, resourceIds );
+			}
+		}
+	}
+
+	public static void registerIndex( ResourceIndex index )
+	{
+		synchronized ( lock )
+		{
+			if ( initialized )
+			{
+				for ( Resource resource : resourcesCache.values() )
+				{
+					index.add( resource );
+				}
+			}
+			indexes.add( index );
+		}
+	}
+
+	private static Collection<Resource> findCandidates( Criteria criteria )
+	{
+		Set<Long> candidateIds = null;
+		for ( Restriction restriction : criteria.getRestrictions() )
+		{
+			Set<Long> resourceIds = lookupIndex( criteria.getTargetClass(), restriction );
+			if ( ( resourceIds != null ) && ( ( candidateIds == null ) || ( resourceIds.size() < candidateIds.size() ) ) )
+			{
+				candidateIds = resourceIds;
+			}
+		}
+
+		if ( candidateIds == null )
+		{
+			return resourcesCache.values();
+		}
+
+		List<Resource> candidates = new ArrayList( candidateIds.size() );
+		for ( Long resourceId : candidateIds )
+		{
+			Resource resource = ( Resource ) resourcesCache.get( resourceId );
+			if ( resource != null )
+			{
+				candidates.add( resource );
+			}
+		}
+		return candidates;
+	}
+
+	private static Set<Long> lookupIndex( Class<?> targetClass, Restriction restriction )
+	{
+		if ( "id".equals( restriction.getPropertyName() ) )
+		{
+			if ( restriction.getType() == RestrictionType.EQUAL )
+			{
+				return restriction.getValue() instanceof Long ? Collections.singleton( ( Long ) restriction.getValue() ) : Collections.<Long> emptySet();
+			}
+			if ( restriction.getType() == RestrictionType.IN )
+			{
+				Object value = restriction.getValue();
+				Collection<?> elements = ( value instanceof Collection ) ? ( Collection ) value : Arrays.asList( ( Object[] ) value );
+
+				Set<Long> resourceIds = new HashSet();
+				for ( Object element : elements )
+				{
+					if ( ( element instanceof Long ) )
+					{
+						resourceIds.add( ( Long ) element );
+					}
+				}
+				return resourceIds;
+			}
+			return null;
+		}
+
+		for ( ResourceIndex index : indexes )
+		{
+			if ( index.supports( targetClass, restriction ) )
+			{
+				return index.lookup( restriction );
+			}
+		}
+		return null;
+	}
+
+	private static void indexResource( Resource resource )
+	{
+		for ( ResourceIndex index : indexes )
+		{
+			index.update( resource );
+		}
+	}
+
+	private static void unindexResource( Long resourceId )
+	{
+		for ( ResourceIndex index : indexes )
+		{
+			index.remove( resourceId );
+		}
+	}
+
 	public static List<Resource> createFilteredResourceList( Resource resource, Criteria criteria )
 	{
 		if ( !initialized )
@@ -161,9 +366,12 @@ public final class TopologyCache
 			{
 				resource.setParentResource( parentResource );
 				resourcesCache.put( resource.getId(), resource );
+				indexResource( resource );
 				LOG.debug( "Resource {} added to topology cache", resource.toString() );
 
 				createAssociation( resource, parentResource, associationType );
+				labelResource( resource, parentResource );
+				territoryViews.invalidate( resource.getId(), intervalLabels );
 			}
 			else
 			{
@@ -177,6 +385,9 @@ public final class TopologyCache
 		synchronized ( lock )
 		{
 			resourcesCache.put( resource.getId(), resource );
+			indexResource( resource );
+			labelResource( resource, null );
+			territoryViews.invalidate( resource.getId(), intervalLabels );
 		}
 	}
 
@@ -195,6 +406,9 @@ public final class TopologyCache
 				}
 
 				resourcesCache.remove( resourceId );
+				unindexResource( resourceId );
+				territoryViews.invalidate( resourceId, intervalLabels );
+				intervalLabels.remove( resourceId );
 			}
 		}
 	}
@@ -207,6 +421,7 @@ public final class TopologyCache
 			if ( resourceToUpdate != null )
 			{
 				resourceToUpdate.update( updatedResource );
+				indexResource( resourceToUpdate );
 			}
 		}
 	}
@@ -230,6 +445,9 @@ public final class TopologyCache
 					resource.setParentResource( newParent );
 					createAssociation( resource, newParent, associationType );
 				}
+				territoryViews.invalidate( resourceId, intervalLabels );
+				intervalLabels.rebuild( resourcesCache.values() );
+				territoryViews.invalidate( resourceId, intervalLabels );
 			}
 		}
 	}
@@ -297,6 +515,17 @@ public final class TopologyCache
 			}
 		}
 
+		for ( ResourceIndex index : indexes )
+		{
+			index.clear();
+			for ( Resource resource : resourcesCache.values() )
+			{
+				index.add( resource );
+			}
+		}
+		intervalLabels.rebuild( resourcesCache.values() );
+		territoryViews.clear();
+
 		LOG.info( "Total time to build cache was {} ms", Long.valueOf( System.currentTimeMillis() - startTime ) );
 		initialized = true;
 	}
@@ -304,6 +533,17 @@ public final class TopologyCache
 	public static void invalidateCache()
 	{
 		initialized = false;
+		territoryViews.clear();
+	}
+
+	private static void labelResource( Resource resource, Resource parentResource )
+	{
+		if ( !intervalLabels.add( resource, parentResource ) )
+		{
+			long startTime = System.currentTimeMillis();
+			intervalLabels.rebuild( resourcesCache.values() );
+			LOG.debug( "Topology relabelled in {} ms", Long.valueOf( System.currentTimeMillis() - startTime ) );
+		}
 	}
 
 	private static void createAssociation( Resource childResource, Resource parentResource, String associationType )
@@ -3,23 +3,28 @@ package com.marchnetworks.monitoring.metrics.service;
 import com.google.gson.reflect.TypeToken;
 import com.marchnetworks.command.api.initialization.InitializationListener;
 import com.marchnetworks.command.api.metrics.BucketCounter;
+import com.marchnetworks.command.api.metrics.BucketHistogram;
 import com.marchnetworks.command.api.metrics.BucketMinMaxAvg;
 import com.marchnetworks.command.api.metrics.BucketValue;
 import com.marchnetworks.command.api.metrics.ConcurrentAction;
 import com.marchnetworks.command.api.metrics.Counter;
 import com.marchnetworks.command.api.metrics.CurrentMaxAvg;
+import com.marchnetworks.command.api.metrics.Histogram;
 import com.marchnetworks.command.api.metrics.MaxValue;
 import com.marchnetworks.command.api.metrics.Metric;
+import com.marchnetworks.command.api.metrics.MetricHandle;
 import com.marchnetworks.command.api.metrics.MetricSnapshot;
 import com.marchnetworks.command.api.metrics.MetricsCoreService;
 import com.marchnetworks.command.api.metrics.MinMaxAvg;
 import com.marchnetworks.command.api.metrics.RetryAction;
 import com.marchnetworks.command.api.metrics.SingleValueMetric;
 import com.marchnetworks.command.api.metrics.input.BucketCounterInput;
+import com.marchnetworks.command.api.metrics.input.BucketHistogramInput;
 import com.marchnetworks.command.api.metrics.input.BucketMinMaxAvgInput;
 import com.marchnetworks.command.api.metrics.input.ConcurrentActionInput;
 import com.marchnetworks.command.api.metrics.input.CounterInput;
 import com.marchnetworks.command.api.metrics.input.CurrentMaxAvgInput;
+import com.marchnetworks.command.api.metrics.input.HistogramInput;
 import com.marchnetworks.command.api.metrics.input.MaxValueInput;
 import com.marchnetworks.command.api.metrics.input.MetricInput;
 import com.marchnetworks.command.api.metrics.input.MinMaxAvgInput;
@@ -35,12 +40,13 @@ import com.marchnetworks.server.event.EventListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class MetricsServiceImpl implements MetricsCoreService, InitializationListener, EventListener
 {
@@ -48,8 +54,82 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 
 	private static final String LOG_FILE = "..\\logs\\metrics.json";
 	private static final int DEFAULT_MAX = 25;
+
+	private static final Function<String, Metric> COUNTER_FACTORY = new Function<String, Metric>()
+	{
+		public Metric apply( String name )
+		{
+			return new Counter( name );
+		}
+	};
+
+	private static final Function<String, Metric> MAX_VALUE_FACTORY = new Function<String, Metric>()
+	{
+		public Metric apply( String name )
+		{
+			return new MaxValue( name );
+		}
+	};
+
+	private static final Function<String, Metric> CONCURRENT_ACTION_FACTORY = new Function<String, Metric>()
+	{
+		public Metric apply( String name )
+		{
+			return new ConcurrentAction( name );
+		}
+	};
+
+	private static final Function<String, Metric> MIN_MAX_AVG_FACTORY = new Function<String, Metric>()
+	{
+		public Metric apply( String name )
+		{
+			return new MinMaxAvg( name );
+		}
+	};
+
+	private static final Function<String, Metric> BUCKET_MIN_MAX_AVG_FACTORY = new Function<String, Metric>()
+	{
+		public Metric apply( String name )
+		{
+			return new BucketMinMaxAvg( name );
+		}
+	};
+
+	private static final Function<String, Metric> CURRENT_MAX_AVG_FACTORY = new Function<String, Metric>()
+	{
+		public Metric apply( String name )
+		{
+			return new CurrentMaxAvg( name );
+		}
+	};
+
+	private static final Function<String, Metric> HISTOGRAM_FACTORY = new Function<String, Metric>()
+	{
+		public Metric apply( String name )
+		{
+			return new Histogram( name );
+		}
+	};
+
+	private static final Function<String, Metric> BUCKET_HISTOGRAM_FACTORY = new Function<String, Metric>()
+	{
+		public Metric apply( String name )
+		{
+			return new BucketHistogram( name );
+		}
+	};
+
+	private static final Function<String, Metric> BUCKET_VALUE_FACTORY = new Function<String, Metric>()
+	{
+		public Metric apply( String name )
+		{
+			return new BucketValue( name );
+		}
+	};
+
 	private MetricsDAO metricsDAO;
-	private Map<String, Metric> metrics = new ConcurrentSkipListMap();
+	private ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap();
+	private AtomicInteger generation = new AtomicInteger();
 
 	public void onAppInitialized()
 	{
@@ -87,6 +167,7 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 
 			for ( Metric metric : metricList )
 			{
+				metric.restoreValues();
 				metrics.put( metric.getName(), metric );
 			}
 		}
@@ -118,13 +199,13 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 		current.onSerialization();
 		writeMetricsToLogs( current );
 
-		metrics.clear();
+		clearMetrics();
 		metricsDAO.delete();
 	}
 
 	public void snapshotMetrics()
 	{
-		MetricSnapshot snapshot = getCurrentMetrics();
+		MetricSnapshot snapshot = takeMetrics( true );
 		metricsDAO.update( snapshot );
 	}
 
@@ -150,14 +231,12 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 
 	public MetricSnapshot getCurrentMetrics()
 	{
-		List<Metric> values = new ArrayList( metrics.values() );
-		MetricSnapshot snapshot = new MetricSnapshot( System.currentTimeMillis(), values );
-		return snapshot;
+		return takeMetrics( false );
 	}
 
 	public void clearCurrentMetrics()
 	{
-		metrics.clear();
+		clearMetrics();
 		metricsDAO.delete();
 	}
 
@@ -168,6 +247,30 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 		return readMetricsFromLogString( logFile );
 	}
 
+	private MetricSnapshot takeMetrics( boolean rollInterval )
+	{
+		List<Metric> values = new ArrayList( metrics.values() );
+		for ( Metric metric : values )
+		{
+			if ( rollInterval )
+			{
+				metric.rollInterval();
+			}
+			else
+			{
+				metric.updateValues();
+			}
+		}
+		MetricSnapshot snapshot = new MetricSnapshot( System.currentTimeMillis(), values );
+		return snapshot;
+	}
+
+	private void clearMetrics()
+	{
+		metrics.clear();
+		generation.incrementAndGet();
+	}
+
 	private void writeMetricsToLogs( MetricSnapshot snapshot )
 	{
 		String json = CoreJsonSerializer.toJsonIndented( snapshot );
@@ -176,12 +279,12 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 
 	public void addCounter( String name )
 	{
-		addSingleValue( Counter.class, name, 1L );
+		getMetric( name, COUNTER_FACTORY ).addValue( 1L );
 	}
 
 	public void addCounter( String name, long value )
 	{
-		addSingleValue( Counter.class, name, value );
+		getMetric( name, COUNTER_FACTORY ).addValue( value );
 	}
 
 	public void addBucketCounter( String name, String bucket )
@@ -191,90 +294,52 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 
 	public void addBucketValue( String name, String bucket, long value )
 	{
-		BucketValue existing = ( BucketValue ) metrics.get( name );
-		if ( existing == null )
-		{
-			existing = new BucketValue( name );
-			metrics.put( name, existing );
-		}
-		existing.addValue( bucket, value );
+		( ( BucketValue ) getOrCreateMetric( name, BUCKET_VALUE_FACTORY ) ).addValue( bucket, value );
 	}
 
 	public void addBucketCounterValue( String name, String bucket, long value )
 	{
-		BucketCounter existing = ( BucketCounter ) metrics.get( name );
-		if ( existing == null )
-		{
-			existing = new BucketCounter( name, 0 );
-			metrics.put( name, existing );
-		}
-		existing.addValue( bucket, value );
+		( ( BucketCounter ) getOrCreateMetric( name, new BucketCounterFactory( 0 ) ) ).addValue( bucket, value );
 	}
 
 	public void addBucketCounter( String name, String bucket, int itemsPerLine )
 	{
-		BucketCounter existing = ( BucketCounter ) metrics.get( name );
-		if ( existing == null )
-		{
-			existing = new BucketCounter( name, itemsPerLine );
-			metrics.put( name, existing );
-		}
-		existing.addValue( bucket, 1L );
+		( ( BucketCounter ) getOrCreateMetric( name, new BucketCounterFactory( itemsPerLine ) ) ).addValue( bucket, 1L );
 	}
 
 	public void addMinMaxAvg( String name, long value )
 	{
-		MinMaxAvg existing = ( MinMaxAvg ) metrics.get( name );
-
-		if ( existing == null )
-		{
-			existing = new MinMaxAvg( name, value );
-			metrics.put( name, existing );
-		}
-		else
-		{
-			existing.addValue( value );
-		}
+		getMetric( name, MIN_MAX_AVG_FACTORY ).addValue( value );
 	}
 
 	public void addBucketMinMaxAvg( String name, String bucket, long value )
 	{
-		BucketMinMaxAvg existing = ( BucketMinMaxAvg ) metrics.get( name );
-
-		if ( existing == null )
-		{
-			existing = new BucketMinMaxAvg( name, bucket, value );
-			metrics.put( name, existing );
-		}
-		else
-		{
-			existing.addValue( bucket, value );
-		}
+		( ( BucketMinMaxAvg ) getOrCreateMetric( name, BUCKET_MIN_MAX_AVG_FACTORY ) ).addValue( bucket, value );
 	}
 
 	public void addCurrentMaxAvg( String name, long value )
 	{
-		CurrentMaxAvg existing = ( CurrentMaxAvg ) metrics.get( name );
-
-		if ( existing == null )
-		{
-			existing = new CurrentMaxAvg( name, value );
-			metrics.put( name, existing );
-		}
-		else
-		{
-			existing.addValue( value );
-		}
+		getMetric( name, CURRENT_MAX_AVG_FACTORY ).addValue( value );
 	}
 
 	public void addConcurrent( String name, long concurrent )
 	{
-		addSingleValue( ConcurrentAction.class, name, concurrent );
+		getMetric( name, CONCURRENT_ACTION_FACTORY ).addValue( concurrent );
 	}
 
 	public void addMax( String name, long value )
 	{
-		addSingleValue( MaxValue.class, name, value );
+		getMetric( name, MAX_VALUE_FACTORY ).addValue( value );
+	}
+
+	public void addHistogram( String name, long value )
+	{
+		getMetric( name, HISTOGRAM_FACTORY ).addValue( value );
+	}
+
+	public void addBucketHistogram( String name, String bucket, long value )
+	{
+		( ( BucketHistogram ) getOrCreateMetric( name, BUCKET_HISTOGRAM_FACTORY ) ).addValue( bucket, value );
 	}
 
 	public void addRetryActionSuccess( String name, String source, long value )
@@ -284,14 +349,7 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 
 	public void addRetryActionSuccess( String name, String source, int maxSources, long value )
 	{
-		RetryAction existing = ( RetryAction ) metrics.get( name );
-
-		if ( existing == null )
-		{
-			existing = new RetryAction( name, maxSources );
-			metrics.put( name, existing );
-		}
-		existing.addSuccess( source, value );
+		( ( RetryAction ) getOrCreateMetric( name, new RetryActionFactory( maxSources ) ) ).addSuccess( source, value );
 	}
 
 	public void addRetryActionFailure( String name, String source, long value )
@@ -301,14 +359,7 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 
 	public void addRetryActionFailure( String name, String source, int maxSources, long value )
 	{
-		RetryAction existing = ( RetryAction ) metrics.get( name );
-
-		if ( existing == null )
-		{
-			existing = new RetryAction( name, maxSources );
-			metrics.put( name, existing );
-		}
-		existing.addFailure( source, value );
+		( ( RetryAction ) getOrCreateMetric( name, new RetryActionFactory( maxSources ) ) ).addFailure( source, value );
 	}
 
 	public void addRetryAction( String name, long numRetry )
@@ -322,23 +373,49 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 		existing.addRetry( numRetry );
 	}
 
-	private void addSingleValue( Class<? extends SingleValueMetric> type, String name, long value )
+	public MetricHandle getCounterHandle( String name )
 	{
-		SingleValueMetric existing = ( SingleValueMetric ) metrics.get( name );
-		try
-		{
-			if ( existing == null )
-			{
-				Constructor<? extends SingleValueMetric> ctor = type.getConstructor( new Class[] {String.class} );
-				existing = ( SingleValueMetric ) ctor.newInstance( new Object[] {name} );
-				metrics.put( name, existing );
-			}
-			existing.addValue( value );
-		}
-		catch ( Exception e )
+		return new CachedMetricHandle( name, null, COUNTER_FACTORY );
+	}
+
+	public MetricHandle getMinMaxAvgHandle( String name )
+	{
+		return new CachedMetricHandle( name, null, MIN_MAX_AVG_FACTORY );
+	}
+
+	public MetricHandle getBucketMinMaxAvgHandle( String name, String bucket )
+	{
+		return new CachedMetricHandle( name, bucket, BUCKET_MIN_MAX_AVG_FACTORY );
+	}
+
+	public MetricHandle getCurrentMaxAvgHandle( String name )
+	{
+		return new CachedMetricHandle( name, null, CURRENT_MAX_AVG_FACTORY );
+	}
+
+	public MetricHandle getHistogramHandle( String name )
+	{
+		return new CachedMetricHandle( name, null, HISTOGRAM_FACTORY );
+	}
+
+	public MetricHandle getBucketHistogramHandle( String name, String bucket )
+	{
+		return new CachedMetricHandle( name, bucket, BUCKET_HISTOGRAM_FACTORY );
+	}
+
+	private Metric getOrCreateMetric( String name, Function<String, Metric> factory )
+	{
+		Metric metric = ( Metric ) metrics.get( name );
+		if ( metric == null )
 		{
-			LOG.error( "Error during Metric initialization, Exception " + e.getMessage() );
+			metric = ( Metric ) metrics.computeIfAbsent( name, factory );
 		}
+		return metric;
+	}
+
+	private SingleValueMetric getMetric( String name, Function<String, Metric> factory )
+	{
+		return ( SingleValueMetric ) getOrCreateMetric( name, factory );
 	}
 
 	private void processMetricInput( MetricInput metricInput )
@@ -378,6 +455,16 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 			BucketMinMaxAvgInput input = ( BucketMinMaxAvgInput ) metricInput;
 			addBucketMinMaxAvg( input.getName(), input.getBucket(), input.getValue() );
 		}
+		else if ( ( metricInput instanceof HistogramInput ) )
+		{
+			HistogramInput input = ( HistogramInput ) metricInput;
+			addHistogram( input.getName(), input.getValue() );
+		}
+		else if ( ( metricInput instanceof BucketHistogramInput ) )
+		{
+			BucketHistogramInput input = ( BucketHistogramInput ) metricInput;
+			addBucketHistogram( input.getName(), input.getBucket(), input.getValue() );
+		}
 		else if ( ( metricInput instanceof RetryActionInput ) )
 		{
 			RetryActionInput input = ( RetryActionInput ) metricInput;
@@ -401,5 +488,88 @@ public class MetricsServiceImpl implements MetricsCoreService, InitializationLis
 	{
 		this.metricsDAO = metricsDAO;
 	}
+
+	private static class BucketCounterFactory implements Function<String, Metric>
+	{
+		private final int itemsPerLine;
+
+		BucketCounterFactory( int itemsPerLine )
+		{
+			this.itemsPerLine = itemsPerLine;
+		}
+
+		public Metric apply( String name )
+		{
+			return new BucketCounter( name, itemsPerLine );
+		}
+	}
+
+	private static class RetryActionFactory implements Function<String, Metric>
+	{
+		private final int maxSources;
+
+		RetryActionFactory( int maxSources )
+		{
+			this.maxSources = maxSources;
+		}
+
+		public Metric apply( String name )
+		{
+			return new RetryAction( name, maxSources );
+		}
+	}
+
+	/**
+	 * Keeps the resolved metric until the metrics are cleared, which bumps the generation and makes the next value
+	 * resolve the newly created metric.
+	 */
+	private class CachedMetricHandle implements MetricHandle
+	{
+		private final String name;
+		private final String bucket;
+		private final Function<String, Metric> factory;
+		private volatile ResolvedMetric resolved;
+
+		CachedMetricHandle( String name, String bucket, Function<String, Metric> factory )
+		{
+			this.name = name;
+			this.bucket = bucket;
+			this.factory = factory;
+		}
+
+		public void addValue( long value )
+		{
+			ResolvedMetric current = resolved;
+			if ( ( current == null ) || ( current.generation != generation.get() ) )
+			{
+				int currentGeneration = generation.get();
+				Metric metric = getOrCreateMetric( name, factory );
+				SingleValueMetric target = ( SingleValueMetric ) metric;
+				if ( metric instanceof BucketMinMaxAvg )
+				{
+					target = ( ( BucketMinMaxAvg ) metric ).getBucket( bucket );
+				}
+				else if ( metric instanceof BucketHistogram )
+				{
+					target = ( ( BucketHistogram ) metric ).getBucket( bucket );
+				}
+				current = new ResolvedMetric( target, currentGeneration );
+				resolved = current;
+			}
+			current.metric.addValue( value );
+		}
+	}
+
+	private static class ResolvedMetric
+	{
+		private final SingleValueMetric metric;
+		private final int generation;
+
+		ResolvedMetric( SingleValueMetric metric, int generation )
+		{
+			this.metric = metric;
+			this.generation = generation;
+		}
+	}
 }
 
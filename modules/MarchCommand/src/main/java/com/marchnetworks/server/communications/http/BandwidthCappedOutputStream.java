@@ -1,5 +1,7 @@
 package com.marchnetworks.server.communications.http;
 
+import com.marchnetworks.common.diagnostics.metrics.MetricsHelper;
+import com.marchnetworks.common.diagnostics.metrics.MetricsTypes;
 import com.marchnetworks.common.spring.ApplicationContextSupport;
 import com.marchnetworks.server.network.settings.NetworkBandwidthService;
 
@@ -13,34 +15,51 @@ import java.io.OutputStream;
 class BandwidthCappedOutputStream extends FilterOutputStream
 {
 	private static final Logger LOG = LoggerFactory.getLogger( BandwidthCappedOutputStream.class );
+
+	/**
+	 * Largest write made with a single permit, so that concurrent transfers take turns.
+	 */
+	private static final int WRITE_CHUNK_SIZE = 16384;
+
 	private String host;
+	private NetworkBandwidthService bandwidthService;
+	private long bytesWritten;
+	private long firstWriteTime;
+	private long lastWriteTime;
 
 	public BandwidthCappedOutputStream( OutputStream outputStream, String host )
 	{
 		super( outputStream );
 		this.host = host;
-		getNetworkSettingsService().register( host );
+		bandwidthService = ( NetworkBandwidthService ) ApplicationContextSupport.getBean( "networkBandwidthService" );
+		bandwidthService.register( host );
 	}
 
 	public void write( int arg0 ) throws IOException
 	{
 		LOG.debug( "Intercepting traffic for 1 byte transfer" );
-		getNetworkSettingsService().getPermit( host, 1 );
+		bandwidthService.getPermit( host, 1 );
 		out.write( arg0 );
+		written( 1 );
 	}
 
 	public void write( byte[] b ) throws IOException
 	{
-		LOG.debug( "Intercepting traffic for {}  byte transfer", Integer.valueOf( b.length ) );
-		getNetworkSettingsService().getPermit( host, b.length );
-		out.write( b );
+		write( b, 0, b.length );
 	}
 
 	public void write( byte[] b, int off, int len ) throws IOException
 	{
-		LOG.debug( "Intercepting traffic for {}  byte transfer", Integer.valueOf( b.length ) );
-		getNetworkSettingsService().getPermit( host, b.length );
-		out.write( b, off, len );
+		LOG.debug( "Intercepting traffic for {}  byte transfer", Integer.valueOf( len ) );
+		while ( len > 0 )
+		{
+			int chunk = Math.min( len, WRITE_CHUNK_SIZE );
+			bandwidthService.getPermit( host, chunk );
+			out.write( b, off, chunk );
+			written( chunk );
+			off += chunk;
+			len -= chunk;
+		}
 	}
 
 	public void close() throws IOException
@@ -58,13 +77,28 @@ class BandwidthCappedOutputStream extends FilterOutputStream
 		}
 		finally
 		{
-			getNetworkSettingsService().unregister( host );
+			bandwidthService.unregister( host );
+			recordThroughput();
+		}
+	}
+
+	private void written( int length )
+	{
+		lastWriteTime = System.nanoTime();
+		if ( bytesWritten == 0L )
+		{
+			firstWriteTime = lastWriteTime;
 		}
+		bytesWritten += length;
 	}
 
-	private static NetworkBandwidthService getNetworkSettingsService()
+	private void recordThroughput()
 	{
-		return ( NetworkBandwidthService ) ApplicationContextSupport.getBean( "networkBandwidthService" );
+		long elapsed = lastWriteTime - firstWriteTime;
+		if ( elapsed > 0L )
+		{
+			long bytesPerSecond = ( long ) ( bytesWritten * 1.0E9D / elapsed );
+			MetricsHelper.metrics.addBucketMinMaxAvg( MetricsTypes.DEVICE_THROUGHPUT.getName(), host, bytesPerSecond );
+		}
 	}
 }
-
@@ -1,9 +1,6 @@
 package com.marchnetworks.server.communications.serialization;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonPrimitive;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
 import com.google.gson.reflect.TypeToken;
@@ -11,11 +8,15 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import com.marchnetworks.command.common.extractor.data.Job;
 import com.marchnetworks.command.common.topology.data.Resource;
+import com.marchnetworks.common.serialization.TypeFieldJsonWriter;
 import com.marchnetworks.health.data.AlertData;
 
 import java.io.IOException;
-import java.util.Map;
 
+/**
+ * Writes client types with a <code>$type</code> field holding their class name, streamed ahead of the fields written by
+ * the default adapter, and enums as their ordinal. Values are read by the default adapter, which skips the type field.
+ */
 public class ClientTypeAdapterFactory implements TypeAdapterFactory
 {
 	public static Class<?>[] clientRestSubclasses = {Resource.class, AlertData.class, Job.class};
@@ -41,7 +42,6 @@ public class ClientTypeAdapterFactory implements TypeAdapterFactory
 		}
 
 		final TypeAdapter<T> delegate = gson.getDelegateAdapter( this, type );
-		final TypeAdapter<JsonElement> elementAdapter = gson.getAdapter( JsonElement.class );
 
 		return new TypeAdapter<T>()
 		{
@@ -55,16 +55,7 @@ public class ClientTypeAdapterFactory implements TypeAdapterFactory
 
 				if ( isSubclass )
 				{
-					JsonObject custom = delegate.toJsonTree( value ).getAsJsonObject();
-
-					JsonObject result = new JsonObject();
-					result.add( "$type", new JsonPrimitive( value.getClass().getSimpleName() ) );
-					for ( Map.Entry<String, JsonElement> entry : custom.entrySet() )
-					{
-						result.add( ( String ) entry.getKey(), ( JsonElement ) entry.getValue() );
-					}
-					elementAdapter.write( out, result );
-
+					delegate.write( new TypeFieldJsonWriter( out, value.getClass().getSimpleName() ), value );
 				}
 				else if ( isEnum )
 				{
@@ -75,8 +66,7 @@ public class ClientTypeAdapterFactory implements TypeAdapterFactory
 
 			public T read( JsonReader in ) throws IOException
 			{
-				JsonElement tree = ( JsonElement ) elementAdapter.read( in );
-				return ( T ) delegate.fromJsonTree( tree );
+				return delegate.read( in );
 			}
 		};
 	}
@@ -28,5 +28,7 @@ public abstract interface EventPusher
 	public abstract void cancelAllSubscriptions();
 
 	public abstract int getTotalSubscriptions();
+
+	public abstract int getQueuedEventCount( Integer paramInteger );
 }
 
@@ -1,7 +1,5 @@
 package com.marchnetworks.server.event;
 
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Multimap;
 import com.marchnetworks.command.api.event.EventNotification;
 import com.marchnetworks.command.api.event.Notifiable;
 import com.marchnetworks.command.api.event.TerritoryAware;
@@ -12,22 +10,25 @@ import com.marchnetworks.command.common.topology.TopologyException;
 import com.marchnetworks.command.common.topology.data.Resource;
 import com.marchnetworks.command.common.user.UserException;
 import com.marchnetworks.command.common.user.data.MemberView;
+import com.marchnetworks.common.config.ConfigProperty;
 import com.marchnetworks.common.event.EventTypesEnum;
 import com.marchnetworks.common.event.StateCacheable;
 import com.marchnetworks.common.spring.ApplicationContextSupport;
 import com.marchnetworks.management.topology.ResourceTopologyServiceIF;
 import com.marchnetworks.management.user.UserService;
+import com.marchnetworks.shared.config.CommonConfiguration;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,18 +36,28 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-class EventPusherImpl implements EventPusher
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+class EventPusherImpl implements EventPusher, EventPusherMBean
 {
 	private static final Logger LOG = LoggerFactory.getLogger( EventPusherImpl.class );
 
-	private static final int EVENT_QUEUE_MAX_SIZE = 100000;
+	static final int DEFAULT_EVENT_QUEUE_MAX_SIZE = 100000;
+
+	private static final String MBEAN_NAME = "com.marchnetworks.server.event:type=EventPusher";
 
 	private final AtomicInteger subscriptionNumberBuilder = new AtomicInteger( 1 );
 
+	private final AtomicLong lastEventNumber = new AtomicLong();
+
 	private Map<Integer, EventSubscription> subscriptionsMap = new ConcurrentHashMap<Integer, EventSubscription>();
 
-	private volatile Multimap<Integer, EventNotification> eventQueueMap = LinkedHashMultimap.create(); //Multimaps.synchronizedMultimap( LinkedHashMultimap.create() );
+	private final EventSubscriptionTrie subscriptionTrie = new EventSubscriptionTrie();
 
 	private UserService userService;
 
@@ -58,6 +69,43 @@ class EventPusherImpl implements EventPusher
 
 	private TaskScheduler taskScheduler;
 
+	private CommonConfiguration configuration;
+
+	public void init()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName( MBEAN_NAME );
+			if ( !server.isRegistered( name ) )
+			{
+				// The class name doesn't follow the standard MBean naming, so the interface is given explicitly
+				server.registerMBean( new StandardMBean( this, EventPusherMBean.class ), name );
+			}
+		}
+		catch ( JMException e )
+		{
+			LOG.warn( "Could not register the event pusher MBean: {}", e.getMessage() );
+		}
+	}
+
+	public void destroy()
+	{
+		try
+		{
+			ObjectName name = new ObjectName( MBEAN_NAME );
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if ( server.isRegistered( name ) )
+			{
+				server.unregisterMBean( name );
+			}
+		}
+		catch ( JMException e )
+		{
+			LOG.warn( "Could not unregister the event pusher MBean: {}", e.getMessage() );
+		}
+	}
+
 	public String subscribeToEvents( String[] eventTypes, long subscriptionTimeout, String sessionId )
 	{
 		int generatedId = subscriptionNumberBuilder.getAndIncrement();
@@ -65,9 +113,10 @@ class EventPusherImpl implements EventPusher
 
 		Set<String> subscriptionEvents = buildSubscriptionEventTopics( eventTypes );
 
-		EventSubscription subscription = new EventSubscription.Builder( generatedId, subscriptionInMillis ).events( subscriptionEvents ).username( getAuthenticatedUser() ).sessionId( sessionId ).build();
+		EventSubscription subscription = new EventSubscription.Builder( generatedId, subscriptionInMillis ).events( subscriptionEvents ).username( getAuthenticatedUser() ).sessionId( sessionId ).eventQueue( getMaxQueueSize(), getQueueOverflowPolicy() ).build();
 
 		subscriptionsMap.put( subscription.getSubscriptionId(), subscription );
+		subscriptionTrie.add( subscription.getSubscriptionId(), subscription.getEventNotificationsSet() );
 		LOG.debug( "New subscription created with id: {}", subscription.getSubscriptionId() );
 
 		setupSubscription( subscription.getSubscriptionId() );
@@ -78,13 +127,12 @@ class EventPusherImpl implements EventPusher
 	public List<EventNotification> getQueuedEvents( Integer subscriptionId ) throws EventNotificationException
 	{
 		EventSubscription subscription = getSubscription( subscriptionId );
-		List<EventNotification> eventsToSubscriber = new LinkedList();
 
 		LOG.debug( "getQueuedEvents Request from Subscription ID {}", new Object[] {subscriptionId} );
 
-		if ( ( eventQueueMap.containsKey( Integer.valueOf( subscription.getSubscriptionId() ) ) ) && ( eventQueueMap.get( Integer.valueOf( subscription.getSubscriptionId() ) ).size() > 0 ) )
+		List<EventNotification> eventsToSubscriber = subscription.getEventQueue().drain();
+		if ( !eventsToSubscriber.isEmpty() )
 		{
-			eventsToSubscriber.addAll( getAndClearSubscriptionQueuedEvents( subscription ) );
 			LOG.debug( "Returned {} events to Subscription {}", new Object[] {Integer.valueOf( eventsToSubscriber.size() ), subscriptionId} );
 		}
 
@@ -166,33 +214,33 @@ class EventPusherImpl implements EventPusher
 
 	private Set<String> buildSubscriptionEventTopics( String[] eventTypes )
 	{
-		Set<String> subscriptionTopics = new HashSet();
+		List<String> topics = new ArrayList();
 		if ( eventTypes.length == 0 )
 		{
-			subscriptionTopics.addAll( EventTypesEnum.getFullPathEventSet() );
-			return subscriptionTopics;
+			topics.addAll( EventTypesEnum.getFullPathEventSet() );
 		}
 		for ( String type : eventTypes )
 		{
 			if ( type.indexOf( "*" ) > -1 )
 			{
-				subscriptionTopics.addAll( EventTypesEnum.getFullPathEventSet() );
+				topics.addAll( EventTypesEnum.getFullPathEventSet() );
 			}
 			else
 			{
-				boolean found = false;
-				for ( String prefix : subscriptionTopics )
-				{
-					if ( type.startsWith( prefix ) )
-					{
-						found = true;
-					}
-				}
-				if ( !found )
-				{
+				topics.add( type );
+			}
+		}
 
-					subscriptionTopics.add( type );
-				}
+		// Once sorted, every topic covered by a shorter prefix directly follows that prefix
+		Collections.sort( topics );
+		Set<String> subscriptionTopics = new HashSet();
+		String lastPrefix = null;
+		for ( String topic : topics )
+		{
+			if ( ( lastPrefix == null ) || ( !topic.startsWith( lastPrefix ) ) )
+			{
+				subscriptionTopics.add( topic );
+				lastPrefix = topic;
 			}
 		}
 		return subscriptionTopics;
@@ -233,7 +281,7 @@ class EventPusherImpl implements EventPusher
 			{
 				if ( subscription.hasEventNotificationPrefix( stateCacheable.getEventNotificationType() ) )
 				{
-					eventQueueMap.put( Integer.valueOf( subscriptionId ), stateCacheable.getNotificationInfo() );
+					subscription.getEventQueue().offer( stateCacheable.getNotificationInfo() );
 				}
 			}
 			getEventRequestContainer().startRespondRequests( new HashSet( Collections.singleton( Integer.valueOf( subscription.getSubscriptionId() ) ) ) );
@@ -244,7 +292,12 @@ class EventPusherImpl implements EventPusher
 	{
 		EventSubscription subscription = getSubscription( Integer.valueOf( subscriptionId ) );
 		Set<String> newEventPrefixes = buildSubscriptionEventTopics( eventPrefixes );
+		Set<String> removedEventPrefixes = new HashSet( subscription.getEventNotificationsSet() );
+		removedEventPrefixes.removeAll( newEventPrefixes );
+
+		subscriptionTrie.add( subscriptionId, newEventPrefixes );
 		subscription.setEventNotificationsSet( newEventPrefixes );
+		subscriptionTrie.remove( subscriptionId, removedEventPrefixes );
 
 		Set<Long> deviceIds = new HashSet( getTopologyService().getDeviceResourcesFromIdSet( subscription.getTerritoryInfoSet() ) );
 
@@ -259,7 +312,7 @@ class EventPusherImpl implements EventPusher
 			{
 				if ( subscription.hasEventNotificationPrefix( stateCacheable.getEventNotificationType() ) )
 				{
-					eventQueueMap.put( Integer.valueOf( subscriptionId ), stateCacheable.getNotificationInfo() );
+					subscription.getEventQueue().offer( stateCacheable.getNotificationInfo() );
 				}
 			}
 			getEventRequestContainer().startRespondRequests( new HashSet( Collections.singleton( Integer.valueOf( subscription.getSubscriptionId() ) ) ) );
@@ -275,8 +328,9 @@ class EventPusherImpl implements EventPusher
 		{
 			subscriptionsMap.remove( Integer.valueOf( subscription.getSubscriptionId() ) );
 		}
+		subscriptionTrie.remove( subscription.getSubscriptionId(), subscription.getEventNotificationsSet() );
 
-		eventQueueMap.removeAll( Integer.valueOf( subscription.getSubscriptionId() ) );
+		subscription.getEventQueue().clear();
 	}
 
 	public void cancelSubscriptionsForSession( String sessionId )
@@ -320,6 +374,12 @@ class EventPusherImpl implements EventPusher
 		return subscriptionsMap.size();
 	}
 
+	public int getQueuedEventCount( Integer subscriptionId )
+	{
+		EventSubscription subscription = ( EventSubscription ) subscriptionsMap.get( subscriptionId );
+		return subscription != null ? subscription.getEventQueue().size() : 0;
+	}
+
 	private EventSubscription getSubscription( Integer subscriptionId ) throws EventNotificationException
 	{
 		if ( subscriptionId == null )
@@ -368,10 +428,7 @@ class EventPusherImpl implements EventPusher
 			if ( memberView != null )
 			{
 				LOG.debug( "Loading up resources with All associations" );
-				for ( Long id : memberView.getAllRoots( true ) )
-				{
-					territoryInfo.addAll( getRelatedResourceIdSet( id ) );
-				}
+				territoryInfo.addAll( getTopologyService().getTerritoryResourceIds( memberView.getAllRoots( true ), Resource.class ) );
 			}
 		}
 		catch ( TopologyException e )
@@ -397,24 +454,13 @@ class EventPusherImpl implements EventPusher
 		return relatedResourceIdSet;
 	}
 
-	private List<EventNotification> getAndClearSubscriptionQueuedEvents( EventSubscription subscription )
-	{
-		List<EventNotification> events = new LinkedList<EventNotification>();
-
-		events.addAll( eventQueueMap.removeAll( subscription.getSubscriptionId() ) );
-		if ( events.size() > 0 )
-		{
-			LOG.debug( "{} events waiting for Subscription ID {}", new Object[] {Integer.valueOf( events.size() ), Integer.valueOf( subscription.getSubscriptionId() )} );
-		}
-		return events;
-	}
-
 	public void processNotifiables( List<Notifiable> notifiableList )
 	{
 		Set<Integer> subscriptionsToNotify = new LinkedHashSet();
 		for ( Notifiable event : notifiableList )
 		{
 			EventNotification eventNotification = event.getNotificationInfo();
+			lastEventNumber.incrementAndGet();
 
 			if ( LOG.isDebugEnabled() )
 			{
@@ -429,9 +475,10 @@ class EventPusherImpl implements EventPusher
 			refreshSubscriptionsTerritory( event );
 
 			List<Integer> overQueueLimitIds = new ArrayList();
-			for ( EventSubscription subscription : subscriptionsMap.values() )
+			for ( Integer subscriptionId : subscriptionTrie.match( eventNotification.getPath() ) )
 			{
-				if ( subscription.hasEventNotificationPrefix( eventNotification.getPath() ) )
+				EventSubscription subscription = ( EventSubscription ) subscriptionsMap.get( subscriptionId );
+				if ( subscription != null )
 				{
 					if ( ( !( event instanceof TerritoryAware ) ) ||
 
@@ -448,18 +495,16 @@ class EventPusherImpl implements EventPusher
 						}
 						else
 						{
-							eventQueueMap.put( Integer.valueOf( subscription.getSubscriptionId() ), eventNotification );
-
-							LOG.debug( "EventPath {} queued for subscription {}", new Object[] {eventNotification.getPath(), Integer.valueOf( subscription.getSubscriptionId() )} );
-
-							if ( ( subscription.getState().equals( EventSubscription.EventSubscriptionState.ACTIVE ) ) && ( eventQueueMap.get( Integer.valueOf( subscription.getSubscriptionId() ) ).size() > 100000 ) )
+							EventSubscriptionQueue eventQueue = subscription.getEventQueue();
+							if ( eventQueue.offer( eventNotification ) )
 							{
-								LOG.info( "Subscription {} has gone over the allowed queue limit with {} events.", Integer.valueOf( subscription.getSubscriptionId() ), Integer.valueOf( eventQueueMap.get( Integer.valueOf( subscription.getSubscriptionId() ) ).size() ) );
-								overQueueLimitIds.add( Integer.valueOf( subscription.getSubscriptionId() ) );
+								LOG.debug( "EventPath {} queued for subscription {}", new Object[] {eventNotification.getPath(), Integer.valueOf( subscription.getSubscriptionId() )} );
+								subscriptionsToNotify.add( Integer.valueOf( subscription.getSubscriptionId() ) );
 							}
-							else
+							else if ( subscription.getState().equals( EventSubscription.EventSubscriptionState.ACTIVE ) )
 							{
-								subscriptionsToNotify.add( Integer.valueOf( subscription.getSubscriptionId() ) );
+								LOG.info( "Subscription {} has gone over the allowed queue limit with {} events.", Integer.valueOf( subscription.getSubscriptionId() ), Integer.valueOf( eventQueue.size() ) );
+								overQueueLimitIds.add( Integer.valueOf( subscription.getSubscriptionId() ) );
 							}
 						}
 					}
@@ -551,6 +596,66 @@ class EventPusherImpl implements EventPusher
 		return sb.toString();
 	}
 
+	public long getLastEventNumber()
+	{
+		return lastEventNumber.get();
+	}
+
+	public int getEventQueueSize()
+	{
+		int total = 0;
+		for ( EventSubscription subscription : subscriptionsMap.values() )
+		{
+			total += subscription.getEventQueue().size();
+		}
+		return total;
+	}
+
+	public int getPullersSize()
+	{
+		return subscriptionsMap.size();
+	}
+
+	public Map<Integer, Integer> getSubscriptionQueueSizes()
+	{
+		Map<Integer, Integer> queueSizes = new HashMap();
+		for ( EventSubscription subscription : subscriptionsMap.values() )
+		{
+			queueSizes.put( Integer.valueOf( subscription.getSubscriptionId() ), Integer.valueOf( subscription.getEventQueue().size() ) );
+		}
+		return queueSizes;
+	}
+
+	public int getMaxQueueSize()
+	{
+		return getConfiguration().getIntProperty( ConfigProperty.EVENT_QUEUE_MAX_SIZE, DEFAULT_EVENT_QUEUE_MAX_SIZE );
+	}
+
+	public void setMaxQueueSize( int maxQueueSize )
+	{
+		getConfiguration().setProperty( ConfigProperty.EVENT_QUEUE_MAX_SIZE, String.valueOf( maxQueueSize ) );
+	}
+
+	public String getOverflowPolicy()
+	{
+		return getQueueOverflowPolicy().name();
+	}
+
+	public void setOverflowPolicy( String overflowPolicy )
+	{
+		EventQueueOverflowPolicy policy = EventQueueOverflowPolicy.fromString( overflowPolicy, null );
+		if ( policy == null )
+		{
+			throw new IllegalArgumentException( "Unknown overflow policy " + overflowPolicy + ", expected one of " + Arrays.toString( EventQueueOverflowPolicy.values() ) );
+		}
+		getConfiguration().setProperty( ConfigProperty.EVENT_QUEUE_OVERFLOW_POLICY, policy.name() );
+	}
+
+	private EventQueueOverflowPolicy getQueueOverflowPolicy()
+	{
+		return EventQueueOverflowPolicy.fromString( getConfiguration().getProperty( ConfigProperty.EVENT_QUEUE_OVERFLOW_POLICY ), EventQueueOverflowPolicy.DISCONNECT );
+	}
+
 	public Map<Integer, EventSubscription> getSubscriptionsMap()
 	{
 		return subscriptionsMap;
@@ -575,6 +680,15 @@ class EventPusherImpl implements EventPusher
 		return userService;
 	}
 
+	private CommonConfiguration getConfiguration()
+	{
+		if ( configuration == null )
+		{
+			configuration = ( ( CommonConfiguration ) ApplicationContextSupport.getBean( "commonConfiguration" ) );
+		}
+		return configuration;
+	}
+
 	private ResourceTopologyServiceIF getTopologyService()
 	{
 		if ( topologyService == null )
@@ -1,5 +1,7 @@
 package com.marchnetworks.server.event;
 
+import java.util.Map;
+
 public abstract interface EventPusherMBean
 {
 	public abstract long getLastEventNumber();
@@ -8,22 +10,16 @@ public abstract interface EventPusherMBean
 
 	public abstract int getPullersSize();
 
-	public abstract void sendFakeEvent();
-
-	public abstract long getMaxEnvelopeAgeMillis();
-
-	public abstract void setMaxEnvelopeAgeMillis( long paramLong );
+	public abstract Map<Integer, Integer> getSubscriptionQueueSizes();
 
 	public abstract int getMaxQueueSize();
 
 	public abstract void setMaxQueueSize( int paramInt );
 
-	public abstract long getMaxPullerAgeMillis();
+	/**
+	 * @return the name of the {@link EventQueueOverflowPolicy}, as a String so that any JMX client can read it
+	 */
+	public abstract String getOverflowPolicy();
 
-	public abstract void setMaxPullerAgeMillis( long paramLong );
-
-	public abstract int getMaxPullerListSize();
-
-	public abstract void setMaxPullerListSize( int paramInt );
+	public abstract void setOverflowPolicy( String paramString );
 }
-
@@ -0,0 +1,23 @@
+package com.marchnetworks.server.event;
+
+public enum EventQueueOverflowPolicy
+{
+	DROP_OLDEST,
+	COALESCE,
+	DISCONNECT;
+
+	public static EventQueueOverflowPolicy fromString( String value, EventQueueOverflowPolicy defaultPolicy )
+	{
+		if ( value != null )
+		{
+			for ( EventQueueOverflowPolicy policy : values() )
+			{
+				if ( policy.name().equalsIgnoreCase( value.trim() ) )
+				{
+					return policy;
+				}
+			}
+		}
+		return defaultPolicy;
+	}
+}
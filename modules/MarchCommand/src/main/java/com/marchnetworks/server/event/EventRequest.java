@@ -1,20 +1,16 @@
 package com.marchnetworks.server.event;
 
-import java.util.concurrent.ScheduledFuture;
-
 import javax.servlet.AsyncContext;
 
 public class EventRequest
 {
 	private Integer id;
 	private AsyncContext asyncContext;
-	private ScheduledFuture<?> timeoutTask;
 
-	public EventRequest( Integer id, AsyncContext request, ScheduledFuture<?> timeout )
+	public EventRequest( Integer id, AsyncContext request )
 	{
 		this.id = id;
 		asyncContext = request;
-		timeoutTask = timeout;
 	}
 
 	public Integer getId()
@@ -36,15 +32,4 @@ public class EventRequest
 	{
 		asyncContext = request;
 	}
-
-	public ScheduledFuture<?> getTimeoutTask()
-	{
-		return timeoutTask;
-	}
-
-	public void setTimeoutTask( ScheduledFuture<?> timeout )
-	{
-		timeoutTask = timeout;
-	}
 }
-
@@ -10,12 +10,12 @@ public abstract interface EventRequestContainer
 {
 	public abstract void addRequest( Integer paramInteger, long paramLong, HttpServletRequest paramHttpServletRequest, HttpServletResponse paramHttpServletResponse ) throws IOException;
 
-	public abstract void timeoutRequest( Integer paramInteger );
-
 	public abstract void startRespondRequests( Set<Integer> paramSet );
 
 	public abstract void respondRequests( Set<Integer> paramSet );
 
+	public abstract void respondRequestsImmediately( Set<Integer> paramSet );
+
 	public abstract void respondRequest( EventRequest paramEventRequest, String paramString );
 }
 
@@ -12,14 +12,18 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -30,12 +34,10 @@ public class EventRequestContainerImpl implements EventRequestContainer
 	private static final String EMPTY_RESPONSE = "[]";
 	private static final String EXECUTOR_ID = EventRequestContainer.class.getSimpleName();
 
-	private static final long LONG_TIMEOUT = 1200000L;
-	private static final int TIMEOUT_KEEPALIVE = 10;
 	private static final int RESPONSE_KEEPALIVE = 60;
 	private static final int RESPONSE_POOLSIZE = 64;
-	private static final int TIMEOUT_POOLSIZE = 32;
 	private static final int EVENT_SEND_DELAY_DEFAULT = 250;
+	private static final int EVENT_SEND_BATCH_SIZE_DEFAULT = 500;
 	private EventPusher eventPusher;
 	private TaskScheduler taskScheduler;
 	private CommonConfiguration configuration;
@@ -75,110 +77,117 @@ public class EventRequestContainerImpl implements EventRequestContainer
 		}
 		else
 		{
+			// The parked request holds no thread, the container times it out through the listener below
 			AsyncContext ctx = request.startAsync();
+			ctx.setTimeout( Math.max( 1L, TimeUnit.SECONDS.toMillis( timeout ) ) );
 
-			ctx.setTimeout( timeout < 1200000L ? 1200000L : timeout * 2L );
+			EventRequest eventRequest = new EventRequest( id, ctx );
+			ctx.addListener( new EventRequestAsyncListener( eventRequest ) );
 
-			ScheduledFuture<?> timeoutTask = taskScheduler.scheduleFixedPool( new EventRequestTimeoutTask( id.intValue() ), EXECUTOR_ID, 32, timeout, TimeUnit.SECONDS, 10 );
-			requests.put( id, new EventRequest( id, ctx, timeoutTask ) );
+			EventRequest replacedRequest = ( EventRequest ) requests.put( id, eventRequest );
+			if ( replacedRequest != null )
+			{
+				completeWithEmptyResponse( replacedRequest );
+			}
+
+			// Events may have been queued between the check above and parking the request
+			if ( eventPusher.getQueuedEventCount( id ) > 0 )
+			{
+				startRespondRequests( new HashSet( Collections.singleton( id ) ) );
+			}
 		}
 	}
 
-	public void timeoutRequest( Integer id )
+	private void completeWithEmptyResponse( EventRequest request )
 	{
-		EventRequest request = ( EventRequest ) requests.remove( id );
-
-		if ( request != null )
+		AsyncContext context = request.getAsyncContext();
+		try ( PrintWriter out = context.getResponse().getWriter() )
 		{
-			request.setTimeoutTask( null );
-			AsyncContext context = request.getAsyncContext();
-			try
-			{
-				PrintWriter out = context.getResponse().getWriter();
-				Throwable localThrowable2 = null;
-				try
-				{
-					out.write( "[]" );
-				}
-				catch ( Throwable localThrowable1 )
-				{
-					localThrowable2 = localThrowable1;
-					throw localThrowable1;
-				}
-				finally
-				{
-					if ( out != null )
-						if ( localThrowable2 != null )
-							try
-							{
-								out.close();
-							}
-							catch ( Throwable x2 )
-							{
-								localThrowable2.addSuppressed( x2 );
-							}
-						else
-							out.close();
-				}
-			}
-			catch ( IOException e )
-			{
-				LOG.error( "Error processing event timeout response: " + e.getMessage() );
-			}
+			out.write( EMPTY_RESPONSE );
+		}
+		catch ( IOException e )
+		{
+			LOG.error( "Error processing event timeout response: " + e.getMessage() );
+		}
 
-			context.complete();
+		context.complete();
 
-			LOG.debug( "----------------    Returned empty response --------------------- " );
-		}
+		LOG.debug( "----------------    Returned empty response --------------------- " );
 	}
 
-	public synchronized void startRespondRequests( Set<Integer> ids )
+	public void startRespondRequests( Set<Integer> ids )
 	{
 		ids.retainAll( requests.keySet() );
 		if ( ids.isEmpty() )
 		{
 			return;
 		}
-		if ( waitingToSendEvents )
+
+		// Subscriptions that already have a full batch queued are answered right away instead of waiting for the send delay
+		Set<Integer> fullBatchIds = new HashSet();
+		int batchSize = getEventSendBatchSize();
+		for ( Iterator<Integer> iterator = ids.iterator(); iterator.hasNext(); )
 		{
-			sendEventsTask.addIds( ids );
+			Integer id = ( Integer ) iterator.next();
+			if ( eventPusher.getQueuedEventCount( id ) >= batchSize )
+			{
+				fullBatchIds.add( id );
+				iterator.remove();
+			}
 		}
-		else
+
+		if ( !fullBatchIds.isEmpty() )
 		{
-			sendEventsTask = new EventRequestTask( ids );
-			waitingToSendEvents = true;
-			taskScheduler.schedule( sendEventsTask, getEventSendDelay(), TimeUnit.MILLISECONDS );
+			taskScheduler.executeFixedPool( new EventRequestTask( fullBatchIds, true ), EXECUTOR_ID, RESPONSE_POOLSIZE, RESPONSE_KEEPALIVE );
+		}
+
+		if ( !ids.isEmpty() )
+		{
+			synchronized ( this )
+			{
+				if ( waitingToSendEvents )
+				{
+					sendEventsTask.addIds( ids );
+				}
+				else
+				{
+					sendEventsTask = new EventRequestTask( ids, false );
+					waitingToSendEvents = true;
+					taskScheduler.schedule( sendEventsTask, getEventSendDelay(), TimeUnit.MILLISECONDS );
+				}
+			}
 		}
 	}
 
 	public void respondRequests( Set<Integer> ids )
 	{
-		List<EventRequest> requestsToRespond = new ArrayList();
-
 		synchronized ( this )
 		{
-			for ( Integer id : ids )
+			waitingToSendEvents = false;
+		}
+		respondRequestsImmediately( ids );
+	}
+
+	public void respondRequestsImmediately( Set<Integer> ids )
+	{
+		List<EventRequest> requestsToRespond = new ArrayList();
+		for ( Integer id : ids )
+		{
+			EventRequest request = ( EventRequest ) requests.remove( id );
+			if ( request != null )
 			{
-				EventRequest request = ( EventRequest ) requests.remove( id );
-				if ( request != null )
-				{
-					requestsToRespond.add( request );
-				}
+				requestsToRespond.add( request );
 			}
-			waitingToSendEvents = false;
 		}
 
 		for ( EventRequest request : requestsToRespond )
 		{
-
-			taskScheduler.cancelFixedPoolSchedule( EXECUTOR_ID, request.getTimeoutTask() );
-			request.setTimeoutTask( null );
 			try
 			{
 				List<EventNotification> eventList = eventPusher.getQueuedEvents( request.getId() );
 
 				String result = ClientJsonSerializer.toJson( eventList );
-				taskScheduler.executeFixedPool( new EventRequestResponseTask( request, result ), EXECUTOR_ID, 64, 60 );
+				taskScheduler.executeFixedPool( new EventRequestResponseTask( request, result ), EXECUTOR_ID, RESPONSE_POOLSIZE, RESPONSE_KEEPALIVE );
 			}
 			catch ( EventNotificationException e )
 			{
@@ -204,7 +213,12 @@ public class EventRequestContainerImpl implements EventRequestContainer
 
 	private int getEventSendDelay()
 	{
-		return configuration.getIntProperty( ConfigProperty.EVENT_SEND_DELAY, 250 );
+		return configuration.getIntProperty( ConfigProperty.EVENT_SEND_DELAY, EVENT_SEND_DELAY_DEFAULT );
+	}
+
+	private int getEventSendBatchSize()
+	{
+		return configuration.getIntProperty( ConfigProperty.EVENT_SEND_BATCH_SIZE, EVENT_SEND_BATCH_SIZE_DEFAULT );
 	}
 
 	private void sendErrorResponse( HttpServletResponse response, int status, EventRequestExceptionType code, String message )
@@ -236,5 +250,37 @@ public class EventRequestContainerImpl implements EventRequestContainer
 	{
 		this.configuration = configuration;
 	}
+
+	private class EventRequestAsyncListener implements AsyncListener
+	{
+		private final EventRequest request;
+
+		EventRequestAsyncListener( EventRequest request )
+		{
+			this.request = request;
+		}
+
+		public void onTimeout( AsyncEvent event ) throws IOException
+		{
+			if ( requests.remove( request.getId(), request ) )
+			{
+				completeWithEmptyResponse( request );
+			}
+		}
+
+		public void onError( AsyncEvent event ) throws IOException
+		{
+			requests.remove( request.getId(), request );
+		}
+
+		public void onComplete( AsyncEvent event ) throws IOException
+		{
+			requests.remove( request.getId(), request );
+		}
+
+		public void onStartAsync( AsyncEvent event ) throws IOException
+		{
+		}
+	}
 }
 
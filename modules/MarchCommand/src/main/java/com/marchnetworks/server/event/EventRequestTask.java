@@ -8,10 +8,12 @@ public class EventRequestTask implements Runnable
 {
 	private static EventRequestContainer eventRequestContainer = ( EventRequestContainer ) ApplicationContextSupport.getBean( "eventRequestContainer" );
 	private Set<Integer> ids;
+	private boolean immediate;
 
-	public EventRequestTask( Set<Integer> ids )
+	public EventRequestTask( Set<Integer> ids, boolean immediate )
 	{
 		this.ids = ids;
+		this.immediate = immediate;
 	}
 
 	public void addIds( Set<Integer> ids )
@@ -21,7 +23,14 @@ public class EventRequestTask implements Runnable
 
 	public void run()
 	{
-		eventRequestContainer.respondRequests( ids );
+		if ( immediate )
+		{
+			eventRequestContainer.respondRequestsImmediately( ids );
+		}
+		else
+		{
+			eventRequestContainer.respondRequests( ids );
+		}
 	}
 
 	public Set<Integer> getIds()
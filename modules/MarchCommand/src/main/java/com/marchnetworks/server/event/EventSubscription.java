@@ -16,6 +16,7 @@ public class EventSubscription
 	private String sessionId;
 	private EventSubscriptionState state;
 	private ScheduledFuture<?> cleanUpTask;
+	private final EventSubscriptionQueue eventQueue;
 
 	public static enum EventSubscriptionState
 	{
@@ -38,6 +39,8 @@ public class EventSubscription
 		private String username;
 		private EventSubscriptionState state;
 		private String sessionId;
+		private int queueCapacity = EventPusherImpl.DEFAULT_EVENT_QUEUE_MAX_SIZE;
+		private EventQueueOverflowPolicy overflowPolicy = EventQueueOverflowPolicy.DISCONNECT;
 
 		public Builder( int subscriptionId, long expirationTime )
 		{
@@ -77,6 +80,13 @@ public class EventSubscription
 			return this;
 		}
 
+		public Builder eventQueue( int queueCapacity, EventQueueOverflowPolicy overflowPolicy )
+		{
+			this.queueCapacity = queueCapacity;
+			this.overflowPolicy = overflowPolicy;
+			return this;
+		}
+
 		public EventSubscription build()
 		{
 			return new EventSubscription( this );
@@ -93,6 +103,7 @@ public class EventSubscription
 		this.username = builder.username;
 		this.sessionId = builder.sessionId;
 		this.state = builder.state;
+		this.eventQueue = new EventSubscriptionQueue( builder.queueCapacity, builder.overflowPolicy );
 	}
 
 	public int getSubscriptionId()
@@ -184,6 +195,11 @@ public class EventSubscription
 		this.state = state;
 	}
 
+	public EventSubscriptionQueue getEventQueue()
+	{
+		return eventQueue;
+	}
+
 	public void setCleanUpTask( ScheduledFuture<?> cleanUpTask )
 	{
 		this.cleanUpTask = cleanUpTask;
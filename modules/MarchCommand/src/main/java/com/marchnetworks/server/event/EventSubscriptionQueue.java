@@ -0,0 +1,175 @@
+package com.marchnetworks.server.event;
+
+import com.marchnetworks.command.api.event.EventNotification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded ring buffer holding the notifications waiting for a single subscription. Producers only contend with
+ * other producers of the same subscription, and the subscriber drains everything queued in one batch. The buffer
+ * starts small and grows up to the capacity as notifications back up.
+ */
+public class EventSubscriptionQueue
+{
+	private static final int INITIAL_SIZE = 16;
+
+	private final int capacity;
+	private EventNotification[] events;
+	private final EventQueueOverflowPolicy overflowPolicy;
+	private final Map<String, Long> coalesceIndex;
+
+	private long head;
+	private long tail;
+	private volatile int size;
+	private volatile long overflowCount;
+
+	public EventSubscriptionQueue( int capacity, EventQueueOverflowPolicy overflowPolicy )
+	{
+		if ( capacity <= 0 )
+		{
+			throw new IllegalArgumentException( "Event queue capacity must be greater than zero" );
+		}
+		this.capacity = capacity;
+		events = new EventNotification[Math.min( capacity, INITIAL_SIZE )];
+		this.overflowPolicy = overflowPolicy;
+		coalesceIndex = overflowPolicy == EventQueueOverflowPolicy.COALESCE ? new HashMap<String, Long>() : null;
+	}
+
+	/**
+	 * Queues the notification, applying the overflow policy when the queue is full.
+	 *
+	 * @return false if the queue is full and the policy is {@link EventQueueOverflowPolicy#DISCONNECT}
+	 */
+	public synchronized boolean offer( EventNotification event )
+	{
+		if ( size == capacity )
+		{
+			overflowCount++;
+
+			if ( overflowPolicy == EventQueueOverflowPolicy.DISCONNECT )
+			{
+				return false;
+			}
+
+			if ( overflowPolicy == EventQueueOverflowPolicy.COALESCE )
+			{
+				Long sequence = coalesceIndex.get( getCoalesceKey( event ) );
+				if ( sequence != null )
+				{
+					events[slot( sequence.longValue() )] = event;
+					return true;
+				}
+			}
+			removeOldest();
+		}
+		else if ( size == events.length )
+		{
+			grow();
+		}
+
+		if ( coalesceIndex != null )
+		{
+			coalesceIndex.put( getCoalesceKey( event ), Long.valueOf( tail ) );
+		}
+		events[slot( tail )] = event;
+		tail++;
+		size++;
+		return true;
+	}
+
+	public synchronized List<EventNotification> drain()
+	{
+		if ( size == 0 )
+		{
+			return Collections.emptyList();
+		}
+
+		List<EventNotification> result = new ArrayList( size );
+		while ( head < tail )
+		{
+			int slot = slot( head );
+			result.add( events[slot] );
+			events[slot] = null;
+			head++;
+		}
+		size = 0;
+
+		if ( coalesceIndex != null )
+		{
+			coalesceIndex.clear();
+		}
+		return result;
+	}
+
+	public synchronized void clear()
+	{
+		drain();
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public EventQueueOverflowPolicy getOverflowPolicy()
+	{
+		return overflowPolicy;
+	}
+
+	public long getOverflowCount()
+	{
+		return overflowCount;
+	}
+
+	private void removeOldest()
+	{
+		int slot = slot( head );
+		if ( coalesceIndex != null )
+		{
+			String key = getCoalesceKey( events[slot] );
+			Long sequence = coalesceIndex.get( key );
+			if ( ( sequence != null ) && ( sequence.longValue() == head ) )
+			{
+				coalesceIndex.remove( key );
+			}
+		}
+		events[slot] = null;
+		head++;
+		size--;
+	}
+
+	private void grow()
+	{
+		// Sequences stay valid, each one is only moved to its slot in the larger buffer
+		EventNotification[] grown = new EventNotification[( int ) Math.min( capacity, events.length * 2L )];
+		for ( long sequence = head; sequence < tail; sequence++ )
+		{
+			grown[( int ) ( sequence % grown.length )] = events[slot( sequence )];
+		}
+		events = grown;
+	}
+
+	private int slot( long sequence )
+	{
+		return ( int ) ( sequence % events.length );
+	}
+
+	private static String getCoalesceKey( EventNotification event )
+	{
+		return event.getPath() + "|" + event.getSource();
+	}
+}
@@ -0,0 +1,89 @@
+package com.marchnetworks.server.event;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Prefix tree of the event topics subscribed to, so that an event path only visits the subscriptions whose topics
+ * are a prefix of it. Topics keep the plain {@link String#startsWith} semantics of
+ * {@link EventSubscription#hasEventNotificationPrefix(String)}, which is why nodes are keyed per character rather
+ * than per path segment. Lookups are lock free, updates are serialized.
+ */
+public class EventSubscriptionTrie
+{
+	private final Node root = new Node();
+
+	public synchronized void add( int subscriptionId, Collection<String> topics )
+	{
+		Integer id = Integer.valueOf( subscriptionId );
+		for ( String topic : topics )
+		{
+			Node node = root;
+			for ( int i = 0; i < topic.length(); i++ )
+			{
+				Character key = Character.valueOf( topic.charAt( i ) );
+				Node child = ( Node ) node.children.get( key );
+				if ( child == null )
+				{
+					child = new Node();
+					node.children.put( key, child );
+				}
+				node = child;
+			}
+			node.subscriptionIds.add( id );
+		}
+	}
+
+	public synchronized void remove( int subscriptionId, Collection<String> topics )
+	{
+		Integer id = Integer.valueOf( subscriptionId );
+		for ( String topic : topics )
+		{
+			remove( root, topic, 0, id );
+		}
+	}
+
+	public Set<Integer> match( String eventPath )
+	{
+		Set<Integer> result = new LinkedHashSet();
+		Node node = root;
+		result.addAll( node.subscriptionIds );
+		for ( int i = 0; i < eventPath.length(); i++ )
+		{
+			node = ( Node ) node.children.get( Character.valueOf( eventPath.charAt( i ) ) );
+			if ( node == null )
+			{
+				break;
+			}
+			result.addAll( node.subscriptionIds );
+		}
+		return result;
+	}
+
+	private boolean remove( Node node, String topic, int index, Integer id )
+	{
+		if ( index == topic.length() )
+		{
+			node.subscriptionIds.remove( id );
+		}
+		else
+		{
+			Character key = Character.valueOf( topic.charAt( index ) );
+			Node child = ( Node ) node.children.get( key );
+			if ( ( child != null ) && ( remove( child, topic, index + 1, id ) ) )
+			{
+				node.children.remove( key );
+			}
+		}
+		return ( node.subscriptionIds.isEmpty() ) && ( node.children.isEmpty() );
+	}
+
+	private static class Node
+	{
+		private final Map<Character, Node> children = new ConcurrentHashMap( 4 );
+		private final Set<Integer> subscriptionIds = ConcurrentHashMap.newKeySet();
+	}
+}
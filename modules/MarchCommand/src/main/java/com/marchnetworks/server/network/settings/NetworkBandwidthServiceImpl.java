@@ -1,7 +1,6 @@
 package com.marchnetworks.server.network.settings;
 
 import com.marchnetworks.command.api.initialization.InitializationListener;
-import com.marchnetworks.command.common.scheduling.TaskScheduler;
 import com.marchnetworks.common.configuration.ConfigSettings;
 import com.marchnetworks.common.device.ServerServiceException;
 import com.marchnetworks.common.serialization.CoreJsonSerializer;
@@ -14,20 +13,35 @@ import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shapes device transfers with a hierarchy of token buckets: every transfer draws from the bucket of its host and from
+ * the global bucket. Buckets refill continuously; a writer reserves its bytes in all buckets at the earliest time they
+ * are available and waits until then, so concurrent transfers are served in the order they asked.
+ * <p>
+ * The settings are in megabits per second and the buckets run in bytes per second, the same bits / 8 conversion the
+ * per-second permit buckets used. The global bucket only applies while maxBandwidthEnabled is set.
+ */
 public class NetworkBandwidthServiceImpl implements NetworkBandwidthService, InitializationListener
 {
 	private static final Logger LOG = LoggerFactory.getLogger( NetworkBandwidthServiceImpl.class );
 	private static final String NETWORK_CONFIG_SETTINGS = "network_config_settings";
-	private static final int MEGABITS = 1000000;
+	private static final long MEGABITS = 1000000L;
+	private static final long BITS_PER_BYTE = 8L;
+
+	/**
+	 * How far ahead of its rate an idle bucket lets a transfer run.
+	 */
+	private static final long BURST_NANOS = 100000000L;
 
 	public NetworkBandwidthServiceImpl()
 	{
 		bucketMap = new HashMap();
 
 		lock = new Object();
+		globalBucket = new TokenBucket( null, Long.MAX_VALUE );
+		unregisteredBucket = new TokenBucket( null, Long.MAX_VALUE );
 	}
 
 	public void onAppInitialized()
@@ -41,22 +55,24 @@ public class NetworkBandwidthServiceImpl implements NetworkBandwidthService, Ini
 		{
 			settings = new ConfigSettings();
 		}
-		computeSizeCap();
+		updateRates();
 		eventRegistry.send( new BandwidthSettingsChangedEvent( settings ) );
 	}
 
-	private Map<String, PermitBucket> bucketMap;
+	private Map<String, TokenBucket> bucketMap;
+	private TokenBucket globalBucket;
+	private TokenBucket unregisteredBucket;
 	private ConfigSettings settings;
 	private ServerParameterStoreServiceIF serverParameterStore;
 
 	public void register( String host )
 	{
-		synchronized ( bucketMap )
+		synchronized ( lock )
 		{
-			PermitBucket bucket = bucketMap.get( host );
+			TokenBucket bucket = ( TokenBucket ) bucketMap.get( host );
 			if ( bucket == null )
 			{
-				bucket = new PermitBucket( currentSizeCap );
+				bucket = new TokenBucket( getParentBucket(), deviceRate );
 				bucketMap.put( host, bucket );
 				LOG.debug( "Created bucket {}", host );
 			}
@@ -70,9 +86,9 @@ public class NetworkBandwidthServiceImpl implements NetworkBandwidthService, Ini
 
 	public void unregister( String host )
 	{
-		synchronized ( bucketMap )
+		synchronized ( lock )
 		{
-			PermitBucket bucket = ( PermitBucket ) bucketMap.get( host );
+			TokenBucket bucket = ( TokenBucket ) bucketMap.get( host );
 			if ( bucket != null )
 			{
 				bucket.removeConsumer();
@@ -80,32 +96,38 @@ public class NetworkBandwidthServiceImpl implements NetworkBandwidthService, Ini
 				if ( !bucket.hasConsumers() )
 				{
 					LOG.debug( "Removing bucket {}", host );
+					bucketMap.remove( host );
 				}
-				bucketMap.remove( host );
-
-				bucket.refillBucket();
 			}
 		}
 	}
 
 	public void getPermit( String host, int amountInBytes )
 	{
-		PermitBucket bucket = ( PermitBucket ) bucketMap.get( host );
-		if ( bucket == null )
+		long now = System.nanoTime();
+		long start;
+		synchronized ( lock )
 		{
-			synchronized ( bucketMap )
-			{
-
-				register( host );
-				bucket = ( PermitBucket ) bucketMap.get( host );
-			}
+			TokenBucket bucket = getBucket( host );
+			start = bucket.readyAt( now, amountInBytes );
+			bucket.consume( start, amountInBytes );
 		}
 
-		bucket.getPermit( amountInBytes );
-		setRefillSchedule();
+		long delay = start - now;
 		if ( LOG.isTraceEnabled() )
 		{
-			LOG.trace( "{} bytes left in bucket", Integer.valueOf( bucket.availablePermits() ) );
+			LOG.trace( "Waiting {} ns to send {} bytes to {}", new Object[] {Long.valueOf( delay ), Integer.valueOf( amountInBytes ), host} );
+		}
+
+		boolean interrupted = false;
+		while ( ( delay = start - System.nanoTime() ) > 0L )
+		{
+			LockSupport.parkNanos( delay );
+			interrupted |= Thread.interrupted();
+		}
+		if ( interrupted )
+		{
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -126,134 +148,122 @@ public class NetworkBandwidthServiceImpl implements NetworkBandwidthService, Ini
 		{
 		}
 
-		computeSizeCap();
-		synchronized ( bucketMap )
+		updateRates();
+		eventRegistry.send( new BandwidthSettingsChangedEvent( this.settings ) );
+	}
+
+	/**
+	 * Hosts that were never registered share one bucket rather than each getting a bucket nobody would unregister.
+	 */
+	private TokenBucket getBucket( String host )
+	{
+		TokenBucket bucket = ( TokenBucket ) bucketMap.get( host );
+		if ( bucket == null )
 		{
-			for ( PermitBucket bucket : bucketMap.values() )
-			{
-				bucket.updateCapacity( currentSizeCap );
-			}
+			LOG.debug( "No bucket registered for {}, using the shared bucket", host );
+			bucket = unregisteredBucket;
 		}
-		eventRegistry.send( new BandwidthSettingsChangedEvent( this.settings ) );
+		return bucket;
 	}
 
-	private void computeSizeCap()
+	private TokenBucket getParentBucket()
 	{
-		int maxSimUpdates = settings.isMaxSimultaneousUpdatesEnabled() ? settings.getMaxSimultaneousUpdates() : 1;
-		int sizeCap = Math.min( settings.getMaxBandwidth() * 1000000 / maxSimUpdates, settings.getMaxDeviceBandwidth() * 1000000 );
-		currentSizeCap = ( sizeCap / 8 );
+		return globalEnabled ? globalBucket : null;
 	}
 
-	private void setRefillSchedule()
+	private void updateRates()
 	{
-		if ( needsRefillTask )
-		{
-			return;
-		}
+		long maxSimUpdates = settings.isMaxSimultaneousUpdatesEnabled() ? settings.getMaxSimultaneousUpdates() : 1L;
+		long globalBitRate = settings.getMaxBandwidth() * MEGABITS;
+		long deviceBitRate = Math.min( globalBitRate / maxSimUpdates, settings.getMaxDeviceBandwidth() * MEGABITS );
 
 		synchronized ( lock )
 		{
-			if ( needsRefillTask )
+			deviceRate = deviceBitRate / BITS_PER_BYTE;
+			globalEnabled = settings.isMaxBandwidthEnabled();
+			globalBucket.setRate( globalBitRate / BITS_PER_BYTE );
+
+			TokenBucket parent = getParentBucket();
+			unregisteredBucket.setParent( parent );
+			unregisteredBucket.setRate( deviceRate );
+			for ( TokenBucket bucket : bucketMap.values() )
 			{
-				return;
+				bucket.setParent( parent );
+				bucket.setRate( deviceRate );
 			}
-
-			taskScheduler.schedule( new BucketRefillTask(), 1L, TimeUnit.SECONDS );
-			needsRefillTask = true;
 		}
+		LOG.debug( "Bandwidth set to {} bytes/s per device, {} bytes/s in total (enabled: {})", new Object[] {Long.valueOf( deviceRate ), Long.valueOf( globalBitRate / BITS_PER_BYTE ), Boolean.valueOf( globalEnabled )} );
 	}
 
-	private TaskScheduler taskScheduler;
 	private EventRegistry eventRegistry;
-	private int currentSizeCap;
-	private boolean needsRefillTask;
+	private long deviceRate = Long.MAX_VALUE;
+	private boolean globalEnabled;
 	private Object lock;
 
-	private class PermitBucket extends Semaphore
+	/**
+	 * Token bucket kept as the time at which all bytes reserved so far will have been sent at the bucket's rate. Bytes
+	 * can be sent once that time is less than the burst allowance ahead of now. Guarded by the service lock.
+	 */
+	private static class TokenBucket
 	{
+		private TokenBucket parent;
+		private double nanosPerByte;
+		private long sentUntil;
 		private int refCount;
-		private int sizeThreshold;
 
-		public PermitBucket( int sizeThreshold )
+		public TokenBucket( TokenBucket parent, long bytesPerSecond )
 		{
-			super( sizeThreshold );
-
+			this.parent = parent;
+			setRate( bytesPerSecond );
+			sentUntil = System.nanoTime();
 			refCount = 1;
-			this.sizeThreshold = sizeThreshold;
-		}
-
-		public void getPermit( int size )
-		{
-			if ( size > this.sizeThreshold )
-				throw new IllegalArgumentException( "Too many permits requested." );
-			acquireUninterruptibly( size );
-		}
-
-		public void addConsumer()
-		{
-			refCount += 1;
 		}
 
-		public void removeConsumer()
+		public void setParent( TokenBucket parent )
 		{
-			refCount -= 1;
+			this.parent = parent;
 		}
 
-		public boolean hasConsumers()
+		public void setRate( long bytesPerSecond )
 		{
-			return refCount > 0;
+			nanosPerByte = 1.0E9D / Math.max( 1L, bytesPerSecond );
 		}
 
-		public void refillBucket()
+		/**
+		 * @return the earliest time, not before now, at which the bytes fit in this bucket and all of its parents
+		 */
+		public long readyAt( long now, int bytes )
 		{
-			drainPermits();
-			release( sizeThreshold );
+			long ready = Math.max( now, sentUntil - BURST_NANOS );
+			if ( parent != null )
+			{
+				ready = Math.max( ready, parent.readyAt( now, bytes ) );
+			}
+			return ready;
 		}
 
-		public void updateCapacity( int newSize )
+		public void consume( long start, int bytes )
 		{
-			int delta = sizeThreshold - newSize;
-			if ( delta < 0 )
+			sentUntil = Math.max( sentUntil, start ) + ( long ) ( bytes * nanosPerByte );
+			if ( parent != null )
 			{
-				release( sizeThreshold - availablePermits() + Math.abs( delta ) );
+				parent.consume( start, bytes );
 			}
-			else
-			{
-				reducePermits( delta );
-			}
-			sizeThreshold = newSize;
-			NetworkBandwidthServiceImpl.LOG.debug( "Bucket was resized to {} permits", Integer.valueOf( sizeThreshold ) );
 		}
-	}
 
-	private class BucketRefillTask implements Runnable
-	{
-		private BucketRefillTask()
+		public void addConsumer()
 		{
+			refCount += 1;
 		}
 
-		public void run()
+		public void removeConsumer()
 		{
-			long start = System.nanoTime();
-			synchronized ( lock )
-			{
-				needsRefillTask = false;
-			}
+			refCount -= 1;
+		}
 
-			synchronized ( bucketMap )
-			{
-				for ( PermitBucket bucket : bucketMap.values() )
-				{
-					if ( currentSizeCap > bucket.availablePermits() )
-					{
-						bucket.refillBucket();
-					}
-				}
-			}
-			if ( NetworkBandwidthServiceImpl.LOG.isDebugEnabled() )
-			{
-				NetworkBandwidthServiceImpl.LOG.debug( "Bucket Refill task took {} ns to run", Long.valueOf( System.nanoTime() - start ) );
-			}
+		public boolean hasConsumers()
+		{
+			return refCount > 0;
 		}
 	}
 
@@ -266,10 +276,4 @@ public class NetworkBandwidthServiceImpl implements NetworkBandwidthService, Ini
 	{
 		this.eventRegistry = eventRegistry;
 	}
-
-	public void setTaskScheduler( TaskScheduler taskScheduler )
-	{
-		this.taskScheduler = taskScheduler;
-	}
 }
-